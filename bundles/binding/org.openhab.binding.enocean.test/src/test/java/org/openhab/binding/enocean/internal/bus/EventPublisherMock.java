@@ -2,6 +2,7 @@ package org.openhab.binding.enocean.internal.bus;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
@@ -33,6 +34,12 @@ public class EventPublisherMock implements EventPublisher {
         this.updateState = newState;
     }
 
+    public void postUpdates(Map<String, State> newStates) {
+        for (Map.Entry<String, State> entry : newStates.entrySet()) {
+            postUpdate(entry.getKey(), entry.getValue());
+        }
+    }
+
     public Command popLastCommand() {
         if (commands.isEmpty()) {
             return null;
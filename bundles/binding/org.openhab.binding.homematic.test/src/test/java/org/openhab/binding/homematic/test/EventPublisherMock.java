@@ -28,6 +28,8 @@
  */
 package org.openhab.binding.homematic.test;
 
+import java.util.Map;
+
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -54,6 +56,12 @@ public class EventPublisherMock implements EventPublisher {
         this.updateState = newState;
     }
 
+    public void postUpdates(Map<String, State> newStates) {
+        for (Map.Entry<String, State> entry : newStates.entrySet()) {
+            postUpdate(entry.getKey(), entry.getValue());
+        }
+    }
+
     public Command getPostCommand() {
         return postCommand;
     }
@@ -31,15 +31,32 @@ package org.openhab.binding.http.internal;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 import static org.openhab.binding.http.internal.HttpGenericBindingProvider.CHANGED_COMMAND_KEY;
 
+import java.io.IOException;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.openhab.binding.http.HttpBindingProvider;
 import org.openhab.core.binding.AbstractActiveBinding;
@@ -69,6 +86,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An active binding which requests a given URL frequently.
+ * <p>
+ * Items which are bound to the same URL share one request and the requests of
+ * different URLs are executed in parallel by a bounded pool of worker threads, 
+ * so that a slow URL does not delay the refresh of the others. The ETag and 
+ * Last-Modified headers of a response are sent back with the next request of the
+ * same URL, so that unchanged responses are not transformed and posted again for
+ * items which have already received them.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -87,6 +111,15 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	
 	private Map<String, Long> lastUpdateMap = new HashMap<String, Long>();
 	
+	/** the maximum number of URLs which are requested in parallel */
+	private static final int WORKER_POOL_SIZE = 5;
+	
+	/** the pollers of all bound URLs, keyed by the URL and the HTTP headers to send */
+	private Map<String, UrlPoller> pollers = new HashMap<String, UrlPoller>();
+	
+	/** the pool of threads which execute the requests of the pollers */
+	private volatile ExecutorService workerPool;
+	
 	/** RegEx to extract a parse a function String <code>'(.*?)\((.*)\)'</code> */
 	private static final Pattern EXTRACT_FUNCTION_PATTERN = Pattern.compile("(.*?)\\((.*)\\)");
 
@@ -94,8 +127,8 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	private static final Pattern EXTRACT_CACHE_CONFIG_PATTERN = Pattern
 			.compile("^(.*?)\\.(url|updateInterval)$");
 
-	/** Map table to store cache data */
-	protected Map<String, CacheConfig> itemCache = new HashMap<String, CacheConfig>();
+	/** Map table to store cache data, which is replaced as a whole on configuration updates */
+	protected volatile Map<String, CacheConfig> itemCache = Collections.emptyMap();
 
 	
 	public HttpBinding() {
@@ -103,10 +136,27 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	
 	@Override
 	public void activate() {
-		super.activate();		
+		super.activate();
+		workerPool = Executors.newFixedThreadPool(WORKER_POOL_SIZE, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "HTTP Binding Worker " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		setProperlyConfigured(true);
 	}
 	
+	@Override
+	public void deactivate() {
+		super.deactivate();
+		if (workerPool != null) {
+			workerPool.shutdownNow();
+			workerPool = null;
+		}
+	}
+	
 	/**
      * @{inheritDoc}
      */
@@ -142,6 +192,15 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	@Override
 	public void execute() {
 		
+		ExecutorService workerPool = this.workerPool;
+		if (workerPool == null) {
+			return;
+		}
+		
+		Map<String, UrlPoller> boundPollers = new HashMap<String, UrlPoller>();
+		Map<UrlPoller, Map<String, HttpBindingProvider>> dueItems = 
+			new LinkedHashMap<UrlPoller, Map<String, HttpBindingProvider>>();
+		
 		for (HttpBindingProvider provider : providers) {
 			for (String itemName : provider.getInBindingItemNames()) {
 				
@@ -150,7 +209,17 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 
 				Properties headers = provider.getHttpHeaders(itemName);
 				int refreshInterval = provider.getRefreshInterval(itemName);
-				String transformation = provider.getTransformation(itemName);
+				
+				// items with the same url and headers share one poller and thus one request
+				String pollerKey = headers != null ? url + headers : url;
+				UrlPoller poller = boundPollers.get(pollerKey);
+				if (poller == null) {
+					poller = pollers.get(pollerKey);
+					if (poller == null) {
+						poller = new UrlPoller(url, headers);
+					}
+					boundPollers.put(pollerKey, poller);
+				}
 				
 				Long lastUpdateTimeStamp = lastUpdateMap.get(itemName);
 				if (lastUpdateTimeStamp == null) {
@@ -160,81 +229,89 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				long age = System.currentTimeMillis() - lastUpdateTimeStamp;
 				boolean needsUpdate = age >= refreshInterval;
 				
-				if (needsUpdate) {
-					
-					String response = null;
-					
-					// Check if special URL is used and data should get from
-					// cache rather than directly from server
-					CacheConfig cacheItem = itemCache.get(url);
-
-					if (cacheItem != null) {
-
-						long cacheAge = System.currentTimeMillis() - cacheItem.lastUpdate;
-						boolean cacheNeedsUpdate = cacheAge >= cacheItem.updateInterval;
-
-						if (cacheNeedsUpdate) {
-
-							// update and store data on cache
-							logger.debug("updating cache for '{}' ('{}')", url, cacheItem.url);
-							cacheItem.data = HttpUtil.executeUrl("GET", cacheItem.url, null, null, null, timeout);
-
-							if (cacheItem.data != null)
-								cacheItem.lastUpdate = System.currentTimeMillis();
-						}
-
-						logger.debug("item '{}' is fetched from cache", itemName);
-						response = cacheItem.data;
-						
-					} else {
-						
-						logger.debug("item '{}' is about to be refreshed now", itemName);
-						
-						response = HttpUtil.executeUrl("GET", url, headers, null, null, timeout);
+				// a poller which is still busy with its last request is asked again 
+				// on the next run, instead of queueing up requests of a slow url
+				if (needsUpdate && !poller.running) {
+					Map<String, HttpBindingProvider> items = dueItems.get(poller);
+					if (items == null) {
+						items = new LinkedHashMap<String, HttpBindingProvider>();
+						dueItems.put(poller, items);
 					}
-					
-					if(response==null) {
-						logger.error("No response received from '{}'", url);
-					} else {
-						String transformedResponse;
-						
-						try {
-							String[] parts = splitTransformationConfig(transformation);
-							String transformationType = parts[0];
-							String transformationFunction = parts[1];
-							
-							TransformationService transformationService = 
-								TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
-							if (transformationService != null) {
-								transformedResponse = transformationService.transform(transformationFunction, response);
-							} else {
-								transformedResponse = response;
-								logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
-							}
-						}
-						catch (TransformationException te) {
-							logger.error("transformation throws exception [transformation="
-									+ transformation + ", response=" + response + "]", te);
-							
-							// in case of an error we return the response without any
-							// transformation
-							transformedResponse = response;
-						}
-						
-						logger.debug("transformed response is '{}'", transformedResponse);
-						
-						Class<? extends Item> itemType = provider.getItemType(itemName);
-						State state = createState(itemType, transformedResponse);
-						
-						if (state != null) {
-							eventPublisher.postUpdate(itemName, state);
-						}
+					items.put(itemName, provider);
+				}
+			}
+		}
+		
+		// forget about the pollers of urls which are not bound anymore
+		pollers = boundPollers;
+		
+		for (Entry<UrlPoller, Map<String, HttpBindingProvider>> entry : dueItems.entrySet()) {
+			final UrlPoller poller = entry.getKey();
+			final Map<String, HttpBindingProvider> items = entry.getValue();
+			
+			for (String itemName : items.keySet()) {
+				lastUpdateMap.put(itemName, System.currentTimeMillis());
+			}
+			
+			poller.running = true;
+			workerPool.execute(new Runnable() {
+				public void run() {
+					try {
+						poller.poll(items);
+					} catch (RuntimeException e) {
+						logger.error("error while polling '" + poller.url + "'", e);
+					} finally {
+						poller.running = false;
 					}
-					
-					lastUpdateMap.put(itemName, System.currentTimeMillis());
-				}					
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Transforms the given <code>response</code> according to the binding 
+	 * configuration of the given item and posts the resulting state on the
+	 * event bus.
+	 * 
+	 * @param provider the provider which contains the binding of the item
+	 * @param itemName the name of the item to update
+	 * @param response the response which has been received for the item's url
+	 */
+	private void updateItem(HttpBindingProvider provider, String itemName, String response) {
+		String transformation = provider.getTransformation(itemName);
+		String transformedResponse;
+		
+		try {
+			String[] parts = splitTransformationConfig(transformation);
+			String transformationType = parts[0];
+			String transformationFunction = parts[1];
+			
+			TransformationService transformationService = 
+				TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
+			if (transformationService != null) {
+				transformedResponse = transformationService.transform(transformationFunction, response);
+			} else {
+				transformedResponse = response;
+				logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
 			}
 		}
+		catch (TransformationException te) {
+			logger.error("transformation throws exception [transformation="
+					+ transformation + ", response=" + response + "]", te);
+			
+			// in case of an error we return the response without any
+			// transformation
+			transformedResponse = response;
+		}
+		
+		logger.debug("transformed response is '{}'", transformedResponse);
+		
+		Class<? extends Item> itemType = provider.getItemType(itemName);
+		State state = createState(itemType, transformedResponse);
+		
+		if (state != null) {
+			eventPublisher.postUpdate(itemName, state);
+		}
 	}
 	
 	/**
@@ -358,7 +435,8 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				granularity = Integer.parseInt(granularityString);
 			}
 			
-			// Parse page cache config
+			// Parse page cache config, the pollers keep using the previous one until it is complete
+			Map<String, CacheConfig> newItemCache = new HashMap<String, CacheConfig>();
 			
 			@SuppressWarnings("unchecked")
 			Enumeration<String> keys = config.keys();
@@ -386,11 +464,11 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 
 				String id = matcher.group(1);
 				
-				CacheConfig cacheConfig = itemCache.get(id);
+				CacheConfig cacheConfig = newItemCache.get(id);
 
 				if (cacheConfig == null) {
 					cacheConfig = new CacheConfig(id);
-					itemCache.put(id, cacheConfig);
+					newItemCache.put(id, cacheConfig);
 				}
 
 				String configKey = matcher.group(2);
@@ -407,10 +485,171 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				}
 
 			}
+			
+			itemCache = Collections.unmodifiableMap(newItemCache);
 		}
 
 	}
 	
+	/**
+	 * Requests an url on behalf of all items which are bound to it. The validators
+	 * and the body of the last response are kept, so that the next request can be 
+	 * made conditional. As the items of an url may have different refresh intervals,
+	 * the last body is still applied to those items which have not received it yet,
+	 * if the server answers with 'Not Modified'. A poller is only used by one worker
+	 * thread at a time.
+	 */
+	class UrlPoller {
+		
+		/** the url to request */
+		final String url;
+		
+		/** the HTTP headers to send with the request, may be <code>null</code> */
+		final Properties headers;
+		
+		/** whether a request of this poller is queued or being executed */
+		volatile boolean running = false;
+		
+		/** the ETag header of the last response */
+		private String etag;
+		
+		/** the Last-Modified header of the last response */
+		private String lastModified;
+		
+		/** whether the last request has been answered with 'Not Modified' */
+		private boolean notModified;
+		
+		/** the body of the last response, which the validators belong to */
+		private String lastResponse;
+		
+		/** the items which have already been updated with the last response */
+		private final Set<String> updatedItems = new HashSet<String>();
+		
+		UrlPoller(String url, Properties headers) {
+			this.url = url;
+			this.headers = headers;
+		}
+		
+		/**
+		 * Requests the url and updates all given items with the response.
+		 * 
+		 * @param items the items to update, together with their binding providers
+		 */
+		void poll(Map<String, HttpBindingProvider> items) {
+			String response;
+			
+			// Check if special URL is used and data should get from
+			// cache rather than directly from server
+			CacheConfig cacheItem = itemCache.get(url);
+			
+			if (cacheItem != null) {
+				response = getCachedResponse(cacheItem);
+				logger.debug("items {} are fetched from cache", items.keySet());
+			} else {
+				logger.debug("items {} are about to be refreshed now", items.keySet());
+				response = executeConditionalGet();
+				if (response == null && notModified) {
+					// only those items are updated which have not seen the last response yet
+					logger.debug("response of '{}' has not been modified", url);
+					for (Entry<String, HttpBindingProvider> item : items.entrySet()) {
+						if (updatedItems.add(item.getKey())) {
+							updateItem(item.getValue(), item.getKey(), lastResponse);
+						}
+					}
+					return;
+				}
+				if (response != null) {
+					updatedItems.clear();
+					updatedItems.addAll(items.keySet());
+				}
+			}
+			
+			if (response == null) {
+				logger.error("No response received from '{}'", url);
+			} else {
+				for (Entry<String, HttpBindingProvider> item : items.entrySet()) {
+					updateItem(item.getValue(), item.getKey(), response);
+				}
+			}
+		}
+		
+		private String getCachedResponse(CacheConfig cacheItem) {
+			synchronized (cacheItem) {
+				long cacheAge = System.currentTimeMillis() - cacheItem.lastUpdate;
+				boolean cacheNeedsUpdate = cacheAge >= cacheItem.updateInterval;
+
+				if (cacheNeedsUpdate) {
+
+					// update and store data on cache
+					logger.debug("updating cache for '{}' ('{}')", url, cacheItem.url);
+					cacheItem.data = HttpUtil.executeUrl("GET", cacheItem.url, null, null, null, timeout);
+
+					if (cacheItem.data != null)
+						cacheItem.lastUpdate = System.currentTimeMillis();
+				}
+				return cacheItem.data;
+			}
+		}
+		
+		/**
+		 * Executes a GET request of the url, which is conditional if the last response
+		 * contained an ETag or Last-Modified header.
+		 * 
+		 * @return the response body or <code>null</code> if the request went wrong
+		 * or the response has not been modified (see {@link #notModified})
+		 */
+		private String executeConditionalGet() {
+			notModified = false;
+			
+			HttpClient client = HttpUtil.createHttpClient(url);
+			HttpMethod method = HttpUtil.createHttpMethod("GET", url);
+			method.getParams().setSoTimeout(timeout);
+			method.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
+					new DefaultHttpMethodRetryHandler(3, false));
+			if (headers != null) {
+				for (String headerName : headers.stringPropertyNames()) {
+					method.addRequestHeader(headerName, headers.getProperty(headerName));
+				}
+			}
+			if (etag != null) {
+				method.setRequestHeader("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				method.setRequestHeader("If-Modified-Since", lastModified);
+			}
+			
+			try {
+				int statusCode = HttpUtil.executeMethod(client, method);
+				if (statusCode == HttpStatus.SC_NOT_MODIFIED && lastResponse != null) {
+					notModified = true;
+					return null;
+				}
+				if (statusCode != HttpStatus.SC_OK) {
+					logger.warn("Method failed: " + method.getStatusLine());
+				}
+				
+				String response = IOUtils.toString(method.getResponseBodyAsStream());
+				
+				etag = getHeaderValue(method, "ETag");
+				lastModified = getHeaderValue(method, "Last-Modified");
+				lastResponse = response;
+				
+				return response;
+			} catch (IOException ioe) {
+				logger.error("Fatal transport error: {}", ioe.toString());
+			} finally {
+				method.releaseConnection();
+			}
+			return null;
+		}
+		
+		private String getHeaderValue(HttpMethod method, String headerName) {
+			Header header = method.getResponseHeader(headerName);
+			return header != null ? header.getValue() : null;
+		}
+		
+	}
+	
 	/**
 	 * Internal data structure for data cache purposes
 	 * 
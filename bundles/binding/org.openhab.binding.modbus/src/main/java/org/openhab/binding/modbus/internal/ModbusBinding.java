@@ -28,10 +28,13 @@
  */
 package org.openhab.binding.modbus.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
@@ -60,6 +63,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Modbus binding allows to connect to multiple Modbus slaves as TCP master.
  * This implementation works with coils (boolean values) only.
+ * <p>
+ * The slaves are polled by one {@link ModbusPoller} per physical connection,
+ * which are started by the refresh thread once the slaves have been configured.
  * 
  * @author Dmitry Krasnov
  * @since 1.1.0
@@ -80,11 +86,21 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 	/** slaves update interval in milliseconds, defaults to 200ms */
 	public static int pollInterval = 200;
 
+	/** the pollers of all physical connections, keyed by the connection key */
+	private Map<String, ModbusPoller> pollers = new HashMap<String, ModbusPoller>();
+	
+	/** whether the pollers have to be (re)started with the current slaves */
+	private volatile boolean pollersOutdated = false;
+	
+	/** the names of the items bound to each slave, <code>null</code> if they have to be collected again */
+	private volatile Map<String, Collection<String>> slaveItems = null;
+
 	
 	public void activate() {
 	}
 
 	public void deactivate() {
+		stopPollers();
 	}
 	
 	
@@ -107,8 +123,27 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 		for (ModbusBindingProvider provider : providers) {
 			if (provider.providesBindingFor(itemName)) {
 				ModbusBindingConfig config = provider.getConfig(itemName);
-				ModbusSlave slave = modbusSlaves.get(config.slaveName);
-				slave.executeCommand(command, config.readRegister, config.writeRegister);
+				final ModbusSlave slave = modbusSlaves.get(config.slaveName);
+				final Command slaveCommand = command;
+				final int readRegister = config.readRegister;
+				final int writeRegister = config.writeRegister;
+				Runnable task = new Runnable() {
+					public void run() {
+						slave.executeCommand(slaveCommand, readRegister, writeRegister);
+					}
+				};
+				
+				// commands are executed by the poller of the slave's connection, so 
+				// that they do not interfere with a running poll
+				ModbusPoller poller;
+				synchronized (pollers) {
+					poller = pollers.get(slave.getConnectionKey());
+				}
+				if (poller != null) {
+					poller.execute(task);
+				} else {
+					task.run();
+				}
 			}
 		}
 	}
@@ -181,18 +216,104 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 		return items;
 	}
 	
+	/**
+	 * Returns the names of all items which are bound to the given slave. The
+	 * names are collected once and kept until the bindings change.
+	 * 
+	 * @param slaveName the name of the slave
+	 * @return the names of the bound items
+	 */
+	Collection<String> getItemNames(String slaveName) {
+		Map<String, Collection<String>> items = slaveItems;
+		if (items == null) {
+			items = new HashMap<String, Collection<String>>();
+			for (ModbusBindingProvider provider : providers) {
+				for (String itemName : provider.getItemNames()) {
+					ModbusBindingConfig config = provider.getConfig(itemName);
+					if (config != null) {
+						Collection<String> names = items.get(config.slaveName);
+						if (names == null) {
+							names = new ArrayList<String>();
+							items.put(config.slaveName, names);
+						}
+						names.add(itemName);
+					}
+				}
+			}
+			slaveItems = items;
+		}
+		Collection<String> names = items.get(slaveName);
+		return names != null ? names : Collections.<String>emptyList();
+	}
+	
+	@Override
+	public void addBindingProvider(ModbusBindingProvider provider) {
+		slaveItems = null;
+		super.addBindingProvider(provider);
+	}
+	
+	@Override
+	public void removeBindingProvider(ModbusBindingProvider provider) {
+		slaveItems = null;
+		super.removeBindingProvider(provider);
+	}
+	
+	@Override
+	public void bindingChanged(BindingProvider provider, String itemName) {
+		slaveItems = null;
+		super.bindingChanged(provider, itemName);
+	}
+	
+	@Override
+	public void allBindingsChanged(BindingProvider provider) {
+		slaveItems = null;
+		super.allBindingsChanged(provider);
+	}
 	
 	/**
-	 * updates all slaves from the modbusSlaves
+	 * starts the pollers of all slaves from the modbusSlaves, if the slaves have
+	 * been (re)configured
 	 */
 	@Override
 	protected void execute() {
-		Collection<ModbusSlave> slaves = new HashSet<ModbusSlave>();
-		synchronized (slaves) {
-			slaves.addAll(modbusSlaves.values());
+		if (pollersOutdated) {
+			pollersOutdated = false;
+			startPollers();
+		}
+	}
+	
+	/**
+	 * Creates and starts one poller for each physical connection of the configured slaves
+	 */
+	private void startPollers() {
+		Map<String, List<ModbusSlave>> slavesByConnection = new HashMap<String, List<ModbusSlave>>();
+		for (ModbusSlave slave : modbusSlaves.values()) {
+			List<ModbusSlave> slaves = slavesByConnection.get(slave.getConnectionKey());
+			if (slaves == null) {
+				slaves = new ArrayList<ModbusSlave>();
+				slavesByConnection.put(slave.getConnectionKey(), slaves);
+			}
+			slaves.add(slave);
+		}
+		
+		synchronized (pollers) {
+			for (Map.Entry<String, List<ModbusSlave>> entry : slavesByConnection.entrySet()) {
+				ModbusPoller poller = new ModbusPoller(entry.getKey(), entry.getValue());
+				pollers.put(entry.getKey(), poller);
+				poller.start(this);
+			}
 		}
-		for (ModbusSlave slave : slaves) {
-			slave.update(this);
+	}
+	
+	/**
+	 * Stops and removes all pollers
+	 */
+	private void stopPollers() {
+		synchronized (pollers) {
+			for (ModbusPoller poller : pollers.values()) {
+				poller.stop();
+			}
+			pollers.clear();
 		}
 	}
 	
@@ -200,6 +321,7 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 	@Override
 	public void updated(Dictionary<String, ?> config) throws ConfigurationException {
 		// remove all known items if configuration changed
+		stopPollers();
 		modbusSlaves.clear();
 
 		if (config != null) {
@@ -223,7 +345,7 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 						ModbusSlave.setWriteMultipleRegisters(Boolean.valueOf(config.get(key).toString()));
 					} else {
 						logger.debug("given modbus-slave-config-key '" + key
-							+ "' does not follow the expected pattern 'pollInterval' or '<slaveId>.<connection|id|start|length|type>'");
+							+ "' does not follow the expected pattern 'pollInterval' or '<slaveId>.<connection|id|pollInterval|start|length|type>'");
 					}
 					continue;
 				}
@@ -267,6 +389,8 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 					modbusSlave.setLength(Integer.valueOf(value));
 				} else if ("id".equals(configKey)) {
 					modbusSlave.setId(Integer.valueOf(value));
+				} else if ("pollInterval".equals(configKey)) {
+					modbusSlave.setPollInterval(Integer.valueOf(value));
 				} else if ("type".equals(configKey)) {
 					if (ArrayUtils.contains(ModbusBindingProvider.SLAVE_DATA_TYPES, value)) {
 						modbusSlave.setType(value);
@@ -284,6 +408,7 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 				slave.connect();
 			}
 
+			pollersOutdated = true;
 			setProperlyConfigured(true);
 		}
 	}
@@ -0,0 +1,281 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.modbus.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.wimpi.modbus.Modbus;
+import net.wimpi.modbus.procimg.InputRegister;
+import net.wimpi.modbus.util.BitVector;
+
+import org.openhab.binding.modbus.ModbusBindingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ModbusPoller polls all slaves which share one physical connection (a TCP endpoint
+ * or a serial port) on its own thread, so that a slow or unavailable connection does
+ * not delay the others. Each slave is polled with its own poll interval.
+ * <p>
+ * Slaves with the same type, id and poll interval whose ranges are adjacent or overlap
+ * are merged and read with a single request. Commands to the slaves are executed on 
+ * the same thread, so that they never interfere with a running poll.
+ *
+ * @author Dmitry Krasnov
+ * @since 1.4.0
+ */
+public class ModbusPoller {
+
+	private static final Logger logger = LoggerFactory.getLogger(ModbusPoller.class);
+
+	/** the maximum number of registers which can be read with one request */
+	static final int MAX_REGISTERS = 125;
+
+	private final String connectionKey;
+
+	private final List<ReadGroup> groups;
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * @param connectionKey the key of the physical connection of the slaves
+	 * @param slaves the slaves which share the connection
+	 */
+	public ModbusPoller(String connectionKey, Collection<ModbusSlave> slaves) {
+		this.connectionKey = connectionKey;
+		this.groups = createGroups(slaves);
+	}
+
+	/**
+	 * Starts polling all slaves of this poller
+	 * 
+	 * @param binding ModbusBinding to update the items of
+	 */
+	public synchronized void start(final ModbusBinding binding) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Modbus Poller " + connectionKey);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (final ReadGroup group : groups) {
+			logger.debug("ModbusPoller: polling {} every {}ms", group, group.pollInterval);
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						group.poll(binding);
+					} catch (RuntimeException e) {
+						logger.error("ModbusPoller: error while polling " + group, e);
+					}
+				}
+			}, 0, group.pollInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops polling and waits for a running poll to finish
+	 */
+	public synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		try {
+			scheduler.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		scheduler = null;
+	}
+
+	/**
+	 * Executes a task on the thread of this poller, so that it does not interfere 
+	 * with the polls of the connection. If the poller is not running, the task is
+	 * executed by the calling thread.
+	 * 
+	 * @param task the task to execute
+	 */
+	public synchronized void execute(Runnable task) {
+		if (scheduler != null) {
+			scheduler.execute(task);
+		} else {
+			task.run();
+		}
+	}
+
+	/**
+	 * Merges the slaves into groups which can be read with a single request
+	 */
+	static List<ReadGroup> createGroups(Collection<ModbusSlave> slaves) {
+		List<ModbusSlave> sorted = new ArrayList<ModbusSlave>(slaves);
+		Collections.sort(sorted, new Comparator<ModbusSlave>() {
+			public int compare(ModbusSlave s1, ModbusSlave s2) {
+				int result = String.valueOf(s1.getType()).compareTo(String.valueOf(s2.getType()));
+				if (result == 0) {
+					result = s1.getId() - s2.getId();
+				}
+				if (result == 0) {
+					result = s1.getPollInterval() - s2.getPollInterval();
+				}
+				if (result == 0) {
+					result = s1.getStart() - s2.getStart();
+				}
+				return result;
+			}
+		});
+		
+		List<ReadGroup> groups = new ArrayList<ReadGroup>();
+		ReadGroup group = null;
+		for (ModbusSlave slave : sorted) {
+			if (group == null || !group.add(slave)) {
+				group = new ReadGroup(slave);
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * A group of slaves which are read with a single request
+	 */
+	static class ReadGroup {
+
+		final List<ModbusSlave> slaves = new ArrayList<ModbusSlave>();
+		final String type;
+		final int id;
+		final int pollInterval;
+		final int start;
+		int length;
+
+		ReadGroup(ModbusSlave slave) {
+			this.type = slave.getType();
+			this.id = slave.getId();
+			this.pollInterval = slave.getPollInterval();
+			this.start = slave.getStart();
+			this.length = slave.getLength();
+			slaves.add(slave);
+		}
+
+		/**
+		 * Adds a slave to this group if its range is adjacent to or overlaps the
+		 * range of the group and the merged range can still be read at once
+		 * 
+		 * @param slave the slave to add, its start must not be lower than the group's start
+		 * @return <code>true</code> if the slave has been added
+		 */
+		boolean add(ModbusSlave slave) {
+			if (!type.equals(slave.getType()) || id != slave.getId() || pollInterval != slave.getPollInterval()) {
+				return false;
+			}
+			if (slave.getStart() > start + length) {
+				return false;
+			}
+			int mergedLength = Math.max(start + length, slave.getStart() + slave.getLength()) - start;
+			if (mergedLength > getMaxLength()) {
+				return false;
+			}
+			length = mergedLength;
+			slaves.add(slave);
+			return true;
+		}
+
+		private int getMaxLength() {
+			if (ModbusBindingProvider.TYPE_COIL.equals(type) || ModbusBindingProvider.TYPE_DISCRETE.equals(type)) {
+				return Modbus.MAX_BITS;
+			}
+			return MAX_REGISTERS;
+		}
+
+		/**
+		 * Reads the data of all slaves of this group and updates their items
+		 * 
+		 * @param binding ModbusBinding to update the items of
+		 */
+		void poll(ModbusBinding binding) {
+			long startTime = System.currentTimeMillis();
+			Object data = slaves.get(0).readData(start, length);
+			long roundTripTime = System.currentTimeMillis() - startTime;
+			
+			for (ModbusSlave slave : slaves) {
+				if (data == null) {
+					slave.pollFailed();
+				} else {
+					slave.pollSucceeded(roundTripTime);
+					slave.setData(slaves.size() == 1 ? data : slice(data, slave.getStart() - start, slave.getLength()));
+					slave.updateItems(binding);
+				}
+			}
+		}
+
+		/**
+		 * Cuts the range of a single slave out of the data read for the group
+		 */
+		static Object slice(Object data, int offset, int length) {
+			if (data instanceof BitVector) {
+				BitVector bits = (BitVector) data;
+				BitVector slice = new BitVector(length);
+				for (int i = 0; i < length && offset + i < bits.size(); i++) {
+					slice.setBit(i, bits.getBit(offset + i));
+				}
+				return slice;
+			} else {
+				InputRegister[] registers = (InputRegister[]) data;
+				InputRegister[] slice = new InputRegister[length];
+				System.arraycopy(registers, offset, slice, 0, Math.min(length, registers.length - offset));
+				return slice;
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder names = new StringBuilder();
+			for (ModbusSlave slave : slaves) {
+				if (names.length() > 0) {
+					names.append(",");
+				}
+				names.append(slave.getName());
+			}
+			return "[" + names + "] (type=" + type + ", id=" + id + ", start=" + start + ", length=" + length + ")";
+		}
+
+	}
+
+}
@@ -123,4 +123,10 @@ public class ModbusSerialSlave extends ModbusSlave {
 		connection = null;
 	}
 
+	@Override
+	String getConnectionKey() {
+		// all serial slaves share the same port and connection
+		return "serial:" + port;
+	}
+
 }
@@ -29,6 +29,7 @@
 package org.openhab.binding.modbus.internal;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.wimpi.modbus.io.ModbusTransaction;
 import net.wimpi.modbus.msg.ModbusRequest;
@@ -95,9 +96,17 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 
 	private int length = 0;
 
+	/** poll interval of this slave in milliseconds, 0 means the global poll interval */
+	private int pollInterval = 0;
+
 	private Object storage;
 	protected ModbusTransaction transaction = null; 
 
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong totalRoundTripTime = new AtomicLong();
+	private volatile long lastRoundTripTime = 0;
+
 
 
 	/**
@@ -252,24 +261,29 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 	}
 
 	/**
-	 * Reads data from the connected device and updates items with the new data
+	 * Reads data from the connected device. The data can span the ranges of 
+	 * several slaves with the same type and id, so that they can be read with
+	 * a single request.
 	 * 
-	 * @param binding ModbusBindig that stores providers information
+	 * @param start the reference of the first coil or register to read
+	 * @param length the number of coils or registers to read
+	 * @return a {@link BitVector} for types "coil" and "discrete", an array of
+	 * {@link InputRegister}s for types "holding" and "input" or <code>null</code>
+	 * if the data could not be read
 	 */
-	public void update(ModbusBinding binding) {
+	Object readData(int start, int length) {
 		if (!connect()) {
 			resetConnection();
 			logger.info("ModbusSlave not connected");
-			return;
+			return null;
 		}
 		
 		try {
 
-		Object local = null;
-
+			Object local = null;
 
 			if (ModbusBindingProvider.TYPE_COIL.equals(getType())) {
-				ModbusRequest request = new ReadCoilsRequest(getStart(), getLength());
+				ModbusRequest request = new ReadCoilsRequest(start, length);
 				if (this instanceof ModbusSerialSlave) {
 					request.setHeadless();
 				}
@@ -277,36 +291,112 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 				ReadCoilsResponse responce = (ReadCoilsResponse) getModbusData(request);
 				local = responce.getCoils();
 			} else if (ModbusBindingProvider.TYPE_DISCRETE.equals(getType())) {
-				ModbusRequest request = new ReadInputDiscretesRequest(getStart(), getLength());
+				ModbusRequest request = new ReadInputDiscretesRequest(start, length);
 				ReadInputDiscretesResponse responce = (ReadInputDiscretesResponse) getModbusData(request);
 				local = responce.getDiscretes();
 			} else if (ModbusBindingProvider.TYPE_HOLDING.equals(getType())) {
-				ModbusRequest request = new ReadMultipleRegistersRequest(getStart(), getLength());
+				ModbusRequest request = new ReadMultipleRegistersRequest(start, length);
 				ReadMultipleRegistersResponse responce = (ReadMultipleRegistersResponse) getModbusData(request);
 				local = responce.getRegisters();
 			} else if (ModbusBindingProvider.TYPE_INPUT.equals(getType())) {
-				ModbusRequest request = new ReadInputRegistersRequest(getStart(), getLength());
+				ModbusRequest request = new ReadInputRegistersRequest(start, length);
 				ReadInputRegistersResponse responce = (ReadInputRegistersResponse) getModbusData(request);
 				local = responce.getRegisters();
 			}
-			if (storage == null) 
-				storage = local;
-			else {
-				synchronized(storage) {
-					storage = local;
-				}
-			}
-			Collection<String> items = binding.getItemNames();
-			for (String item : items) {
-				updateItem(binding, item);
-			}
+			return local;
 		} catch (Exception e) {
 			resetConnection();
 			logger.info("ModbusSlave error getting responce from slave");
+			return null;
 		}
+	}
+
+	/**
+	 * Stores data which has been read from the device for this slave
+	 * 
+	 * @param data the data of this slave's range, see {@link #readData(int, int)}
+	 */
+	void setData(Object data) {
+		if (storage == null) 
+			storage = data;
+		else {
+			synchronized(storage) {
+				storage = data;
+			}
+		}
+	}
+
+	/**
+	 * Updates all items bound to this slave with the data read last
+	 * 
+	 * @param binding ModbusBindig that stores providers information
+	 */
+	void updateItems(ModbusBinding binding) {
+		if (storage == null) {
+			return;
+		}
+		Collection<String> items = binding.getItemNames(name);
+		for (String item : items) {
+			updateItem(binding, item);
+		}
+	}
+
+	/**
+	 * Records a successful poll of this slave
+	 * 
+	 * @param roundTripTime the time in milliseconds it took to read the data
+	 */
+	void pollSucceeded(long roundTripTime) {
+		pollCount.incrementAndGet();
+		totalRoundTripTime.addAndGet(roundTripTime);
+		lastRoundTripTime = roundTripTime;
+	}
 
+	/**
+	 * Records a failed poll of this slave
+	 */
+	void pollFailed() {
+		pollCount.incrementAndGet();
+		errorCount.incrementAndGet();
 	}
 
+	/**
+	 * @return the number of polls of this slave, including failed ones
+	 */
+	public long getPollCount() {
+		return pollCount.get();
+	}
+
+	/**
+	 * @return the number of polls of this slave which have failed
+	 */
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * @return the average round trip time of the successful polls in milliseconds
+	 */
+	public long getAverageRoundTripTime() {
+		long successful = pollCount.get() - errorCount.get();
+		return successful > 0 ? totalRoundTripTime.get() / successful : 0;
+	}
+
+	/**
+	 * @return the round trip time of the last successful poll in milliseconds
+	 */
+	public long getLastRoundTripTime() {
+		return lastRoundTripTime;
+	}
+
+	/**
+	 * Returns a key which identifies the physical connection of this slave. Slaves 
+	 * with the same key share a connection and are polled one after the other.
+	 * 
+	 * @return the key of the physical connection
+	 */
+	abstract String getConnectionKey();
+
 	/**
 	 * Updates OpenHAB item with data read from slave device
 	 * works only for type "coil" and "holding"
@@ -374,6 +464,14 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 		return type;
 	}
 
+	int getPollInterval() {
+		return pollInterval > 0 ? pollInterval : ModbusBinding.pollInterval;
+	}
+
+	void setPollInterval(int pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
 	void setType(String type) {
 		this.type = type;
 	}
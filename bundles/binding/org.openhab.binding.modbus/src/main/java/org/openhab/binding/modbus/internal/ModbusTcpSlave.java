@@ -101,6 +101,11 @@ public class ModbusTcpSlave extends ModbusSlave {
 		connection = null;
 	}
 
+	@Override
+	String getConnectionKey() {
+		return "tcp:" + getHost() + ":" + getPort();
+	}
+
 	String getHost() {
 		return host;
 	}
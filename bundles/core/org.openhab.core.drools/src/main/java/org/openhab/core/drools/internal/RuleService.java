@@ -28,9 +28,6 @@
  */
 package org.openhab.core.drools.internal;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
-
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -58,6 +55,7 @@ import org.drools.runtime.rule.FactHandle;
 import org.openhab.core.drools.event.CommandEvent;
 import org.openhab.core.drools.event.RuleEvent;
 import org.openhab.core.drools.event.StateEvent;
+import org.openhab.core.events.ItemEvent;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -312,19 +310,13 @@ public class RuleService extends AbstractActiveService implements ManagedService
 	 * {@inheritDoc}
 	 */
 	public void handleEvent(Event event) {  
-		String itemName = (String) event.getProperty("item");
-		
-		String topic = event.getTopic();
-		String[] topicParts = topic.split(TOPIC_SEPERATOR);
-		
-		if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
+		ItemEvent itemEvent = ItemEvent.fromEvent(event);
+		if(itemEvent==null) {
 			return; // we have received an event with an invalid topic
 		}
-		String operation = topicParts[1];
 		
-		if(operation.equals(EventType.COMMAND.toString())) {
-			Command command = (Command) event.getProperty("command");
-			if(command!=null) receiveCommand(itemName, command);
+		if(itemEvent.getEventType()==EventType.COMMAND) {
+			receiveCommand(itemEvent.getItemName(), itemEvent.getCommand());
 		}
 	}
 
@@ -29,7 +29,9 @@
 package org.openhab.core.library.types;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.Assert;
 
@@ -37,6 +39,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.IncrementalGroupFunction;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.DimmerItem;
 import org.openhab.core.library.items.SwitchItem;
@@ -225,6 +229,123 @@ public class ArithmeticGroupFunctionTest {
 		Assert.assertEquals(new DecimalType("234.95"), state);
 	}
 	
+	@Test
+	public void testIncrementalDecimalFunctions() {
+		assertIncrementalResults(new ArithmeticGroupFunction.Sum());
+		assertIncrementalResults(new ArithmeticGroupFunction.Avg());
+		assertIncrementalResults(new ArithmeticGroupFunction.Min());
+		assertIncrementalResults(new ArithmeticGroupFunction.Max());
+	}
+
+	@Test
+	public void testIncrementalLogicalFunctions() {
+		assertIncrementalResults(new ArithmeticGroupFunction.And(OpenClosedType.OPEN, OpenClosedType.CLOSED));
+		assertIncrementalResults(new ArithmeticGroupFunction.Or(OpenClosedType.OPEN, OpenClosedType.CLOSED));
+		assertIncrementalResults(new ArithmeticGroupFunction.NAnd(OpenClosedType.OPEN, OpenClosedType.CLOSED));
+		assertIncrementalResults(new ArithmeticGroupFunction.NOr(OpenClosedType.OPEN, OpenClosedType.CLOSED));
+	}
+	
+	@Test
+	public void testIncrementalMinMaxWithMixedScales() {
+		State[] states = new State[] { 
+				new DecimalType("1.0"), new DecimalType("1.00"), new DecimalType("1"), 
+				new DecimalType("5.5"), new DecimalType("5.50"), UnDefType.UNDEF };
+		assertIncrementalResults(new ArithmeticGroupFunction.Min(), states, true);
+		assertIncrementalResults(new ArithmeticGroupFunction.Max(), states, true);
+	}
+
+	@Test
+	public void testMinMaxIndependentOfMemberOrder() {
+		items.add(new TestItem("TestItem1", new DecimalType("1.0")));
+		items.add(new TestItem("TestItem2", new DecimalType("1.00")));
+		Assert.assertEquals("1.00", new ArithmeticGroupFunction.Min().calculate(items).toString());
+		Assert.assertEquals("1.00", new ArithmeticGroupFunction.Max().calculate(items).toString());
+		Collections.reverse(items);
+		Assert.assertEquals("1.00", new ArithmeticGroupFunction.Min().calculate(items).toString());
+		Assert.assertEquals("1.00", new ArithmeticGroupFunction.Max().calculate(items).toString());
+	}
+
+	@Test
+	public void testIncrementalSumKeepsScale() {
+		TestItem item1 = new TestItem("TestItem1", new DecimalType("1.25"));
+		TestItem item2 = new TestItem("TestItem2", new DecimalType("2"));
+		GroupItem group = new GroupItem("group", null, new ArithmeticGroupFunction.Sum());
+		group.addMember(item1);
+		group.addMember(item2);
+
+		item1.setState(new DecimalType("3"));
+		Assert.assertEquals("5", group.getState().toString());
+	}
+
+	@Test
+	public void testGroupItemWithIncrementalFunction() {
+		TestItem item1 = new TestItem("TestItem1", new DecimalType("10"));
+		TestItem item2 = new TestItem("TestItem2", new DecimalType("20"));
+		TestItem item3 = new TestItem("TestItem3", UnDefType.NULL);
+		GroupItem group = new GroupItem("group", null, new ArithmeticGroupFunction.Avg());
+		group.addMember(item1);
+		group.addMember(item2);
+		group.addMember(item3);
+		
+		item3.setState(new DecimalType("60"));
+		Assert.assertEquals(new DecimalType("30"), group.getState());
+		
+		group.removeMember(item3);
+		item1.setState(new DecimalType("30"));
+		Assert.assertEquals(new DecimalType("25"), group.getState());
+	}
+	
+	/**
+	 * Applies a series of random updates to a list of items (which contains one item
+	 * twice) and asserts that the accumulator returns the same state as a full calculation.
+	 */
+	private void assertIncrementalResults(IncrementalGroupFunction function) {
+		State[] states = new State[] { 
+				new DecimalType("1.5"), new DecimalType("-3"), new DecimalType("42"), new DecimalType("0.25"),
+				OpenClosedType.OPEN, OpenClosedType.CLOSED, UnDefType.UNDEF };
+		assertIncrementalResults(function, states, false);
+	}
+	
+	/**
+	 * @param function the function to check
+	 * @param states the states to choose from randomly
+	 * @param sameScale whether decimal results must also have the same scale, i.e. the same string representation
+	 */
+	private void assertIncrementalResults(IncrementalGroupFunction function, State[] states, boolean sameScale) {
+		Random random = new Random(4711);
+		
+		List<Item> members = new ArrayList<Item>();
+		IncrementalGroupFunction.Accumulator accumulator = function.createAccumulator();
+		for(int i = 0; i < 10; i++) {
+			TestItem item = new TestItem("TestItem" + i, states[random.nextInt(states.length)]);
+			members.add(item);
+			accumulator.add(item);
+		}
+		members.add(members.get(0));
+		accumulator.add(members.get(0));
+		assertSameState(function.calculate(members), accumulator.getState(), sameScale);
+		
+		for(int i = 0; i < 1000; i++) {
+			GenericItem item = (GenericItem) members.get(random.nextInt(members.size()));
+			item.setState(states[random.nextInt(states.length)]);
+			accumulator.update(item);
+			assertSameState(function.calculate(members), accumulator.getState(), sameScale);
+		}
+		
+		while(!members.isEmpty()) {
+			Item item = members.remove(members.size() - 1);
+			accumulator.remove(item);
+			assertSameState(function.calculate(members), accumulator.getState(), sameScale);
+		}
+	}
+	
+	private static void assertSameState(State expected, State actual, boolean sameScale) {
+		Assert.assertEquals(expected, actual);
+		if(sameScale) {
+			Assert.assertEquals(expected.toString(), actual.toString());
+		}
+	}
+	
 	class TestItem extends GenericItem {
 
 		public TestItem(String name, State state) {
@@ -30,9 +30,13 @@ package org.openhab.core.library.types;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.IncrementalGroupFunction;
 import org.openhab.core.items.Item;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
@@ -58,7 +62,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class And implements GroupFunction {
+	static class And implements IncrementalGroupFunction {
 		
 		protected final State activeState;
 		protected final State passiveState;
@@ -88,6 +92,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 		}
 
+		/**
+		 * Determines the group state from the number of members in the 'activeState'.
+		 * 
+		 * @param activeCount the number of members in the 'activeState'
+		 * @param count the number of all members
+		 * @return the group state
+		 */
+		protected State calculate(int activeCount, int count) {
+			return count > 0 && activeCount == count ? activeState : passiveState;
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new ActiveStateAccumulator(activeState) {
+				public State getState() {
+					return calculate(getActiveCount(), getCount());
+				}
+			};
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -133,7 +159,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Or implements GroupFunction {
+	static class Or implements IncrementalGroupFunction {
 
 		protected final State activeState;
 		protected final State passiveState;
@@ -159,6 +185,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return passiveState;
 		}
+
+		/**
+		 * Determines the group state from the number of members in the 'activeState'.
+		 * 
+		 * @param activeCount the number of members in the 'activeState'
+		 * @param count the number of all members
+		 * @return the group state
+		 */
+		protected State calculate(int activeCount, int count) {
+			return activeCount > 0 ? activeState : passiveState;
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new ActiveStateAccumulator(activeState) {
+				public State getState() {
+					return calculate(getActiveCount(), getCount());
+				}
+			};
+		}
 		
 		/**
 		 * @{inheritDoc
@@ -210,6 +258,12 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				result.equals(activeState) ? passiveState : activeState;
 			return notResult;
 		}
+
+		@Override
+		protected State calculate(int activeCount, int count) {
+			State result = super.calculate(activeCount, count);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
 		
 	}
 
@@ -234,6 +288,12 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				result.equals(activeState) ? passiveState : activeState;
 			return notResult;
 		}
+
+		@Override
+		protected State calculate(int activeCount, int count) {
+			State result = super.calculate(activeCount, count);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
 		
 	}
 	
@@ -244,7 +304,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Avg implements GroupFunction {
+	static class Avg implements IncrementalGroupFunction {
 		
 		public Avg() {}
 
@@ -269,6 +329,21 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				return UnDefType.UNDEF;
 			}
 		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new SumAccumulator() {
+				public State getState() {
+					if(getCount()>0) {
+						return new DecimalType(getSum().divide(new BigDecimal(getCount()), RoundingMode.HALF_UP));
+					} else {
+						return UnDefType.UNDEF;
+					}
+				}
+			};
+		}
 		
 		/**
 		 * @{inheritDoc
@@ -290,7 +365,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 1.1.0
 	 *
 	 */
-	static class Sum implements GroupFunction {
+	static class Sum implements IncrementalGroupFunction {
 		
 		public Sum() {}
 
@@ -309,6 +384,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return new DecimalType(sum);
 		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new SumAccumulator() {
+				public State getState() {
+					return new DecimalType(getSum());
+				}
+			};
+		}
 		
 		/**
 		 * @{inheritDoc
@@ -324,13 +410,14 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	}
 	
 	/**
-	 * This calculates the minimum value of all item states of decimal type.
+	 * This calculates the minimum value of all item states of decimal type. If several
+	 * states are equal to the minimum, the one with the largest scale is returned.
 	 * 
 	 * @author Kai Kreuzer
 	 * @since 0.7.0
 	 *
 	 */
-	static class Min implements GroupFunction {
+	static class Min implements IncrementalGroupFunction {
 		
 		public Min() {}
 
@@ -343,9 +430,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				for(Item item : items) {
 					DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
 					if(itemState!=null) {
-						if(min==null || min.compareTo(itemState.toBigDecimal()) > 0) {
-							min = itemState.toBigDecimal();
-						}
+						min = min(min, itemState.toBigDecimal());
 					}
 				}
 				if(min!=null) {
@@ -355,6 +440,18 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return UnDefType.UNDEF;
 		}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new OrderedAccumulator() {
+				public State getState() {
+					BigDecimal min = getMinimum();
+					return min==null ? UnDefType.UNDEF : new DecimalType(min);
+				}
+			};
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -369,13 +466,14 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 }
 
 	/**
-	 * This calculates the maximum value of all item states of decimal type.
+	 * This calculates the maximum value of all item states of decimal type. If several
+	 * states are equal to the maximum, the one with the largest scale is returned.
 	 * 
 	 * @author Kai Kreuzer
 	 * @since 0.7.0
 	 *
 	 */
-	static class Max implements GroupFunction {
+	static class Max implements IncrementalGroupFunction {
 		
 		public Max() {}
 
@@ -388,9 +486,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 				for(Item item : items) {
 					DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
 					if(itemState!=null) {
-						if(max==null || max.compareTo(itemState.toBigDecimal()) < 0) {
-							max = itemState.toBigDecimal();
-						}
+						max = max(max, itemState.toBigDecimal());
 					}
 				}
 				if(max!=null) {
@@ -400,6 +496,18 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return UnDefType.UNDEF;
 		}
 
+		/**
+		 * @{inheritDoc
+		 */
+		public Accumulator createAccumulator() {
+			return new OrderedAccumulator() {
+				public State getState() {
+					BigDecimal max = getMaximum();
+					return max==null ? UnDefType.UNDEF : new DecimalType(max);
+				}
+			};
+		}
+
 		/**
 		 * @{inheritDoc
 		 */
@@ -414,4 +522,289 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	}
 	
 	
+	/**
+	 * Base class for the accumulators of the arithmetic group functions. It remembers the
+	 * value each member has contributed to the result (and how often the member is contained
+	 * in the group), so that this contribution can be taken back when the member changes.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 *
+	 * @param <T> the type of the value which a member contributes
+	 */
+	static abstract class AbstractAccumulator<T> implements IncrementalGroupFunction.Accumulator {
+		
+		private final Map<Item, Contribution<T>> contributions = new IdentityHashMap<Item, Contribution<T>>();
+		
+		/** the number of members, counting each occurrence of a member */
+		private int count = 0;
+		
+		public void add(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution==null) {
+				contribution = new Contribution<T>(valueOf(item));
+				contributions.put(item, contribution);
+			}
+			contribution.occurrences++;
+			count++;
+			if(contribution.value!=null) {
+				added(contribution.value, 1);
+			}
+		}
+		
+		public void remove(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution!=null) {
+				contribution.occurrences--;
+				count--;
+				if(contribution.value!=null) {
+					removed(contribution.value, 1);
+				}
+				if(contribution.occurrences==0) {
+					contributions.remove(item);
+				}
+			}
+		}
+		
+		public void update(Item item) {
+			Contribution<T> contribution = contributions.get(item);
+			if(contribution!=null) {
+				T newValue = valueOf(item);
+				if(contribution.value!=null) {
+					removed(contribution.value, contribution.occurrences);
+				}
+				contribution.value = newValue;
+				if(newValue!=null) {
+					added(newValue, contribution.occurrences);
+				}
+			}
+		}
+		
+		/**
+		 * @return the number of members, counting each occurrence of a member
+		 */
+		protected int getCount() {
+			return count;
+		}
+		
+		/**
+		 * Determines the value which the given member contributes to the result.
+		 * 
+		 * @param item the member
+		 * @return the contributed value or <code>null</code>, if the member does not contribute
+		 */
+		abstract protected T valueOf(Item item);
+		
+		/**
+		 * Adds a value to the intermediate result.
+		 * 
+		 * @param value the value to add
+		 * @param times how often the value is added
+		 */
+		abstract protected void added(T value, int times);
+		
+		/**
+		 * Removes a value, which has been added before, from the intermediate result.
+		 * 
+		 * @param value the value to remove
+		 * @param times how often the value is removed
+		 */
+		abstract protected void removed(T value, int times);
+		
+		private static class Contribution<T> {
+			T value;
+			int occurrences = 0;
+			
+			Contribution(T value) {
+				this.value = value;
+			}
+		}
+	}
+	
+	/**
+	 * Counts the members which are in a given active state.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	static abstract class ActiveStateAccumulator extends AbstractAccumulator<Boolean> {
+		
+		private final State activeState;
+		
+		private int activeCount = 0;
+		
+		public ActiveStateAccumulator(State activeState) {
+			this.activeState = activeState;
+		}
+
+		protected Boolean valueOf(Item item) {
+			return activeState.equals(item.getState()) ? Boolean.TRUE : null;
+		}
+
+		protected void added(Boolean value, int times) {
+			activeCount += times;
+		}
+
+		protected void removed(Boolean value, int times) {
+			activeCount -= times;
+		}
+
+		/**
+		 * @return the number of members in the active state, counting each occurrence of a member
+		 */
+		protected int getActiveCount() {
+			return activeCount;
+		}
+	}
+
+	/**
+	 * Sums up the decimal states of the members. The sum is kept with the same scale
+	 * as if it was calculated from scratch, i.e. with the largest scale of all current values.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	static abstract class SumAccumulator extends AbstractAccumulator<BigDecimal> {
+		
+		private BigDecimal sum = BigDecimal.ZERO;
+		
+		/** the number of values which contribute to the sum */
+		private int valueCount = 0;
+		
+		/** the number of values per scale, to determine the scale of the sum */
+		private final TreeMap<Integer, Integer> scales = new TreeMap<Integer, Integer>();
+		
+		protected BigDecimal valueOf(Item item) {
+			DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
+			return itemState!=null ? itemState.toBigDecimal() : null;
+		}
+
+		protected void added(BigDecimal value, int times) {
+			sum = sum.add(value.multiply(new BigDecimal(times)));
+			valueCount += times;
+			Integer scaleCount = scales.get(value.scale());
+			scales.put(value.scale(), scaleCount==null ? times : scaleCount + times);
+		}
+
+		protected void removed(BigDecimal value, int times) {
+			sum = sum.subtract(value.multiply(new BigDecimal(times)));
+			valueCount -= times;
+			int scaleCount = scales.get(value.scale()) - times;
+			if(scaleCount > 0) {
+				scales.put(value.scale(), scaleCount);
+			} else {
+				scales.remove(value.scale());
+			}
+		}
+		
+		/**
+		 * @return the sum of all values
+		 */
+		protected BigDecimal getSum() {
+			int scale = scales.isEmpty() ? 0 : Math.max(0, scales.lastKey());
+			return sum.setScale(scale, RoundingMode.UNNECESSARY);
+		}
+		
+		/**
+		 * @return the number of values which contribute to the sum
+		 */
+		@Override
+		protected int getCount() {
+			return valueCount;
+		}
+	}
+
+	/**
+	 * Returns the smaller of two values; of two equal values, the one with the larger scale
+	 * is returned, so that the result does not depend on the order of the members.
+	 * 
+	 * @param min the minimum so far or <code>null</code>
+	 * @param value the value to compare
+	 * @return the new minimum
+	 */
+	static BigDecimal min(BigDecimal min, BigDecimal value) {
+		if(min==null) {
+			return value;
+		}
+		int comparison = min.compareTo(value);
+		return comparison > 0 || (comparison==0 && value.scale() > min.scale()) ? value : min;
+	}
+	
+	/**
+	 * Returns the larger of two values; of two equal values, the one with the larger scale
+	 * is returned, so that the result does not depend on the order of the members.
+	 * 
+	 * @param max the maximum so far or <code>null</code>
+	 * @param value the value to compare
+	 * @return the new maximum
+	 */
+	static BigDecimal max(BigDecimal max, BigDecimal value) {
+		if(max==null) {
+			return value;
+		}
+		int comparison = max.compareTo(value);
+		return comparison < 0 || (comparison==0 && value.scale() > max.scale()) ? value : max;
+	}
+	
+	/**
+	 * Keeps the decimal states of the members in order, so that the minimum and maximum can be
+	 * determined without looking at all members. As values which only differ in their scale
+	 * (e.g. 1.0 and 1.00) are equal, the scales of each value are counted as well, and the
+	 * minimum and maximum are returned with their largest scale, like {@link Min} and {@link Max} do.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	static abstract class OrderedAccumulator extends AbstractAccumulator<BigDecimal> {
+		
+		/** the number of occurrences per value and scale */
+		private final TreeMap<BigDecimal, TreeMap<Integer, Integer>> values = new TreeMap<BigDecimal, TreeMap<Integer, Integer>>();
+		
+		protected BigDecimal valueOf(Item item) {
+			DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
+			return itemState!=null ? itemState.toBigDecimal() : null;
+		}
+
+		protected void added(BigDecimal value, int times) {
+			TreeMap<Integer, Integer> scales = values.get(value);
+			if(scales==null) {
+				scales = new TreeMap<Integer, Integer>();
+				values.put(value, scales);
+			}
+			Integer occurrences = scales.get(value.scale());
+			scales.put(value.scale(), occurrences==null ? times : occurrences + times);
+		}
+
+		protected void removed(BigDecimal value, int times) {
+			TreeMap<Integer, Integer> scales = values.get(value);
+			int occurrences = scales.get(value.scale()) - times;
+			if(occurrences > 0) {
+				scales.put(value.scale(), occurrences);
+			} else {
+				scales.remove(value.scale());
+				if(scales.isEmpty()) {
+					values.remove(value);
+				}
+			}
+		}
+		
+		/**
+		 * @return the smallest current value or <code>null</code>, if there is none
+		 */
+		protected BigDecimal getMinimum() {
+			return values.isEmpty() ? null : withLargestScale(values.firstEntry());
+		}
+		
+		/**
+		 * @return the largest current value or <code>null</code>, if there is none
+		 */
+		protected BigDecimal getMaximum() {
+			return values.isEmpty() ? null : withLargestScale(values.lastEntry());
+		}
+		
+		private static BigDecimal withLargestScale(Map.Entry<BigDecimal, TreeMap<Integer, Integer>> entry) {
+			return entry.getKey().setScale(entry.getValue().lastKey(), RoundingMode.UNNECESSARY);
+		}
+	}
+	
 }
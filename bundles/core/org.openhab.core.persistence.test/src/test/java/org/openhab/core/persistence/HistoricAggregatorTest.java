@@ -0,0 +1,111 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.types.State;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class HistoricAggregatorTest {
+
+	@Test
+	public void testEmptySeries() {
+		HistoricAggregator aggregator = new HistoricAggregator("Test", new Date(0), new Date(100), null);
+		
+		assertEquals(new DecimalType(0), aggregator.getResult(AggregateFunction.COUNT).getState());
+		assertNull(aggregator.getResult(AggregateFunction.MINIMUM));
+		assertNull(aggregator.getResult(AggregateFunction.MAXIMUM));
+		assertNull(aggregator.getResult(AggregateFunction.AVERAGE));
+		assertNull(aggregator.getResult(AggregateFunction.TIME_WEIGHTED_AVERAGE));
+		assertNull(aggregator.getResult(AggregateFunction.LAST_CHANGE));
+	}
+
+	@Test
+	public void testAggregations() {
+		HistoricAggregator aggregator = new HistoricAggregator("Test", new Date(0), new Date(100), new DecimalType(4));
+		HistoricItem first = createItem(10, new DecimalType(2));
+		HistoricItem second = createItem(20, new DecimalType(8));
+		HistoricItem third = createItem(60, new DecimalType(2));
+		HistoricItem fourth = createItem(80, new DecimalType(2));
+		aggregator.add(first);
+		aggregator.add(second);
+		aggregator.add(third);
+		aggregator.add(fourth);
+		
+		assertEquals(new DecimalType(4), aggregator.getResult(AggregateFunction.COUNT).getState());
+		assertEquals(first, aggregator.getResult(AggregateFunction.MINIMUM));
+		assertEquals(second, aggregator.getResult(AggregateFunction.MAXIMUM));
+		assertEquals(new DecimalType(3.5), aggregator.getResult(AggregateFunction.AVERAGE).getState());
+		// 4 for 10ms, 2 for 10ms, 8 for 40ms, 2 for 40ms
+		DecimalType average = (DecimalType) aggregator.getResult(AggregateFunction.TIME_WEIGHTED_AVERAGE).getState();
+		assertEquals(4.6, average.doubleValue(), 0.0001);
+		assertEquals(third, aggregator.getResult(AggregateFunction.LAST_CHANGE));
+	}
+
+	@Test
+	public void testNonDecimalStates() {
+		HistoricAggregator aggregator = new HistoricAggregator("Test", new Date(0), new Date(100), null);
+		aggregator.add(createItem(0, new DecimalType(10)));
+		aggregator.add(createItem(50, OnOffType.ON));
+		
+		// only decimal values are counted
+		assertEquals(new DecimalType(1), aggregator.getResult(AggregateFunction.COUNT).getState());
+		assertEquals(new DecimalType(10), aggregator.getResult(AggregateFunction.AVERAGE).getState());
+		// the decimal value is only valid until the next state
+		assertEquals(new DecimalType(10), aggregator.getResult(AggregateFunction.TIME_WEIGHTED_AVERAGE).getState());
+		assertEquals(50, aggregator.getResult(AggregateFunction.LAST_CHANGE).getTimestamp().getTime());
+	}
+	
+	private static HistoricItem createItem(final long time, final State state) {
+		return new HistoricItem() {
+			public Date getTimestamp() {
+				return new Date(time);
+			}
+
+			public State getState() {
+				return state;
+			}
+
+			public String getName() {
+				return "Test";
+			}
+		};
+	}
+
+}
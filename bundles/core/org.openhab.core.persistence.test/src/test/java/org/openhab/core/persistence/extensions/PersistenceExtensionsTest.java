@@ -29,7 +29,9 @@
 package org.openhab.core.persistence.extensions;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 
@@ -123,4 +125,25 @@ public class PersistenceExtensionsTest {
 		DecimalType average = PersistenceExtensions.averageSince(item, new DateMidnight(2003, 1, 1), "test");
 		assertEquals("2100", average.toString());
 	}
+
+	@Test
+	public void testTimeWeightedAverageSince() {
+		item.setState(new DecimalType(3025));
+		DecimalType average = PersistenceExtensions.timeWeightedAverageSince(item, new DateMidnight(2003, 1, 1), "test");
+		// the last value is valid until now, so it has the largest weight
+		assertTrue(average.doubleValue() > 2007.5);
+		assertTrue(average.doubleValue() < 2012);
+	}
+
+	@Test
+	public void testChangedSince() {
+		assertTrue(PersistenceExtensions.changedSince(item, new DateMidnight(2003, 1, 1), "test"));
+		assertFalse(PersistenceExtensions.changedSince(item, new DateMidnight(2012, 1, 1), "test"));
+	}
+
+	@Test
+	public void testUpdatedSince() {
+		assertTrue(PersistenceExtensions.updatedSince(item, new DateMidnight(2003, 1, 1), "test"));
+		assertFalse(PersistenceExtensions.updatedSince(item, new DateMidnight(2012, 1, 1), "test"));
+	}
 }
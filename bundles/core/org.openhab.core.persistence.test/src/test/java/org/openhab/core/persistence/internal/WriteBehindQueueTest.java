@@ -0,0 +1,212 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.PersistenceRecord;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.internal.WriteBehindQueue.OverflowPolicy;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class WriteBehindQueueTest {
+
+	@Test
+	public void testBatchServiceReceivesAllStates() {
+		RecordingBatchService service = new RecordingBatchService();
+		GenericItem item = createItem("Test");
+		WriteBehindQueue queue = new WriteBehindQueue(service, 10, OverflowPolicy.BLOCK, 5);
+		
+		for(int i = 1; i <= 3; i++) {
+			item.setState(new DecimalType(i));
+			queue.enqueue(item, null);
+		}
+		queue.start();
+		queue.stop();
+		
+		assertEquals(3, service.records.size());
+		for(int i = 0; i < 3; i++) {
+			assertEquals(new DecimalType(i + 1), service.records.get(i).getState());
+		}
+		assertEquals(3, queue.getStoredCount());
+		assertEquals(0, queue.getQueueDepth());
+	}
+
+	@Test
+	public void testDropPolicy() {
+		RecordingBatchService service = new RecordingBatchService();
+		GenericItem item = createItem("Test");
+		WriteBehindQueue queue = new WriteBehindQueue(service, 2, OverflowPolicy.DROP, 10);
+		
+		for(int i = 0; i < 5; i++) {
+			queue.enqueue(item, null);
+		}
+		
+		assertEquals(2, queue.getQueueDepth());
+		assertEquals(3, queue.getDroppedCount());
+		queue.start();
+		queue.stop();
+		assertEquals(2, queue.getStoredCount());
+	}
+
+	@Test
+	public void testBlockPolicyGivesUpAfterTimeout() {
+		RecordingBatchService service = new RecordingBatchService();
+		GenericItem item = createItem("Test");
+		WriteBehindQueue queue = new WriteBehindQueue(service, 1, OverflowPolicy.BLOCK, 10);
+		
+		// the worker is not started, so the second request cannot be queued
+		queue.enqueue(item, null);
+		long start = System.currentTimeMillis();
+		queue.enqueue(item, null);
+		
+		assertTrue(System.currentTimeMillis() - start >= WriteBehindQueue.BLOCK_TIMEOUT);
+		assertEquals(1, queue.getQueueDepth());
+		assertEquals(1, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testRequestsAfterStopAreDropped() {
+		RecordingBatchService service = new RecordingBatchService();
+		GenericItem item = createItem("Test");
+		WriteBehindQueue queue = new WriteBehindQueue(service, 10, OverflowPolicy.BLOCK, 10);
+		queue.start();
+		queue.stop();
+		
+		queue.enqueue(item, null);
+		
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(1, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testFailuresAreCounted() {
+		RecordingBatchService service = new RecordingBatchService() {
+			@Override
+			public void store(Collection<PersistenceRecord> records) {
+				throw new IllegalStateException("database not available");
+			}
+		};
+		WriteBehindQueue queue = new WriteBehindQueue(service, 10, OverflowPolicy.BLOCK, 10);
+		
+		queue.enqueue(createItem("Test"), null);
+		queue.start();
+		queue.stop();
+		
+		assertEquals(0, queue.getStoredCount());
+		assertEquals(1, queue.getFailedCount());
+	}
+	
+	@Test
+	public void testStopDoesNotInterruptRunningBatch() throws InterruptedException {
+		final CountDownLatch storing = new CountDownLatch(1);
+		final boolean[] interrupted = new boolean[1];
+		RecordingBatchService service = new RecordingBatchService() {
+			@Override
+			public void store(Collection<PersistenceRecord> records) {
+				storing.countDown();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					interrupted[0] = true;
+				}
+				super.store(records);
+			}
+		};
+		WriteBehindQueue queue = new WriteBehindQueue(service, 10, OverflowPolicy.BLOCK, 10);
+		queue.start();
+		queue.enqueue(createItem("Test"), null);
+		
+		assertTrue(storing.await(10, TimeUnit.SECONDS));
+		queue.stop();
+		
+		assertFalse(interrupted[0]);
+		assertEquals(1, service.records.size());
+		assertEquals(1, queue.getStoredCount());
+	}
+	
+	private static GenericItem createItem(String name) {
+		return new GenericItem(name) {
+			@Override
+			public List<Class<? extends State>> getAcceptedDataTypes() {
+				return null;
+			}
+			
+			@Override
+			public List<Class<? extends Command>> getAcceptedCommandTypes() {
+				return null;
+			}
+		};
+	}
+	
+	private static class RecordingService implements PersistenceService {
+		
+		List<String> names = new ArrayList<String>();
+
+		public String getName() {
+			return "recording";
+		}
+
+		public void store(Item item) {
+			store(item, null);
+		}
+
+		public void store(Item item, String alias) {
+			names.add(alias!=null ? alias : item.getName());
+		}
+	}
+	
+	private static class RecordingBatchService extends RecordingService implements BatchPersistenceService {
+		
+		List<PersistenceRecord> records = new ArrayList<PersistenceRecord>();
+
+		public void store(Collection<PersistenceRecord> records) {
+			this.records.addAll(records);
+		}
+	}
+
+}
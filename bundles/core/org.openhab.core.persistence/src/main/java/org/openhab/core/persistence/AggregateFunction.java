@@ -0,0 +1,64 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+/**
+ * Enumeration of the aggregations which can be calculated over the entries
+ * that match a {@link FilterCriteria}.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public enum AggregateFunction {
+
+	/** 
+	 * the number of entries with a decimal value, i.e. the number of values the {@link #AVERAGE}
+	 * is taken of; the state of the result is a <code>DecimalType</code> 
+	 */
+	COUNT,
+	
+	/** the entry with the smallest decimal value; for equal values, the oldest entry */
+	MINIMUM,
+	
+	/** the entry with the largest decimal value; for equal values, the oldest entry */
+	MAXIMUM,
+	
+	/** the arithmetic mean of all decimal values */
+	AVERAGE,
+	
+	/** 
+	 * the mean of all decimal values, where each value is weighted by the time until the next 
+	 * entry or until the end of the time range
+	 */
+	TIME_WEIGHTED_AVERAGE,
+	
+	/** the most recent entry whose state differs from the state of the entry before it */
+	LAST_CHANGE
+	
+}
@@ -0,0 +1,55 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+/**
+ * A queryable persistence service which is able to calculate aggregations itself,
+ * e.g. by the means of its query language, instead of returning all matching entries.
+ * 
+ * <p>Callers should use {@link HistoricAggregator#aggregate(QueryablePersistenceService, FilterCriteria, 
+ * org.openhab.core.types.State, AggregateFunction...)}, which falls back to calculating
+ * the aggregation from the query result if a service does not support it.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface AggregatingPersistenceService extends QueryablePersistenceService {
+
+	/**
+	 * Calculates an aggregation over all entries that match a filter. Paging and ordering 
+	 * of the filter are not regarded.
+	 * 
+	 * @param filter the filter that determines the entries to aggregate
+	 * @param function the aggregation to calculate
+	 * @return a historic item with the aggregated state or <code>null</code>, if there are no matching entries
+	 * @throws UnsupportedOperationException if the service cannot calculate the given aggregation
+	 */
+	HistoricItem aggregate(FilterCriteria filter, AggregateFunction function);
+
+}
@@ -0,0 +1,53 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Collection;
+
+/**
+ * A persistence service which can store several item states at once. The
+ * persistence manager passes its queued store requests in batches to such
+ * services, instead of calling {@link #store(org.openhab.core.items.Item, String)}
+ * for each of them.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface BatchPersistenceService extends PersistenceService {
+
+	/**
+	 * Stores a batch of item states. Implementations must use the state and
+	 * timestamp of each record, as the current state of the item might have
+	 * changed since the record has been created.
+	 * 
+	 * @param records the records to persist, in the order they have been created
+	 */
+	void store(Collection<PersistenceRecord> records);
+	
+}
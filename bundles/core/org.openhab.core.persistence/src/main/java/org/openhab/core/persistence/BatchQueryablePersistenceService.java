@@ -0,0 +1,55 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A queryable persistence service which can retrieve the most recent entries of 
+ * several items at once. The persistence manager uses this to restore the item 
+ * states on startup; for other queryable services, it queries each item on its own.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public interface BatchQueryablePersistenceService extends QueryablePersistenceService {
+
+	/**
+	 * Retrieves the most recent entries for a number of items at once. This is used to restore
+	 * the item states on startup, so services should answer it with as few requests to their
+	 * storage as possible.
+	 * 
+	 * @param itemNames the names of the items to get the entries for
+	 * @return the most recent entry for each item, keyed by item name; items for which 
+	 * no entry exists are not contained
+	 */
+	Map<String, HistoricItem> queryLatest(Collection<String> itemNames);
+
+}
@@ -0,0 +1,267 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Date;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.types.State;
+
+/**
+ * The historic aggregator calculates all {@link AggregateFunction}s in a single pass over 
+ * a time series. Entries are only looked at once and are not kept, so that also large
+ * query results can be aggregated without holding them in memory.
+ * 
+ * <p>Entries have to be added in ascending order of their timestamps.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class HistoricAggregator {
+
+	private final String name;
+	
+	private final Date endDate;
+	
+	private long decimalCount = 0;
+	
+	private double sum = 0;
+	
+	private HistoricItem minimum;
+	
+	private DecimalType minimumValue;
+	
+	private HistoricItem maximum;
+	
+	private DecimalType maximumValue;
+	
+	/** the time since which the last decimal value is valid or null, if it is not known */
+	private Date lastTimestamp;
+	
+	/** the last decimal value or null, if the last state has not been a decimal value */
+	private DecimalType lastValue;
+	
+	private double weightedSum = 0;
+	
+	private long weightedDuration = 0;
+
+	private State lastState;
+	
+	private HistoricItem lastChange;
+	
+	/**
+	 * Creates a new aggregator.
+	 * 
+	 * @param name the name to use for calculated results
+	 * @param beginDate the begin of the time range or <code>null</code>
+	 * @param endDate the end of the time range or <code>null</code>, if it ends now
+	 * @param initialState the state before the first entry or <code>null</code>, if it is not known
+	 */
+	public HistoricAggregator(String name, Date beginDate, Date endDate, State initialState) {
+		this.name = name;
+		this.endDate = endDate;
+		this.lastState = initialState;
+		if(beginDate!=null && initialState instanceof DecimalType) {
+			lastTimestamp = beginDate;
+			lastValue = (DecimalType) initialState;
+		}
+	}
+
+	/**
+	 * Adds the next entry of the time series to the aggregations.
+	 * 
+	 * @param historicItem the entry to add
+	 */
+	public void add(HistoricItem historicItem) {
+		State state = historicItem.getState();
+		Date timestamp = historicItem.getTimestamp();
+		
+		if(lastState!=null && !lastState.equals(state)) {
+			lastChange = historicItem;
+		}
+		lastState = state;
+
+		if(lastValue!=null) {
+			long duration = timestamp.getTime() - lastTimestamp.getTime();
+			if(duration > 0) {
+				weightedSum += lastValue.doubleValue() * duration;
+				weightedDuration += duration;
+			}
+		}
+		lastTimestamp = timestamp;
+		
+		if(state instanceof DecimalType) {
+			DecimalType value = (DecimalType) state;
+			decimalCount++;
+			sum += value.doubleValue();
+			if(minimumValue==null || value.compareTo(minimumValue) < 0) {
+				minimumValue = value;
+				minimum = historicItem;
+			}
+			if(maximumValue==null || value.compareTo(maximumValue) > 0) {
+				maximumValue = value;
+				maximum = historicItem;
+			}
+			lastValue = value;
+		} else {
+			lastValue = null;
+		}
+	}
+	
+	/**
+	 * Returns the result of an aggregation over all entries that have been added so far.
+	 * 
+	 * @param function the aggregation to return
+	 * @return the result or <code>null</code>, if it could not be calculated from the entries
+	 */
+	public HistoricItem getResult(AggregateFunction function) {
+		switch(function) {
+			case COUNT:
+				return createItem(new DecimalType(decimalCount));
+			case MINIMUM:
+				return minimum;
+			case MAXIMUM:
+				return maximum;
+			case AVERAGE:
+				return decimalCount > 0 ? createItem(new DecimalType(sum / decimalCount)) : null;
+			case TIME_WEIGHTED_AVERAGE:
+				return getTimeWeightedAverage();
+			case LAST_CHANGE:
+				return lastChange;
+			default:
+				return null;
+		}
+	}
+
+	private HistoricItem getTimeWeightedAverage() {
+		double totalSum = weightedSum;
+		long totalDuration = weightedDuration;
+		if(lastValue!=null) {
+			// the last value is valid until the end of the time range
+			long end = endDate!=null ? endDate.getTime() : System.currentTimeMillis();
+			long duration = end - lastTimestamp.getTime();
+			if(duration > 0) {
+				totalSum += lastValue.doubleValue() * duration;
+				totalDuration += duration;
+			}
+		}
+		if(totalDuration > 0) {
+			return createItem(new DecimalType(totalSum / totalDuration));
+		} else if(lastValue!=null) {
+			return createItem(lastValue);
+		} else {
+			return null;
+		}
+	}
+
+	private HistoricItem createItem(State state) {
+		return new AggregatedItem(name, state, endDate!=null ? endDate : new Date());
+	}
+
+	/**
+	 * Calculates aggregations over all entries of a persistence service that match a filter.
+	 * If the service is an {@link AggregatingPersistenceService}, the service is asked to do
+	 * the calculations. Otherwise, or if it does not support one of the functions, all 
+	 * functions are calculated in a single pass over the query result.
+	 * 
+	 * @param service the service to query
+	 * @param filter the filter that determines the entries; paging and ordering are not regarded
+	 * @param initialState the state before the begin date of the filter or <code>null</code>, if it is not known;
+	 * this is only used if the aggregations are not calculated by the service
+	 * @param functions the aggregations to calculate
+	 * @return the results in the order of the given functions; an element is <code>null</code>, 
+	 * if the aggregation could not be calculated
+	 */
+	public static HistoricItem[] aggregate(QueryablePersistenceService service, FilterCriteria filter, 
+			State initialState, AggregateFunction... functions) {
+		HistoricItem[] results = new HistoricItem[functions.length];
+		if(service instanceof AggregatingPersistenceService) {
+			try {
+				for(int i = 0; i < functions.length; i++) {
+					results[i] = ((AggregatingPersistenceService) service).aggregate(filter, functions[i]);
+				}
+				return results;
+			} catch(UnsupportedOperationException e) {
+				// calculate all of them ourselves below
+			}
+		}
+
+		FilterCriteria streamFilter = new FilterCriteria()
+			.setItemName(filter.getItemName())
+			.setBeginDate(filter.getBeginDate())
+			.setEndDate(filter.getEndDate())
+			.setOperator(filter.getOperator())
+			.setState(filter.getState())
+			.setOrdering(Ordering.ASCENDING);
+		HistoricAggregator aggregator = 
+			new HistoricAggregator(filter.getItemName(), filter.getBeginDate(), filter.getEndDate(), initialState);
+		for(HistoricItem historicItem : service.query(streamFilter)) {
+			aggregator.add(historicItem);
+		}
+		for(int i = 0; i < functions.length; i++) {
+			results[i] = aggregator.getResult(functions[i]);
+		}
+		return results;
+	}
+	
+	/**
+	 * A historic item for calculated states.
+	 */
+	private static class AggregatedItem implements HistoricItem {
+		
+		private final String name;
+		private final State state;
+		private final Date timestamp;
+
+		public AggregatedItem(String name, State state, Date timestamp) {
+			this.name = name;
+			this.state = state;
+			this.timestamp = timestamp;
+		}
+
+		public Date getTimestamp() {
+			return timestamp;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public String getName() {
+			return name;
+		}
+		
+		@Override
+		public String toString() {
+			return name + " -> " + state + " (" + timestamp + ")";
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Date;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.types.State;
+
+/**
+ * A PersistenceRecord keeps the state an item had at the time it should be persisted.
+ * Records are passed to a {@link BatchPersistenceService}, when the store requests
+ * are processed asynchronously.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class PersistenceRecord {
+
+	private final Item item;
+	
+	private final String alias;
+	
+	private final State state;
+	
+	private final Date timestamp;
+
+	public PersistenceRecord(Item item, String alias) {
+		this(item, alias, item.getState(), new Date());
+	}
+
+	public PersistenceRecord(Item item, String alias, State state, Date timestamp) {
+		this.item = item;
+		this.alias = alias;
+		this.state = state;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return the item which should be persisted
+	 */
+	public Item getItem() {
+		return item;
+	}
+
+	/**
+	 * @return the alias under which the item should be persisted or <code>null</code>, if no alias is configured
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the name under which the item should be persisted, i.e. the alias or the item name
+	 */
+	public String getName() {
+		return alias!=null ? alias : item.getName();
+	}
+
+	/**
+	 * @return the state which should be persisted; this is the state the item had when the record was created
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the time at which the item had this state
+	 */
+	public Date getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return getName() + " -> " + state + " (" + timestamp + ")";
+	}
+
+}
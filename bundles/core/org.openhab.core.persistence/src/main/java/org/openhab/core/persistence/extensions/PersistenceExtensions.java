@@ -29,17 +29,17 @@
 package org.openhab.core.persistence.extensions;
 
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.joda.time.base.AbstractInstant;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregateFunction;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricAggregator;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
@@ -53,7 +53,10 @@ import org.slf4j.LoggerFactory;
 
 /** 
  * This class provides static methods that can be used in automation rules
- * for using persistence services
+ * for using persistence services.
+ * 
+ * Aggregations are calculated by the persistence service, if it supports this; otherwise
+ * they are calculated in a single pass over the query result by a {@link HistoricAggregator}.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -178,17 +181,9 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return true, if item state had changed
 	 */
 	static public Boolean changedSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		State state = historicState(item, timestamp);
-		while(it.hasNext()) {
-			HistoricItem hItem = it.next();
-			if(state!=null && !hItem.getState().equals(state)) {
-				return true;
-			}
-			state = hItem.getState();
-		}
-		return false;
+		State state = historicState(item, timestamp, serviceName);
+		HistoricItem lastChange = aggregateSince(item, timestamp, serviceName, state, AggregateFunction.LAST_CHANGE)[0];
+		return lastChange!=null;
 	} 
 
 	/**
@@ -217,10 +212,13 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return true, if item state was updated
 	 */
 	static public Boolean updatedSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		if(result.iterator().hasNext()) {
-			return true;
+		PersistenceService service = services.get(serviceName);
+		if (service instanceof QueryablePersistenceService) {
+			// a single entry is enough to know that there has been an update
+			FilterCriteria filter = createFilterSince(item, timestamp).setPageSize(1);
+			return ((QueryablePersistenceService) service).query(filter).iterator().hasNext();
 		} else {
+			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
 			return false;
 		}
 	} 
@@ -253,19 +251,14 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return a historic item with the maximum state value since the given point in time
 	 */
 	static public HistoricItem maximumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		HistoricItem maximumHistoricItem = null;
+		HistoricItem maximumHistoricItem = aggregateSince(item, timestamp, serviceName, null, AggregateFunction.MAXIMUM)[0];
 		DecimalType maximum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(maximum==null || value.compareTo(maximum)>0) {
-					maximum = value;
-					maximumHistoricItem = historicItem;
-				}
+		if(maximumHistoricItem!=null) {
+			DecimalType value = (DecimalType) maximumHistoricItem.getState();
+			if(maximum==null || value.compareTo(maximum)>0) {
+				maximum = value;
+			} else {
+				maximumHistoricItem = null;
 			}
 		}
 		if(maximumHistoricItem==null && maximum!=null) {
@@ -318,19 +311,14 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the historic item with the minimum state value since the given point in time
 	 */
 	static public HistoricItem minimumSince(final Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		HistoricItem minimumHistoricItem = null;
+		HistoricItem minimumHistoricItem = aggregateSince(item, timestamp, serviceName, null, AggregateFunction.MINIMUM)[0];
 		DecimalType minimum = (DecimalType) item.getStateAs(DecimalType.class);
-		while(it.hasNext()) {
-			HistoricItem historicItem = it.next();
-			State state = historicItem.getState();
-			if (state instanceof DecimalType) {
-				DecimalType value = (DecimalType) state;
-				if(minimum==null || value.compareTo(minimum)<0) {
-					minimum = value;
-					minimumHistoricItem = historicItem;
-				}
+		if(minimumHistoricItem!=null) {
+			DecimalType value = (DecimalType) minimumHistoricItem.getState();
+			if(minimum==null || value.compareTo(minimum)<0) {
+				minimum = value;
+			} else {
+				minimumHistoricItem = null;
 			}
 		}
 		if(minimumHistoricItem==null && minimum!=null) {
@@ -381,41 +369,93 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the average state value since the given point in time
 	 */
 	static public DecimalType averageSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
+		HistoricItem[] results = aggregateSince(item, timestamp, serviceName, null, 
+				AggregateFunction.COUNT, AggregateFunction.AVERAGE);
 		
 		DecimalType value = (DecimalType) item.getStateAs(DecimalType.class);
 		if (value == null) {
 			value = DecimalType.ZERO;
 		}
 		
+		// the current state counts as one more value; the count only includes
+		// decimal values, as the average is only taken of those
 		double average = value.doubleValue();
-		int quantity = 1;
-		while(it.hasNext()) {
-			State state = it.next().getState();
-			if (state instanceof DecimalType) {
-				value = (DecimalType) state;
-				average += value.doubleValue();
-				quantity++;
-			}
+		long quantity = 1;
+		if(results[0]!=null && results[1]!=null) {
+			long count = ((DecimalType) results[0].getState()).longValue();
+			average += ((DecimalType) results[1].getState()).doubleValue() * count;
+			quantity += count;
 		}
 		average /= quantity;
 		
 		return new DecimalType(average);
 	} 
 	
-	static private Iterable<HistoricItem> getAllStatesSince(Item item, AbstractInstant timestamp, String serviceName) {
+	/**
+	 * Gets the time-weighted average value of the state of a given <code>item</code> since a certain point in time,
+	 * i.e. each state is weighted by the time for which the item has had it. 
+	 * The default persistence service is used. 
+	 * 
+	 * @param item the item to get the average state value for
+	 * @param the point in time to start the check 
+	 * @return the time-weighted average state value since the given point in time
+	 */
+	static public DecimalType timeWeightedAverageSince(Item item, AbstractInstant timestamp) {
+		if(isDefaultServiceAvailable()) {
+			return timeWeightedAverageSince(item, timestamp, defaultService);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the time-weighted average value of the state of a given <code>item</code> since a certain point in time,
+	 * i.e. each state is weighted by the time for which the item has had it. 
+	 * The {@link PersistenceService} identified by the <code>serviceName</code> is used. 
+	 * 
+	 * @param item the item to get the average state value for
+	 * @param the point in time to start the check 
+	 * @param serviceName the name of the {@link PersistenceService} to use
+	 * @return the time-weighted average state value since the given point in time
+	 */
+	static public DecimalType timeWeightedAverageSince(Item item, AbstractInstant timestamp, String serviceName) {
+		State state = historicState(item, timestamp, serviceName);
+		HistoricItem average = aggregateSince(item, timestamp, serviceName, state, AggregateFunction.TIME_WEIGHTED_AVERAGE)[0];
+		if(average!=null) {
+			return (DecimalType) average.getState();
+		} else {
+			return (DecimalType) item.getStateAs(DecimalType.class);
+		}
+	}
+	
+	static private FilterCriteria createFilterSince(Item item, AbstractInstant timestamp) {
+		FilterCriteria filter = new FilterCriteria();
+		filter.setBeginDate(timestamp.toDate());
+		filter.setItemName(item.getName());
+		filter.setOrdering(Ordering.ASCENDING);
+		return filter;
+	}
+
+	/**
+	 * Calculates aggregations over all persisted states of an item since a certain point in time.
+	 * 
+	 * @param item the item to aggregate the states of
+	 * @param timestamp the point in time to start the aggregation
+	 * @param serviceName the name of the {@link PersistenceService} to use
+	 * @param initialState the state of the item at the given point in time or <code>null</code>
+	 * @param functions the aggregations to calculate
+	 * @return the results in the order of the given functions; all elements are <code>null</code>,
+	 * if the service cannot be queried
+	 */
+	static private HistoricItem[] aggregateSince(Item item, AbstractInstant timestamp, String serviceName, 
+			State initialState, AggregateFunction... functions) {
 		PersistenceService service = services.get(serviceName);
 		if (service instanceof QueryablePersistenceService) {
-			QueryablePersistenceService qService = (QueryablePersistenceService) service;
-			FilterCriteria filter = new FilterCriteria();
-			filter.setBeginDate(timestamp.toDate());
-			filter.setItemName(item.getName());
-			filter.setOrdering(Ordering.ASCENDING);
-			return qService.query(filter);
+			return HistoricAggregator.aggregate((QueryablePersistenceService) service, 
+					createFilterSince(item, timestamp), initialState, functions);
 		} else {
 			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
-			return Collections.emptySet();
+			return new HistoricItem[functions.length];
 		}
 	}
 	
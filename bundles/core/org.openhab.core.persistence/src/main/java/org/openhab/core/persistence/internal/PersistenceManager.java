@@ -32,17 +32,30 @@ import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.openhab.core.events.AbstractEventSubscriber;
 import org.openhab.core.items.GenericItem;
@@ -52,10 +65,13 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.StateChangeListener;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BatchQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.internal.WriteBehindQueue.OverflowPolicy;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
 import org.openhab.model.core.EventType;
@@ -69,6 +85,8 @@ import org.openhab.model.persistence.persistence.PersistenceConfiguration;
 import org.openhab.model.persistence.persistence.PersistenceModel;
 import org.openhab.model.persistence.persistence.Strategy;
 import org.openhab.model.persistence.scoping.GlobalStrategies;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
 import org.quartz.JobDetail;
@@ -85,11 +103,15 @@ import org.slf4j.LoggerFactory;
  * This class is the central part of the persistence management and delegation. It reads the persistence
  * models, schedules timers and manages the invocation of {@link PersistenceService}s upon events.
  * 
+ * Unless disabled through the configuration, state changes and updates are passed to each 
+ * {@link BatchPersistenceService} through a {@link WriteBehindQueue}, so that slow services do not
+ * block the threads that update items.
+ * 
  * @author Kai Kreuzer
  * @since 1.0.0
  *
  */
-public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener {
+public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener, ManagedService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistenceManager.class);
 
@@ -102,7 +124,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 
 	private ItemRegistry itemRegistry;
 
-	/*default */ Map<String, PersistenceService> persistenceServices = new HashMap<String, PersistenceService>();
+	/*default */ Map<String, PersistenceService> persistenceServices = new ConcurrentHashMap<String, PersistenceService>();
 	
 	/** keeps a list of configurations for each persistence service */
 	protected Map<String, List<PersistenceConfiguration>> persistenceConfigurations = new ConcurrentHashMap<String, List<PersistenceConfiguration>>();
@@ -111,6 +133,34 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	protected Map<String, List<Strategy>> defaultStrategies = 
 			Collections.synchronizedMap(new HashMap<String, List<Strategy>>());
 	
+	/** 
+	 * the routes to the persistence services for state changes and updates, keyed by item name.
+	 * Routes are determined on first use of an item; whenever the persistence models, the services
+	 * or the items change, the whole table is replaced by an empty one.
+	 */
+	private volatile Map<String, ItemRoutes> routingTable = new ConcurrentHashMap<String, ItemRoutes>();
+	
+	/** the write-behind queues of the persistence services, keyed by service name */
+	private Map<String, WriteBehindQueue> queues = new ConcurrentHashMap<String, WriteBehindQueue>();
+	
+	/** whether state events are passed to the services through write-behind queues */
+	private boolean queueEnabled = true;
+	
+	/** the maximum number of store requests which can be queued for a single service */
+	private int queueSize = 10000;
+	
+	/** what to do with store requests if the queue of a service is full */
+	private OverflowPolicy queuePolicy = OverflowPolicy.BLOCK;
+	
+	/** the maximum number of store requests which are passed to a service at once */
+	private int queueBatchSize = 100;
+	
+	/** the maximum number of persistence services which are queried in parallel for restoring states */
+	private static final int RESTORE_THREADS = 4;
+	
+	/** the executor which queries the persistence services in parallel, created on first use */
+	private ExecutorService restoreExecutor;
+	
 	
 	public PersistenceManager() {
 		PersistenceManager.instance = this;
@@ -130,6 +180,13 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 	
 	public void deactivate() {
+		stopQueues();
+		synchronized(this) {
+			if(restoreExecutor!=null) {
+				restoreExecutor.shutdown();
+				restoreExecutor = null;
+			}
+		}
 	}
 	
 	
@@ -165,6 +222,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void addPersistenceService(PersistenceService persistenceService) {
 		logger.debug("Initializing {} persistence service.", persistenceService.getName());
 		persistenceServices.put(persistenceService.getName(), persistenceService);
+		startQueue(persistenceService);
 		stopEventHandling(persistenceService.getName());
 		startEventHandling(persistenceService.getName());
 	}
@@ -172,6 +230,45 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void removePersistenceService(PersistenceService persistenceService) {
 		stopEventHandling(persistenceService.getName());
 		persistenceServices.remove(persistenceService.getName());
+		invalidateRoutes();
+		stopQueue(persistenceService.getName());
+	}
+	
+	/**
+	 * Creates and starts the write-behind queue for a persistence service, if queuing is enabled.
+	 * Only {@link BatchPersistenceService}s are queued, as all other services store the current
+	 * state of an item instead of the state it had when the request was queued.
+	 * 
+	 * @param service the persistence service to create the queue for
+	 */
+	private void startQueue(PersistenceService service) {
+		stopQueue(service.getName());
+		if(queueEnabled && service instanceof BatchPersistenceService) {
+			WriteBehindQueue queue = new WriteBehindQueue((BatchPersistenceService) service, queueSize, queuePolicy, queueBatchSize);
+			queue.start();
+			queues.put(service.getName(), queue);
+			invalidateRoutes();
+		}
+	}
+	
+	/**
+	 * Stops the write-behind queue of a persistence service after storing its remaining entries.
+	 * The routes are discarded before, so that new state events do not go to the stopped queue.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 */
+	private void stopQueue(String serviceName) {
+		WriteBehindQueue queue = queues.remove(serviceName);
+		if(queue!=null) {
+			invalidateRoutes();
+			queue.stop();
+		}
+	}
+	
+	private void stopQueues() {
+		for(String serviceName : new ArrayList<String>(queues.keySet())) {
+			stopQueue(serviceName);
+		}
 	}
 	
 	
@@ -200,13 +297,16 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 		if(model!=null) {
 			persistenceConfigurations.put(modelName, model.getConfigs());
 			defaultStrategies.put(modelName, model.getDefaults());
+			invalidateRoutes();
+			Set<Item> items = new HashSet<Item>();
 			for(PersistenceConfiguration config : model.getConfigs()) {
 				if(hasStrategy(modelName, config, GlobalStrategies.RESTORE)) {
 					for(Item item : getAllItems(config)) {
-						initialize(item);
+						items.add(item);
 					}
 				}
 			}
+			restoreStates(items);
 			createTimers(modelName);
 		}
 	}
@@ -219,6 +319,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	private void stopEventHandling(String modelName) {
 		persistenceConfigurations.remove(modelName);
 		defaultStrategies.remove(modelName);
+		invalidateRoutes();
 		removeTimers(modelName);
 	}
 
@@ -237,20 +338,53 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	 * @param onlyChanges true, if it has the change strategy, false otherwise
 	 */
 	private void handleStateEvent(Item item, boolean onlyChanges) {
-		synchronized (persistenceConfigurations) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				if(persistenceServices.containsKey(serviceName)) {				
-					for(PersistenceConfiguration config : entry.getValue()) {
-						if(hasStrategy(serviceName, config, onlyChanges ? GlobalStrategies.CHANGE : GlobalStrategies.UPDATE)) {
-							if(appliesToItem(config, item)) {
-								persistenceServices.get(serviceName).store(item, config.getAlias());
-							}
+		Map<String, ItemRoutes> table = routingTable;
+		ItemRoutes routes = table.get(item.getName());
+		if(routes==null) {
+			routes = new ItemRoutes(getRoutes(item, GlobalStrategies.CHANGE), getRoutes(item, GlobalStrategies.UPDATE));
+			// if the table has been replaced in the meantime, the routes only go to the outdated table
+			table.put(item.getName(), routes);
+		}
+		for(Route route : onlyChanges ? routes.changeRoutes : routes.updateRoutes) {
+			if(route.queue!=null) {
+				route.queue.enqueue(item, route.alias);
+			} else {
+				route.service.store(item, route.alias);
+			}
+		}
+	}
+	
+	/**
+	 * Determines all persistence services and aliases to which states of the given item are passed
+	 * for a certain strategy.
+	 * 
+	 * @param item the item to determine the routes for
+	 * @param strategy the strategy, i.e. change or update
+	 * @return the routes for this item and strategy
+	 */
+	private Route[] getRoutes(Item item, Strategy strategy) {
+		List<Route> routes = new ArrayList<Route>();
+		for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
+			String serviceName = entry.getKey();
+			PersistenceService service = persistenceServices.get(serviceName);
+			if(service!=null && defaultStrategies.containsKey(serviceName)) {
+				for(PersistenceConfiguration config : entry.getValue()) {
+					if(hasStrategy(serviceName, config, strategy)) {
+						if(appliesToItem(config, item)) {
+							routes.add(new Route(service, queues.get(serviceName), config.getAlias()));
 						}
 					}
 				}
 			}
 		}
+		return routes.toArray(new Route[routes.size()]);
+	}
+	
+	/**
+	 * Discards all routes, so that they are determined again on the next state event.
+	 */
+	private void invalidateRoutes() {
+		routingTable = new ConcurrentHashMap<String, ItemRoutes>();
 	}
 	
 	/**
@@ -353,12 +487,20 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	public void allItemsChanged(Collection<String> oldItemNames) {
-		for(Item item : itemRegistry.getItems()) {
-			itemAdded(item);
+		invalidateRoutes();
+		Collection<Item> items = itemRegistry.getItems();
+		restoreStates(items);
+		for(Item item : items) {
+			if (item instanceof GenericItem) {
+				GenericItem genericItem = (GenericItem) item;
+				genericItem.addStateChangeListener(this);
+			}
 		}
 	}
 
 	public void itemAdded(Item item) {
+		// the item may have changed the members of groups that are used in the configuration
+		invalidateRoutes();
 		initialize(item);
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
@@ -368,45 +510,117 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 
 	/**
 	 * Handles the "restoreOnStartup" strategy for the item.
-	 * If the item state is still undefined when entering this method, all persistence configurations are checked,
-	 * if they have the "restoreOnStartup" strategy configured for the item. If so, the item state will be set
-	 * to its last persisted value.
 	 * 
 	 * @param item the item to restore the state for
+	 * @see #restoreStates(Iterable)
 	 */
 	protected void initialize(Item item) {
-		// get the last persisted state from the persistence service if no state is yet set
-		if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				for(PersistenceConfiguration config : entry.getValue()) {
-					if(hasStrategy(serviceName, config, GlobalStrategies.RESTORE)) {
-						if(appliesToItem(config, item)) {
-							PersistenceService service = persistenceServices.get(serviceName);
-							if(service instanceof QueryablePersistenceService) {
-								QueryablePersistenceService queryService = (QueryablePersistenceService) service;
-								FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
-								Iterable<HistoricItem> result = queryService.query(filter);
-								Iterator<HistoricItem> it = result.iterator();
-								if(it.hasNext()) {
-									HistoricItem historicItem = it.next();
-									GenericItem genericItem = (GenericItem) item;
-									genericItem.removeStateChangeListener(this);
-									genericItem.setState(historicItem.getState());
-									genericItem.addStateChangeListener(this);
-									logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
-											new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
-											item.getName(), historicItem.getState().toString() } );
-									return;
-								}
-							} else if(service!=null) {
-								logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
+		restoreStates(Collections.singleton(item));
+	}
+
+	/**
+	 * Handles the "restoreOnStartup" strategy for a number of items.
+	 * All items whose state is still undefined are checked, if a persistence configuration has the 
+	 * "restoreOnStartup" strategy configured for them. If so, their states will be set to their last
+	 * persisted values. Each persistence service is asked for the states of all its items at once;
+	 * if several services are involved, they are queried in parallel by a small pool of threads which
+	 * is shared by all calls. If an item is restored by several 
+	 * services, the first service in the configuration wins.
+	 * 
+	 * @param items the items to restore the states for
+	 */
+	protected void restoreStates(Iterable<Item> items) {
+		// determine which items should be restored by which service
+		Map<String, Map<String, Item>> itemsToRestore = new LinkedHashMap<String, Map<String, Item>>();
+		for(Item item : items) {
+			if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
+				for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
+					String serviceName = entry.getKey();
+					for(PersistenceConfiguration config : entry.getValue()) {
+						if(hasStrategy(serviceName, config, GlobalStrategies.RESTORE) && appliesToItem(config, item)) {
+							Map<String, Item> serviceItems = itemsToRestore.get(serviceName);
+							if(serviceItems==null) {
+								serviceItems = new HashMap<String, Item>();
+								itemsToRestore.put(serviceName, serviceItems);
 							}
+							serviceItems.put(item.getName(), item);
+							break;
 						}
 					}
 				}
-			}	
-		}		
+			}
+		}
+		
+		// query the services
+		List<RestoreQuery> queries = new ArrayList<RestoreQuery>();
+		for(Entry<String, Map<String, Item>> entry : itemsToRestore.entrySet()) {
+			String serviceName = entry.getKey();
+			PersistenceService service = persistenceServices.get(serviceName);
+			if(service instanceof QueryablePersistenceService) {
+				queries.add(new RestoreQuery((QueryablePersistenceService) service, entry.getValue().keySet()));
+			} else if(service!=null) {
+				logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
+			}
+		}
+		List<Map<String, HistoricItem>> results = new ArrayList<Map<String, HistoricItem>>();
+		if(queries.size()==1) {
+			results.add(queries.get(0).call());
+		} else if(queries.size() > 1) {
+			ExecutorService executor = getRestoreExecutor();
+			try {
+				List<Future<Map<String, HistoricItem>>> futures = executor.invokeAll(queries);
+				for(int i = 0; i < futures.size(); i++) {
+					try {
+						results.add(futures.get(i).get());
+					} catch (ExecutionException e) {
+						logger.error("Failed to restore item states from persistence service '" 
+								+ queries.get(i).service.getName() + "'", e.getCause());
+						results.add(Collections.<String, HistoricItem>emptyMap());
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RejectedExecutionException e) {
+				// the persistence manager is being deactivated
+				return;
+			}
+		}
+
+		// set the restored states in the order of the services
+		for(int i = 0; i < queries.size(); i++) {
+			String serviceName = queries.get(i).service.getName();
+			Map<String, HistoricItem> historicItems = results.get(i);
+			for(Item item : itemsToRestore.get(serviceName).values()) {
+				HistoricItem historicItem = historicItems.get(item.getName());
+				if(historicItem!=null && item.getState().equals(UnDefType.NULL)) {
+					GenericItem genericItem = (GenericItem) item;
+					genericItem.removeStateChangeListener(this);
+					genericItem.setState(historicItem.getState());
+					genericItem.addStateChangeListener(this);
+					logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
+							new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
+							item.getName(), historicItem.getState().toString() } );
+				}
+			}
+		}
+	}
+
+	private synchronized ExecutorService getRestoreExecutor() {
+		if(restoreExecutor==null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(RESTORE_THREADS, RESTORE_THREADS, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Persistence restore");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			// the threads are only needed while states are restored
+			executor.allowCoreThreadTimeOut(true);
+			restoreExecutor = executor;
+		}
+		return restoreExecutor;
 	}
 
 	public void itemRemoved(Item item) {
@@ -414,6 +628,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
 		}
+		invalidateRoutes();
 	}
 	
 	/**
@@ -454,6 +669,61 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		boolean enabled = true;
+		int size = 10000;
+		OverflowPolicy policy = OverflowPolicy.BLOCK;
+		int batchSize = 100;
+		if(config!=null) {
+			String enabledString = (String) config.get("enabled");
+			if(StringUtils.isNotBlank(enabledString)) {
+				enabled = Boolean.parseBoolean(enabledString.trim());
+			}
+			size = parsePositiveInt(config, "size", size);
+			batchSize = parsePositiveInt(config, "batchsize", batchSize);
+			String policyString = (String) config.get("policy");
+			if(StringUtils.isNotBlank(policyString)) {
+				try {
+					policy = OverflowPolicy.valueOf(policyString.trim().toUpperCase());
+				} catch(IllegalArgumentException e) {
+					throw new ConfigurationException("policy", "'" + policyString + "' is not a valid policy, use 'block' or 'drop'");
+				}
+			}
+		}
+		
+		queueEnabled = enabled;
+		queueSize = size;
+		queuePolicy = policy;
+		queueBatchSize = batchSize;
+		
+		// recreate the queues with the new settings
+		stopQueues();
+		for(PersistenceService service : persistenceServices.values()) {
+			startQueue(service);
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static int parsePositiveInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String valueString = (String) config.get(key);
+		if(StringUtils.isNotBlank(valueString)) {
+			try {
+				int value = Integer.parseInt(valueString.trim());
+				if(value > 0) {
+					return value;
+				}
+			} catch(NumberFormatException e) {
+				// handled below
+			}
+			throw new ConfigurationException(key, "'" + valueString + "' is not a positive number");
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Delete all {@link Job}s of the group <code>persistModelName</code>
 	 * 
@@ -478,6 +748,68 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			logger.warn("Failed to delete cron jobs of group '{}'", persistModelName);
 		}
 	}
+	
+	/**
+	 * Queries the most recent states of a number of items from a persistence service. Services
+	 * which cannot query several items at once are asked for each item on its own.
+	 */
+	private static class RestoreQuery implements Callable<Map<String, HistoricItem>> {
+		final QueryablePersistenceService service;
+		final Collection<String> itemNames;
+		
+		RestoreQuery(QueryablePersistenceService service, Collection<String> itemNames) {
+			this.service = service;
+			this.itemNames = itemNames;
+		}
 		
+		public Map<String, HistoricItem> call() {
+			long start = System.currentTimeMillis();
+			Map<String, HistoricItem> result;
+			if(service instanceof BatchQueryablePersistenceService) {
+				result = ((BatchQueryablePersistenceService) service).queryLatest(itemNames);
+			} else {
+				result = new HashMap<String, HistoricItem>();
+				for(String itemName : itemNames) {
+					FilterCriteria filter = new FilterCriteria().setItemName(itemName).setPageSize(1);
+					Iterator<HistoricItem> it = service.query(filter).iterator();
+					if(it.hasNext()) {
+						result.put(itemName, it.next());
+					}
+				}
+			}
+			logger.debug("Restored {} of {} item states from persistence service '{}' in {}ms", 
+				new Object[] { result.size(), itemNames.size(), service.getName(), System.currentTimeMillis() - start });
+			return result;
+		}
+	}
+	
+	/**
+	 * The routes of a single item for state changes and updates.
+	 */
+	private static class ItemRoutes {
+		final Route[] changeRoutes;
+		final Route[] updateRoutes;
+		
+		ItemRoutes(Route[] changeRoutes, Route[] updateRoutes) {
+			this.changeRoutes = changeRoutes;
+			this.updateRoutes = updateRoutes;
+		}
+	}
+	
+	/**
+	 * A route to a persistence service with the alias to use for storing. If the service has
+	 * a write-behind queue, the state is stored through that queue.
+	 */
+	private static class Route {
+		final PersistenceService service;
+		final WriteBehindQueue queue;
+		final String alias;
+		
+		Route(PersistenceService service, WriteBehindQueue queue, String alias) {
+			this.service = service;
+			this.queue = queue;
+			this.alias = alias;
+		}
+	}
 
 }
@@ -0,0 +1,289 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.PersistenceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The write-behind queue decouples a {@link BatchPersistenceService} from the threads that
+ * update item states. Store requests are put into a bounded queue together with the state
+ * and time of the update and are passed to the service in batches by a dedicated worker 
+ * thread. Services which only accept single items are not queued, as they always store 
+ * the current state of an item.
+ * 
+ * If the queue is full, a request is either dropped or the calling thread is blocked
+ * until there is space again, depending on the {@link OverflowPolicy}. A blocked thread
+ * waits at most {@link #BLOCK_TIMEOUT} milliseconds, so that item updates do not hang
+ * if the service does not make progress; the request is dropped afterwards.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class WriteBehindQueue implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+	
+	/** the maximum time in milliseconds to wait for space in a full queue */
+	public static final long BLOCK_TIMEOUT = 5000L;
+	
+	/** the time in milliseconds after which the worker checks whether it has been stopped */
+	private static final long POLL_TIMEOUT = 1000L;
+	
+	/** the interval in which the statistics are logged */
+	private static final long STATISTICS_INTERVAL = 60000L;
+	
+	/** what to do with a store request if the queue is full */
+	public enum OverflowPolicy {
+		DROP, BLOCK
+	}
+	
+	private final BatchPersistenceService service;
+	
+	private final BlockingQueue<PersistenceRecord> queue;
+	
+	private final OverflowPolicy policy;
+	
+	private final int batchSize;
+	
+	private Thread worker;
+	
+	private volatile boolean running = false;
+	
+	private volatile boolean stopped = false;
+	
+	// guards "stopped" against requests which are queued concurrently; enqueuing threads share
+	// the read lock, so that no request can be queued anymore once stop() holds the write lock
+	private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+	
+	private final AtomicLong storedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+	
+	private long lastStatistics = System.currentTimeMillis();
+	
+	public WriteBehindQueue(BatchPersistenceService service, int capacity, OverflowPolicy policy, int batchSize) {
+		this.service = service;
+		this.queue = new ArrayBlockingQueue<PersistenceRecord>(capacity);
+		this.policy = policy;
+		this.batchSize = batchSize;
+	}
+
+	public synchronized void start() {
+		if(!running) {
+			running = true;
+			worker = new Thread(this, "Persistence write-behind [" + service.getName() + "]");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the worker thread and stores all requests which are still queued. Requests
+	 * which are queued after the queue has been stopped are dropped.
+	 * <p>
+	 * The worker is not interrupted, as this could abort a service in the middle of writing
+	 * a batch; it ends as soon as it has finished its current batch or its poll has timed out.
+	 */
+	public synchronized void stop() {
+		stopLock.writeLock().lock();
+		try {
+			stopped = true;
+		} finally {
+			stopLock.writeLock().unlock();
+		}
+		if(running) {
+			running = false;
+			try {
+				worker.join(5000 + POLL_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(worker.isAlive()) {
+				// the service still processes a batch, so the worker is left to finish on its own
+				logger.warn("Persistence service '{}' did not finish within 5 seconds, {} queued store requests are discarded.",
+						service.getName(), queue.size());
+			} else {
+				List<PersistenceRecord> remaining = new ArrayList<PersistenceRecord>();
+				queue.drainTo(remaining);
+				if(!remaining.isEmpty()) {
+					process(remaining);
+				}
+			}
+			worker = null;
+			logStatistics();
+		}
+	}
+	
+	/**
+	 * Queues a request to store the current state of an item.
+	 * 
+	 * @param item the item to persist
+	 * @param alias the alias to use or <code>null</code>
+	 */
+	public void enqueue(Item item, String alias) {
+		PersistenceRecord record = new PersistenceRecord(item, alias);
+		boolean queued;
+		stopLock.readLock().lock();
+		try {
+			if(stopped) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+			if(policy==OverflowPolicy.BLOCK) {
+				try {
+					queued = queue.offer(record, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					queued = false;
+					Thread.currentThread().interrupt();
+				}
+			} else {
+				queued = queue.offer(record);
+			}
+		} finally {
+			stopLock.readLock().unlock();
+		}
+		if(!queued) {
+			long dropped = droppedCount.incrementAndGet();
+			if(dropped % 1000 == 1) {
+				logger.warn("Persistence queue of service '{}' is full, {} store requests have been dropped so far.",
+						service.getName(), dropped);
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void run() {
+		List<PersistenceRecord> batch = new ArrayList<PersistenceRecord>(batchSize);
+		while(running) {
+			try {
+				PersistenceRecord first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				if(first!=null) {
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					process(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// nobody else interrupts the worker, so we stop as we are asked to
+				running = false;
+			}
+			if(System.currentTimeMillis() - lastStatistics > STATISTICS_INTERVAL) {
+				logStatistics();
+			}
+		}
+	}
+
+	private void process(List<PersistenceRecord> batch) {
+		try {
+			service.store(batch);
+			storedCount.addAndGet(batch.size());
+		} catch(RuntimeException e) {
+			failedCount.addAndGet(batch.size());
+			logger.error("Persistence service '{}' failed to store {} item states: {}", 
+					new Object[] { service.getName(), batch.size(), e.getMessage() });
+		}
+		long now = System.currentTimeMillis();
+		for(PersistenceRecord record : batch) {
+			long latency = now - record.getTimestamp().getTime();
+			totalLatency.addAndGet(latency);
+			long max = maxLatency.get();
+			while(latency > max && !maxLatency.compareAndSet(max, latency)) {
+				max = maxLatency.get();
+			}
+		}
+	}
+	
+	private void logStatistics() {
+		lastStatistics = System.currentTimeMillis();
+		logger.debug("Persistence queue of service '{}': depth={}, stored={}, dropped={}, failed={}, average latency={}ms, max latency={}ms",
+				new Object[] { service.getName(), getQueueDepth(), storedCount.get(), droppedCount.get(), 
+				failedCount.get(), getAverageLatency(), maxLatency.get() });
+	}
+
+	/**
+	 * @return the number of store requests which are currently waiting in the queue
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of store requests that have been passed to the service
+	 */
+	public long getStoredCount() {
+		return storedCount.get();
+	}
+
+	/**
+	 * @return the number of store requests that have been dropped because the queue was full or stopped
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the number of store requests for which the service threw an exception
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds between queuing and storing a request
+	 */
+	public long getAverageLatency() {
+		long processed = storedCount.get() + failedCount.get();
+		return processed > 0 ? totalLatency.get() / processed : 0;
+	}
+
+	/**
+	 * @return the longest time in milliseconds between queuing and storing a request
+	 */
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+	
+}
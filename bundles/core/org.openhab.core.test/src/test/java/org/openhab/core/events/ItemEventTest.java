@@ -0,0 +1,132 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.junit.Test;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.PrimitiveType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.osgi.service.event.Event;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemEventTest {
+
+	@Test
+	public void testUpdateEvent() {
+		ItemEvent event = ItemEvent.createUpdateEvent("Temperature", UnDefType.UNDEF);
+		assertEquals("openhab/update/Temperature", event.getTopic());
+		assertEquals(EventType.UPDATE, event.getEventType());
+		assertEquals("Temperature", event.getItemName());
+		assertEquals(UnDefType.UNDEF, event.getState());
+		assertNull(event.getCommand());
+		assertEquals("Temperature", event.getProperty("item"));
+		assertEquals(UnDefType.UNDEF, event.getProperty("state"));
+	}
+
+	@Test
+	public void testCommandEvent() {
+		ItemEvent event = ItemEvent.createCommandEvent("Light", TestCommand.ON);
+		assertEquals("openhab/command/Light", event.getTopic());
+		assertEquals(EventType.COMMAND, event.getEventType());
+		assertEquals(TestCommand.ON, event.getCommand());
+		assertNull(event.getState());
+		assertEquals(TestCommand.ON, event.getProperty("command"));
+	}
+
+	@Test
+	public void testTopicsAreReused() {
+		ItemEvent first = ItemEvent.createUpdateEvent("Temperature", UnDefType.UNDEF);
+		ItemEvent second = ItemEvent.createUpdateEvent("Temperature", UnDefType.NULL);
+		assertSame(first.getTopic(), second.getTopic());
+	}
+
+	@Test
+	public void testFromItemEvent() {
+		ItemEvent event = ItemEvent.createUpdateEvent("Temperature", UnDefType.UNDEF);
+		assertSame(event, ItemEvent.fromEvent(event));
+	}
+
+	@Test
+	public void testFromPlainEvent() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("item", "Light");
+		properties.put("command", TestCommand.ON);
+		ItemEvent event = ItemEvent.fromEvent(new Event("openhab/command/Light", properties));
+		assertEquals(EventType.COMMAND, event.getEventType());
+		assertEquals("Light", event.getItemName());
+		assertEquals(TestCommand.ON, event.getCommand());
+	}
+
+	@Test
+	public void testFromInvalidEvent() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("item", "Light");
+		assertNull(ItemEvent.fromEvent(new Event("other/command/Light", properties)));
+		assertNull(ItemEvent.fromEvent(new Event("openhab/command", properties)));
+		assertNull(ItemEvent.fromEvent(new Event("openhab/command/Light", properties)));
+	}
+
+	@Test
+	public void testSubscriberDispatch() {
+		final State[] received = new State[1];
+		AbstractEventSubscriber subscriber = new AbstractEventSubscriber() {
+			@Override
+			public void receiveUpdate(String itemName, State newState) {
+				received[0] = newState;
+			}
+			@Override
+			public void receiveCommand(String itemName, Command command) {
+				throw new AssertionError("no command expected");
+			}
+		};
+		subscriber.handleEvent(ItemEvent.createUpdateEvent("Temperature", UnDefType.UNDEF));
+		assertEquals(UnDefType.UNDEF, received[0]);
+	}
+	
+	enum TestCommand implements PrimitiveType, Command {
+		ON;
+
+		public String format(String pattern) {
+			return String.format(pattern, this.toString());
+		}
+	}
+	
+}
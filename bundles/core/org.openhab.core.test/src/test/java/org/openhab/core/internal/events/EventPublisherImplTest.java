@@ -0,0 +1,189 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.events.AbstractEventSubscriber;
+import org.openhab.core.events.ItemBatchEvent;
+import org.openhab.core.events.ItemEvent;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class EventPublisherImplTest {
+
+	private EventPublisherImpl publisher;
+	
+	private List<Event> postedEvents = new ArrayList<Event>();
+	
+	@Before
+	public void setup() {
+		publisher = new EventPublisherImpl();
+		publisher.setEventAdmin(new EventAdmin() {
+			public void postEvent(Event event) {
+				synchronized(postedEvents) {
+					postedEvents.add(event);
+				}
+			}
+			public void sendEvent(Event event) {
+				postEvent(event);
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		publisher.deactivate();
+	}
+	
+	@Test
+	public void testBatchIsSentAsOneEvent() {
+		Map<String, State> states = new LinkedHashMap<String, State>();
+		states.put("Register1", UnDefType.UNDEF);
+		states.put("Register2", UnDefType.NULL);
+		publisher.postUpdates(states);
+		
+		assertEquals(1, postedEvents.size());
+		assertEquals(ItemBatchEvent.TOPIC, postedEvents.get(0).getTopic());
+		assertEquals(states, ItemBatchEvent.getStates(postedEvents.get(0)));
+	}
+	
+	@Test
+	public void testUpdatesAreCoalescedWithinWindow() throws Exception {
+		publisher.updated(createConfig("10000"));
+		
+		publisher.postUpdates(createStates("Register1", UnDefType.UNDEF));
+		publisher.postUpdates(createStates("Register2", UnDefType.UNDEF));
+		publisher.postUpdates(createStates("Register1", UnDefType.NULL));
+		assertTrue(postedEvents.isEmpty());
+		
+		publisher.flushPendingUpdates();
+		assertEquals(1, postedEvents.size());
+		Map<String, State> states = ItemBatchEvent.getStates(postedEvents.get(0));
+		assertEquals(2, states.size());
+		assertEquals(UnDefType.NULL, states.get("Register1"));
+		assertEquals(UnDefType.UNDEF, states.get("Register2"));
+	}
+
+	@Test
+	public void testCoalescedUpdatesAreFlushedAfterWindow() throws Exception {
+		publisher.updated(createConfig("50"));
+		publisher.postUpdates(createStates("Register1", UnDefType.UNDEF));
+		
+		long timeout = System.currentTimeMillis() + 5000;
+		while(System.currentTimeMillis() < timeout) {
+			synchronized(postedEvents) {
+				if(!postedEvents.isEmpty()) break;
+			}
+			Thread.sleep(10);
+		}
+		assertEquals(1, postedEvents.size());
+	}
+
+	@Test
+	public void testDirectUpdateReplacesCoalescedUpdate() throws Exception {
+		publisher.updated(createConfig("10000"));
+		
+		Map<String, State> states = new LinkedHashMap<String, State>();
+		states.put("Register1", UnDefType.UNDEF);
+		states.put("Register2", UnDefType.UNDEF);
+		publisher.postUpdates(states);
+		publisher.postUpdate("Register1", UnDefType.NULL);
+		assertEquals(1, postedEvents.size());
+		ItemEvent direct = ItemEvent.fromEvent(postedEvents.get(0));
+		assertEquals("Register1", direct.getItemName());
+		assertEquals(UnDefType.NULL, direct.getState());
+		
+		publisher.flushPendingUpdates();
+		assertEquals(2, postedEvents.size());
+		Map<String, State> flushed = ItemBatchEvent.getStates(postedEvents.get(1));
+		assertEquals(1, flushed.size());
+		assertFalse(flushed.containsKey("Register1"));
+		assertEquals(UnDefType.UNDEF, flushed.get("Register2"));
+	}
+
+	@Test
+	public void testFlushWithOnlyReplacedUpdatesSendsNothing() throws Exception {
+		publisher.updated(createConfig("10000"));
+		
+		publisher.postUpdates(createStates("Register1", UnDefType.UNDEF));
+		publisher.postUpdate("Register1", UnDefType.NULL);
+		publisher.flushPendingUpdates();
+		
+		assertEquals(1, postedEvents.size());
+	}
+
+	@Test
+	public void testSubscriberUnrollsBatch() {
+		final Map<String, State> received = new LinkedHashMap<String, State>();
+		AbstractEventSubscriber subscriber = new AbstractEventSubscriber() {
+			@Override
+			public void receiveUpdate(String itemName, State newState) {
+				received.put(itemName, newState);
+			}
+		};
+		Map<String, State> states = new LinkedHashMap<String, State>();
+		states.put("Register1", UnDefType.UNDEF);
+		states.put("Register2", UnDefType.NULL);
+		subscriber.handleEvent(ItemBatchEvent.createUpdateEvent(states));
+		
+		assertEquals(states, received);
+	}
+	
+	private Map<String, State> createStates(String itemName, State state) {
+		Map<String, State> states = new LinkedHashMap<String, State>();
+		states.put(itemName, state);
+		return states;
+	}
+
+	private Dictionary<String, Object> createConfig(String coalescingWindow) {
+		Dictionary<String, Object> config = new Hashtable<String, Object>();
+		config.put("coalescingwindow", coalescingWindow);
+		return config;
+	}
+	
+}
@@ -0,0 +1,168 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemProvider;
+import org.openhab.core.items.ItemsChangeListener;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemRegistryImplTest {
+
+	private ItemRegistryImpl registry;
+	
+	private TestItemProvider provider;
+	
+	@Before
+	public void setup() {
+		provider = new TestItemProvider();
+		provider.items.add(new TestItem("Temperature_Living"));
+		provider.items.add(new TestItem("Temperature_Kitchen"));
+		provider.items.add(new TestItem("Light_Kitchen"));
+		
+		registry = new ItemRegistryImpl();
+		registry.addItemProvider(provider);
+	}
+	
+	@Test
+	public void testGetItemByName() throws ItemNotFoundException {
+		Item item = registry.getItem("Light_Kitchen");
+		assertEquals("Light_Kitchen", item.getName());
+	}
+	
+	@Test(expected=ItemNotFoundException.class)
+	public void testGetUnknownItem() throws ItemNotFoundException {
+		registry.getItem("Light_Living");
+	}
+
+	@Test
+	public void testGetItemByRegularExpression() throws ItemNotFoundException {
+		Item item = registry.getItem("Light_.*");
+		assertEquals("Light_Kitchen", item.getName());
+	}
+
+	@Test
+	public void testGetItemsByPattern() {
+		assertEquals(2, registry.getItems("Temperature_*").size());
+		assertEquals(1, registry.getItems("*Living").size());
+		assertEquals(0, registry.getItems("Switch*").size());
+	}
+	
+	@Test
+	public void testIndexFollowsAddedAndRemovedItems() throws ItemNotFoundException {
+		Item item = new TestItem("Light_Living");
+		registry.itemAdded(provider, item);
+		assertSame(item, registry.getItem("Light_Living"));
+		
+		registry.itemRemoved(provider, item);
+		try {
+			registry.getItem("Light_Living");
+			fail("item should have been removed from the index");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testIndexFollowsAllItemsChanged() throws ItemNotFoundException {
+		provider.items.clear();
+		Item item = new TestItem("Light_Kitchen");
+		provider.items.add(item);
+		registry.allItemsChanged(provider, null);
+		
+		assertSame(item, registry.getItem("Light_Kitchen"));
+		assertEquals(1, registry.getItems().size());
+		try {
+			registry.getItem("Temperature_Living");
+			fail("item should have been removed from the index");
+		} catch (ItemNotFoundException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testIndexIsClearedWhenProviderIsRemoved() {
+		registry.removeItemProvider(provider);
+		assertEquals(0, registry.getItems().size());
+		assertEquals(0, registry.itemIndex.size());
+	}
+
+	
+	class TestItemProvider implements ItemProvider {
+		
+		List<Item> items = new ArrayList<Item>();
+
+		public Collection<Item> getItems() {
+			return new ArrayList<Item>(items);
+		}
+
+		public void addItemChangeListener(ItemsChangeListener listener) {
+		}
+
+		public void removeItemChangeListener(ItemsChangeListener listener) {
+		}
+		
+	}
+	
+	class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+		
+	}
+
+}
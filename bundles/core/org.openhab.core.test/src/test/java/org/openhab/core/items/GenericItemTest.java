@@ -0,0 +1,162 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.items;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class GenericItemTest {
+
+	private TestItem item;
+	
+	@Before
+	public void setup() {
+		item = new TestItem("item");
+	}
+	
+	@Test
+	public void testListenersAreNotified() {
+		CountingListener listener = new CountingListener();
+		item.addStateChangeListener(listener);
+		
+		item.setState(UnDefType.UNDEF);
+		item.setState(UnDefType.UNDEF);
+		
+		assertEquals(2, listener.updates);
+		assertEquals(1, listener.changes);
+	}
+
+	@Test
+	public void testChangeOnlyListenersAreNotUpdated() {
+		CountingListener listener = new CountingListener();
+		item.addStateChangeListener(listener, true);
+		
+		item.setState(UnDefType.UNDEF);
+		item.setState(UnDefType.UNDEF);
+		
+		assertEquals(0, listener.updates);
+		assertEquals(1, listener.changes);
+	}
+
+	@Test
+	public void testListenersAreRegisteredOnlyOnce() {
+		CountingListener listener = new CountingListener();
+		item.addStateChangeListener(listener);
+		item.addStateChangeListener(listener);
+		item.addStateChangeListener(listener, true);
+		
+		item.setState(UnDefType.UNDEF);
+		
+		assertEquals(1, listener.updates);
+		assertEquals(1, listener.changes);
+	}
+
+	@Test
+	public void testRemoveListeners() {
+		CountingListener[] listeners = new CountingListener[10];
+		for(int i = 0; i < listeners.length; i++) {
+			listeners[i] = new CountingListener();
+			item.addStateChangeListener(listeners[i], i % 2 == 0);
+		}
+		for(int i = 0; i < listeners.length; i += 3) {
+			item.removeStateChangeListener(listeners[i]);
+		}
+		
+		item.setState(UnDefType.UNDEF);
+		
+		for(int i = 0; i < listeners.length; i++) {
+			assertEquals(i % 3 == 0 ? 0 : 1, listeners[i].changes);
+		}
+	}
+
+	@Test
+	public void testListenerMayRemoveItselfDuringNotification() {
+		final CountingListener second = new CountingListener();
+		StateChangeListener first = new StateChangeListener() {
+			public void stateChanged(Item changedItem, State oldState, State newState) {
+				item.removeStateChangeListener(this);
+			}
+			public void stateUpdated(Item updatedItem, State state) {
+			}
+		};
+		item.addStateChangeListener(first);
+		item.addStateChangeListener(second);
+		
+		item.setState(UnDefType.UNDEF);
+		item.setState(UnDefType.NULL);
+		
+		assertEquals(2, second.changes);
+	}
+
+	
+	class CountingListener implements StateChangeListener {
+		
+		int updates = 0;
+		int changes = 0;
+
+		public void stateChanged(Item item, State oldState, State newState) {
+			changes++;
+		}
+
+		public void stateUpdated(Item item, State state) {
+			updates++;
+		}
+		
+	}
+	
+	class TestItem extends GenericItem {
+
+		public TestItem(String name) {
+			super(name);
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+		
+	}
+
+}
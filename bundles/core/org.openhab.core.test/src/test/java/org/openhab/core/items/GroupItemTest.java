@@ -62,6 +62,32 @@ public class GroupItemTest {
 	}
 	
 
+	@Test
+	public void testAllMembersOfUnrelatedGroupStayCached() {
+		List<Item> allMembers = rootGroupItem.getAllMembers();
+		GroupItem otherGroup = new GroupItem("other");
+		otherGroup.addMember(new TestItem("other member"));
+		Assert.assertSame(allMembers, rootGroupItem.getAllMembers());
+	}
+	
+	@Test
+	public void testChangedSubGroupInvalidatesParents() {
+		GroupItem subGroup = (GroupItem) rootGroupItem.getMembers().get(3);
+		GroupItem parentGroup = new GroupItem("parent");
+		parentGroup.addMember(rootGroupItem);
+		Assert.assertEquals(5, parentGroup.getAllMembers().size());
+		
+		TestItem newMember = new TestItem("subGroup member 4");
+		subGroup.addMember(newMember);
+		Assert.assertEquals(6, rootGroupItem.getAllMembers().size());
+		Assert.assertEquals(6, parentGroup.getAllMembers().size());
+		
+		parentGroup.removeMember(rootGroupItem);
+		subGroup.removeMember(newMember);
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+		Assert.assertEquals(0, parentGroup.getAllMembers().size());
+	}
+	
 	@Test
 	public void testGetAllMembers() {
 		int expectedAmountOfMembers = 5;
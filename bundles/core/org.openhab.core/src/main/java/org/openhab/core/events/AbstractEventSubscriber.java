@@ -28,12 +28,11 @@
  */
 package org.openhab.core.events;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+import java.util.Map;
 
 import org.openhab.core.types.Command;
-import org.openhab.core.types.State;
 import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 
@@ -43,23 +42,21 @@ abstract public class AbstractEventSubscriber implements EventSubscriber, EventH
 	 * {@inheritDoc}
 	 */
 	public void handleEvent(Event event) {  
-		String itemName = (String) event.getProperty("item");
-		
-		String topic = event.getTopic();
-		String[] topicParts = topic.split(TOPIC_SEPERATOR);
-		
-		if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
+		Map<String, State> states = ItemBatchEvent.getStates(event);
+		if(states!=null) {
+			receiveUpdates(states);
+			return;
+		}
+
+		ItemEvent itemEvent = ItemEvent.fromEvent(event);
+		if(itemEvent==null) {
 			return; // we have received an event with an invalid topic
 		}
-		String operation = topicParts[1];
 		
-		if(operation.equals(EventType.UPDATE.toString())) {
-			State newState = (State) event.getProperty("state");
-			if(newState!=null) receiveUpdate(itemName, newState);
-		}
-		if(operation.equals(EventType.COMMAND.toString())) {
-			Command command = (Command) event.getProperty("command");
-			if(command!=null) receiveCommand(itemName, command);
+		if(itemEvent.getEventType()==EventType.UPDATE) {
+			receiveUpdate(itemEvent.getItemName(), itemEvent.getState());
+		} else {
+			receiveCommand(itemEvent.getItemName(), itemEvent.getCommand());
 		}
 	}
 	
@@ -77,4 +74,19 @@ abstract public class AbstractEventSubscriber implements EventSubscriber, EventH
 		// default implementation: do nothing
 	}
 
+	/**
+	 * Callback method if a batch of state updates was sent on the event bus.
+	 * The default implementation passes each update to {@link #receiveUpdate(String, State)}
+	 * in the order of the batch, subscribers may override this to process the batch at once.
+	 * 
+	 * @param newStates the new states, keyed by item name
+	 */
+	public void receiveUpdates(Map<String, State> newStates) {
+		for(Map.Entry<String, State> entry : newStates.entrySet()) {
+			if(entry.getValue()!=null) {
+				receiveUpdate(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
 }
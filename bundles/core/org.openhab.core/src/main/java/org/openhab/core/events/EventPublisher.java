@@ -28,6 +28,8 @@
  */
 package org.openhab.core.events;
 
+import java.util.Map;
+
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 
@@ -66,4 +68,14 @@ public interface EventPublisher {
 	 */
 	public abstract void postUpdate(String itemName, State newState);
 
+	/**
+	 * Initiate asynchronous sending of several status updates as a single event.
+	 * This method returns immediately to the caller. Depending on the configuration,
+	 * updates may be held back for a short coalescing window, in which case only the
+	 * latest state of each item is sent.
+	 * 
+	 * @param newStates the new states to send, keyed by item name
+	 */
+	public abstract void postUpdates(Map<String, State> newStates);
+
 }
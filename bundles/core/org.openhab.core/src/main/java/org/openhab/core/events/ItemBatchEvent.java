@@ -0,0 +1,109 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
+import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.osgi.service.event.Event;
+
+/**
+ * An ItemBatchEvent carries the state updates of several items as a single
+ * event on the openHAB event bus. It is sent on the topic <code>openhab/update</code>
+ * (i.e. without an item name), so that subscribers which listen to <code>openhab/*</code>
+ * receive it, while subscribers that only listen to commands do not.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemBatchEvent extends Event {
+
+	/** the topic on which batches of state updates are sent */
+	public static final String TOPIC = TOPIC_PREFIX + TOPIC_SEPERATOR + EventType.UPDATE;
+
+	private final Map<String, State> states;
+
+	private ItemBatchEvent(Map<String, State> states) {
+		super(TOPIC, createProperties(states));
+		this.states = states;
+	}
+
+	/**
+	 * Creates a new batch event for the given state updates.
+	 * 
+	 * @param states the new states, keyed by item name
+	 * @return the new event
+	 */
+	public static ItemBatchEvent createUpdateEvent(Map<String, State> states) {
+		return new ItemBatchEvent(Collections.unmodifiableMap(new LinkedHashMap<String, State>(states)));
+	}
+	
+	/**
+	 * Returns the state updates of the given event, if it is a batch of state updates.
+	 * 
+	 * @param event the OSGi event
+	 * @return the new states keyed by item name or <code>null</code>, if the event
+	 *  is not a batch event
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, State> getStates(Event event) {
+		if(event instanceof ItemBatchEvent) {
+			return ((ItemBatchEvent) event).getStates();
+		}
+		if(TOPIC.equals(event.getTopic())) {
+			Object states = event.getProperty("states");
+			if(states instanceof Map) {
+				return (Map<String, State>) states;
+			}
+		}
+		return null;
+	}
+	
+	private static Dictionary<String, Object> createProperties(Map<String, State> states) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>(2);
+		properties.put("states", states);
+		return properties;
+	}
+
+	/**
+	 * @return an unmodifiable map of the new states, keyed by item name
+	 */
+	public Map<String, State> getStates() {
+		return states;
+	}
+
+}
@@ -0,0 +1,190 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
+import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.Type;
+import org.osgi.service.event.Event;
+
+/**
+ * An ItemEvent is the typed representation of a command or a state update on
+ * the openHAB event bus. Besides the usual OSGi event properties, it carries
+ * the item name, the event type and the payload as fields, so that subscribers
+ * do not need to parse the topic and look up the properties for every event.
+ * 
+ * Topics are created only once per item and event type and then reused.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemEvent extends Event {
+
+	private static final Map<String, String> commandTopics = new ConcurrentHashMap<String, String>();
+	private static final Map<String, String> updateTopics = new ConcurrentHashMap<String, String>();
+
+	private static final String TOPIC_START = TOPIC_PREFIX + TOPIC_SEPERATOR;
+	
+	private final String itemName;
+	
+	private final EventType eventType;
+	
+	private final Type payload;
+
+	private ItemEvent(String itemName, EventType eventType, Type payload, String propertyName) {
+		super(getTopic(eventType, itemName), createProperties(itemName, propertyName, payload));
+		this.itemName = itemName;
+		this.eventType = eventType;
+		this.payload = payload;
+	}
+
+	/**
+	 * Creates a new event for a command that is sent to an item.
+	 * 
+	 * @param itemName the name of the item the command is sent to
+	 * @param command the command
+	 * @return the new event
+	 */
+	public static ItemEvent createCommandEvent(String itemName, Command command) {
+		return new ItemEvent(itemName, EventType.COMMAND, command, "command");
+	}
+
+	/**
+	 * Creates a new event for a state update of an item.
+	 * 
+	 * @param itemName the name of the item whose state is updated
+	 * @param newState the new state
+	 * @return the new event
+	 */
+	public static ItemEvent createUpdateEvent(String itemName, State newState) {
+		return new ItemEvent(itemName, EventType.UPDATE, newState, "state");
+	}
+	
+	/**
+	 * Returns the typed representation of the given event. If the event was not created
+	 * as an {@link ItemEvent} (e.g. if it was posted directly on the EventAdmin), its topic
+	 * and properties are evaluated instead.
+	 * 
+	 * @param event the OSGi event
+	 * @return the typed event or <code>null</code>, if the event is not a valid
+	 *  command or update event of openHAB
+	 */
+	public static ItemEvent fromEvent(Event event) {
+		if(event instanceof ItemEvent) {
+			return (ItemEvent) event;
+		}
+		
+		String topic = event.getTopic();
+		if(!topic.startsWith(TOPIC_START)) {
+			return null; // we have received an event with an invalid topic
+		}
+		int end = topic.indexOf(TOPIC_SEPERATOR, TOPIC_START.length());
+		if(end < 0) {
+			return null;
+		}
+		String operation = topic.substring(TOPIC_START.length(), end);
+		String itemName = (String) event.getProperty("item");
+		if(itemName==null) {
+			return null;
+		}
+		
+		if(operation.equals(EventType.UPDATE.toString())) {
+			State newState = (State) event.getProperty("state");
+			if(newState!=null) return createUpdateEvent(itemName, newState);
+		}
+		if(operation.equals(EventType.COMMAND.toString())) {
+			Command command = (Command) event.getProperty("command");
+			if(command!=null) return createCommandEvent(itemName, command);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the topic for events of the given type and item. Topic strings are cached,
+	 * so that the same instance is returned for every event of an item.
+	 * 
+	 * @param eventType the type of the event
+	 * @param itemName the name of the item
+	 * @return the topic for the event
+	 */
+	public static String getTopic(EventType eventType, String itemName) {
+		Map<String, String> topics = eventType==EventType.COMMAND ? commandTopics : updateTopics;
+		String topic = topics.get(itemName);
+		if(topic==null) {
+			topic = TOPIC_START + eventType + TOPIC_SEPERATOR + itemName;
+			topics.put(itemName, topic);
+		}
+		return topic;
+	}
+	
+	private static Dictionary<String, Object> createProperties(String itemName, String propertyName, Type payload) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>(4);
+		properties.put("item", itemName);
+		properties.put(propertyName, payload);
+		return properties;
+	}
+
+	/**
+	 * @return the name of the item this event is about
+	 */
+	public String getItemName() {
+		return itemName;
+	}
+
+	/**
+	 * @return whether this event is a command or a state update
+	 */
+	public EventType getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return the command, if this is a command event, <code>null</code> otherwise
+	 */
+	public Command getCommand() {
+		return eventType==EventType.COMMAND ? (Command) payload : null;
+	}
+
+	/**
+	 * @return the new state, if this is an update event, <code>null</code> otherwise
+	 */
+	public State getState() {
+		return eventType==EventType.UPDATE ? (State) payload : null;
+	}
+
+}
@@ -28,17 +28,22 @@
  */
 package org.openhab.core.internal.events;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
-
 import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.events.ItemBatchEvent;
+import org.openhab.core.events.ItemEvent;
 import org.openhab.core.types.Command;
-import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
-import org.osgi.service.event.Event;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,16 +53,38 @@ import org.slf4j.LoggerFactory;
  * Through it, openHAB events can be sent to the OSGi EventAdmin service
  * in order to broadcast them.
  * 
+ * Batches of state updates can optionally be held back for a coalescing window
+ * (configured as <code>eventpublisher:coalescingwindow</code> in milliseconds),
+ * so that only the latest state of each item within the window is sent.
+ * 
  * @author Kai Kreuzer
  *
  */
-public class EventPublisherImpl implements EventPublisher {
+public class EventPublisherImpl implements EventPublisher, ManagedService {
 
 	private static final Logger logger = 
 		LoggerFactory.getLogger(EventPublisherImpl.class);
 		
 	private EventAdmin eventAdmin;
 	
+	/** the time in milliseconds to collect batched updates before sending them; 0 sends them immediately */
+	private long coalescingWindow = 0;
+	
+	/** the batched updates that have not been sent yet */
+	private Map<String, State> pendingUpdates = new LinkedHashMap<String, State>();
+	
+	private ScheduledExecutorService flushExecutor;
+	
+	
+	public void deactivate() {
+		flushPendingUpdates();
+		synchronized(this) {
+			if(flushExecutor!=null) {
+				flushExecutor.shutdown();
+				flushExecutor = null;
+			}
+		}
+	}
 	
 	public void setEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = eventAdmin;
@@ -95,29 +122,100 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postUpdate(String itemName, State newState) {
 		if (newState != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			if (coalescingWindow > 0) {
+				// a coalesced state of this item is older than the new one and
+				// must not be sent after it
+				synchronized(this) {
+					pendingUpdates.remove(itemName);
+					if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+				}
+			} else {
+				if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			}
 		} else {
 			logger.warn("given new state is NULL, couldn't post update for '{}'", itemName);
 		}
 	}
 	
-	private Event createUpdateEvent(String itemName, State newState) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
-		properties.put("state", newState);
-		return new Event(createTopic(EventType.UPDATE, itemName), properties);
+	/* (non-Javadoc)
+	 * @see org.openhab.core.events.EventPublisher#postUpdates(java.util.Map)
+	 */
+	public void postUpdates(Map<String, State> newStates) {
+		if (newStates == null || newStates.isEmpty()) {
+			return;
+		}
+		if (coalescingWindow > 0) {
+			synchronized(this) {
+				boolean flushScheduled = !pendingUpdates.isEmpty();
+				pendingUpdates.putAll(newStates);
+				if(!flushScheduled) {
+					getFlushExecutor().schedule(new Runnable() {
+						public void run() {
+							flushPendingUpdates();
+						}
+					}, coalescingWindow, TimeUnit.MILLISECONDS);
+				}
+			}
+		} else {
+			if(eventAdmin!=null) eventAdmin.postEvent(ItemBatchEvent.createUpdateEvent(newStates));
+		}
+	}
+	
+	/**
+	 * Sends all batched updates which have been collected during the coalescing window
+	 * as a single event. The event is posted while holding the lock, so that it cannot
+	 * overtake a single update which has been posted directly in the meantime.
+	 */
+	protected synchronized void flushPendingUpdates() {
+		if(pendingUpdates.isEmpty()) {
+			return;
+		}
+		Map<String, State> updates = pendingUpdates;
+		pendingUpdates = new LinkedHashMap<String, State>();
+		if(eventAdmin!=null) eventAdmin.postEvent(ItemBatchEvent.createUpdateEvent(updates));
 	}
-
-	private Event createCommandEvent(String itemName, Command command) {
-		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
-		properties.put("command", command);
-		return new Event(createTopic(EventType.COMMAND, itemName) , properties);
+	
+	private synchronized ScheduledExecutorService getFlushExecutor() {
+		if(flushExecutor==null) {
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "EventPublisher batch flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return flushExecutor;
 	}
 
-	private String createTopic(EventType type, String itemName) {
-		return TOPIC_PREFIX + TOPIC_SEPERATOR + type + TOPIC_SEPERATOR + itemName;
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		long window = 0;
+		if (config!=null) {
+			String windowString = (String) config.get("coalescingwindow");
+			if (StringUtils.isNotBlank(windowString)) {
+				try {
+					window = Long.parseLong(windowString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("coalescingwindow", "'" + windowString + "' is not a valid number of milliseconds");
+				}
+			}
+		}
+		coalescingWindow = window;
+		if(coalescingWindow <= 0) {
+			flushPendingUpdates();
+		}
 	}
 	
+	private ItemEvent createUpdateEvent(String itemName, State newState) {
+		return ItemEvent.createUpdateEvent(itemName, newState);
+	}
+
+	private ItemEvent createCommandEvent(String itemName, Command command) {
+		return ItemEvent.createCommandEvent(itemName, command);
+	}
 	
 }
@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Pattern;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.GenericItem;
@@ -70,6 +71,15 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	/** this is our local map in which we store all our items */
 	protected Map<ItemProvider, Collection<Item>> itemMap = new ConcurrentHashMap<ItemProvider, Collection<Item>>();
 	
+	/** name-keyed index over all items of all providers, so that single item lookups do not need to scan */
+	protected Map<String, Item> itemIndex = new ConcurrentHashMap<String, Item>();
+	
+	/** cache of the compiled regular expressions that are used for pattern based lookups */
+	protected Map<String, Pattern> patternCache = new ConcurrentHashMap<String, Pattern>();
+	
+	/** the maximum number of compiled patterns to keep in {@link #patternCache} */
+	private static final int MAX_CACHED_PATTERNS = 256;
+	
 	/** to keep track of all item change listeners */
 	protected Collection<ItemRegistryChangeListener> listeners = new CopyOnWriteArraySet<ItemRegistryChangeListener>();
 
@@ -83,6 +93,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		}
 		// then release all items
 		itemMap.clear();
+		itemIndex.clear();
     }
 
 	/* (non-Javadoc)
@@ -90,10 +101,19 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Item getItem(String name) throws ItemNotFoundException {
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().matches(name)) {
-					return item;
+		Item item = itemIndex.get(name);
+		if(item!=null) {
+			return item;
+		}
+		// a valid item name cannot match anything else than itself, so
+		// only names containing regular expression characters need a scan
+		if(!isValidItemName(name)) {
+			Pattern pattern = getPattern(name);
+			for(Collection<Item> items : itemMap.values()) {
+				for(Item i : items) {
+					if(pattern.matcher(i.getName()).matches()) {
+						return i;
+					}
 				}
 			}
 		}
@@ -137,10 +157,11 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
     @Override
 	public Collection<Item> getItems(String pattern) {
 		String regex = pattern.replace("?", ".?").replace("*", ".*?");
+		Pattern compiledPattern = getPattern(regex);
 		Collection<Item> matchedItems = new ArrayList<Item>();
 		for(Collection<Item> items : itemMap.values()) {
 			for(Item item : items) {
-				if(item.getName().matches(regex)) {
+				if(compiledPattern.matcher(item.getName()).matches()) {
 					matchedItems.add(item);
 				}
 			}
@@ -169,6 +190,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 			allItemsChanged(itemProvider, null);
 
 			for(Item item : itemMap.get(itemProvider)) {
+				removeFromIndex(item);
 				if(item instanceof GenericItem) {
 					((GenericItem) item).dispose();
 				}
@@ -209,11 +231,19 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 			}
 		}
 
+		Collection<Item> previousItems = itemMap.get(provider);
+		if(previousItems!=null) {
+			for(Item oldItem : previousItems) {
+				removeFromIndex(oldItem);
+			}
+		}
+
 		Collection<Item> items = new CopyOnWriteArrayList<Item>();
     	itemMap.put(provider, items);
 		for(Item item : provider.getItems()) {
 			if(initializeItem(item)) {
 				items.add(item);
+				addToIndex(item);
 			}
 		}
 
@@ -229,6 +259,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		if(items!=null) {
 			if(initializeItem(item)) {
 				items.add(item);
+				addToIndex(item);
 			} else {
 				return;
 			}
@@ -244,6 +275,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
         items = itemMap.get(provider);
 		if(items!=null) {
 			items.remove(item);
+			removeFromIndex(item);
 		}
 		for(ItemRegistryChangeListener listener : listeners) {
 			listener.itemRemoved(item);
@@ -260,6 +292,67 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Adds the given item to the name index. If another provider has already
+	 * registered an item with the same name, the existing entry is kept.
+	 * 
+	 * @param item the item to index
+	 */
+	private void addToIndex(Item item) {
+		Item existing = itemIndex.get(item.getName());
+		if(existing==null || !isRegistered(existing)) {
+			itemIndex.put(item.getName(), item);
+		}
+	}
+	
+	/**
+	 * Removes the given item from the name index. If another provider
+	 * still provides an item with the same name, this one takes its place.
+	 * 
+	 * @param item the item to remove from the index
+	 */
+	private void removeFromIndex(Item item) {
+		if(itemIndex.get(item.getName())==item) {
+			itemIndex.remove(item.getName());
+			for(Collection<Item> items : itemMap.values()) {
+				for(Item i : items) {
+					if(i!=item && i.getName().equals(item.getName())) {
+						itemIndex.put(i.getName(), i);
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	private boolean isRegistered(Item item) {
+		for(Collection<Item> items : itemMap.values()) {
+			if(items.contains(item)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the compiled form of the given regular expression. Compiled
+	 * patterns are cached, so that repeated lookups do not compile them again.
+	 * 
+	 * @param regex the regular expression to compile
+	 * @return the compiled pattern
+	 */
+	private Pattern getPattern(String regex) {
+		Pattern pattern = patternCache.get(regex);
+		if(pattern==null) {
+			pattern = Pattern.compile(regex);
+			if(patternCache.size() >= MAX_CACHED_PATTERNS) {
+				patternCache.clear();
+			}
+			patternCache.put(regex, pattern);
+		}
+		return pattern;
+	}
+
 	/**
 	 * an item should be initialized, which means that the event publisher is
 	 * injected and its implementation is notified that it has just been created,
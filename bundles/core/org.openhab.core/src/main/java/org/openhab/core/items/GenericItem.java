@@ -29,11 +29,7 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
@@ -53,7 +49,16 @@ abstract public class GenericItem implements Item {
 	
 	protected EventPublisher eventPublisher;
 
-	protected Set<StateChangeListener> listeners = new CopyOnWriteArraySet<StateChangeListener>(Collections.newSetFromMap(new WeakHashMap<StateChangeListener, Boolean>()));
+	private static final StateChangeListener[] NO_LISTENERS = new StateChangeListener[0];
+
+	/** 
+	 * listeners that are notified about updates and changes; the array is never modified,
+	 * but replaced as a whole, so that it can be iterated without copying or locking
+	 */
+	private volatile StateChangeListener[] listeners = NO_LISTENERS;
+
+	/** listeners that are only notified about changes, replaced as a whole like {@link #listeners} */
+	private volatile StateChangeListener[] changeListeners = NO_LISTENERS;
 	
 	protected List<String> groupNames = new ArrayList<String>();
 	
@@ -121,14 +126,16 @@ abstract public class GenericItem implements Item {
 	}
 
 	private void notifyListeners(State oldState, State newState) {
-		// if nothing has changed, we send update notifications
-		Set<StateChangeListener> clonedListeners = null;
-		clonedListeners = new CopyOnWriteArraySet<StateChangeListener>(listeners);
-		for(StateChangeListener listener : clonedListeners) {
+		// take a snapshot, so that all notifications go to the same set of listeners
+		StateChangeListener[] currentListeners = listeners;
+		for(StateChangeListener listener : currentListeners) {
 			listener.stateUpdated(this, newState);
 		}
 		if(!oldState.equals(newState)) {
-			for(StateChangeListener listener : clonedListeners) {
+			for(StateChangeListener listener : currentListeners) {
+				listener.stateChanged(this, oldState, newState);
+			}
+			for(StateChangeListener listener : changeListeners) {
 				listener.stateChanged(this, oldState, newState);
 			}
 		}
@@ -144,16 +151,68 @@ abstract public class GenericItem implements Item {
 			"State=" + getState() + ")";
 	}
 
+	/**
+	 * Registers a listener, which is notified about all updates and changes of the state.
+	 * 
+	 * @param listener the listener to add
+	 */
 	public void addStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
+		addStateChangeListener(listener, false);
+	}
+	
+	/**
+	 * Registers a listener. If <code>changesOnly</code> is set, the listener is only
+	 * notified about changes of the state and {@link StateChangeListener#stateUpdated(Item, State)}
+	 * is never called for it.
+	 * 
+	 * @param listener the listener to add
+	 * @param changesOnly true, if the listener is not interested in updates without a change
+	 */
+	public synchronized void addStateChangeListener(StateChangeListener listener, boolean changesOnly) {
+		if(contains(listeners, listener) || contains(changeListeners, listener)) {
+			return;
 		}
+		if(changesOnly) {
+			changeListeners = add(changeListeners, listener);
+		} else {
+			listeners = add(listeners, listener);
+		}
+	}
+	
+	public synchronized void removeStateChangeListener(StateChangeListener listener) {
+		listeners = remove(listeners, listener);
+		changeListeners = remove(changeListeners, listener);
 	}
 	
-	public void removeStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
+	private static boolean contains(StateChangeListener[] array, StateChangeListener listener) {
+		for(StateChangeListener l : array) {
+			if(l.equals(listener)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static StateChangeListener[] add(StateChangeListener[] array, StateChangeListener listener) {
+		StateChangeListener[] newArray = new StateChangeListener[array.length + 1];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		newArray[array.length] = listener;
+		return newArray;
+	}
+	
+	private static StateChangeListener[] remove(StateChangeListener[] array, StateChangeListener listener) {
+		for(int i = 0; i < array.length; i++) {
+			if(array[i].equals(listener)) {
+				if(array.length == 1) {
+					return NO_LISTENERS;
+				}
+				StateChangeListener[] newArray = new StateChangeListener[array.length - 1];
+				System.arraycopy(array, 0, newArray, 0, i);
+				System.arraycopy(array, i + 1, newArray, i, array.length - i - 1);
+				return newArray;
+			}
 		}
+		return array;
 	}
 	
 
@@ -29,10 +29,13 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.ListUtils;
 import org.openhab.core.types.Command;
@@ -49,6 +52,22 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	protected final List<Item> members;
 	
 	protected GroupFunction function;
+	
+	/** the intermediate results of the group function, if it is an {@link IncrementalGroupFunction} */
+	private IncrementalGroupFunction.Accumulator accumulator;
+	
+	private volatile List<Item> allMembers;
+	
+	private volatile long allMembersRevision = -1;
+	
+	/** 
+	 * is increased whenever the members of this group or of one of its (nested) member groups
+	 * change; this is what tells whether the cached list of all members is still valid
+	 */
+	private final AtomicLong membershipRevision = new AtomicLong();
+	
+	/** the groups which contain this group as a direct member */
+	private final List<GroupItem> parentGroups = new CopyOnWriteArrayList<GroupItem>();
 
 	public GroupItem(String name) {
 		this(name, null);
@@ -63,6 +82,9 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 		members = new CopyOnWriteArrayList<Item>();
 		this.function = function;
 		this.baseItem = baseItem;
+		if(function instanceof IncrementalGroupFunction) {
+			this.accumulator = ((IncrementalGroupFunction) function).createAccumulator();
+		}
 	}
 	
 	/**
@@ -90,13 +112,22 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * Returns the direct members of this {@link GroupItem} and recursively all
 	 * members of the potentially contained {@link GroupItem}s as well. The 
 	 * {@link GroupItem}s itself aren't contained. The returned items are unique.
+	 * The list is cached until the members of this group or of a contained group change
+	 * and must not be modified.
 	 * 
 	 * @return all members of this and all contained {@link GroupItem}s
 	 */
 	public List<Item> getAllMembers() {
-		Set<Item> allMembers = new HashSet<Item>();
-		collectMembers(allMembers, members);
-		return new ArrayList<Item>(allMembers);
+		long revision = membershipRevision.get();
+		List<Item> cachedMembers = allMembers;
+		if(cachedMembers==null || allMembersRevision!=revision) {
+			Set<Item> collectedMembers = new LinkedHashSet<Item>();
+			collectMembers(collectedMembers, members);
+			cachedMembers = Collections.unmodifiableList(new ArrayList<Item>(collectedMembers));
+			allMembers = cachedMembers;
+			allMembersRevision = revision;
+		}
+		return cachedMembers;
 	}
 	
 	private void collectMembers(Set<Item> allMembers, List<Item> members) {
@@ -112,6 +143,15 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 
 	public void addMember(Item item) {
 		members.add(item);
+		if(item instanceof GroupItem) {
+			((GroupItem) item).parentGroups.add(this);
+		}
+		membersChanged(Collections.<GroupItem>newSetFromMap(new IdentityHashMap<GroupItem, Boolean>()));
+		if(accumulator!=null) {
+			synchronized(accumulator) {
+				accumulator.add(item);
+			}
+		}
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.addStateChangeListener(this);
@@ -119,13 +159,37 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	}
 	
 	public void removeMember(Item item) {
-		members.remove(item);
+		boolean removed = members.remove(item);
+		if(removed && item instanceof GroupItem) {
+			((GroupItem) item).parentGroups.remove(this);
+		}
+		membersChanged(Collections.<GroupItem>newSetFromMap(new IdentityHashMap<GroupItem, Boolean>()));
+		if(removed && accumulator!=null) {
+			synchronized(accumulator) {
+				accumulator.remove(item);
+			}
+		}
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
 		}
 	}
 	
+	/**
+	 * Invalidates the cached list of all members of this group and of all groups which
+	 * contain it, directly or through other groups.
+	 * 
+	 * @param visited the groups which have already been invalidated, as groups may contain each other
+	 */
+	private void membersChanged(Set<GroupItem> visited) {
+		if(visited.add(this)) {
+			membershipRevision.incrementAndGet();
+			for(GroupItem parentGroup : parentGroups) {
+				parentGroup.membersChanged(visited);
+			}
+		}
+	}
+	
 	/** 
 	 * The accepted data types of a group item is the same as of the underlying base item.
 	 * If none is defined, the intersection of all sets of accepted data types of all group
@@ -230,13 +294,24 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * @{inheritDoc
 	 */
 	public void stateChanged(Item item, State oldState, State newState) {
-		setState(function.calculate(members));
+		// a member notifies its listeners about every update through stateUpdated(), also
+		// if it is a change, and only afterwards through this method; the group state has
+		// therefore already been recalculated, and doing it again would only cost time
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void stateUpdated(Item item, State state) {
-		setState(function.calculate(members));
+		if(accumulator!=null) {
+			State newState;
+			synchronized(accumulator) {
+				accumulator.update(item);
+				newState = accumulator.getState();
+			}
+			setState(newState);
+		} else {
+			setState(function.calculate(members));
+		}
 	}
 }
@@ -0,0 +1,93 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.items;
+
+import org.openhab.core.types.State;
+
+/**
+ * An incremental group function is able to update the group state from the
+ * state change of a single member, so that the states of all other members
+ * do not need to be evaluated again. The intermediate results are kept in an
+ * {@link Accumulator}, which is created once for every group item.
+ * 
+ * The state returned by the accumulator must always be equal to the state
+ * which {@link #calculate(java.util.List)} returns for the same members.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ */
+public interface IncrementalGroupFunction extends GroupFunction {
+
+	/**
+	 * Creates a new accumulator without any members.
+	 * 
+	 * @return a new accumulator for this function
+	 */
+	public Accumulator createAccumulator();
+
+	/**
+	 * An accumulator keeps the intermediate results of an {@link IncrementalGroupFunction}
+	 * for the members of one group. A member which is contained several times in a group
+	 * is added several times. Implementations need not be thread-safe.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	public interface Accumulator {
+		
+		/**
+		 * Adds a member with its current state.
+		 * 
+		 * @param item the member which has been added to the group
+		 */
+		public void add(Item item);
+
+		/**
+		 * Removes a member with the state it was last added or updated with.
+		 * 
+		 * @param item the member which has been removed from the group
+		 */
+		public void remove(Item item);
+		
+		/**
+		 * Replaces the last known state of a member by its current state.
+		 * 
+		 * @param item the member whose state has been updated
+		 */
+		public void update(Item item);
+		
+		/**
+		 * @return the group state for all current members
+		 */
+		public State getState();
+		
+	}
+	
+}
@@ -30,6 +30,7 @@ package org.openhab.io.net.http;
 
 import junit.framework.Assert;
 
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -67,5 +68,16 @@ public class HttpUtilTest {
 		Assert.assertEquals(PostMethod.class, HttpUtil.createHttpMethod("POST", "").getClass());
 		Assert.assertEquals(DeleteMethod.class, HttpUtil.createHttpMethod("DELETE", "").getClass());
 	}
+	
+	@Test
+	public void testCreateHttpClient() {
+		HttpClient client1 = HttpUtil.createHttpClient();
+		HttpClient client2 = HttpUtil.createHttpClient();
+		
+		// clients must not share their state, but their connections
+		Assert.assertNotSame(client1, client2);
+		Assert.assertNotSame(client1.getState(), client2.getState());
+		Assert.assertSame(client1.getHttpConnectionManager(), client2.getHttpConnectionManager());
+	}
 
 }
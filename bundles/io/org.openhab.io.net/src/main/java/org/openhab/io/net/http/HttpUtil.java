@@ -33,6 +33,15 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +52,7 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -52,6 +62,7 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -61,6 +72,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Some common methods to be used in both HTTP-In-Binding and HTTP-Out-Binding
+ * <p>
+ * All requests share one pool of connections, so that connections to the same host
+ * are kept alive and reused instead of being opened for each request. Requests can
+ * be executed synchronously or asynchronously by a shared pool of threads.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -73,6 +88,47 @@ public class HttpUtil {
 	/** {@link Pattern} which matches the credentials out of an URL */ 
 	private static final Pattern URL_CREDENTIALS_PATTERN = Pattern.compile("http://(.*?):(.*?)@.*");
 	
+	/** the maximum number of pooled connections per host */
+	private static final int MAX_CONNECTIONS_PER_HOST = 10;
+	
+	/** the maximum number of pooled connections to all hosts */
+	private static final int MAX_TOTAL_CONNECTIONS = 50;
+	
+	/** the time in milliseconds after which idle connections are closed */
+	private static final long IDLE_CONNECTION_TIMEOUT = 60000;
+	
+	/** 
+	 * the time in milliseconds to wait for a free connection of the pool, if the
+	 * request does not specify a timeout itself 
+	 */
+	private static final long DEFAULT_CONNECTION_MANAGER_TIMEOUT = 10000;
+	
+	/** the number of threads which execute asynchronous requests */
+	private static final int ASYNC_POOL_SIZE = 10;
+	
+	/** the connection manager which pools the connections of all requests */
+	private static final MultiThreadedHttpConnectionManager connectionManager;
+	
+	/** the executor which executes asynchronous requests, created on first use */
+	private static ExecutorService asyncExecutor;
+	
+	static {
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+		params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+		params.setStaleCheckingEnabled(true);
+	}
+	
+	/** the time in milliseconds when idle connections have been closed the last time */
+	private static volatile long lastIdleCheck = System.currentTimeMillis();
+
+	private static final AtomicLong requestCount = new AtomicLong();
+	private static final AtomicLong failedRequestCount = new AtomicLong();
+	private static final AtomicLong totalRequestTime = new AtomicLong();
+	private static final AtomicLong maxRequestTime = new AtomicLong();
+	private static final AtomicInteger pendingAsyncRequests = new AtomicInteger();
+	
 
 	/**
 	 * Executes the given <code>url</code> with the given <code>httpMethod</code>.
@@ -124,6 +180,42 @@ public class HttpUtil {
 	 * @return the response body or <code>NULL</code> when the request went wrong
 	 */
 	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout) {
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, createHttpClient(url));
+	}
+	
+	/**
+	 * Executes the given <code>url</code> with the given <code>httpMethod</code>
+	 * 
+	 * @param httpMethod the HTTP method to use
+	 * @param url the url to execute (in milliseconds)
+	 * @param httpHeaders optional HTTP headers which has to be set on request
+	 * @param content the content to be send to the given <code>url</code> or 
+	 * <code>null</code> if no content should be send.
+	 * @param contentType the content type of the given <code>content</code>
+	 * @param timeout the socket timeout to wait for data
+	 * @param proxyHost the hostname of the proxy
+	 * @param proxyPort the port of the proxy
+	 * @param proxyUser the username to authenticate with the proxy
+	 * @param proxyPassword the password to authenticate with the proxy
+	 * @param nonProxyHosts the hosts that won't be routed through the proxy
+	 * @return the response body or <code>NULL</code> when the request went wrong
+	 */
+	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts) {
+		HttpClient client = createHttpClient(url, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts);
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, client);
+	}
+	
+	/**
+	 * Creates a {@link HttpClient} for the given <code>url</code> which uses the shared 
+	 * pool of connections. The <code>http.proxyXXX</code> System variables are read and
+	 * set into the client as well as the credentials which are contained in the 
+	 * <code>url</code>.
+	 * 
+	 * @param url the url which is going to be executed by the client
+	 * @return a new {@link HttpClient} with pooled connections
+	 * @see #createHttpClient()
+	 */
+	public static HttpClient createHttpClient(String url) {
 		String proxySet = System.getProperty("http.proxySet");
 		
 		String proxyHost = null;
@@ -147,30 +239,26 @@ public class HttpUtil {
 			nonProxyHosts = System.getProperty("http.nonProxyHosts");
 		}
 		
-		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts);
-
+		return createHttpClient(url, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts);
 	}
 	
 	/**
-	 * Executes the given <code>url</code> with the given <code>httpMethod</code>
+	 * Creates a {@link HttpClient} for the given <code>url</code> which uses the shared 
+	 * pool of connections and the given proxy. The credentials which are contained in 
+	 * the <code>url</code> are set into the client as well.
 	 * 
-	 * @param httpMethod the HTTP method to use
-	 * @param url the url to execute (in milliseconds)
-	 * @param httpHeaders optional HTTP headers which has to be set on request
-	 * @param content the content to be send to the given <code>url</code> or 
-	 * <code>null</code> if no content should be send.
-	 * @param contentType the content type of the given <code>content</code>
-	 * @param timeout the socket timeout to wait for data
+	 * @param url the url which is going to be executed by the client
 	 * @param proxyHost the hostname of the proxy
 	 * @param proxyPort the port of the proxy
 	 * @param proxyUser the username to authenticate with the proxy
 	 * @param proxyPassword the password to authenticate with the proxy
 	 * @param nonProxyHosts the hosts that won't be routed through the proxy
-	 * @return the response body or <code>NULL</code> when the request went wrong
+	 * @return a new {@link HttpClient} with pooled connections
+	 * @see #createHttpClient()
 	 */
-	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts) {
+	public static HttpClient createHttpClient(String url, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts) {
 		
-		HttpClient client = new HttpClient();
+		HttpClient client = createHttpClient();
 		
 		// only configure a proxy if a host is provided
 		if (StringUtils.isNotBlank(proxyHost) && proxyPort != null && shouldUseProxy(url, nonProxyHosts)) {
@@ -180,9 +268,22 @@ public class HttpUtil {
 					new UsernamePasswordCredentials(proxyUser, proxyPassword));
 			}
 		}
+
+		Credentials credentials = extractCredentials(url);
+		if (credentials != null) {
+			client.getParams().setAuthenticationPreemptive(true); 
+			client.getState().setCredentials(AuthScope.ANY, credentials);			
+		}
+		
+		return client;
+	}
+	
+	private static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, HttpClient client) {
 		  
 		HttpMethod method = HttpUtil.createHttpMethod(httpMethod, url);
         method.getParams().setSoTimeout(timeout);
+        // do not wait longer for a connection of the pool than for the response
+        client.getParams().setConnectionManagerTimeout(timeout);
 		method.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
 				new DefaultHttpMethodRetryHandler(3, false));
 		if(httpHeaders != null){
@@ -196,12 +297,6 @@ public class HttpUtil {
 			eeMethod.setRequestEntity(new InputStreamRequestEntity(content, contentType));
 		}
 
-		Credentials credentials = extractCredentials(url);
-		if (credentials != null) {
-			client.getParams().setAuthenticationPreemptive(true); 
-			client.getState().setCredentials(AuthScope.ANY, credentials);			
-		}
-
 		if (logger.isDebugEnabled()) {
 			try {
 				logger.debug("About to execute '" + method.getURI().toString() + "'");
@@ -210,6 +305,8 @@ public class HttpUtil {
 			}
 		}
 
+		long start = System.currentTimeMillis();
+		boolean failed = true;
 		try {
 			
 			int statusCode = client.executeMethod(method);
@@ -217,11 +314,13 @@ public class HttpUtil {
 				logger.warn("Method failed: " + method.getStatusLine());
 			}
 
+			// the body has to be read completely, so that the connection can be reused 
 			String responseBody = IOUtils.toString(method.getResponseBodyAsStream());
 			if (!responseBody.isEmpty()) {
 				logger.debug(responseBody);
 			}
 			
+			failed = false;
 			return responseBody;
 		}
 		catch (HttpException he) {
@@ -232,11 +331,208 @@ public class HttpUtil {
 		}
 		finally {
 			method.releaseConnection();
+			recordRequest(System.currentTimeMillis() - start, failed);
 		}
 		
 		return null;
 	}
 
+	/**
+	 * Executes the given <code>url</code> with the given <code>httpMethod</code>
+	 * asynchronously. The request is executed by a shared pool of threads, so that
+	 * the caller does not have to wait for the response.
+	 * 
+	 * @param httpMethod the HTTP method to use
+	 * @param url the url to execute
+	 * @param timeout the socket timeout to wait for data
+	 * 
+	 * @return a {@link Future} which provides the response body or <code>NULL</code>
+	 * when the request went wrong
+	 * @see #executeUrl(String, String, int)
+	 */
+	public static Future<String> executeUrlAsync(String httpMethod, String url, int timeout) {
+		return executeUrlAsync(httpMethod, url, null, null, null, timeout, null);
+	}
+	
+	/**
+	 * Executes the given <code>url</code> with the given <code>httpMethod</code>
+	 * asynchronously. The request is executed by a shared pool of threads, so that
+	 * the caller does not have to wait for the response.
+	 * 
+	 * @param httpMethod the HTTP method to use
+	 * @param url the url to execute
+	 * @param httpHeaders optional http request headers which has to be sent within request 
+	 * @param content the content to be send to the given <code>url</code> or 
+	 * <code>null</code> if no content should be send.
+	 * @param contentType the content type of the given <code>content</code>
+	 * @param timeout the socket timeout to wait for data
+	 * @param callback an optional callback which is notified with the response body 
+	 * as soon as the request has been executed, may be <code>null</code>
+	 * 
+	 * @return a {@link Future} which provides the response body or <code>NULL</code>
+	 * when the request went wrong
+	 * @see #executeUrl(String, String, Properties, InputStream, String, int)
+	 */
+	public static Future<String> executeUrlAsync(final String httpMethod, final String url, final Properties httpHeaders, 
+			final InputStream content, final String contentType, final int timeout, final HttpResponseCallback callback) {
+		pendingAsyncRequests.incrementAndGet();
+		return getAsyncExecutor().submit(new Callable<String>() {
+			public String call() throws Exception {
+				String response = null;
+				try {
+					response = executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout);
+				} finally {
+					pendingAsyncRequests.decrementAndGet();
+				}
+				if (callback != null) {
+					try {
+						callback.responseReceived(url, response);
+					} catch (RuntimeException e) {
+						logger.error("Error while processing the response of '" + url + "'", e);
+					}
+				}
+				return response;
+			}
+		});
+	}
+	
+	/**
+	 * Creates a {@link HttpClient} which uses the shared pool of connections. The
+	 * client itself is cheap to create and must not be shared, as it holds the
+	 * credentials and proxy settings of a request. Callers have to release the 
+	 * connection of each executed method by {@link HttpMethod#releaseConnection()}.
+	 * 
+	 * @return a new {@link HttpClient} with pooled connections
+	 */
+	public static HttpClient createHttpClient() {
+		closeIdleConnections();
+		HttpClient client = new HttpClient(connectionManager);
+		// fail instead of blocking forever, if all connections of the pool are in use
+		client.getParams().setConnectionManagerTimeout(DEFAULT_CONNECTION_MANAGER_TIMEOUT);
+		return client;
+	}
+	
+	/**
+	 * Stops the threads which execute asynchronous requests and closes all idle
+	 * connections. This is called when the bundle is stopped; the threads are 
+	 * created again by the next asynchronous request.
+	 */
+	public static synchronized void shutdown() {
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdownNow();
+			asyncExecutor = null;
+		}
+		connectionManager.closeIdleConnections(0);
+	}
+	
+	private static synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			asyncExecutor = new ThreadPoolExecutor(ASYNC_POOL_SIZE, ASYNC_POOL_SIZE, 0L, TimeUnit.MILLISECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "HTTP Executor " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Executes the given <code>method</code> with the given <code>client</code> and
+	 * records its duration in the request statistics. This is meant for callers which 
+	 * need access to the response headers or stream the response body themselves.
+	 * 
+	 * @param client the client to execute the method with, see {@link #createHttpClient()}
+	 * @param method the method to execute
+	 * @return the status code of the response
+	 * @throws IOException if the method could not be executed
+	 */
+	public static int executeMethod(HttpClient client, HttpMethod method) throws IOException {
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			int statusCode = client.executeMethod(method);
+			failed = false;
+			return statusCode;
+		} finally {
+			recordRequest(System.currentTimeMillis() - start, failed);
+		}
+	}
+	
+	private static void closeIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (now - lastIdleCheck > IDLE_CONNECTION_TIMEOUT) {
+			lastIdleCheck = now;
+			connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT);
+		}
+	}
+	
+	private static void recordRequest(long duration, boolean failed) {
+		requestCount.incrementAndGet();
+		if (failed) {
+			failedRequestCount.incrementAndGet();
+		}
+		totalRequestTime.addAndGet(duration);
+		long max = maxRequestTime.get();
+		while (duration > max && !maxRequestTime.compareAndSet(max, duration)) {
+			max = maxRequestTime.get();
+		}
+	}
+	
+	/**
+	 * @return the number of connections which are currently held by the shared pool,
+	 * both idle and in use
+	 */
+	public static int getConnectionsInPool() {
+		return connectionManager.getConnectionsInPool();
+	}
+	
+	/**
+	 * @return the maximum number of connections of the shared pool
+	 */
+	public static int getMaxConnections() {
+		return connectionManager.getParams().getMaxTotalConnections();
+	}
+	
+	/**
+	 * @return the number of asynchronous requests which are queued or being executed
+	 */
+	public static int getPendingAsyncRequests() {
+		return pendingAsyncRequests.get();
+	}
+	
+	/**
+	 * @return the number of requests which have been executed so far
+	 */
+	public static long getRequestCount() {
+		return requestCount.get();
+	}
+	
+	/**
+	 * @return the number of requests which have failed with a protocol or transport error
+	 */
+	public static long getFailedRequestCount() {
+		return failedRequestCount.get();
+	}
+	
+	/**
+	 * @return the average duration of all requests in milliseconds
+	 */
+	public static long getAverageRequestTime() {
+		long count = requestCount.get();
+		return count > 0 ? totalRequestTime.get() / count : 0;
+	}
+	
+	/**
+	 * @return the maximum duration of a request in milliseconds
+	 */
+	public static long getMaxRequestTime() {
+		return maxRequestTime.get();
+	}
+
 	/**
 	 * Determines whether the list of <code>nonProxyHosts</code> contains the
 	 * host (which is part of the given <code>urlString</code> or not.
@@ -26,56 +26,38 @@
  * (EPL), the licensors of this Program grant you additional permission
  * to convey the resulting work.
  */
-package org.openhab.model.script.internal.actions;
+package org.openhab.io.net.internal;
 
-import org.eclipse.xtext.xbase.lib.Procedures.Procedure0;
-import org.quartz.Job;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
+import org.openhab.io.net.http.HttpUtil;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+
 /**
- * This is a Quartz {@link Job} which executes the code of a closure that is passed
- * to the createTimer() extension method.
+ * Extension of the default OSGi bundle activator
  * 
  * @author Kai Kreuzer
- * @since 1.0.0
- *
+ * @since 1.4.0
  */
-public class TimerExecutionJob implements Job {
+public final class NetActivator implements BundleActivator {
 
-	static final private Logger logger = LoggerFactory.getLogger(TimerExecutionJob.class);
+	private static Logger logger = LoggerFactory.getLogger(NetActivator.class); 
 	
-	private Procedure0 procedure;
-	private TimerImpl timer;
-
 	/**
-	 * Runs the configured closure of this job
-	 * 
-	 * @param context the execution context of the job
+	 * Called whenever the OSGi framework starts our bundle
 	 */
-	public void execute(JobExecutionContext context) throws JobExecutionException {
-		logger.debug("Executing timer '{}'", context.getJobDetail().getKey().toString());
-		procedure.apply();
-		timer.setTerminated(true);
+	public void start(BundleContext bc) throws Exception {
+		logger.debug("Net I/O bundle has been started.");
 	}
 
 	/**
-	 * Sets the closure for this job
-	 * 
-	 * @param procedure a closure without parameters
+	 * Called whenever the OSGi framework stops our bundle
 	 */
-	public void setProcedure(Procedure0 procedure) {
-		this.procedure = procedure;
-	}
-
-	/** 
-	 * Sets the {@link TimerImpl} instance that corresponds to this job.
-	 * 
-	 * @param timer the associated timer instance
-	 */
-	public void setTimer(TimerImpl timer) {
-		this.timer = timer;
+	public void stop(BundleContext bc) throws Exception {
+		HttpUtil.shutdown();
+		logger.debug("Net I/O bundle has been stopped.");
 	}
+	
 }
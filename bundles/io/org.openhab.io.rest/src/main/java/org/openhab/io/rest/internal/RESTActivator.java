@@ -28,6 +28,7 @@
  */
 package org.openhab.io.rest.internal;
 
+import org.openhab.io.rest.internal.filter.DelayedBroadcastScheduler;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
@@ -58,6 +59,7 @@ public class RESTActivator implements BundleActivator {
 	 */
 	public void stop(BundleContext bc) throws Exception {
 		context = null;
+		DelayedBroadcastScheduler.shutdown();
 		logger.debug("REST API has been stopped.");
 	}
 	
@@ -36,16 +36,20 @@ import java.util.Set;
 import javax.servlet.ServletException;
 import javax.ws.rs.core.Application;
 
+import org.apache.commons.lang.StringUtils;
 import org.atmosphere.cpr.AtmosphereServlet;
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.io.net.http.SecureHttpContext;
 import org.openhab.io.rest.internal.resources.ItemResource;
 import org.openhab.io.rest.internal.resources.RootResource;
+import org.openhab.io.rest.internal.resources.SitemapIndex;
 import org.openhab.io.rest.internal.resources.SitemapResource;
 import org.openhab.io.servicediscovery.DiscoveryService;
 import org.openhab.io.servicediscovery.ServiceDescription;
+import org.openhab.model.core.EventType;
 import org.openhab.model.core.ModelRepository;
+import org.openhab.model.core.ModelRepositoryChangeListener;
 import org.openhab.ui.items.ItemUIRegistry;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
@@ -65,7 +69,7 @@ import com.sun.jersey.core.util.FeaturesAndProperties;
  * @author Kai Kreuzer
  * @since 0.8.0
  */
-public class RESTApplication extends Application {
+public class RESTApplication extends Application implements ModelRepositoryChangeListener {
 
 	public static final String REST_SERVLET_ALIAS = "/rest";
 
@@ -119,9 +123,11 @@ public class RESTApplication extends Application {
 
 	public void setModelRepository(ModelRepository modelRepository) {
 		RESTApplication.modelRepository = modelRepository;
+		modelRepository.addModelRepositoryChangeListener(this);
 	}
 	
 	public void unsetModelRepository(ModelRepository modelRepository) {
+		modelRepository.removeModelRepositoryChangeListener(this);
 		RESTApplication.modelRepository = null;
 	}
 
@@ -129,6 +135,18 @@ public class RESTApplication extends Application {
 		return modelRepository;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public void modelChanged(String modelName, EventType type) {
+		// the pages of the sitemaps depend on the sitemap models and, through groups, on the item models
+		if(modelName.endsWith(".sitemap")) {
+			SitemapIndex.invalidate(StringUtils.removeEnd(modelName, ".sitemap"));
+		} else if(modelName.endsWith(".items")) {
+			SitemapIndex.invalidateAll();
+		}
+	}
+
 	public void setDiscoveryService(DiscoveryService discoveryService) {
 		this.discoveryService = discoveryService;
 	}
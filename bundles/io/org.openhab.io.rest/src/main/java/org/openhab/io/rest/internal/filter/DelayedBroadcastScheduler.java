@@ -0,0 +1,147 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.rest.internal.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.openhab.io.rest.internal.broadcaster.GeneralBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class schedules delayed broadcasts to single clients on one shared thread.
+ * If a broadcast is scheduled for a client which is still waiting for a previous
+ * one, the two are coalesced and only the latest message is sent.
+ *  
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ */
+public class DelayedBroadcastScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(DelayedBroadcastScheduler.class);
+
+	/** the delay of the broadcasts in milliseconds */
+	public static final long DELAY = 300;
+
+	private static ScheduledExecutorService executor;
+
+	// the broadcasts which have been scheduled but not sent yet, keyed by the client resource
+	private static final Map<AtmosphereResource, PendingBroadcast> pendingBroadcasts = new HashMap<AtmosphereResource, PendingBroadcast>();
+
+	private DelayedBroadcastScheduler() {}
+
+	/**
+	 * Schedules a message to be broadcasted to a single client after {@link #DELAY} milliseconds.
+	 * 
+	 * @param resource the client resource to send the message to
+	 * @param broadcasterName the name of the broadcaster to use
+	 * @param message the message to send
+	 */
+	public static void schedule(AtmosphereResource resource, String broadcasterName, Object message) {
+		synchronized(pendingBroadcasts) {
+			PendingBroadcast pending = pendingBroadcasts.get(resource);
+			if(pending!=null) {
+				// there is already a broadcast on its way, so we only replace its message
+				pending.broadcasterName = broadcasterName;
+				pending.message = message;
+				return;
+			}
+			pending = new PendingBroadcast(resource, broadcasterName, message);
+			pendingBroadcasts.put(resource, pending);
+			getExecutor().schedule(pending, DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Discards all pending broadcasts and stops the scheduler thread.
+	 */
+	public static void shutdown() {
+		synchronized(pendingBroadcasts) {
+			pendingBroadcasts.clear();
+			if(executor!=null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	private static ScheduledExecutorService getExecutor() {
+		if(executor==null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "REST Delayed Broadcaster");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	private static class PendingBroadcast implements Runnable {
+
+		private final AtmosphereResource resource;
+
+		// guarded by "pendingBroadcasts"
+		private String broadcasterName;
+		private Object message;
+
+		public PendingBroadcast(AtmosphereResource resource, String broadcasterName, Object message) {
+			this.resource = resource;
+			this.broadcasterName = broadcasterName;
+			this.message = message;
+		}
+
+		public void run() {
+			String name;
+			Object latestMessage;
+			synchronized(pendingBroadcasts) {
+				pendingBroadcasts.remove(resource);
+				name = broadcasterName;
+				latestMessage = message;
+			}
+			try {
+				GeneralBroadcaster broadcaster = (GeneralBroadcaster) BroadcasterFactory.getDefault().lookup(GeneralBroadcaster.class, name);
+				if(broadcaster!=null) {
+					broadcaster.broadcast(latestMessage, resource);
+				}
+			} catch (Exception e) {
+				logger.error(e.getMessage());
+			}
+		}
+	}
+}
@@ -36,12 +36,16 @@ import org.atmosphere.cpr.BroadcastFilter.BroadcastAction.ACTION;
 import org.atmosphere.cpr.PerRequestBroadcastFilter;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openhab.io.rest.internal.listeners.ResourceStateChangeListener;
+import org.openhab.io.rest.internal.resources.beans.PageBean;
+import org.openhab.io.rest.internal.resources.beans.WidgetListBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
  * This Filter prevents duplicate broadcasts   
+ * Page and widget beans are compared structurally through their hash codes and
+ * equals methods, all other messages by their JSON representation.
  *  
  * @author Oliver Mazur
  * @since 1.0
@@ -52,6 +56,9 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 
 	private static final Logger logger = LoggerFactory.getLogger(DuplicateBroadcastProtectionFilter.class);
 	
+	// the mapper is thread-safe once it has been configured
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
 	@Override
 	public BroadcastAction filter(Object arg0, Object message) {
 		return new BroadcastAction(ACTION.CONTINUE, message);
@@ -83,9 +90,17 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 		if(clientId == null || clientId.isEmpty()){
 			return false;
 		}
-		ObjectMapper mapper = new ObjectMapper();
+		Object firedEntity = ResourceStateChangeListener.getMap().put(clientId, responseEntity);
+		if(firedEntity==null || responseEntity==null) {
+			return firedEntity==responseEntity;
+		}
+		if(isStructurallyComparable(responseEntity)) {
+			return firedEntity.getClass()==responseEntity.getClass() 
+					&& firedEntity.hashCode()==responseEntity.hashCode() 
+					&& firedEntity.equals(responseEntity);
+		}
 		try{
-			String firedResponse =  mapper.writeValueAsString(ResourceStateChangeListener.getMap().put(clientId, responseEntity)); 
+			String firedResponse =  mapper.writeValueAsString(firedEntity); 
 			String responseValue =  mapper.writeValueAsString(responseEntity);
             if(responseValue.equals(firedResponse)) {
             	return true;
@@ -95,5 +110,9 @@ public class DuplicateBroadcastProtectionFilter implements PerRequestBroadcastFi
 		} 
         return false;
 	}
+	
+	private boolean isStructurallyComparable(Object entity) {
+		return entity instanceof PageBean || entity instanceof WidgetListBean;
+	}
 
 }
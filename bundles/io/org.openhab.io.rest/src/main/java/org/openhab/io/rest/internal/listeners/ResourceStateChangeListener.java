@@ -33,6 +33,7 @@ package org.openhab.io.rest.internal.listeners;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -65,6 +66,9 @@ abstract public class ResourceStateChangeListener {
 	private Set<String> relevantItems = null;
 	private StateChangeListener stateChangeListener;
 	private GeneralBroadcaster broadcaster;
+	
+	// the number of state changes which have been broadcasted so far
+	private final AtomicLong broadcastCount = new AtomicLong();
 
 	public ResourceStateChangeListener(){}
 
@@ -120,6 +124,7 @@ abstract public class ResourceStateChangeListener {
 					GroupItem gItem = (GroupItem) item;
 					if(gItem.getBaseItem()!=null) {
 						if(!broadcaster.getAtmosphereResources().isEmpty()) {
+							broadcastCount.incrementAndGet();
 							broadcaster.broadcast(item);
 						}
 					}
@@ -128,6 +133,7 @@ abstract public class ResourceStateChangeListener {
 			
 			public void stateChanged(final Item item, State oldState, State newState) {	
 				if(!broadcaster.getAtmosphereResources().isEmpty()) {
+					broadcastCount.incrementAndGet();
 					broadcaster.broadcast(item);
 				}
 			}
@@ -135,6 +141,16 @@ abstract public class ResourceStateChangeListener {
 		registerStateChangeListenerOnRelevantItems(broadcaster.getID(), stateChangeListener);
 	}
 	
+	/**
+	 * Returns the number of state changes which have been broadcasted so far. As long as
+	 * this number does not change, responses can be reused for all clients.
+	 * 
+	 * @return the number of broadcasted state changes
+	 */
+	protected long getBroadcastCount() {
+		return broadcastCount.get();
+	}
+	
 	public void unregisterItems(){
 		unregisterStateChangeListenerOnRelevantItems();
 	}
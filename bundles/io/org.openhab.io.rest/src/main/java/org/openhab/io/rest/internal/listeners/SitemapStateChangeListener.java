@@ -29,9 +29,7 @@
 package org.openhab.io.rest.internal.listeners;
 
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
@@ -40,20 +38,18 @@ import javax.ws.rs.core.UriBuilder;
 import org.openhab.core.items.Item;
 import org.openhab.io.rest.internal.RESTApplication;
 import org.openhab.io.rest.internal.resources.ResponseTypeHelper;
+import org.openhab.io.rest.internal.resources.SitemapIndex;
 import org.openhab.io.rest.internal.resources.SitemapResource;
 import org.openhab.io.rest.internal.resources.beans.PageBean;
-import org.openhab.io.rest.internal.resources.beans.WidgetBean;
 import org.openhab.io.rest.internal.resources.beans.WidgetListBean;
-import org.openhab.model.sitemap.Frame;
-import org.openhab.model.sitemap.LinkableWidget;
 import org.openhab.model.sitemap.Sitemap;
-import org.openhab.model.sitemap.Widget;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * This is the {@link ResourceStateChangeListener} implementation for sitemap REST requests.
  * Note: We only support suspended requests for page requests, not for complete sitemaps.
+ * <p>
+ * As all clients of a page receive the same page, the page is only rendered once per
+ * state change and shared by all of them. 
  * 
  * @author Kai Kreuzer
  * @author Oliver Mazur
@@ -62,7 +58,8 @@ import org.slf4j.LoggerFactory;
  */
 public class SitemapStateChangeListener extends ResourceStateChangeListener {
 
-	private static final Logger logger = LoggerFactory.getLogger(ResourceStateChangeListener.class);
+	// the page which has been rendered last, together with the data it has been rendered for
+	private RenderedPage renderedPage = null;
 	
 	@Override
 	protected Object getResponseObject(HttpServletRequest request) {
@@ -75,17 +72,14 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
 		
 	@Override
 	protected Object getSingleResponseObject(Item item, HttpServletRequest request) {
-		PageBean pageBean = getPageBean(request);
-		WidgetListBean responseBeam ;
-		if(pageBean!=null) {
-			responseBeam = new WidgetListBean( getItemsOnPage(pageBean.widgets, item));
-			return responseBeam;
-	    	
-    	}
+		String[] pathSegments = getPathSegments(request);
+		if(pathSegments!=null) {
+			URI basePath = getBasePath(request);
+			return new WidgetListBean(SitemapResource.getWidgetBeans(pathSegments[1], pathSegments[2], item.getName(), basePath));
+		}
 		return null;
 	}
 
-
 	@Override
 	protected Set<String> getRelevantItemNames(String pathInfo) {
 
@@ -97,91 +91,78 @@ public class SitemapStateChangeListener extends ResourceStateChangeListener {
             	String sitemapName = pathSegments[1];
             	String pageName = pathSegments[2];
 
-            	Sitemap sitemap = (Sitemap) RESTApplication.getModelRepository().getModel(sitemapName + ".sitemap");
-            	if(sitemap!=null) {
-            		List<Widget> children = null;
-            		if(pageName.equals(sitemapName)) {
-            			children = sitemap.getChildren();
-            		} else {            		
-	            		Widget widget = RESTApplication.getItemUIRegistry().getWidget(sitemap, pageName);
-	            		if(widget instanceof LinkableWidget) {
-	            			LinkableWidget page = (LinkableWidget) widget;
-	            			children = RESTApplication.getItemUIRegistry().getChildren(page);
-	            		}
-            		}
-            		if(children!=null) {
-	            		return getRelevantItemNamesForWidgets(children);
-            		}
+            	SitemapIndex index = SitemapIndex.getIndex(sitemapName);
+            	if(index!=null) {
+            		return new HashSet<String>(index.getItemNames(pageName));
 				}
             }
         }
         return new HashSet<String>();
 	}
 
-	private Set<String> getRelevantItemNamesForWidgets(List<Widget> children) {
-		Set<String> itemNames = new HashSet<String>();
-		for(Widget child : children) {
-			if (child instanceof Frame) {
-				Frame frame = (Frame) child;
-				itemNames.addAll(getRelevantItemNamesForWidgets(frame.getChildren()));
-			} else {
-				String itemName = child.getItem();
-				if(itemName!=null) {
-					itemNames.add(itemName);
-				}
-			}
+	private PageBean getPageBean(HttpServletRequest request){
+		String[] pathSegments = getPathSegments(request);
+		if(pathSegments!=null) {
+			URI basePath = getBasePath(request);
+        	String sitemapName = pathSegments[1];
+        	String pageId = pathSegments[2];
+        	Sitemap sitemap = SitemapResource.getSitemap(sitemapName);
+        	if(sitemap!=null) {
+        		long broadcastCount = getBroadcastCount();
+        		synchronized (this) {
+        			if(renderedPage!=null && renderedPage.matches(broadcastCount, sitemap, basePath)) {
+        				return renderedPage.pageBean;
+        			}
+        		}
+        		PageBean pageBean = SitemapResource.getPageBean(sitemapName, pageId, basePath);
+        		synchronized (this) {
+        			renderedPage = new RenderedPage(broadcastCount, sitemap, basePath, pageBean);
+        		}
+				return pageBean;
+        	}
 		}
-		return itemNames;
+		return null;
 	}
 	
-	private PageBean getPageBean(HttpServletRequest request){
-		String pathInfo = request.getPathInfo();
-		
+	private String[] getPathSegments(HttpServletRequest request) {
 		String responseType = (new ResponseTypeHelper()).getResponseType(request);
 		if(responseType!=null) {
-			URI basePath = UriBuilder.fromUri(request.getScheme()+"://"+request.getServerName()+":"+request.getServerPort()+(request.getContextPath().equals("null")?"":request.getContextPath()) + RESTApplication.REST_SERVLET_ALIAS +"/").build();
+			String pathInfo = request.getPathInfo();
 			if (pathInfo.startsWith("/" + SitemapResource.PATH_SITEMAPS)) {
 	        	String[] pathSegments = pathInfo.substring(1).split("/");
 	            if(pathSegments.length>=3) {
-	            	String sitemapName = pathSegments[1];
-	            	String pageId = pathSegments[2];
-	            	Sitemap sitemap = (Sitemap) RESTApplication.getModelRepository().getModel(sitemapName + ".sitemap");
-	            	if(sitemap!=null) {
-						return SitemapResource.getPageBean(sitemapName, pageId, basePath);
-	            	}
+	            	return pathSegments;
 	            }
 	        }
 		}
 		return null;
-		
 	}
 	
-	private List <WidgetBean> getItemsOnPage(List<WidgetBean> widgets, Item searchItem){
-		List <WidgetBean> foundWidgets = new ArrayList <WidgetBean>();
-		try{
-		for(WidgetBean widget : widgets) {	
-			if(widget.item !=null && widget.item.name.equals(searchItem.getName())){
-				foundWidgets.add(widget);
-			}
-			else{
-				if (!widget.widgets.isEmpty()){
-					List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.widgets, searchItem);
-					if(!tmpWidgets.isEmpty()) {
-						foundWidgets.addAll(tmpWidgets); }
-					
-				}
-			}
-			
-			if (widget.linkedPage != null && widget.linkedPage.widgets != null) {
-				List <WidgetBean> tmpWidgets =  getItemsOnPage(widget.linkedPage.widgets, searchItem);
-				if(!tmpWidgets.isEmpty()) {
-					foundWidgets.addAll(tmpWidgets); }
-			}			
+	private URI getBasePath(HttpServletRequest request) {
+		return UriBuilder.fromUri(request.getScheme()+"://"+request.getServerName()+":"+request.getServerPort()+(request.getContextPath().equals("null")?"":request.getContextPath()) + RESTApplication.REST_SERVLET_ALIAS +"/").build();
+	}
+	
+	/**
+	 * A rendered page together with the number of broadcasted state changes, the sitemap
+	 * and the base path it has been rendered for.
+	 */
+	private static class RenderedPage {
+		
+		private final long broadcastCount;
+		private final Sitemap sitemap;
+		private final URI basePath;
+		private final PageBean pageBean;
+		
+		private RenderedPage(long broadcastCount, Sitemap sitemap, URI basePath, PageBean pageBean) {
+			this.broadcastCount = broadcastCount;
+			this.sitemap = sitemap;
+			this.basePath = basePath;
+			this.pageBean = pageBean;
 		}
-		}catch (Exception e){
-			logger.error(e.getMessage());
+		
+		private boolean matches(long broadcastCount, Sitemap sitemap, URI basePath) {
+			return this.broadcastCount==broadcastCount && this.sitemap==sitemap && this.basePath.equals(basePath);
 		}
-		return foundWidgets;
 	}
 
 }
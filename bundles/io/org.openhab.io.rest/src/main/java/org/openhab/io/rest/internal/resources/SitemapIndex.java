@@ -0,0 +1,216 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.rest.internal.resources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.emf.common.util.EList;
+import org.openhab.io.rest.internal.RESTApplication;
+import org.openhab.model.sitemap.Frame;
+import org.openhab.model.sitemap.LinkableWidget;
+import org.openhab.model.sitemap.Sitemap;
+import org.openhab.model.sitemap.Widget;
+import org.openhab.ui.items.ItemUIRegistry;
+
+/**
+ * This is an index of the widgets of a sitemap, which maps the pages of the sitemap
+ * to the items that are shown on them and each item to the widgets that show it.
+ * The widgets are stored together with the widget ids that are used in the page beans,
+ * so that single widgets can be rendered without rendering the whole page.
+ * <p>
+ * The indexes are cached per sitemap and pages are indexed on their first use. Whenever
+ * the sitemap model is changed, a new index is created.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ *
+ */
+public class SitemapIndex {
+
+	// the indexes of all sitemaps that have been used so far, keyed by the sitemap name
+	private static final ConcurrentMap<String, SitemapIndex> indexes = new ConcurrentHashMap<String, SitemapIndex>();
+
+	private final Sitemap sitemap;
+	
+	// the indexes of the pages of this sitemap, keyed by the page id
+	private final ConcurrentMap<String, PageIndex> pages = new ConcurrentHashMap<String, PageIndex>();
+	
+	private SitemapIndex(Sitemap sitemap) {
+		this.sitemap = sitemap;
+	}
+	
+	/**
+	 * Returns the index of a sitemap.
+	 * 
+	 * @param sitemapName the name of the sitemap
+	 * @return the index of the sitemap or null, if the sitemap does not exist
+	 */
+	public static SitemapIndex getIndex(String sitemapName) {
+		Sitemap sitemap = SitemapResource.getSitemap(sitemapName);
+		if(sitemap==null) {
+			indexes.remove(sitemapName);
+			return null;
+		}
+		SitemapIndex index = indexes.get(sitemapName);
+		if(index==null || index.sitemap!=sitemap) {
+			// the sitemap has not been indexed yet or its model has changed
+			index = new SitemapIndex(sitemap);
+			indexes.put(sitemapName, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * Removes the index of a sitemap, so that it is rebuilt on its next use.
+	 * 
+	 * @param sitemapName the name of the sitemap
+	 */
+	public static void invalidate(String sitemapName) {
+		indexes.remove(sitemapName);
+	}
+	
+	/**
+	 * Removes the indexes of all sitemaps, so that they are rebuilt on their next use.
+	 */
+	public static void invalidateAll() {
+		indexes.clear();
+	}
+	
+	/**
+	 * Returns the names of all items that are shown on a page.
+	 * 
+	 * @param pageId the id of the page
+	 * @return the item names, which are empty if the page does not exist
+	 */
+	public Set<String> getItemNames(String pageId) {
+		PageIndex page = getPage(pageId);
+		return page!=null ? page.widgets.keySet() : Collections.<String>emptySet();
+	}
+
+	/**
+	 * Returns all widgets of a page that show a given item.
+	 * 
+	 * @param pageId the id of the page
+	 * @param itemName the name of the item
+	 * @return the widgets, which are empty if the item is not shown on the page
+	 */
+	public List<IndexedWidget> getWidgets(String pageId, String itemName) {
+		PageIndex page = getPage(pageId);
+		if(page!=null) {
+			List<IndexedWidget> widgets = page.widgets.get(itemName);
+			if(widgets!=null) {
+				return widgets;
+			}
+		}
+		return Collections.emptyList();
+	}
+	
+	private PageIndex getPage(String pageId) {
+		PageIndex page = pages.get(pageId);
+		if(page==null) {
+			EList<Widget> children = getChildren(pageId);
+			if(children==null) {
+				return null;
+			}
+			page = new PageIndex(pageId, children);
+			pages.put(pageId, page);
+		}
+		return page;
+	}
+	
+	private EList<Widget> getChildren(String pageId) {
+		if(pageId.equals(sitemap.getName())) {
+			return sitemap.getChildren();
+		}
+		ItemUIRegistry itemUIRegistry = RESTApplication.getItemUIRegistry();
+		Widget widget = itemUIRegistry.getWidget(sitemap, pageId);
+		if(widget instanceof LinkableWidget) {
+			return itemUIRegistry.getChildren((LinkableWidget) widget);
+		}
+		return null;
+	}
+	
+	/**
+	 * A widget of a page together with its id in the page bean.
+	 */
+	public static class IndexedWidget {
+		
+		public final Widget widget;
+		public final String widgetId;
+		
+		private IndexedWidget(Widget widget, String widgetId) {
+			this.widget = widget;
+			this.widgetId = widgetId;
+		}
+	}
+	
+	private static class PageIndex {
+		
+		// the widgets of the page, keyed by the name of the item they show
+		private final Map<String, List<IndexedWidget>> widgets = new HashMap<String, List<IndexedWidget>>();
+		
+		private PageIndex(String pageId, EList<Widget> children) {
+			// the widget ids are built in the same way as in SitemapResource.createPageBean()
+			int cntWidget = 0;
+			for(Widget widget : children) {
+				addWidget(widget, pageId + "_" + cntWidget);
+				cntWidget++;
+			}
+		}
+		
+		private void addWidget(Widget widget, String widgetId) {
+			String itemName = widget.getItem();
+			if(itemName!=null) {
+				List<IndexedWidget> itemWidgets = widgets.get(itemName);
+				if(itemWidgets==null) {
+					itemWidgets = new ArrayList<IndexedWidget>();
+					widgets.put(itemName, itemWidgets);
+				}
+				itemWidgets.add(new IndexedWidget(widget, widgetId));
+			}
+			if(widget instanceof Frame) {
+				// the widget ids are built in the same way as in SitemapResource.createWidgetBean()
+				int cntWidget = 0;
+				for(Widget child : RESTApplication.getItemUIRegistry().getChildren((Frame) widget)) {
+					widgetId += "_" + cntWidget;
+					addWidget(child, widgetId);
+					cntWidget++;
+				}
+			}
+		}
+	}
+
+}
@@ -29,6 +29,7 @@
 package org.openhab.io.rest.internal.resources;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -219,6 +220,27 @@ public class SitemapResource {
 		}
 	}
 
+	/**
+	 * Creates the beans of all widgets on a page that show a given item. Only these widgets
+	 * are rendered, the rest of the page is left untouched.
+	 * 
+	 * @param sitemapName the name of the sitemap
+	 * @param pageId the id of the page
+	 * @param itemName the name of the item
+	 * @param uri the base uri of the REST api
+	 * @return the widget beans, which are empty if the item is not shown on the page
+	 */
+	static public Collection<WidgetBean> getWidgetBeans(String sitemapName, String pageId, String itemName, URI uri) {
+		Collection<WidgetBean> beans = new ArrayList<WidgetBean>();
+		SitemapIndex index = SitemapIndex.getIndex(sitemapName);
+		if(index!=null) {
+			for(SitemapIndex.IndexedWidget indexedWidget : index.getWidgets(pageId, itemName)) {
+				beans.add(createWidgetBean(sitemapName, indexedWidget.widget, false, uri, indexedWidget.widgetId));
+			}
+		}
+		return beans;
+	}
+
 	public Collection<SitemapBean> getSitemapBeans(URI uri) {
 		Collection<SitemapBean> beans = new LinkedList<SitemapBean>();
 		logger.debug("Received HTTP GET request at '{}'.", UriBuilder.fromUri(uri).build().toASCIIString());
@@ -28,6 +28,8 @@
  */
 package org.openhab.io.rest.internal.resources.beans;
 
+import java.util.Arrays;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 /**
@@ -43,4 +45,14 @@ public class GroupItemBean extends ItemBean {
 
 	public ItemBean[] members;
 	
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Arrays.hashCode(members);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		return super.equals(obj) && Arrays.equals(members, ((GroupItemBean) obj).members);
+	}
+	
 }
@@ -30,6 +30,8 @@ package org.openhab.io.rest.internal.resources.beans;
 
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.apache.commons.lang.ObjectUtils;
+
 /**
  * This is a java bean that is used with JAXB to serialize items
  * to XML or JSON.
@@ -47,5 +49,25 @@ public class ItemBean {
 	public String link;
 	
 	public ItemBean() {}
+	
+	@Override
+	public int hashCode() {
+		int result = ObjectUtils.hashCode(type);
+		result = 31 * result + ObjectUtils.hashCode(name);
+		result = 31 * result + ObjectUtils.hashCode(state);
+		result = 31 * result + ObjectUtils.hashCode(link);
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		ItemBean other = (ItemBean) obj;
+		return ObjectUtils.equals(type, other.type)
+			&& ObjectUtils.equals(name, other.name)
+			&& ObjectUtils.equals(state, other.state)
+			&& ObjectUtils.equals(link, other.link);
+	}
 		
 }
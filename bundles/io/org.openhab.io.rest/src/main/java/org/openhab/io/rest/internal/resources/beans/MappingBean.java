@@ -30,6 +30,8 @@ package org.openhab.io.rest.internal.resources.beans;
 
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.apache.commons.lang.ObjectUtils;
+
 /**
  * This is a java bean that is used with JAXB to serialize command mappings
  * to XML or JSON.
@@ -45,5 +47,19 @@ public class MappingBean {
 	public String label;
 
 	public MappingBean() {}
+	
+	@Override
+	public int hashCode() {
+		return 31 * ObjectUtils.hashCode(command) + ObjectUtils.hashCode(label);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		MappingBean other = (MappingBean) obj;
+		return ObjectUtils.equals(command, other.command)
+			&& ObjectUtils.equals(label, other.label);
+	}
 		
 }
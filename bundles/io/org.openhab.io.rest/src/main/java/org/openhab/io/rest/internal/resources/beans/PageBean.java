@@ -34,6 +34,8 @@ import java.util.List;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.apache.commons.lang.ObjectUtils;
+
 /**
  * This is a java bean that is used with JAXB to serialize page content
  * to XML or JSON.
@@ -57,5 +59,31 @@ public class PageBean {
 	public List<WidgetBean> widgets = new ArrayList<WidgetBean>();
 	
 	public PageBean() {}
+	
+	@Override
+	public int hashCode() {
+		int result = ObjectUtils.hashCode(id);
+		result = 31 * result + ObjectUtils.hashCode(title);
+		result = 31 * result + ObjectUtils.hashCode(icon);
+		result = 31 * result + ObjectUtils.hashCode(link);
+		result = 31 * result + ObjectUtils.hashCode(parent);
+		result = 31 * result + (leaf ? 1 : 0);
+		result = 31 * result + ObjectUtils.hashCode(widgets);
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		PageBean other = (PageBean) obj;
+		return leaf==other.leaf
+			&& ObjectUtils.equals(id, other.id)
+			&& ObjectUtils.equals(title, other.title)
+			&& ObjectUtils.equals(icon, other.icon)
+			&& ObjectUtils.equals(link, other.link)
+			&& ObjectUtils.equals(parent, other.parent)
+			&& ObjectUtils.equals(widgets, other.widgets);
+	}
 		
 }
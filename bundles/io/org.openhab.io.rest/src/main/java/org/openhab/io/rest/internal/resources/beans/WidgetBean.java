@@ -35,6 +35,8 @@ import java.util.List;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.apache.commons.lang.ObjectUtils;
+
 /**
  * This is a java bean that is used with JAXB to serialize widgets
  * to XML or JSON.
@@ -77,5 +79,57 @@ public class WidgetBean {
 	public final List<WidgetBean> widgets = new ArrayList<WidgetBean>();
 	
 	public WidgetBean() {}
+	
+	@Override
+	public int hashCode() {
+		int result = ObjectUtils.hashCode(widgetId);
+		result = 31 * result + ObjectUtils.hashCode(type);
+		result = 31 * result + ObjectUtils.hashCode(name);
+		result = 31 * result + ObjectUtils.hashCode(label);
+		result = 31 * result + ObjectUtils.hashCode(icon);
+		result = 31 * result + ObjectUtils.hashCode(mappings);
+		result = 31 * result + ObjectUtils.hashCode(switchSupport);
+		result = 31 * result + ObjectUtils.hashCode(sendFrequency);
+		result = 31 * result + ObjectUtils.hashCode(separator);
+		result = 31 * result + ObjectUtils.hashCode(refresh);
+		result = 31 * result + ObjectUtils.hashCode(height);
+		result = 31 * result + ObjectUtils.hashCode(minValue);
+		result = 31 * result + ObjectUtils.hashCode(maxValue);
+		result = 31 * result + ObjectUtils.hashCode(step);
+		result = 31 * result + ObjectUtils.hashCode(url);
+		result = 31 * result + ObjectUtils.hashCode(service);
+		result = 31 * result + ObjectUtils.hashCode(period);
+		result = 31 * result + ObjectUtils.hashCode(item);
+		result = 31 * result + ObjectUtils.hashCode(linkedPage);
+		result = 31 * result + widgets.hashCode();
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		WidgetBean other = (WidgetBean) obj;
+		return ObjectUtils.equals(widgetId, other.widgetId)
+			&& ObjectUtils.equals(type, other.type)
+			&& ObjectUtils.equals(name, other.name)
+			&& ObjectUtils.equals(label, other.label)
+			&& ObjectUtils.equals(icon, other.icon)
+			&& ObjectUtils.equals(mappings, other.mappings)
+			&& ObjectUtils.equals(switchSupport, other.switchSupport)
+			&& ObjectUtils.equals(sendFrequency, other.sendFrequency)
+			&& ObjectUtils.equals(separator, other.separator)
+			&& ObjectUtils.equals(refresh, other.refresh)
+			&& ObjectUtils.equals(height, other.height)
+			&& ObjectUtils.equals(minValue, other.minValue)
+			&& ObjectUtils.equals(maxValue, other.maxValue)
+			&& ObjectUtils.equals(step, other.step)
+			&& ObjectUtils.equals(url, other.url)
+			&& ObjectUtils.equals(service, other.service)
+			&& ObjectUtils.equals(period, other.period)
+			&& ObjectUtils.equals(item, other.item)
+			&& ObjectUtils.equals(linkedPage, other.linkedPage)
+			&& widgets.equals(other.widgets);
+	}
 		
-}
\ No newline at end of file
+}
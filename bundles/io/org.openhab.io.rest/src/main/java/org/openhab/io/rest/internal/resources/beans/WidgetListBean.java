@@ -56,5 +56,16 @@ public class WidgetListBean {
 	@XmlElement(name="widget")
 	public final List<WidgetBean> entries = new ArrayList<WidgetBean>();
 	
+	@Override
+	public int hashCode() {
+		return entries.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		return entries.equals(((WidgetListBean) obj).entries);
+	}
+	
 }
-	
\ No newline at end of file
@@ -29,9 +29,6 @@
 package org.openhab.model.rule.internal.engine;
 
 import org.eclipse.emf.ecore.EObject;
-import org.openhab.core.scriptengine.Script;
-import org.openhab.core.scriptengine.ScriptEngine;
-import org.openhab.core.scriptengine.ScriptExecutionException;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.rule.internal.RuleModelActivator;
 import org.openhab.model.rule.rules.Rule;
@@ -44,7 +41,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of Quartz {@link Job}-Interface. It takes a rule
- * and simply executes it.
+ * and passes it to the {@link RuleEngine} for execution, so that timer
+ * rules share the thread pool of all other rules.
  * 
  * @author Kai Kreuzer
  * @since 0.9.0
@@ -55,27 +53,35 @@ public class ExecuteRuleJob implements Job {
 		
 	public static final String JOB_DATA_RULEMODEL = "model";
 	public static final String JOB_DATA_RULENAME = "rule";
+	public static final String JOB_DATA_RULE = "ruleObject";
 	
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		String modelName = (String) context.getJobDetail().getJobDataMap().get(JOB_DATA_RULEMODEL);				
 		String ruleName = (String) context.getJobDetail().getJobDataMap().get(JOB_DATA_RULENAME);
 		
-		ModelRepository modelRepository = RuleModelActivator.modelRepositoryTracker.getService();
-		ScriptEngine scriptEngine = RuleModelActivator.scriptEngineTracker.getService();
+		RuleEngine ruleEngine = RuleEngine.getInstance();
+		if(ruleEngine==null) {
+			return;
+		}
 		
-		if(modelRepository!=null && scriptEngine!=null) {
+		// the job is removed when the rule model changes, so the rule is usually still valid
+		Object ruleObject = context.getJobDetail().getJobDataMap().get(JOB_DATA_RULE);
+		if(ruleObject instanceof Rule && !((Rule) ruleObject).eIsProxy()) {
+			Rule rule = (Rule) ruleObject;
+			logger.debug("Scheduling execution of rule '{}'", rule.getName());
+			ruleEngine.executeRule(rule);
+			return;
+		}
+		
+		ModelRepository modelRepository = RuleModelActivator.modelRepositoryTracker.getService();
+		if(modelRepository!=null) {
 			EObject model = modelRepository.getModel(modelName);
 			if (model instanceof RuleModel) {
 				RuleModel ruleModel = (RuleModel) model;
 				Rule rule = getRule(ruleModel, ruleName);
 				if(rule!=null) {
-					Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
-					logger.debug("Executing scheduled rule '{}'", rule.getName());
-					try {
-						script.execute(RuleContextHelper.getContext(rule));
-					} catch (ScriptExecutionException e) {
-						logger.error("Error during the execution of rule {}", rule.getName(), e.getCause());
-					}
+					logger.debug("Scheduling execution of rule '{}'", rule.getName());
+					ruleEngine.executeRule(rule);
 				} else {
 					logger.debug("Scheduled rule '{}' does not exist", ruleName);
 				}
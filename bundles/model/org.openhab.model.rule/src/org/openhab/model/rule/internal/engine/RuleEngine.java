@@ -28,8 +28,6 @@
  */
 package org.openhab.model.rule.internal.engine;
 
-import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
-import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.CHANGE;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.COMMAND;
 import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerTypes.SHUTDOWN;
@@ -38,10 +36,20 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
 
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.xtext.naming.QualifiedName;
+import org.eclipse.xtext.xbase.interpreter.IEvaluationContext;
+import org.openhab.core.events.ItemEvent;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -51,7 +59,6 @@ import org.openhab.core.items.StateChangeListener;
 import org.openhab.core.scriptengine.Script;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
-import org.openhab.core.scriptengine.ScriptExecutionThread;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
@@ -59,6 +66,8 @@ import org.openhab.model.core.ModelRepository;
 import org.openhab.model.core.ModelRepositoryChangeListener;
 import org.openhab.model.rule.rules.Rule;
 import org.openhab.model.rule.rules.RuleModel;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
@@ -71,24 +80,51 @@ import com.google.common.collect.Lists;
  * This class is the core of the openHAB rule engine.
  * It listens to changes to the rules folder, evaluates the trigger conditions of the rules and
  * schedules them for execution dependent on their triggering conditions.
+ * The rules are executed by a {@link RuleExecutor}, whose size can be configured through
+ * the "ruleengine" namespace.
  * 
  * @author Kai Kreuzer
  * @since 0.9.0
  *
  */
 @SuppressWarnings("restriction")
-public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener {
+public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener, ManagedService {
 
 		static private final Logger logger = LoggerFactory.getLogger(RuleEngine.class);
 		
+		/** the time in milliseconds to wait for running rules when the rule engine is stopped */
+		private static final long SHUTDOWN_TIMEOUT = 10000L;
+		
+		private static RuleEngine instance;
+		
 		private ItemRegistry itemRegistry;
 		private ModelRepository modelRepository;
 		private ScriptEngine scriptEngine;
 
 		private RuleTriggerManager triggerManager;
-						
+		
+		private int poolSize = RuleExecutor.DEFAULT_POOL_SIZE;
+		private int queueSize = RuleExecutor.DEFAULT_QUEUE_SIZE;
+		
+		private volatile RuleExecutor ruleExecutor;
+		
+		// whether scripts are created for all rules as soon as a model is loaded
+		private boolean precompile = false;
+		
+		// the scripts of all rules which have been executed (or precompiled) so far
+		private final Map<Rule, Script> scriptCache = new ConcurrentHashMap<Rule, Script>();
+		
+		// the startup rules which have been scheduled on the rule executor, but have not finished yet
+		private final Set<Rule> pendingStartupRules = Collections.newSetFromMap(new ConcurrentHashMap<Rule, Boolean>());
+		
+		static /* default */ RuleEngine getInstance() {
+			return instance;
+		}
+		
 		public void activate() {
 			triggerManager = new RuleTriggerManager();
+			ruleExecutor = new RuleExecutor(poolSize, queueSize);
+			RuleEngine.instance = this;
 
 			if(!isEnabled()) {
 				logger.info("Rule engine is disabled.");
@@ -105,6 +141,9 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				if(model instanceof RuleModel) {
 					RuleModel ruleModel = (RuleModel) model;
 					triggerManager.addRuleModel(ruleModel);
+					if(precompile) {
+						precompileScripts(ruleModel);
+					}
 				}
 			}
 			
@@ -120,6 +159,66 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			executeRules(triggerManager.getRules(SHUTDOWN));
 			triggerManager.clearAll();
 			triggerManager = null;
+			scriptCache.clear();
+			RuleEngine.instance = null;
+			ruleExecutor.shutdown(SHUTDOWN_TIMEOUT);
+			ruleExecutor = null;
+			pendingStartupRules.clear();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@SuppressWarnings("rawtypes")
+		public void updated(Dictionary config) throws ConfigurationException {
+			int newPoolSize = RuleExecutor.DEFAULT_POOL_SIZE;
+			int newQueueSize = RuleExecutor.DEFAULT_QUEUE_SIZE;
+			boolean newPrecompile = false;
+			if(config!=null) {
+				String poolSizeString = (String) config.get("poolsize");
+				if(StringUtils.isNotBlank(poolSizeString)) {
+					try {
+						newPoolSize = Integer.parseInt(poolSizeString.trim());
+					} catch(NumberFormatException e) {
+						newPoolSize = 0;
+					}
+					if(newPoolSize <= 0) {
+						throw new ConfigurationException("poolsize", "'" + poolSizeString + "' is not a positive number");
+					}
+				}
+				String queueSizeString = (String) config.get("queuesize");
+				if(StringUtils.isNotBlank(queueSizeString)) {
+					try {
+						newQueueSize = Integer.parseInt(queueSizeString.trim());
+					} catch(NumberFormatException e) {
+						newQueueSize = 0;
+					}
+					if(newQueueSize <= 0) {
+						throw new ConfigurationException("queuesize", "'" + queueSizeString + "' is not a positive number");
+					}
+				}
+				String precompileString = (String) config.get("precompile");
+				if(StringUtils.isNotBlank(precompileString)) {
+					newPrecompile = Boolean.parseBoolean(precompileString.trim());
+				}
+			}
+			poolSize = newPoolSize;
+			queueSize = newQueueSize;
+			
+			if(newPrecompile && !precompile && triggerManager!=null && modelRepository!=null && isEnabled()) {
+				for(String ruleModelName : Lists.newArrayList(modelRepository.getAllModelNamesOfType("rules"))) {
+					EObject model = modelRepository.getModel(ruleModelName);
+					if(model instanceof RuleModel) {
+						precompileScripts((RuleModel) model);
+					}
+				}
+			}
+			precompile = newPrecompile;
+			
+			RuleExecutor executor = ruleExecutor;
+			if(executor!=null) {
+				executor.setLimits(poolSize, queueSize);
+			}
 		}
 		
 		public void setItemRegistry(ItemRegistry itemRegistry) {
@@ -186,9 +285,11 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		public void stateChanged(Item item, State oldState, State newState) {			
 			if(triggerManager!=null) {
 				Iterable<Rule> rules = triggerManager.getRules(CHANGE, item, oldState, newState);
-				RuleEvaluationContext context = new RuleEvaluationContext();
-				context.newValue(QualifiedName.create(RuleContextHelper.VAR_PREVIOUS_STATE), oldState);
-				executeRules(rules, context);
+				for(Rule rule : rules) {
+					RuleEvaluationContext context = new RuleEvaluationContext();
+					context.newValue(QualifiedName.create(RuleContextHelper.VAR_PREVIOUS_STATE), oldState);
+					executeRule(rule, context);
+				}
 			}
 		}
 
@@ -207,9 +308,11 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				try {
 					Item item = itemRegistry.getItem(itemName);
 					Iterable<Rule> rules = triggerManager.getRules(COMMAND, item, command);
-					RuleEvaluationContext context = new RuleEvaluationContext();
-					context.newValue(QualifiedName.create(RuleContextHelper.VAR_RECEIVED_COMMAND), command);
-					executeRules(rules, context);
+					for(Rule rule : rules) {
+						RuleEvaluationContext context = new RuleEvaluationContext();
+						context.newValue(QualifiedName.create(RuleContextHelper.VAR_RECEIVED_COMMAND), command);
+						executeRule(rule, context);
+					}
 				} catch (ItemNotFoundException e) {
 					// ignore commands for non-existent items
 				}
@@ -227,19 +330,13 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		 * {@inheritDoc}
 		 */
 		public void handleEvent(Event event) {  
-			String itemName = (String) event.getProperty("item");
-			
-			String topic = event.getTopic();
-			String[] topicParts = topic.split(TOPIC_SEPERATOR);
-			
-			if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
+			ItemEvent itemEvent = ItemEvent.fromEvent(event);
+			if(itemEvent==null) {
 				return; // we have received an event with an invalid topic
 			}
-			String operation = topicParts[1];
 			
-			if(operation.equals(EventType.COMMAND.toString())) {
-				Command command = (Command) event.getProperty("command");
-				if(command!=null) receiveCommand(itemName, command);
+			if(itemEvent.getEventType()==EventType.COMMAND) {
+				receiveCommand(itemEvent.getItemName(), itemEvent.getCommand());
 			}
 		}
 
@@ -248,10 +345,11 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				if(isEnabled() && modelName.endsWith("rules")) {
 					RuleModel model = (RuleModel) modelRepository.getModel(modelName);
 	
-					// remove the rules from the trigger sets
+					// remove the rules from the trigger sets and their scripts from the cache
 					if(type == org.openhab.model.core.EventType.REMOVED ||
 							type == org.openhab.model.core.EventType.MODIFIED) {
 						triggerManager.removeRuleModel(model);
+						invalidateScripts(model);
 					}
 	
 					// add new and modified rules to the trigger sets
@@ -259,6 +357,9 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 							(type == org.openhab.model.core.EventType.ADDED 
 							|| type == org.openhab.model.core.EventType.MODIFIED)) {
 						triggerManager.addRuleModel(model);
+						if(precompile) {
+							precompileScripts(model);
+						}
 						// now execute all rules that are meant to trigger at startup
 						runStartupRules();
 					}
@@ -266,57 +367,122 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			}
 		}
 
+		/**
+		 * Schedules all startup rules which have not been executed successfully yet on the
+		 * rule executor. A startup rule stays registered until it has been executed without
+		 * missing any items, so that it is tried again when further items are added.
+		 */
 		private void runStartupRules() {
-			if (triggerManager!=null) {
-				Iterable<Rule> startupRules = triggerManager.getRules(STARTUP);
-				List<Rule> executedRules = Lists.newArrayList();
+			RuleTriggerManager manager = triggerManager;
+			RuleExecutor executor = ruleExecutor;
+			if (manager!=null && executor!=null) {
+				List<Rule> startupRules;
+				synchronized(manager) {
+					startupRules = Lists.newArrayList(manager.getRules(STARTUP));
+				}
 				
 				for(Rule rule : startupRules) {
-					try {
-						Script script = scriptEngine.newScriptFromXExpression(rule.getScript());						
-						logger.debug("Executing startup rule '{}'", rule.getName());
-						RuleEvaluationContext context = new RuleEvaluationContext();
-						context.setGlobalContext(RuleContextHelper.getContext(rule));
-						script.execute(context);
-						executedRules.add(rule);
-					} catch (ScriptExecutionException e) {
-						if(e.getCause() instanceof ItemNotFoundException || e.getCause().getMessage().contains("cannot be resolved to an item or type")) {
-							// we do not seem to have all required items in place yet
-							// so we keep the rule in the list and try it again later
-						} else {
-							logger.error("Error during the execution of startup rule '{}': {}", new String[] { rule.getName(), e.getCause().getMessage() });
-							executedRules.add(rule);
-						}
+					// do not schedule a rule again which is still queued or running
+					if(!pendingStartupRules.add(rule)) {
+						continue;
+					}
+					logger.debug("Executing startup rule '{}'", rule.getName());
+					RuleEvaluationContext context = new RuleEvaluationContext();
+					context.setGlobalContext(RuleContextHelper.getContext(rule));
+					Script script = new StartupScript(manager, rule, getScript(rule));
+					if(!executor.execute(rule, script, context)) {
+						pendingStartupRules.remove(rule);
 					}
-				}
-				for(Rule rule : executedRules) {
-					triggerManager.removeRule(STARTUP, rule);
 				}
 			}
 		}
 
-		protected synchronized void executeRule(Rule rule) {
+		protected void executeRule(Rule rule) {
 			executeRule(rule, new RuleEvaluationContext());
 		}
+		
+		/**
+		 * Schedules the execution of a rule on the rule executor. The context must not be
+		 * shared with other rule executions as the rules may run in parallel.
+		 * 
+		 * @param rule the rule to execute
+		 * @param context the evaluation context for the rule
+		 */
+		protected void executeRule(Rule rule, RuleEvaluationContext context) {
+			RuleExecutor executor = ruleExecutor;
+			if(executor==null) {
+				logger.debug("Rule engine is not active, skipping execution of rule '{}'", rule.getName());
+				return;
+			}
 			
-		protected synchronized void executeRule(Rule rule, RuleEvaluationContext context) {
-			Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
+			Script script = getScript(rule);
 			
 			logger.debug("Executing rule '{}'", rule.getName());
 			
 			context.setGlobalContext(RuleContextHelper.getContext(rule));
 			
-			ScriptExecutionThread thread = new ScriptExecutionThread(rule.getName(), script, context);
-			thread.start();
+			executor.execute(rule, script, context);
 		}
 
-		protected synchronized void executeRules(Iterable<Rule> rules) {
-			executeRules(rules, new RuleEvaluationContext());
+		protected void executeRules(Iterable<Rule> rules) {
+			for(Rule rule : rules) {
+				executeRule(rule, new RuleEvaluationContext());
+			}
 		}
 		
-		protected synchronized void executeRules(Iterable<Rule> rules, RuleEvaluationContext context) {
-			for(Rule rule : rules) {
-				executeRule(rule, context);
+		/**
+		 * Returns the script of a rule. Scripts are created only once per rule and
+		 * are reused for all executions until the rule model is changed.
+		 * 
+		 * @param rule the rule to get the script for
+		 * @return the script of the rule
+		 */
+		private Script getScript(Rule rule) {
+			Script script = scriptCache.get(rule);
+			if(script==null) {
+				script = scriptEngine.newScriptFromXExpression(rule.getScript());
+				if(!rule.eIsProxy()) {
+					scriptCache.put(rule, script);
+				}
+			}
+			return script;
+		}
+		
+		/**
+		 * Creates the scripts of all rules of a model in advance and resolves all
+		 * their references, so that this is not done on their first execution.
+		 * 
+		 * @param model the rule model to precompile
+		 */
+		private void precompileScripts(RuleModel model) {
+			long start = System.currentTimeMillis();
+			for(Rule rule : model.getRules()) {
+				try {
+					EcoreUtil.resolveAll(rule);
+					getScript(rule);
+				} catch(RuntimeException e) {
+					logger.warn("Cannot precompile rule '{}': {}", rule.getName(), e.getMessage());
+				}
+			}
+			logger.debug("Precompiled {} rules in {}ms", model.getRules().size(), System.currentTimeMillis() - start);
+		}
+		
+		/**
+		 * Removes the scripts of all rules of a model and of all rules which do not
+		 * exist anymore from the cache.
+		 * 
+		 * @param model the rule model whose scripts should be removed, may be null
+		 */
+		private void invalidateScripts(RuleModel model) {
+			if(model!=null) {
+				for(Rule rule : model.getRules()) {
+					scriptCache.remove(rule);
+				}
+			}
+			for(Rule rule : scriptCache.keySet()) {
+				if(rule.eIsProxy()) {
+					scriptCache.remove(rule);
+				}
 			}
 		}
 				
@@ -330,4 +496,47 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			return !"true".equalsIgnoreCase(System.getProperty("noRules"));
 		}
 		
+		/**
+		 * Executes the script of a startup rule on the rule executor and removes the rule
+		 * from the startup rules afterwards, unless the script failed because some of its
+		 * items are not available yet.
+		 */
+		private class StartupScript implements Script {
+			
+			private final RuleTriggerManager manager;
+			private final Rule rule;
+			private final Script script;
+			
+			StartupScript(RuleTriggerManager manager, Rule rule, Script script) {
+				this.manager = manager;
+				this.rule = rule;
+				this.script = script;
+			}
+			
+			public Object execute() throws ScriptExecutionException {
+				return execute(null);
+			}
+			
+			public Object execute(IEvaluationContext evaluationContext) throws ScriptExecutionException {
+				try {
+					Object result = evaluationContext==null ? script.execute() : script.execute(evaluationContext);
+					manager.removeRule(STARTUP, rule);
+					return result;
+				} catch (ScriptExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof ItemNotFoundException || (cause!=null && cause.getMessage()!=null 
+							&& cause.getMessage().contains("cannot be resolved to an item or type"))) {
+						// we do not seem to have all required items in place yet
+						// so we keep the rule in the list and try it again later
+						logger.debug("Startup rule '{}' is missing items, trying it again later", rule.getName());
+						return null;
+					}
+					manager.removeRule(STARTUP, rule);
+					throw e;
+				} finally {
+					pendingStartupRules.remove(rule);
+				}
+			}
+		}
+		
 }
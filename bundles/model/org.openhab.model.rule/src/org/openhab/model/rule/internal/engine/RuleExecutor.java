@@ -0,0 +1,368 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.xtext.xbase.interpreter.IEvaluationContext;
+import org.openhab.core.scriptengine.Script;
+import org.openhab.core.scriptengine.ScriptExecutionException;
+import org.openhab.model.rule.rules.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class executes rule scripts on a bounded pool of threads. Executions of the
+ * same rule are serialized, i.e. a rule never runs concurrently with itself; further
+ * triggers of a running rule are queued and processed in order once it has finished.
+ * <p>
+ * If all threads are busy, executions are queued up to the configured queue size.
+ * Executions which exceed this limit are rejected and counted.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+@SuppressWarnings("restriction")
+public class RuleExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(RuleExecutor.class);
+
+	/** the default number of threads which execute rules in parallel */
+	public static final int DEFAULT_POOL_SIZE = 10;
+
+	/** the default number of rule executions which can be queued */
+	public static final int DEFAULT_QUEUE_SIZE = 5000;
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	private final ThreadPoolExecutor executor;
+
+	// the pending executions of all rules that are currently queued or running,
+	// the number of these executions and its limit (all guarded by "ruleQueues")
+	private final Map<Rule, RuleQueue> ruleQueues = new HashMap<Rule, RuleQueue>();
+	private int pendingCount = 0;
+	private int queueSize;
+
+	private final ConcurrentMap<String, RuleStatistics> ruleStatistics = new ConcurrentHashMap<String, RuleStatistics>();
+
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong totalQueueWait = new AtomicLong();
+	private final AtomicLong maxQueueWait = new AtomicLong();
+
+	public RuleExecutor() {
+		this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Creates a new rule executor.
+	 * 
+	 * @param poolSize the number of threads which execute rules in parallel
+	 * @param queueSize the maximum number of rule executions which are queued
+	 */
+	public RuleExecutor(int poolSize, int queueSize) {
+		this.queueSize = queueSize;
+		// the queue of the pool is not bounded as we limit the number of pending executions ourselves
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Rule Executor " + threadCounter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+
+	/**
+	 * Changes the number of threads and the queue size of this executor. Executions
+	 * which are already queued are not affected.
+	 * 
+	 * @param poolSize the number of threads which execute rules in parallel
+	 * @param queueSize the maximum number of rule executions which are queued
+	 */
+	public void setLimits(int poolSize, int queueSize) {
+		if(poolSize > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(poolSize);
+			executor.setCorePoolSize(poolSize);
+		} else {
+			executor.setCorePoolSize(poolSize);
+			executor.setMaximumPoolSize(poolSize);
+		}
+		synchronized(ruleQueues) {
+			this.queueSize = queueSize;
+		}
+	}
+
+	/**
+	 * Schedules the execution of a rule script. If the rule is currently running,
+	 * the execution is queued and started as soon as the previous one has finished.
+	 * 
+	 * @param rule the rule to execute
+	 * @param script the script of the rule
+	 * @param context the evaluation context to use for the script
+	 * @return true, if the execution has been scheduled, false if it has been rejected
+	 */
+	public boolean execute(Rule rule, Script script, IEvaluationContext context) {
+		RuleExecution execution = new RuleExecution(script, context);
+		synchronized(ruleQueues) {
+			if(pendingCount >= queueSize) {
+				return reject(rule);
+			}
+			RuleQueue ruleQueue = ruleQueues.get(rule);
+			if(ruleQueue==null) {
+				ruleQueue = new RuleQueue(rule);
+				try {
+					executor.execute(ruleQueue);
+				} catch(RejectedExecutionException e) {
+					// the executor has been shut down
+					return reject(rule);
+				}
+				ruleQueues.put(rule, ruleQueue);
+			}
+			// if the rule is already queued or running, the execution is simply appended
+			ruleQueue.executions.add(execution);
+			pendingCount++;
+			return true;
+		}
+	}
+
+	private boolean reject(Rule rule) {
+		long rejected = rejectedCount.incrementAndGet();
+		logger.warn("Rejected execution of rule '{}' as the rule engine is overloaded ({} rejected executions so far)",
+				rule.getName(), rejected);
+		return false;
+	}
+
+	/**
+	 * Stops accepting new rule executions and waits for the queued ones to finish.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds
+	 */
+	public void shutdown(long timeout) {
+		executor.shutdown();
+		try {
+			if(!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+				logger.warn("Rule executions did not finish within {}ms, stopping them.", timeout);
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		logStatistics();
+	}
+
+	/**
+	 * @return the number of rule executions which have not been started yet
+	 */
+	public int getQueueDepth() {
+		synchronized(ruleQueues) {
+			return pendingCount;
+		}
+	}
+
+	/**
+	 * @return the number of finished rule executions
+	 */
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * @return the number of rule executions which have been rejected as the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds between triggering a rule and the start of its execution
+	 */
+	public long getAverageQueueWait() {
+		long count = executedCount.get();
+		return count > 0 ? totalQueueWait.get() / count : 0;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds between triggering a rule and the start of its execution
+	 */
+	public long getMaxQueueWait() {
+		return maxQueueWait.get();
+	}
+
+	/**
+	 * @return the execution statistics of all rules that have been executed, keyed by the rule name
+	 */
+	public Map<String, RuleStatistics> getRuleStatistics() {
+		return Collections.unmodifiableMap(ruleStatistics);
+	}
+
+	private void logStatistics() {
+		if(logger.isDebugEnabled()) {
+			logger.debug("Rule executor statistics: executed={}, rejected={}, average queue wait={}ms, max queue wait={}ms",
+					new Object[] { getExecutedCount(), getRejectedCount(), getAverageQueueWait(), getMaxQueueWait() });
+			for(Map.Entry<String, RuleStatistics> entry : ruleStatistics.entrySet()) {
+				RuleStatistics stats = entry.getValue();
+				logger.debug("Rule '{}': executed={}, average time={}ms, max time={}ms",
+						new Object[] { entry.getKey(), stats.getCount(), stats.getAverageTime(), stats.getMaxTime() });
+			}
+		}
+	}
+
+	private void run(Rule rule, RuleExecution execution) {
+		long start = System.currentTimeMillis();
+		long wait = start - execution.created;
+		totalQueueWait.addAndGet(wait);
+		updateMax(maxQueueWait, wait);
+
+		String ruleName = rule.getName();
+		try {
+			execution.script.execute(execution.context);
+		} catch (ScriptExecutionException e) {
+			String msg = e.getCause().getMessage();
+			if (msg==null) {
+				logger.error("Error during the execution of rule '{}'", ruleName, e.getCause());
+			} else {
+				logger.error("Error during the execution of rule '{}': {}", new String[] { ruleName, msg });
+			}
+		} catch (RuntimeException e) {
+			logger.error("Error during the execution of rule '{}'", ruleName, e);
+		} finally {
+			long duration = System.currentTimeMillis() - start;
+			executedCount.incrementAndGet();
+			RuleStatistics stats = ruleStatistics.get(ruleName);
+			if(stats==null) {
+				RuleStatistics newStats = new RuleStatistics();
+				stats = ruleStatistics.putIfAbsent(ruleName, newStats);
+				if(stats==null) {
+					stats = newStats;
+				}
+			}
+			stats.add(duration);
+		}
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Execution statistics of a single rule.
+	 */
+	public static class RuleStatistics {
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalTime = new AtomicLong();
+		private final AtomicLong maxTime = new AtomicLong();
+
+		private void add(long duration) {
+			count.incrementAndGet();
+			totalTime.addAndGet(duration);
+			updateMax(maxTime, duration);
+		}
+
+		/**
+		 * @return the number of executions of the rule
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return the average execution time of the rule in milliseconds
+		 */
+		public long getAverageTime() {
+			long c = count.get();
+			return c > 0 ? totalTime.get() / c : 0;
+		}
+
+		/**
+		 * @return the maximum execution time of the rule in milliseconds
+		 */
+		public long getMaxTime() {
+			return maxTime.get();
+		}
+	}
+
+	private static class RuleExecution {
+		final Script script;
+		final IEvaluationContext context;
+		final long created = System.currentTimeMillis();
+
+		RuleExecution(Script script, IEvaluationContext context) {
+			this.script = script;
+			this.context = context;
+		}
+	}
+
+	/**
+	 * Processes the pending executions of a single rule one after the other.
+	 */
+	private class RuleQueue implements Runnable {
+
+		final Rule rule;
+		final Queue<RuleExecution> executions = new LinkedList<RuleExecution>();
+
+		RuleQueue(Rule rule) {
+			this.rule = rule;
+		}
+
+		public void run() {
+			while(true) {
+				RuleExecution execution;
+				synchronized(ruleQueues) {
+					execution = executions.poll();
+					if(execution==null) {
+						ruleQueues.remove(rule);
+						return;
+					}
+					pendingCount--;
+				}
+				RuleExecutor.this.run(rule, execution);
+			}
+		}
+	}
+
+}
@@ -37,12 +37,15 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.openhab.core.items.Item;
@@ -61,6 +64,7 @@ import org.openhab.model.rule.rules.TimerTrigger;
 import org.openhab.model.rule.rules.UpdateEventTrigger;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
@@ -71,9 +75,7 @@ import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -81,6 +83,10 @@ import com.google.common.collect.Sets;
  * It keeps lists of which rule must be executed for which trigger and takes
  * over the evaluation of states and trigger conditions for the rule engine.
  * 
+ * <p>Item event triggers are kept in a {@link TriggerIndex} per item and trigger type.
+ * The states and commands of the triggers are parsed only once per item type, so that 
+ * finding the rules for an event is a lookup of a precomputed list.</p>
+ * 
  * @author Kai Kreuzer
  * @since 0.9.0
  *
@@ -99,9 +105,9 @@ public class RuleTriggerManager {
 	}
 	
 	// lookup maps for different triggering conditions
-	private Map<String, Set<Rule>> updateEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> changedEventTriggeredRules = Maps.newHashMap();
-	private Map<String, Set<Rule>> commandEventTriggeredRules = Maps.newHashMap();
+	private Map<String, TriggerIndex> updateEventTriggeredRules = new ConcurrentHashMap<String, TriggerIndex>();
+	private Map<String, TriggerIndex> changedEventTriggeredRules = new ConcurrentHashMap<String, TriggerIndex>();
+	private Map<String, TriggerIndex> commandEventTriggeredRules = new ConcurrentHashMap<String, TriggerIndex>();
 	private List<Rule> systemStartupTriggeredRules = Lists.newArrayList();
 	private List<Rule> systemShutdownTriggeredRules = Lists.newArrayList();
 	private List<Rule> timerEventTriggeredRules = Lists.newArrayList();
@@ -129,9 +135,9 @@ public class RuleTriggerManager {
 			case STARTUP:  result = systemStartupTriggeredRules; break;
 			case SHUTDOWN: result = systemShutdownTriggeredRules; break;
 			case TIMER:    result = timerEventTriggeredRules; break;
-			case UPDATE:   result = Iterables.concat(updateEventTriggeredRules.values()); break;
-			case CHANGE:   result = Iterables.concat(changedEventTriggeredRules.values()); break;
-			case COMMAND:  result = Iterables.concat(commandEventTriggeredRules.values()); break;
+			case UPDATE:   result = getAllRules(updateEventTriggeredRules); break;
+			case CHANGE:   result = getAllRules(changedEventTriggeredRules); break;
+			case COMMAND:  result = getAllRules(commandEventTriggeredRules); break;
 			default:       result = Sets.newHashSet();
 		}
 		return result;
@@ -174,95 +180,42 @@ public class RuleTriggerManager {
 		return internalGetRules(triggerType, item, null, command);
 	}
 
-	private Iterable<Rule> getAllRules(TriggerTypes type, String itemName) {
-		switch(type) {
-			case STARTUP:  return systemStartupTriggeredRules;
-			case SHUTDOWN: return systemShutdownTriggeredRules;
-			case UPDATE:   return updateEventTriggeredRules.get(itemName);
-			case CHANGE:   return changedEventTriggeredRules.get(itemName);
-			case COMMAND:  return commandEventTriggeredRules.get(itemName);
-			default:       return Sets.newHashSet();
+	private static Set<Rule> getAllRules(Map<String, TriggerIndex> indexes) {
+		Set<Rule> rules = new LinkedHashSet<Rule>();
+		for(TriggerIndex index : indexes.values()) {
+			rules.addAll(index.getRules());
 		}
+		return rules;
 	}
 
 	private Iterable<Rule> internalGetRules(TriggerTypes triggerType, Item item, Type oldType, Type newType) {
-		List<Rule> result = Lists.newArrayList();
-		Iterable<Rule> rules = getAllRules(triggerType, item.getName());
-		if(rules==null) {
-			rules = Lists.newArrayList();
-		}
+		TriggerIndex index;
 		switch(triggerType) {
 		case STARTUP:  return systemStartupTriggeredRules;
 		case SHUTDOWN: return systemShutdownTriggeredRules;
 		case TIMER :   return timerEventTriggeredRules;
-		case UPDATE:   
-			if(newType instanceof State) {
-				State state = (State) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof UpdateEventTrigger) {
-							UpdateEventTrigger ut = (UpdateEventTrigger) t;
-							if(ut.getItem().equals(item.getName())) {
-								if(ut.getState()!=null) {
-									State triggerState = TypeParser.parseState(item.getAcceptedDataTypes(), ut.getState());
-									if(!state.equals(triggerState)) {
-										continue;
-									}
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
+		case UPDATE:
+			if(!(newType instanceof State)) {
+				return Collections.emptyList();
 			}
+			index = updateEventTriggeredRules.get(item.getName());
 			break;
 		case CHANGE:
-			if(newType instanceof State && oldType instanceof State) {
-				State newState = (State) newType;
-				State oldState = (State) oldType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof ChangedEventTrigger) {
-							ChangedEventTrigger ct = (ChangedEventTrigger) t;						
-							if(ct.getItem().equals(item.getName())) {
-								if(ct.getOldState()!=null) {
-									State triggerOldState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getOldState());
-									if(!oldState.equals(triggerOldState)) {
-										continue;
-									}								
-								}
-								if(ct.getNewState()!=null) {
-									State triggerNewState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getNewState());
-									if(!newState.equals(triggerNewState)) {
-										continue;
-									}								
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
+			if(!(newType instanceof State && oldType instanceof State)) {
+				return Collections.emptyList();
 			}
+			index = changedEventTriggeredRules.get(item.getName());
 			break;
-		case COMMAND:  
-			if(newType instanceof Command) {
-				Command command = (Command) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof CommandEventTrigger) {
-							CommandEventTrigger ct = (CommandEventTrigger) t;
-							Command triggerCommand = TypeParser.parseCommand(item.getAcceptedCommandTypes(), ct.getCommand());
-							if(ct.getItem().equals(item.getName()) &&
-									(triggerCommand==null || command.equals(triggerCommand))) {
-								result.add(rule);
-							}
-						}
-					}
-				}
+		case COMMAND:
+			if(!(newType instanceof Command)) {
+				return Collections.emptyList();
 			}
+			index = commandEventTriggeredRules.get(item.getName());
 			break;
+		default:
+			return Collections.emptyList();
 		}
-		return result;
+		return index!=null ? index.getRules(item, oldType, newType) : Collections.<Rule>emptyList();
 	}
 
 	/**
@@ -310,28 +263,16 @@ public class RuleTriggerManager {
 				systemShutdownTriggeredRules.add(rule);
 			} else if(t instanceof CommandEventTrigger) {
 				CommandEventTrigger ceTrigger = (CommandEventTrigger) t;
-				Set<Rule> rules = commandEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					commandEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getIndex(COMMAND, commandEventTriggeredRules, ceTrigger.getItem())
+					.add(rule, null, ceTrigger.getCommand());
 			} else if(t instanceof UpdateEventTrigger) {
 				UpdateEventTrigger ueTrigger = (UpdateEventTrigger) t;
-				Set<Rule> rules = updateEventTriggeredRules.get(ueTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					updateEventTriggeredRules.put(ueTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getIndex(UPDATE, updateEventTriggeredRules, ueTrigger.getItem())
+					.add(rule, null, ueTrigger.getState());
 			} else if(t instanceof ChangedEventTrigger) {
 				ChangedEventTrigger ceTrigger = (ChangedEventTrigger) t;
-				Set<Rule> rules = changedEventTriggeredRules.get(ceTrigger.getItem());
-				if(rules==null) {
-					rules = new HashSet<Rule>();
-					changedEventTriggeredRules.put(ceTrigger.getItem(), rules);
-				}
-				rules.add(rule);
+				getIndex(CHANGE, changedEventTriggeredRules, ceTrigger.getItem())
+					.add(rule, ceTrigger.getOldState(), ceTrigger.getNewState());
 			} else if(t instanceof TimerTrigger) {
 				timerEventTriggeredRules.add(rule);
 				try {
@@ -343,19 +284,28 @@ public class RuleTriggerManager {
 		}
 	}
 		
+	private static TriggerIndex getIndex(TriggerTypes type, Map<String, TriggerIndex> indexes, String itemName) {
+		TriggerIndex index = indexes.get(itemName);
+		if(index==null) {
+			index = new TriggerIndex(type);
+			indexes.put(itemName, index);
+		}
+		return index;
+	}
+		
 	/**
 	 * Removes a given rule from the mapping tables of a certain trigger type
 	 * 
 	 * @param type the trigger type for which the rule should be removed
 	 * @param rule the rule to add
 	 */
-	public void removeRule(TriggerTypes type, Rule rule) {
+	public synchronized void removeRule(TriggerTypes type, Rule rule) {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.remove(rule); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.remove(rule); break;
-			case UPDATE:   	updateEventTriggeredRules.remove(rule); break;
-			case CHANGE:   	changedEventTriggeredRules.remove(rule); break;
-			case COMMAND:  	commandEventTriggeredRules.remove(rule); break;
+			case UPDATE:   	removeRules(updateEventTriggeredRules, Collections.singleton(rule)); break;
+			case CHANGE:   	removeRules(changedEventTriggeredRules, Collections.singleton(rule)); break;
+			case COMMAND:  	removeRules(commandEventTriggeredRules, Collections.singleton(rule)); break;
 			case TIMER:    	timerEventTriggeredRules.remove(rule); 
 							removeTimerRule(rule);
 							break;
@@ -378,10 +328,11 @@ public class RuleTriggerManager {
 	 * 
 	 * @param ruleModel the rule model
 	 */
-	public void removeRuleModel(RuleModel ruleModel) {
-		removeRules(UPDATE, updateEventTriggeredRules.values(), ruleModel);
-		removeRules(CHANGE, changedEventTriggeredRules.values(), ruleModel);
-		removeRules(COMMAND, commandEventTriggeredRules.values(), ruleModel);
+	public synchronized void removeRuleModel(RuleModel ruleModel) {
+		Collection<Rule> rules = ruleModel!=null ? new HashSet<Rule>(ruleModel.getRules()) : Collections.<Rule>emptySet();
+		removeRules(updateEventTriggeredRules, rules);
+		removeRules(changedEventTriggeredRules, rules);
+		removeRules(commandEventTriggeredRules, rules);
 		removeRules(STARTUP, Collections.singletonList(systemStartupTriggeredRules), ruleModel);
 		removeRules(SHUTDOWN, Collections.singletonList(systemShutdownTriggeredRules), ruleModel);		
 		removeRules(TIMER, Collections.singletonList(timerEventTriggeredRules), ruleModel);		
@@ -412,6 +363,21 @@ public class RuleTriggerManager {
 		}
 	}
 
+	/**
+	 * Removes the given rules and all proxified rules from the trigger indexes
+	 * of the items. Indexes which do not contain any triggers anymore are dropped.
+	 * 
+	 * @param indexes the trigger indexes of a trigger type, keyed by item name
+	 * @param rules the rules to remove
+	 */
+	private void removeRules(Map<String, TriggerIndex> indexes, Collection<Rule> rules) {
+		for(Map.Entry<String, TriggerIndex> entry : indexes.entrySet()) {
+			if(entry.getValue().remove(rules)) {
+				indexes.remove(entry.getKey());
+			}
+		}
+	}
+
 	private void removeTimerRule(Rule rule) {
 		try {
 			removeTimer(rule);
@@ -444,9 +410,12 @@ public class RuleTriggerManager {
 		String jobIdentity = getJobIdentityString(rule, trigger);
 
 		try {
+			JobDataMap jobData = new JobDataMap();
+			jobData.put(ExecuteRuleJob.JOB_DATA_RULE, rule);
 	        JobDetail job = newJob(ExecuteRuleJob.class)
 	        	.usingJobData(ExecuteRuleJob.JOB_DATA_RULEMODEL, rule.eResource().getURI().path())
 	        	.usingJobData(ExecuteRuleJob.JOB_DATA_RULENAME, rule.getName())
+	        	.usingJobData(jobData)
 	            .withIdentity(jobIdentity)
 	            .build();
 	        Trigger quartzTrigger = newTrigger()
@@ -494,4 +463,202 @@ public class RuleTriggerManager {
 		}
 		return jobIdentity;
 	}
+
+	/**
+	 * The index of all triggers of a certain type for a single item. Besides the rule, each
+	 * trigger can have conditions for the old and new state (resp. the command), which are
+	 * kept as strings. They are parsed with the accepted types of the item when the first
+	 * event arrives and the precomputed rule lists for all combinations of conditions are kept 
+	 * until a trigger is added or removed or the accepted types of the item change.
+	 */
+	private static class TriggerIndex {
+
+		private final TriggerTypes type;
+		
+		/** the triggers of this index; guarded by this */
+		private final List<TriggerEntry> entries = new ArrayList<TriggerEntry>();
+		
+		/** the triggers parsed for the accepted types of the item; null, if the triggers have changed */
+		private volatile ParsedTriggers parsedTriggers;
+		
+		TriggerIndex(TriggerTypes type) {
+			this.type = type;
+		}
+		
+		synchronized void add(Rule rule, String oldCondition, String newCondition) {
+			entries.add(new TriggerEntry(rule, oldCondition, newCondition));
+			parsedTriggers = null;
+		}
+		
+		/**
+		 * Removes all triggers of the given rules and of proxified rules.
+		 * 
+		 * @param rules the rules to remove
+		 * @return true, if the index is empty now
+		 */
+		synchronized boolean remove(Collection<Rule> rules) {
+			List<TriggerEntry> removed = new ArrayList<TriggerEntry>();
+			for(TriggerEntry entry : entries) {
+				if(entry.rule.eIsProxy() || rules.contains(entry.rule)) {
+					removed.add(entry);
+				}
+			}
+			if(!removed.isEmpty()) {
+				entries.removeAll(removed);
+				parsedTriggers = null;
+			}
+			return entries.isEmpty();
+		}
+		
+		synchronized Set<Rule> getRules() {
+			Set<Rule> rules = new LinkedHashSet<Rule>();
+			for(TriggerEntry entry : entries) {
+				rules.add(entry.rule);
+			}
+			return rules;
+		}
+		
+		/**
+		 * Returns the rules whose triggers match the given event.
+		 * 
+		 * @param item the item of the event
+		 * @param oldType the previous state or <code>null</code>, if not a change event
+		 * @param newType the new state or the command
+		 * @return an immutable list of the rules to execute
+		 */
+		List<Rule> getRules(Item item, Type oldType, Type newType) {
+			List<?> acceptedTypes;
+			if(type==COMMAND) {
+				acceptedTypes = item.getAcceptedCommandTypes();
+			} else {
+				acceptedTypes = item.getAcceptedDataTypes();
+			}
+			ParsedTriggers triggers = parsedTriggers;
+			if(triggers==null || !triggers.isParsedFor(acceptedTypes)) {
+				triggers = parse(item, acceptedTypes);
+			}
+			return triggers.getRules(oldType, newType);
+		}
+		
+		private synchronized ParsedTriggers parse(Item item, List<?> acceptedTypes) {
+			ParsedTriggers triggers = parsedTriggers;
+			if(triggers!=null && triggers.isParsedFor(acceptedTypes)) {
+				return triggers;
+			}
+			
+			List<Type[]> conditions = new ArrayList<Type[]>(entries.size());
+			List<Rule> rules = new ArrayList<Rule>(entries.size());
+			List<Type> oldKeys = new ArrayList<Type>();
+			List<Type> newKeys = new ArrayList<Type>();
+			for(TriggerEntry entry : entries) {
+				Type oldCondition = null;
+				Type newCondition = null;
+				if(type==COMMAND) {
+					// a command that cannot be parsed does not restrict the trigger
+					newCondition = entry.newCondition!=null ? TypeParser.parseCommand(item.getAcceptedCommandTypes(), entry.newCondition) : null;
+				} else {
+					if(entry.oldCondition!=null) {
+						oldCondition = TypeParser.parseState(item.getAcceptedDataTypes(), entry.oldCondition);
+						if(oldCondition==null) {
+							// a state that cannot be parsed never matches
+							continue;
+						}
+					}
+					if(entry.newCondition!=null) {
+						newCondition = TypeParser.parseState(item.getAcceptedDataTypes(), entry.newCondition);
+						if(newCondition==null) {
+							continue;
+						}
+					}
+				}
+				conditions.add(new Type[] { oldCondition, newCondition });
+				rules.add(entry.rule);
+				if(oldCondition!=null && !oldKeys.contains(oldCondition)) oldKeys.add(oldCondition);
+				if(newCondition!=null && !newKeys.contains(newCondition)) newKeys.add(newCondition);
+			}
+			
+			// precompute the rule lists for all combinations of conditions; index 0 stands for all other types 
+			@SuppressWarnings("unchecked")
+			List<Rule>[][] ruleTable = new List[oldKeys.size() + 1][newKeys.size() + 1];
+			for(int o = 0; o <= oldKeys.size(); o++) {
+				Type oldType = o > 0 ? oldKeys.get(o - 1) : null;
+				for(int n = 0; n <= newKeys.size(); n++) {
+					Type newType = n > 0 ? newKeys.get(n - 1) : null;
+					List<Rule> matchingRules = new ArrayList<Rule>();
+					for(int i = 0; i < conditions.size(); i++) {
+						Type[] condition = conditions.get(i);
+						if((condition[0]==null || condition[0].equals(oldType)) && 
+								(condition[1]==null || condition[1].equals(newType))) {
+							matchingRules.add(rules.get(i));
+						}
+					}
+					ruleTable[o][n] = matchingRules.isEmpty() ? 
+							Collections.<Rule>emptyList() : Collections.unmodifiableList(matchingRules);
+				}
+			}
+			
+			triggers = new ParsedTriggers(acceptedTypes, 
+					oldKeys.toArray(new Type[oldKeys.size()]), newKeys.toArray(new Type[newKeys.size()]), ruleTable);
+			parsedTriggers = triggers;
+			return triggers;
+		}
+	}
+	
+	/**
+	 * A trigger for a rule with the unparsed conditions for the old and new state (resp. the command).
+	 */
+	private static class TriggerEntry {
+		final Rule rule;
+		final String oldCondition;
+		final String newCondition;
+		
+		TriggerEntry(Rule rule, String oldCondition, String newCondition) {
+			this.rule = rule;
+			this.oldCondition = oldCondition;
+			this.newCondition = newCondition;
+		}
+	}
+	
+	/**
+	 * The triggers of a {@link TriggerIndex}, parsed for a list of accepted types.
+	 */
+	private static class ParsedTriggers {
+		final List<?> acceptedTypes;
+		final Type[] oldKeys;
+		final Type[] newKeys;
+		final List<Rule>[][] ruleTable;
+		
+		ParsedTriggers(List<?> acceptedTypes, Type[] oldKeys, Type[] newKeys, List<Rule>[][] ruleTable) {
+			this.acceptedTypes = acceptedTypes;
+			this.oldKeys = oldKeys;
+			this.newKeys = newKeys;
+			this.ruleTable = ruleTable;
+		}
+		
+		boolean isParsedFor(List<?> types) {
+			return acceptedTypes==types || (acceptedTypes!=null && acceptedTypes.equals(types));
+		}
+		
+		List<Rule> getRules(Type oldType, Type newType) {
+			return ruleTable[indexOf(oldKeys, oldType)][indexOf(newKeys, newType)];
+		}
+		
+		/**
+		 * Finds the condition that equals a type. The number of different conditions per item 
+		 * is small, so they are compared directly, which also keeps the equals() semantics of the types.
+		 *  
+		 * @return the index of the condition plus one or 0, if no condition matches
+		 */
+		private static int indexOf(Type[] keys, Type type) {
+			if(type!=null) {
+				for(int i = 0; i < keys.length; i++) {
+					if(type.equals(keys[i])) {
+						return i + 1;
+					}
+				}
+			}
+			return 0;
+		}
+	}
+	
 }
@@ -0,0 +1,150 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.script.internal.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.model.script.internal.actions.TimerWheel.Task;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TimerWheelTest {
+
+	/** the time in seconds to wait for an execution, generous to tolerate slow machines */
+	private static final long TIMEOUT = 10;
+
+	private TimerWheel wheel = new TimerWheel();
+
+	@After
+	public void shutdown() {
+		wheel.shutdown();
+	}
+
+	@Test
+	public void testTaskIsExecuted() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		Task task = new Task(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		});
+		wheel.schedule(task, System.currentTimeMillis() + 50);
+		assertTrue(wheel.isScheduled(task));
+
+		assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+		assertFalse(wheel.isScheduled(task));
+		assertEquals(0, wheel.getPendingCount());
+	}
+
+	@Test
+	public void testCancelledTaskIsNotExecuted() {
+		CountingRunnable runnable = new CountingRunnable();
+		Task task = new Task(runnable);
+		wheel.schedule(task, System.currentTimeMillis() + 100);
+		assertTrue(wheel.cancel(task));
+		assertFalse(wheel.cancel(task));
+
+		// only scheduled tasks are ever executed by the wheel
+		assertFalse(wheel.isScheduled(task));
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(0, runnable.executions.get());
+	}
+
+	@Test
+	public void testRescheduledTaskIsExecutedOnce() throws InterruptedException {
+		CountingRunnable runnable = new CountingRunnable();
+		Task task = new Task(runnable);
+		wheel.schedule(task, System.currentTimeMillis() + 60000);
+		wheel.schedule(task, System.currentTimeMillis() + 50);
+		assertEquals(1, wheel.getPendingCount());
+
+		assertTrue(runnable.executed.await(TIMEOUT, TimeUnit.SECONDS));
+		// the first deadline has been replaced, so nothing is left to be executed
+		assertFalse(wheel.isScheduled(task));
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(1, runnable.executions.get());
+		assertEquals(1, wheel.getFiredCount());
+	}
+
+	@Test
+	public void testShutdownStopsThreads() throws InterruptedException {
+		CountingRunnable runnable = new CountingRunnable();
+		Task task = new Task(runnable);
+		wheel.schedule(task, System.currentTimeMillis() + 200);
+		assertEquals(1, countThreads());
+
+		wheel.shutdown();
+		assertEquals(0, countThreads());
+		assertFalse(wheel.isScheduled(task));
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(0, wheel.getFiredCount());
+
+		// the wheel is started again by the next task
+		wheel.schedule(task, System.currentTimeMillis() + 50);
+		assertEquals(1, countThreads());
+		assertTrue(runnable.executed.await(TIMEOUT, TimeUnit.SECONDS));
+		assertEquals(1, runnable.executions.get());
+	}
+
+	/* counts its executions and signals the first one */
+	private static class CountingRunnable implements Runnable {
+
+		final AtomicInteger executions = new AtomicInteger();
+		final CountDownLatch executed = new CountDownLatch(1);
+
+		public void run() {
+			executions.incrementAndGet();
+			executed.countDown();
+		}
+	}
+
+	/* returns the number of live threads which advance a timer wheel */
+	private static int countThreads() {
+		Thread[] threads = new Thread[Thread.activeCount() + 10];
+		int count = 0;
+		for (int i = Thread.enumerate(threads) - 1; i >= 0; i--) {
+			if ("Timer Wheel".equals(threads[i].getName()) && threads[i].isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
@@ -28,9 +28,6 @@
  */
 package org.openhab.model.script.actions;
 
-import static org.quartz.JobBuilder.newJob;
-import static org.quartz.TriggerBuilder.newTrigger;
-
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.xtext.xbase.XExpression;
 import org.eclipse.xtext.xbase.lib.Procedures.Procedure0;
@@ -40,13 +37,7 @@ import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.script.internal.ScriptActivator;
-import org.openhab.model.script.internal.actions.TimerExecutionJob;
 import org.openhab.model.script.internal.actions.TimerImpl;
-import org.quartz.JobDataMap;
-import org.quartz.JobDetail;
-import org.quartz.JobKey;
-import org.quartz.SchedulerException;
-import org.quartz.Trigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -106,23 +97,9 @@ public class ScriptExecution {
 	 * @throws ScriptExecutionException if an error occurs during the execution
 	 */
 	public static Timer createTimer(AbstractInstant instant, Procedure0 closure) {
-		JobKey jobKey = new JobKey(instant.toString() + ": " + closure.toString());
-        Trigger trigger = newTrigger().startAt(instant.toDate()).build();
-		Timer timer = new TimerImpl(jobKey, trigger.getKey(), instant);
-		try {
-			JobDataMap dataMap = new JobDataMap();
-			dataMap.put("procedure", closure);
-			dataMap.put("timer", timer);
-	        JobDetail job = newJob(TimerExecutionJob.class)
-	            .withIdentity(jobKey)
-	            .usingJobData(dataMap)
-	            .build();	
-	        TimerImpl.scheduler.scheduleJob(job, trigger);
-			logger.debug("Scheduled code for execution at {}", instant.toString());
-			return timer;
-		} catch(SchedulerException e) {
-			logger.error("Failed to schedule code for execution.", e);
-			return null;
-		}
+		TimerImpl timer = new TimerImpl(closure);
+		timer.schedule(instant);
+		logger.debug("Scheduled code for execution at {}", instant.toString());
+		return timer;
 	}
 }
@@ -33,6 +33,7 @@ import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.action.ActionService;
 import org.openhab.model.core.ModelRepository;
+import org.openhab.model.script.internal.actions.TimerImpl;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.util.tracker.ServiceTracker;
@@ -80,6 +81,9 @@ public class ScriptActivator implements BundleActivator {
 		modelRepositoryTracker.close();
 		scriptEngineTracker.close();
 		actionServiceTracker.close();
+		
+		// stop the threads of the timers, which would otherwise survive the bundle
+		TimerImpl.getTimerWheel().shutdown();
 	}
 
 }
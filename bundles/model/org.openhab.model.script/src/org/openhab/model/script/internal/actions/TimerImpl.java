@@ -28,24 +28,15 @@
  */
 package org.openhab.model.script.internal.actions;
 
-import static org.quartz.TriggerBuilder.newTrigger;
-
-import org.joda.time.DateTime;
+import org.eclipse.xtext.xbase.lib.Procedures.Procedure0;
 import org.joda.time.base.AbstractInstant;
 import org.openhab.model.script.actions.Timer;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobKey;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerException;
-import org.quartz.Trigger;
-import org.quartz.TriggerKey;
-import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This is an implementation of the {@link Timer} interface using the Quartz
- * library for scheduling.
+ * This is an implementation of the {@link Timer} interface using a {@link TimerWheel}
+ * for scheduling.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
@@ -55,76 +46,74 @@ public class TimerImpl implements Timer {
 
 	private static final Logger logger = LoggerFactory.getLogger(TimerImpl.class);
 
-	// the scheduler used for timer events
-	public static Scheduler scheduler;
+	// the timing wheel shared by all timers
+	private static final TimerWheel timerWheel = new TimerWheel();
 
-	static {
-		 try {
-			scheduler = StdSchedulerFactory.getDefaultScheduler();
-		} catch (SchedulerException e) {
-	     logger.error("initializing scheduler throws exception", e);
-		}
+	private final Procedure0 procedure;
+	private final TimerWheel.Task task;
+
+	private volatile boolean cancelled = false;
+	private volatile boolean running = false;
+	private volatile boolean terminated = false;
+	
+	public TimerImpl(Procedure0 procedure) {
+		this.procedure = procedure;
+		this.task = new TimerWheel.Task(new Runnable() {
+			public void run() {
+				execute();
+			}
+		});
 	}
 	
-	private JobKey jobKey;
-	private TriggerKey triggerKey;
-	private AbstractInstant startTime;
-
-	private boolean cancelled = false;
-	private boolean terminated = false;
+	/**
+	 * @return the timing wheel which schedules all timers
+	 */
+	public static TimerWheel getTimerWheel() {
+		return timerWheel;
+	}
 	
-	public TimerImpl(JobKey jobKey, TriggerKey triggerKey, AbstractInstant startTime) {
-		this.jobKey = jobKey;
-		this.triggerKey = triggerKey;
-		this.startTime = startTime;
+	/**
+	 * Schedules the execution of the closure of this timer.
+	 * 
+	 * @param instant the point in time when the closure should be executed
+	 */
+	public void schedule(AbstractInstant instant) {
+		timerWheel.schedule(task, instant.getMillis());
 	}
 	
 	public boolean cancel() {
-		try {
-			boolean result = scheduler.deleteJob(jobKey);
-			if(result) {
-				cancelled = true;
-			}
-		} catch (SchedulerException e) {
-			logger.warn("An error occured while cancelling the job '{}': {}", new String[] { jobKey.toString(), e.getMessage() });
+		if(timerWheel.cancel(task)) {
+			cancelled = true;
 		}
 		return cancelled;
 	}
 	
 	public boolean reschedule(AbstractInstant newTime) {
-		try {
-	        Trigger trigger = newTrigger().startAt(newTime.toDate()).build();
-			scheduler.rescheduleJob(triggerKey, trigger);
-			this.triggerKey = trigger.getKey();
-			this.cancelled = false;
-			this.terminated = false;
-			return true;
-		} catch (SchedulerException e) {
-			logger.warn("An error occured while rescheduling the job '{}': {}", new String[] { jobKey.toString(), e.getMessage() });
-			return false;
-		}
+		timerWheel.schedule(task, newTime.getMillis());
+		this.cancelled = false;
+		this.terminated = false;
+		return true;
 	}
 	
 	public boolean isRunning() {
-		try {
-			for(JobExecutionContext context : scheduler.getCurrentlyExecutingJobs()) {
-				if(context.getJobDetail().getKey().equals(jobKey)) {
-					return true;
-				}
-			}
-			return false;
-		} catch (SchedulerException e) {
-			// fallback implementation
-			logger.debug("An error occured getting currently running jobs: {}", e.getMessage());
-			return DateTime.now().isAfter(startTime) && !terminated;
-		}
+		return running;
 	}
 
 	public boolean hasTerminated() {
 		return terminated;
 	}
 	
-	public void setTerminated(boolean terminated) {
-		this.terminated = terminated;
+	private void execute() {
+		logger.debug("Executing timer scheduled for {}", task.getDeadline());
+		running = true;
+		try {
+			procedure.apply();
+		} finally {
+			running = false;
+			// the timer might have been rescheduled by its own closure
+			if(!timerWheel.isScheduled(task)) {
+				terminated = true;
+			}
+		}
 	}
 }
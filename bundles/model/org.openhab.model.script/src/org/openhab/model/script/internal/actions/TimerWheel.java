@@ -0,0 +1,356 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.script.internal.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is a hashed timing wheel which schedules tasks for execution at a given point in time.
+ * <p>
+ * The wheel consists of a fixed number of buckets, each covering one tick. A task is put into
+ * the bucket of its due tick together with the number of rounds the wheel has to turn before
+ * it is due. Scheduling, cancelling and rescheduling a task are therefore constant time
+ * operations. A single thread advances the wheel tick by tick and hands the due tasks over to
+ * a small thread pool for execution, so that long running tasks do not delay other ones.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TimerWheel {
+
+	private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+	/** the duration of a tick in milliseconds, which is the precision of the wheel */
+	public static final long TICK_DURATION = 10;
+
+	/** the number of buckets of the wheel, must be a power of two */
+	private static final int WHEEL_SIZE = 512;
+
+	/** the number of threads which execute due tasks */
+	private static final int EXECUTOR_THREADS = 5;
+
+	/** tasks which start more than this number of milliseconds after their due time are counted as late */
+	private static final long LATE_THRESHOLD = 1000;
+
+	private final Task[] wheel = new Task[WHEEL_SIZE];
+
+	private final long startTime = System.currentTimeMillis();
+
+	// the tick which is processed next (guarded by "this")
+	private long tick = 0;
+
+	// the number of scheduled tasks (guarded by "this")
+	private int pendingCount = 0;
+
+	// the thread which advances the wheel and the pool which executes the due tasks (guarded by "this")
+	private Thread worker;
+	private ExecutorService executor;
+
+	private final AtomicLong firedCount = new AtomicLong();
+	private final AtomicLong lateCount = new AtomicLong();
+
+	/**
+	 * A task which can be scheduled on a {@link TimerWheel}. A task is scheduled at most once
+	 * at a time; scheduling it again moves it to the new point in time.
+	 */
+	public static class Task {
+
+		private final Runnable runnable;
+
+		// all fields below are guarded by the wheel
+		private long deadline;
+		private long remainingRounds;
+		private int bucket = -1;
+		private Task prev;
+		private Task next;
+
+		public Task(Runnable runnable) {
+			this.runnable = runnable;
+		}
+
+		/**
+		 * @return the point in time in milliseconds at which the task is (or was last) due
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	/**
+	 * Schedules a task for execution at the given point in time. If the task is already
+	 * scheduled, it is moved to the new point in time.
+	 * 
+	 * @param task the task to schedule
+	 * @param deadline the point in time in milliseconds when the task should be executed
+	 */
+	public synchronized void schedule(Task task, long deadline) {
+		if(task.bucket >= 0) {
+			unlink(task);
+		}
+		if(pendingCount==0) {
+			// the worker might be idle, so we first skip the ticks that have passed in between
+			skipPassedTicks();
+		}
+		long dueTick = Math.max((deadline - startTime) / TICK_DURATION, tick);
+		task.deadline = deadline;
+		task.remainingRounds = (dueTick - tick) / WHEEL_SIZE;
+		link(task, (int) (dueTick & (WHEEL_SIZE - 1)));
+		startWorker();
+		notifyAll();
+	}
+
+	/**
+	 * Removes a task from the wheel.
+	 * 
+	 * @param task the task to cancel
+	 * @return true, if the task was scheduled, false if it had already been executed or cancelled
+	 */
+	public synchronized boolean cancel(Task task) {
+		if(task.bucket < 0) {
+			return false;
+		}
+		unlink(task);
+		return true;
+	}
+
+	/**
+	 * Cancels all scheduled tasks and stops the threads of the wheel. Tasks which are
+	 * currently executed are interrupted. The wheel can be used again afterwards, its 
+	 * threads are then started again.
+	 */
+	public void shutdown() {
+		Thread stoppedWorker;
+		ExecutorService stoppedExecutor;
+		synchronized(this) {
+			for(int bucket = 0; bucket < WHEEL_SIZE; bucket++) {
+				while(wheel[bucket]!=null) {
+					unlink(wheel[bucket]);
+				}
+			}
+			stoppedWorker = worker;
+			stoppedExecutor = executor;
+			worker = null;
+			executor = null;
+			notifyAll();
+		}
+		if(stoppedWorker!=null) {
+			stoppedWorker.interrupt();
+			stoppedExecutor.shutdownNow();
+			try {
+				stoppedWorker.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @param task the task to check
+	 * @return true, if the task is waiting for its execution
+	 */
+	public synchronized boolean isScheduled(Task task) {
+		return task.bucket >= 0;
+	}
+
+	/**
+	 * @return the number of tasks which are waiting for their execution
+	 */
+	public synchronized int getPendingCount() {
+		return pendingCount;
+	}
+
+	/**
+	 * @return the number of tasks which have been executed
+	 */
+	public long getFiredCount() {
+		return firedCount.get();
+	}
+
+	/**
+	 * @return the number of tasks which started more than a second after their due time
+	 */
+	public long getLateCount() {
+		return lateCount.get();
+	}
+
+	private void link(Task task, int bucket) {
+		task.bucket = bucket;
+		task.prev = null;
+		task.next = wheel[bucket];
+		if(task.next!=null) {
+			task.next.prev = task;
+		}
+		wheel[bucket] = task;
+		pendingCount++;
+	}
+
+	private void unlink(Task task) {
+		if(task.prev!=null) {
+			task.prev.next = task.next;
+		} else {
+			wheel[task.bucket] = task.next;
+		}
+		if(task.next!=null) {
+			task.next.prev = task.prev;
+		}
+		task.bucket = -1;
+		task.prev = null;
+		task.next = null;
+		pendingCount--;
+	}
+
+	private void startWorker() {
+		if(worker==null) {
+			executor = Executors.newFixedThreadPool(EXECUTOR_THREADS, new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Timer Executor " + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			final ExecutorService taskExecutor = executor;
+			worker = new Thread(new Runnable() {
+				public void run() {
+					Thread current = Thread.currentThread();
+					while(waitForNextTick(current)) {
+						for(Task task : expireTasks()) {
+							execute(taskExecutor, task);
+						}
+					}
+				}
+			}, "Timer Wheel");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Advances the wheel to the current point in time. Must only be called while the wheel is empty.
+	 */
+	private void skipPassedTicks() {
+		tick = Math.max(tick, (System.currentTimeMillis() - startTime) / TICK_DURATION);
+	}
+
+	/**
+	 * Waits until the current tick is over.
+	 * 
+	 * @param current the worker thread
+	 * @return false, if the worker has been stopped by {@link #shutdown()}
+	 */
+	private boolean waitForNextTick(Thread current) {
+		long nextTickTime;
+		synchronized(this) {
+			// there is nothing to do while the wheel is empty
+			while(pendingCount==0 && worker==current) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// check again
+				}
+				skipPassedTicks();
+			}
+			if(worker!=current) {
+				return false;
+			}
+			nextTickTime = startTime + (tick + 1) * TICK_DURATION;
+		}
+		long sleepTime = nextTickTime - System.currentTimeMillis();
+		if(sleepTime > 0) {
+			try {
+				Thread.sleep(sleepTime);
+			} catch (InterruptedException e) {
+				// continue with the next tick or stop, if the wheel has been shut down
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all due tasks from the bucket of the current tick and advances the wheel.
+	 * 
+	 * @return the due tasks
+	 */
+	private synchronized List<Task> expireTasks() {
+		List<Task> expired = new ArrayList<Task>();
+		if(System.currentTimeMillis() < startTime + (tick + 1) * TICK_DURATION) {
+			// the wheel has been advanced while we were waiting, so this tick is not over yet
+			return expired;
+		}
+		int bucket = (int) (tick & (WHEEL_SIZE - 1));
+		Task task = wheel[bucket];
+		while(task!=null) {
+			Task next = task.next;
+			if(task.remainingRounds <= 0) {
+				unlink(task);
+				expired.add(task);
+			} else {
+				task.remainingRounds--;
+			}
+			task = next;
+		}
+		tick++;
+		return expired;
+	}
+
+	private void execute(ExecutorService executor, final Task task) {
+		final long deadline = task.deadline;
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					long delay = System.currentTimeMillis() - deadline;
+					if(delay > LATE_THRESHOLD) {
+						long late = lateCount.incrementAndGet();
+						logger.debug("Timer started {}ms after its due time ({} late timers so far)", delay, late);
+					}
+					firedCount.incrementAndGet();
+					try {
+						task.runnable.run();
+					} catch(RuntimeException e) {
+						logger.error("Error during the execution of a timer", e);
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			// the wheel has been shut down meanwhile
+			logger.debug("Timer has not been executed, as the timer wheel has been shut down.");
+		}
+	}
+
+}
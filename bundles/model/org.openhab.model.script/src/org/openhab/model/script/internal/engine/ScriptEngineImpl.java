@@ -31,7 +31,10 @@ package org.openhab.model.script.internal.engine;
 import static com.google.common.collect.Iterables.filter;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
@@ -53,12 +56,19 @@ import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
 import org.openhab.core.scriptengine.ScriptParsingException;
 import org.openhab.model.script.ScriptStandaloneSetup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Predicate;
 import com.google.inject.Injector;
 
 /**
  * This is the implementation of a {@link ScriptEngine} which is made available as an OSGi service.
+ * <p>
+ * Scripts which are passed as strings are parsed only once: the parsed expressions are kept in
+ * a cache of limited size, which is keyed by the script text. The resources of expressions which
+ * are evicted from the cache are removed from the resource set, but not unloaded, so that scripts
+ * which have been created from them and are still running keep a usable expression.
  * 
  * @author Kai Kreuzer
  * @since 0.9.0
@@ -67,9 +77,31 @@ import com.google.inject.Injector;
 @SuppressWarnings("restriction")
 public class ScriptEngineImpl implements ScriptEngine {
 
+	private static final Logger logger = LoggerFactory.getLogger(ScriptEngineImpl.class);
+	
+	/** the maximum number of parsed scripts which are kept in the cache */
+	protected static final int CACHE_SIZE = 100;
+	
 	protected Injector guiceInjector;
 	protected XtextResourceSet resourceSet;
 
+	// the parsed expressions of the most recently used scripts, keyed by their text
+	private final Map<String, XExpression> expressionCache = new LinkedHashMap<String, XExpression>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, XExpression> eldest) {
+			if(size() > CACHE_SIZE) {
+				removeResource(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+	
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	private final AtomicLong totalParseTime = new AtomicLong();
+	
 	public ScriptEngineImpl() {}
 	
 	public void activate() {
@@ -79,6 +111,11 @@ public class ScriptEngineImpl implements ScriptEngine {
 	}
 	
 	public void deactivate() {
+		synchronized(expressionCache) {
+			expressionCache.clear();
+		}
+		logger.debug("Script cache statistics: hits={}, misses={}, total parse time={}ms",
+				new Object[] { cacheHits.get(), cacheMisses.get(), totalParseTime.get() });
 		this.guiceInjector = null;
 		this.resourceSet = null;
 	}
@@ -88,7 +125,7 @@ public class ScriptEngineImpl implements ScriptEngine {
 	 */
 	public Script newScriptFromString(String scriptAsString)
 			throws ScriptParsingException {
-		return newScriptFromXExpression(parseScriptIntoXTextEObject(scriptAsString));
+		return newScriptFromXExpression(getXExpression(scriptAsString));
 	}
 
 	/**
@@ -108,17 +145,87 @@ public class ScriptEngineImpl implements ScriptEngine {
 		return newScriptFromString(scriptAsString).execute();
 	}
 
+	/**
+	 * Returns the parsed and validated expression of a script, either from the cache or
+	 * by parsing it. Scripts which cannot be parsed are not cached.
+	 * 
+	 * @param scriptAsString the script text
+	 * @return the expression of the script
+	 * @throws ScriptParsingException if the script cannot be parsed or contains errors
+	 */
+	private XExpression getXExpression(String scriptAsString) throws ScriptParsingException {
+		synchronized(expressionCache) {
+			if(expressionCache.containsKey(scriptAsString)) {
+				cacheHits.incrementAndGet();
+				return expressionCache.get(scriptAsString);
+			}
+			cacheMisses.incrementAndGet();
+			long start = System.currentTimeMillis();
+			try {
+				XExpression expression = parseScriptIntoXTextEObject(scriptAsString);
+				expressionCache.put(scriptAsString, expression);
+				return expression;
+			} finally {
+				totalParseTime.addAndGet(System.currentTimeMillis() - start);
+			}
+		}
+	}
+	
+	private void removeResource(XExpression expression) {
+		if(expression!=null && expression.eResource()!=null) {
+			resourceSet.getResources().remove(expression.eResource());
+		}
+	}
+	
+	private void unloadResource(Resource resource) {
+		resource.unload();
+		resourceSet.getResources().remove(resource);
+	}
+	
+	/**
+	 * @return the number of string scripts which have been taken from the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+	
+	/**
+	 * @return the number of string scripts which had to be parsed
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+	
+	/**
+	 * @return the ratio of string scripts which have been taken from the cache (between 0 and 1)
+	 */
+	public double getCacheHitRate() {
+		long hits = cacheHits.get();
+		long total = hits + cacheMisses.get();
+		return total > 0 ? (double) hits / total : 0.0;
+	}
+	
+	/**
+	 * @return the total time in milliseconds spent on parsing string scripts
+	 */
+	public long getTotalParseTime() {
+		return totalParseTime.get();
+	}
+
 	private XExpression parseScriptIntoXTextEObject(String scriptAsString) throws ScriptParsingException {
 		Resource resource = resourceSet.createResource(computeUnusedUri(resourceSet)); // IS-A XtextResource
 		try {
 			resource.load(new StringInputStream(scriptAsString), resourceSet.getLoadOptions());
 		} catch (IOException e) {
+			unloadResource(resource);
 			throw new ScriptParsingException("Unexpected IOException; from close() of a String-based ByteArrayInputStream, no real I/O; how is that possible???", scriptAsString, e);
 		}
 		
 		List<Diagnostic> errors = resource.getErrors();
 		if (errors.size() != 0) {
-			throw new ScriptParsingException("Failed to parse expression (due to managed SyntaxError/s)", scriptAsString).addDiagnosticErrors(errors);
+			ScriptParsingException exception = new ScriptParsingException("Failed to parse expression (due to managed SyntaxError/s)", scriptAsString).addDiagnosticErrors(errors);
+			unloadResource(resource);
+			throw exception;
 		}
 		
 		EList<EObject> contents = resource.getContents();
@@ -128,9 +235,12 @@ public class ScriptEngineImpl implements ScriptEngine {
 			if(!validationErrors.iterator().hasNext()) {
 				return (XExpression) contents.get(0);
 			} else {
-				throw new ScriptParsingException("Failed to parse expression (due to managed ValidationError/s)", scriptAsString).addValidationIssues(validationErrors);
+				ScriptParsingException exception = new ScriptParsingException("Failed to parse expression (due to managed ValidationError/s)", scriptAsString).addValidationIssues(validationErrors);
+				unloadResource(resource);
+				throw exception;
 			}
 		} else {
+			unloadResource(resource);
 			return null;
 		}
 	}
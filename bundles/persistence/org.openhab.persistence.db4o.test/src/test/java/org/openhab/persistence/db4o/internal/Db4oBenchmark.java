@@ -0,0 +1,161 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.db4o.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceRecord;
+
+
+/**
+ * Measures the bulk store rate, the latency of typical queries and the effect of a
+ * defragmentation for a database with a large number of entries. It is not run with 
+ * the tests, as it takes a while; start it with the bundle and its libraries on the 
+ * classpath in an empty working directory, as the database is created in its "etc" 
+ * folder:
+ * 
+ * <pre>
+ * java org.openhab.persistence.db4o.internal.Db4oBenchmark [entries...]
+ * </pre>
+ * 
+ * Each given number of entries (1M and 10M by default) is stored into a new database,
+ * spread over 10 items with entries 6 seconds apart, which end at the current time.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class Db4oBenchmark {
+
+	private static final int ITEMS = 10;
+
+	private static final int BATCH_SIZE = 10000;
+
+	private static final long INTERVAL = 6000L;
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = new int[] { 1000000, 10000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int size : sizes) {
+			run(size);
+		}
+		System.exit(0);
+	}
+
+	private static void run(int size) throws Exception {
+		File folder = new File("etc/db4o");
+		folder.mkdirs();
+		for (File file : folder.listFiles()) {
+			file.delete();
+		}
+		Db4oPersistenceService service = new Db4oPersistenceService();
+		service.activate();
+		try {
+			long now = System.currentTimeMillis();
+			long start = System.nanoTime();
+			for (int offset = 0; offset < size; offset += BATCH_SIZE) {
+				List<PersistenceRecord> records = new ArrayList<PersistenceRecord>(BATCH_SIZE);
+				for (int i = offset; i < Math.min(size, offset + BATCH_SIZE); i++) {
+					Date timestamp = new Date(now - (size - i) * INTERVAL);
+					records.add(new PersistenceRecord(null, "Item" + (i % ITEMS), new DecimalType(i), timestamp));
+				}
+				service.store(records);
+			}
+			long duration = Math.max(1, (System.nanoTime() - start) / 1000000);
+			System.out.println(String.format("%,d entries: stored in %,d ms (%,d entries/s)", 
+					size, duration, size * 1000L / duration));
+
+			// the state of an item a day ago, as asked by historicState()
+			FilterCriteria historicState = new FilterCriteria().setItemName("Item3")
+					.setEndDate(new Date(now - 24 * 3600000L)).setOrdering(Ordering.DESCENDING).setPageSize(1);
+			measure(service, "historicState", historicState);
+
+			// one hour of an item, as read for a chart
+			FilterCriteria hour = new FilterCriteria().setItemName("Item3")
+					.setBeginDate(new Date(now - 3600000L)).setEndDate(new Date(now)).setOrdering(Ordering.ASCENDING);
+			measure(service, "last hour", hour);
+
+			// the second page of the most recent entries
+			FilterCriteria page = new FilterCriteria().setItemName("Item3")
+					.setOrdering(Ordering.DESCENDING).setPageSize(100).setPageNumber(1);
+			measure(service, "page 2 of 100", page);
+
+			long length = getFileSize(folder);
+			start = System.nanoTime();
+			new Db4oPersistenceService.DefragmentJob().execute(null);
+			duration = (System.nanoTime() - start) / 1000000;
+			System.out.println(String.format("%,d entries: defragmented from %,d KB to %,d KB in %,d ms", 
+					size, length / 1024, getFileSize(folder) / 1024, duration));
+		} finally {
+			service.deactivate();
+		}
+	}
+
+	private static void measure(Db4oPersistenceService service, String name, FilterCriteria filter) {
+		long[] durations = new long[RUNS];
+		int results = 0;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			results = 0;
+			for (Iterator<HistoricItem> it = service.query(filter).iterator(); it.hasNext(); it.next()) {
+				results++;
+			}
+			durations[run] = System.nanoTime() - start;
+		}
+		Arrays.sort(durations);
+		System.out.println(String.format("  %-14s median %10.3f ms (%d results)", 
+				name, durations[RUNS / 2] / 1000000.0, results));
+	}
+
+	private static long getFileSize(File folder) {
+		long length = 0;
+		for (File file : folder.listFiles()) {
+			if (file.getName().endsWith(".db4o")) {
+				length += file.length();
+			}
+		}
+		return length;
+	}
+
+}
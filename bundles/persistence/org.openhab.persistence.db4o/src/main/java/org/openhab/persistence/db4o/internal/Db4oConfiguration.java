@@ -58,6 +58,9 @@ public class Db4oConfiguration implements ManagedService {
 
 	/** the amount of backup files allowed in DB_FOLDER_NAME (optional, defaults to '7') */
 	public static int maxBackups = 7;
+
+	/** the defragmentation interval as Cron-Expression (optional, defaults to '0 0 3 ? * SUN' which means every sunday at 3 o'clock) */
+	public static String defragInterval = "0 0 3 ? * SUN";
 	
 	
 	/**
@@ -70,6 +73,11 @@ public class Db4oConfiguration implements ManagedService {
 			if (StringUtils.isNotBlank(backupIntervalString)) {
 				backupInterval = backupIntervalString;
 			}
+
+			String defragIntervalString = (String) config.get("defraginterval");
+			if (StringUtils.isNotBlank(defragIntervalString)) {
+				defragInterval = defragIntervalString;
+			}
 			
 			String commitIntervalString = (String) config.get("commitinterval");
 			if (StringUtils.isNotBlank(commitIntervalString)) {
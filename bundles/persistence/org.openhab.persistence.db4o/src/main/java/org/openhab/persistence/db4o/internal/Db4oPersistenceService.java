@@ -30,6 +30,7 @@ package org.openhab.persistence.db4o.internal;
 
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.backupInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.commitInterval;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.defragInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.maxBackups;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.repeatSecondlyForever;
@@ -38,19 +39,27 @@ import static org.quartz.impl.matchers.GroupMatcher.jobGroupEquals;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openhab.core.items.Item;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BatchQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceRecord;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.CronTrigger;
 import org.quartz.DisallowConcurrentExecution;
@@ -69,9 +78,13 @@ import org.slf4j.LoggerFactory;
 import com.db4o.Db4oEmbedded;
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.defragment.Defragment;
+import com.db4o.defragment.DefragmentConfig;
 import com.db4o.ext.DatabaseClosedException;
 import com.db4o.ext.Db4oException;
 import com.db4o.ext.ExtObjectContainer;
+import com.db4o.query.Constraint;
 import com.db4o.query.Query;
 
 
@@ -81,7 +94,7 @@ import com.db4o.query.Query;
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class Db4oPersistenceService implements QueryablePersistenceService {
+public class Db4oPersistenceService implements BatchQueryablePersistenceService, BatchPersistenceService {
 
 	private static final Logger logger = LoggerFactory.getLogger(Db4oPersistenceService.class);
 	
@@ -91,8 +104,23 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	private static final String DB_FILE_NAME = "store.db4o";
 
 	private static final String SCHEDULER_GROUP = "DB4O_SchedulerGroup";
+
+	/** the time span in milliseconds of the first query for a page, see {@link #queryWindowed(FilterCriteria, int)} */
+	private static final long INITIAL_QUERY_WINDOW = 3600000L;
+
+	/** the maximum number of times the time span of a query for a page is doubled */
+	private static final int MAX_QUERY_WINDOW_STEPS = 15;
+
+	/** pages which end behind this number of entries are read with a single query */
+	private static final int MAX_WINDOWED_RESULTS = 1000;
 	
-	private static ObjectContainer db;
+	private static volatile ObjectContainer db;
+
+	/** 
+	 * guards the database against being closed while it is accessed, which happens
+	 * when it is defragmented; all other accesses use the read lock
+	 */
+	private static final ReadWriteLock dbLock = new ReentrantReadWriteLock();
 	
 	
 	public String getName() {
@@ -105,7 +133,6 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 			folder.mkdir();
 		}
 	    openDbFile();
-	    Db4oItem.configure(db.ext().configure());
 	    
 	    scheduleJob();
 	}
@@ -113,9 +140,14 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	public void deactivate() {
 		cancelAllJobs();
 		
-		if(db!=null) {
-			db.close();
-			db = null;
+		dbLock.writeLock().lock();
+		try {
+			if(db!=null) {
+				db.close();
+				db = null;
+			}
+		} finally {
+			dbLock.writeLock().unlock();
 		}
 	}
 	
@@ -132,29 +164,139 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		historicItem.setState(item.getState());
 		historicItem.setTimestamp(new Date());
 		
+		dbLock.readLock().lock();
 		try {
 			db.store(historicItem);
 			logger.debug("Stored item state '{}' -> '{}'", new String[] {historicItem.getName(), historicItem.getState().toString() } );
 		} catch(Db4oException e) {
 			db.rollback();
 			logger.warn("Error storing state for item '{}' as '{}': {}", new String[] { item.getName(), alias, e.getMessage() });
+		} finally {
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores all records and commits them at once.
+	 * 
+	 * @{inheritDoc}
+	 */
+	public void store(Collection<PersistenceRecord> records) {
+		dbLock.readLock().lock();
+		try {
+			for (PersistenceRecord record : records) {
+				Db4oItem historicItem = new Db4oItem();
+				historicItem.setName(record.getName());
+				historicItem.setState(record.getState());
+				historicItem.setTimestamp(record.getTimestamp());
+				db.store(historicItem);
+			}
+			db.commit();
+			logger.debug("Stored {} item states", records.size());
+		} catch(Db4oException e) {
+			db.rollback();
+			logger.warn("Error storing {} item states: {}", records.size(), e.getMessage());
+		} finally {
+			dbLock.readLock().unlock();
 		}
 	}
 
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		if (filter==null) {
+			filter = new FilterCriteria();
+		}
+		int neededResults = (int) Math.min(Integer.MAX_VALUE, (long) (filter.getPageNumber() + 1) * filter.getPageSize());
+
+		dbLock.readLock().lock();
+		try {
+			ObjectSet<HistoricItem> results = null;
+			if (filter.getItemName()!=null && neededResults <= MAX_WINDOWED_RESULTS) {
+				results = queryWindowed(filter, neededResults);
+			}
+			if (results == null) {
+				results = execute(filter, filter.getBeginDate(), filter.getEndDate());
+			}
+			if (results != null) {
+				int startIndex = filter.getPageNumber() * filter.getPageSize();
+				if (startIndex < results.size()) {
+					int endIndex = (int) Math.min(results.size(), (long) startIndex + filter.getPageSize());
+					// the page is copied, as the result set must not be read after the lock
+					// has been released
+					return new ArrayList<HistoricItem>(results.subList(startIndex, endIndex));
+				}
+			}
+		} finally {
+			dbLock.readLock().unlock();
+		}
+		
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Queries the entries next to the start of the requested order first, i.e. the end of the 
+	 * requested time span for descending and its begin for ascending order, and doubles the 
+	 * queried time span until it contains enough entries for the requested page. As the 
+	 * timestamp index restricts each query to the entries of its time span, only these entries 
+	 * have to be read and sorted instead of the whole history of the item.
+	 * 
+	 * @param filter the filter of the query
+	 * @param neededResults the number of results which are needed for the requested page
+	 * @return the ordered results or <code>null</code>, if the whole time span has to be queried
+	 */
+	private ObjectSet<HistoricItem> queryWindowed(FilterCriteria filter, int neededResults) {
+		boolean descending = filter.getOrdering()!=Ordering.ASCENDING;
+		Date beginDate = filter.getBeginDate();
+		Date endDate = filter.getEndDate();
+		if (!descending && beginDate==null) {
+			return null;
+		}
+		long origin = descending ? (endDate==null ? System.currentTimeMillis() : endDate.getTime()) : beginDate.getTime();
+
+		long window = INITIAL_QUERY_WINDOW;
+		for (int step = 0; step < MAX_QUERY_WINDOW_STEPS; step++, window *= 2) {
+			Date windowBegin = beginDate;
+			Date windowEnd = endDate;
+			boolean complete;
+			if (descending) {
+				long begin = origin - window;
+				complete = beginDate!=null && begin <= beginDate.getTime();
+				if (!complete) {
+					windowBegin = new Date(begin);
+				}
+			} else {
+				long end = origin + window;
+				complete = end >= (endDate==null ? System.currentTimeMillis() : endDate.getTime());
+				if (!complete) {
+					windowEnd = new Date(end);
+				}
+			}
+			ObjectSet<HistoricItem> results = execute(filter, windowBegin, windowEnd);
+			if (results==null || complete || results.size() >= neededResults) {
+				return results;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Executes a query for the given filter within the given time span
+	 * 
+	 * @param filter the filter of the query
+	 * @param beginDate the begin of the time span or <code>null</code>
+	 * @param endDate the end of the time span or <code>null</code>
+	 * @return the ordered results or <code>null</code>, if the database is not available
+	 */
+	private ObjectSet<HistoricItem> execute(FilterCriteria filter, Date beginDate, Date endDate) {
 		Query query = queryWithReconnect();
 		
 		if (query != null) {
 			query.constrain(Db4oItem.class);
 			
-			if (filter==null) {
-				filter = new FilterCriteria();
-			}
-			if (filter.getBeginDate()!=null) {
-				query.descend("timestamp").constrain(filter.getBeginDate()).greater().equal();
+			if (beginDate!=null) {
+				query.descend("timestamp").constrain(beginDate).greater().equal();
 			}
-			if (filter.getEndDate()!=null) {
-				query.descend("timestamp").constrain(filter.getEndDate()).smaller().equal();
+			if (endDate!=null) {
+				query.descend("timestamp").constrain(endDate).smaller().equal();
 			}
 			if (filter.getItemName()!=null) {
 				query.descend("name").constrain(filter.getItemName()).equal();
@@ -175,19 +317,49 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 			} else {
 				query.descend("timestamp").orderDescending();
 			}
-			ObjectSet<HistoricItem> results = query.execute();
-	
-			int startIndex = filter.getPageNumber() * filter.getPageSize();
-			if (startIndex < results.size()) {
-				int endIndex = startIndex + filter.getPageSize();
-				if(endIndex > results.size()) {
-					endIndex = results.size();
+			return query.execute();
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Runs a single query for all requested item names, which is ordered by descending timestamps,
+	 * and stops reading its results as soon as an entry has been found for every item.
+	 * 
+	 * @{inheritDoc}
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		dbLock.readLock().lock();
+		try {
+			queryLatest(itemNames, results);
+		} finally {
+			dbLock.readLock().unlock();
+		}
+		return results;
+	}
+
+	private void queryLatest(Collection<String> itemNames, Map<String, HistoricItem> results) {
+		Query query = queryWithReconnect();
+		
+		if (query != null && !itemNames.isEmpty()) {
+			query.constrain(Db4oItem.class);
+			Constraint nameConstraint = null;
+			for (String itemName : itemNames) {
+				Constraint constraint = query.descend("name").constrain(itemName).equal();
+				nameConstraint = nameConstraint==null ? constraint : nameConstraint.or(constraint);
+			}
+			query.descend("timestamp").orderDescending();
+			ObjectSet<HistoricItem> entries = query.execute();
+			
+			while (entries.hasNext() && results.size() < itemNames.size()) {
+				HistoricItem entry = entries.next();
+				if (!results.containsKey(entry.getName())) {
+					results.put(entry.getName(), entry);
 				}
-				return results.subList(startIndex, endIndex);
 			}
 		}
-		
-		return Collections.emptyList();
 	}
 	
 	/**
@@ -211,7 +383,19 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 
 	private static void openDbFile() {
-		db = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+		db = Db4oEmbedded.openFile(createConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+	}
+
+	/**
+	 * Creates the configuration for opening the database. The indexes must be part of it,
+	 * as indexes configured on an open database are not created.
+	 * 
+	 * @return the database configuration
+	 */
+	private static EmbeddedConfiguration createConfiguration() {
+		EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+		Db4oItem.configure(configuration.common());
+		return configuration;
 	}
 	
 
@@ -248,6 +432,19 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 			sched.scheduleJob(backupJob, backupTrigger);
 			logger.debug("Scheduled Backup-Job with cron expression '{}'", backupInterval);
+
+			// schedule defragment-job
+			JobDetail defragmentJob = newJob(DefragmentJob.class)
+					.withIdentity("Defragment_DB", SCHEDULER_GROUP)
+				    .build();
+
+			CronTrigger defragmentTrigger = newTrigger()
+				    .withIdentity("Defragment_DB", SCHEDULER_GROUP)
+				    .withSchedule(CronScheduleBuilder.cronSchedule(defragInterval))
+				    .build();
+
+			sched.scheduleJob(defragmentJob, defragmentTrigger);
+			logger.debug("Scheduled Defragment-Job with cron expression '{}'", defragInterval);
 		} catch (SchedulerException e) {
 			logger.warn("Could not create Job: {}", e.getMessage());
 		}		
@@ -283,6 +480,7 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		@Override
 		public void execute(JobExecutionContext context) throws JobExecutionException {
 			long startTime = System.currentTimeMillis();
+			dbLock.readLock().lock();
 			try {
 				db.commit();
 				logger.trace("successfully commited db4o transaction in {}ms", System.currentTimeMillis() - startTime);
@@ -294,6 +492,8 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 					// ignore a failed rollback if database is closed (what happens regularly during shutdown)
 					logger.debug("Cannot roll back transaction because database is closed: {}", e.getMessage());
 				}
+			} finally {
+				dbLock.readLock().unlock();
 			}
 		}
 		
@@ -319,6 +519,7 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 				DATE_FORMATTER.format(System.currentTimeMillis()) + "_" + DB_FILE_NAME + ".bak";
 			
 			removeObsoleteBackupFiles(DB_FOLDER_NAME);
+			dbLock.readLock().lock();
 			try {
 				ExtObjectContainer extDb = db.ext();
 				if (!extDb.isClosed()) {
@@ -329,6 +530,8 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 				}
 			} catch(Db4oException e) {
 				logger.warn("Error creating backup '{}': {}", backupFileName, e.getMessage());
+			} finally {
+				dbLock.readLock().unlock();
 			}
 		}
 		
@@ -367,5 +570,66 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		
 	}
 	
+	/**
+	 * A quartz scheduler job to defragment the db4o database frequently, which
+	 * removes the space of deleted objects and rebuilds the indexes. The database
+	 * is closed while it is defragmented, so all other accesses wait for the job
+	 * to finish. There can be only one instance of a specific job type running at
+	 * the same time.
+	 * 
+	 * @author Kai Kreuzer
+	 * @since 1.4.0
+	 */
+	@DisallowConcurrentExecution
+	public static class DefragmentJob implements Job {
+
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			long startTime = System.currentTimeMillis();
+			String fileName = DB_FOLDER_NAME + File.separator + DB_FILE_NAME;
+			
+			dbLock.writeLock().lock();
+			try {
+				if (db==null) {
+					logger.debug("couldn't defragment DB4O database '{}' because db is closed", fileName);
+					return;
+				}
+				db.close();
+				
+				DefragmentConfig config = new DefragmentConfig(fileName);
+				config.db4oConfig(createConfiguration());
+				// the backup of the last defragmentation is replaced
+				config.forceBackupDelete(true);
+				try {
+					Defragment.defrag(config);
+					logger.debug("successfully defragmented DB4O database '{}' in {}ms", fileName, System.currentTimeMillis() - startTime);
+				} catch (IOException e) {
+					restore(config);
+					logger.warn("Error defragmenting database '{}': {}", fileName, e.getMessage());
+				} catch (Db4oException e) {
+					restore(config);
+					logger.warn("Error defragmenting database '{}': {}", fileName, e.getMessage());
+				}
+				openDbFile();
+			} finally {
+				dbLock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Replaces the database file by the copy, which has been created before the failed
+		 * defragmentation.
+		 * 
+		 * @param config the configuration of the failed defragmentation
+		 */
+		private void restore(DefragmentConfig config) {
+			File backup = new File(config.backupPath());
+			File file = new File(config.origPath());
+			if (backup.exists() && (!file.exists() || file.delete()) && backup.renameTo(file)) {
+				logger.debug("restored DB4O database '{}' from '{}'", file, backup);
+			}
+		}
+		
+	}
 
 }
@@ -0,0 +1,210 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rrd4j.core.RrdDb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bounded cache of open {@link RrdDb} handles. Handles are acquired for exclusive
+ * use by a single thread, so that different database files can be accessed concurrently,
+ * while the accesses to a single file are serialized. If the cache is full, the least
+ * recently used handle which is currently not in use is closed.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RRD4jDbCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(RRD4jDbCache.class);
+
+	/** the open handles in the order of their last use */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private int capacity;
+
+	/**
+	 * Creates a cache
+	 * 
+	 * @param capacity the maximum number of handles that are kept open while not in use
+	 */
+	public RRD4jDbCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Opens the database of the given name, if it is not open yet, and locks it
+	 * for the calling thread. Every successful call must be followed by a call to
+	 * {@link #release(String)}.
+	 * 
+	 * @param name the name of the database
+	 * @param opener opens the database, if there is no open handle yet
+	 * @return the database handle
+	 * @throws IOException if the database could not be opened
+	 */
+	public RrdDb acquire(String name, Opener opener) throws IOException {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(name);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(name, entry);
+				entry.users++;
+				evict();
+			} else {
+				entry.users++;
+			}
+		}
+		entry.lock.lock();
+		if (entry.db == null) {
+			// the database is opened under its own lock only, so that other databases
+			// can be acquired meanwhile
+			boolean opened = false;
+			try {
+				entry.db = opener.open();
+				opened = true;
+			} finally {
+				if (!opened) {
+					synchronized (entries) {
+						entry.users--;
+						if (entry.users == 0 && entries.get(name) == entry) {
+							entries.remove(name);
+						}
+					}
+					entry.lock.unlock();
+				}
+			}
+		}
+		return entry.db;
+	}
+
+	/**
+	 * Unlocks the database of the given name
+	 * 
+	 * @param name the name of the database, which must have been acquired by the calling thread
+	 */
+	public void release(String name) {
+		synchronized (entries) {
+			Entry entry = entries.get(name);
+			if (entry != null) {
+				entry.lock.unlock();
+				entry.users--;
+			}
+			evict();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of handles that are kept open
+	 * 
+	 * @param capacity the new capacity
+	 */
+	public void setCapacity(int capacity) {
+		synchronized (entries) {
+			this.capacity = capacity;
+			evict();
+		}
+	}
+
+	/**
+	 * Closes all handles which are currently not in use. This should only be called,
+	 * if no other threads access the databases anymore.
+	 */
+	public void clear() {
+		List<RrdDb> closed = new ArrayList<RrdDb>();
+		synchronized (entries) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+				Entry entry = it.next();
+				if (entry.users == 0) {
+					if (entry.db != null) {
+						closed.add(entry.db);
+					}
+					it.remove();
+				}
+			}
+		}
+		for (RrdDb db : closed) {
+			close(db);
+		}
+	}
+
+	/**
+	 * Closes the least recently used handles, as long as the cache is over its capacity.
+	 * Handles which are in use are skipped, so the cache might temporarily exceed its capacity.
+	 */
+	private void evict() {
+		for (Iterator<Entry> it = entries.values().iterator(); entries.size() > capacity && it.hasNext();) {
+			Entry entry = it.next();
+			if (entry.users == 0) {
+				it.remove();
+				if (entry.db != null) {
+					close(entry.db);
+				}
+			}
+		}
+	}
+
+	private void close(RrdDb db) {
+		try {
+			db.close();
+		} catch (IOException e) {
+			logger.debug("Error closing rrd4j database: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Opens a database, if it is not contained in the cache
+	 */
+	public interface Opener {
+		RrdDb open() throws IOException;
+	}
+
+	private static class Entry {
+
+		/** the database or <code>null</code>, if it has not been opened yet, guarded by the lock */
+		RrdDb db;
+
+		/** serializes the accesses to the database */
+		final ReentrantLock lock = new ReentrantLock();
+
+		/** the number of threads which hold or wait for the lock, guarded by the entries map */
+		int users = 0;
+	}
+
+}
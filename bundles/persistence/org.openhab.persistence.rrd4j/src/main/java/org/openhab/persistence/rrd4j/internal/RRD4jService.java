@@ -29,17 +29,24 @@
 package org.openhab.persistence.rrd4j.internal;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
@@ -50,16 +57,19 @@ import org.openhab.core.library.items.SwitchItem;
 import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.persistence.BatchQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.DsType;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.core.FetchRequest;
+import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
 import org.rrd4j.core.Sample;
@@ -70,11 +80,15 @@ import org.slf4j.LoggerFactory;
 /**
  * This is the implementation of the RRD4j {@link PersistenceService}. To learn
  * more about RRD4j please visit their <a href="http://code.google.com/p/rrd4j/">website</a>.
+ * <p>
+ * The database files are kept open in a {@link RRD4jDbCache}. As RRD4j accepts only one 
+ * value per second, further values which arrive within the same second are kept in memory 
+ * and only the last one of them is written in the next second.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class RRD4jService implements QueryablePersistenceService {
+public class RRD4jService implements BatchQueryablePersistenceService, ManagedService {
 
 	private static final String DATASOURCE_STATE = "state";
 
@@ -82,7 +96,20 @@ public class RRD4jService implements QueryablePersistenceService {
 	
 	private static final Logger logger = LoggerFactory.getLogger(RRD4jService.class);
 
-	private Map<String,Timer> timers = new HashMap<String,Timer>();
+	private static final int DEFAULT_MAX_OPEN_FILES = 32;
+
+	/** the backends which store the databases in files */
+	private static final String[] FILE_BACKENDS = { "NIO", "FILE" };
+
+	/** the open databases, which are shared with the chart servlets */
+	private static final RRD4jDbCache databases = new RRD4jDbCache(DEFAULT_MAX_OPEN_FILES);
+	
+	private static volatile RrdBackendFactory backendFactory = RrdBackendFactory.getFactory("NIO");
+
+	/** the values which could not be written yet, as there already is a value for the current second */
+	private Map<String, PendingSample> pendingSamples = new HashMap<String, PendingSample>();
+
+	private ScheduledExecutorService scheduler;
 	
 	protected ItemRegistry itemRegistry;
 	
@@ -94,6 +121,31 @@ public class RRD4jService implements QueryablePersistenceService {
 		this.itemRegistry = null;
 	}
 
+	public void activate() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "RRD4j Writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void deactivate() {
+		scheduler.shutdownNow();
+		Collection<PendingSample> samples;
+		synchronized (pendingSamples) {
+			samples = new ArrayList<PendingSample>(pendingSamples.values());
+			pendingSamples.clear();
+		}
+		for (PendingSample sample : samples) {
+			if (!write(sample.name, sample.function, System.currentTimeMillis() / 1000, sample.value)) {
+				logger.debug("Discarding value '{}' of '{}', as there already is a value for the current second", sample.value, sample.name);
+			}
+		}
+		databases.clear();
+	}
+
 	/**
 	 * @{inheritDoc}
 	 */
@@ -106,68 +158,32 @@ public class RRD4jService implements QueryablePersistenceService {
 	 */
 	public void store(final Item item, final String alias) {
 		final String name = alias==null ? item.getName() : alias;
+		DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
+		if (state==null) {
+			return;
+		}
+		double value = state.toBigDecimal().doubleValue();
 		ConsolFun function = getConsolidationFunction(item);
+
+		// the lock of the database also serializes this with the write of a pending sample
 		RrdDb db = getDB(name, function);
-		if(db!=null) {
-			long now = System.currentTimeMillis()/1000;
-			if(function!=ConsolFun.AVERAGE) {
-				try {
-					// we store the last value again, so that the value change in the database is not interpolated, but
-					// happens right at this spot
-					if(now - 1 > db.getLastUpdateTime()) {
-						// only do it if there is not already a value
-						double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
-						if(!Double.isNaN(lastValue)) {
-							Sample sample = db.createSample();
-				            sample.setTime(now - 1);
-				            sample.setValue(DATASOURCE_STATE, lastValue);
-				            sample.update();
-		                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, mapToState(lastValue, item.getName()));
-						}
-					}
-				} catch (IOException e) {
-					logger.debug("Error re-storing last value: {}", e.getMessage());
-				}
-			}
-			try {
-				Sample sample = db.createSample();
-	            sample.setTime(now);
-	            
-	            DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
-	            if (state!=null) {
-                    double value = state.toBigDecimal().doubleValue();
-                    sample.setValue(DATASOURCE_STATE, value);
-                    sample.update();
-                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, item.getState());
-	            }
-			} catch (IllegalArgumentException e) {
-				if(e.getMessage().contains("at least one second step is required")) {
-
-					// we try to store the value one second later
-					TimerTask task = new TimerTask() {
-						public void run() {
-							store(item, name);
-						}
-					};
-					Timer timer = timers.get(name);
-					if(timer!=null) {
-						timer.cancel();
-						timers.remove(name);
-					}
-					timer = new Timer();
-					timers.put(name, timer);
-					timer.schedule(task, 1000);
-				} else {
-					logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+		if (db==null) {
+			return;
+		}
+		try {
+			synchronized (pendingSamples) {
+				PendingSample pending = pendingSamples.get(name);
+				if (pending!=null) {
+					// there already is a value waiting for the next second, which is replaced by the new one
+					pending.value = value;
+					return;
 				}
-			} catch (Exception e) {
-				logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
 			}
-            try {
-				db.close();
-			} catch (IOException e) {
-				logger.debug("Error closing rrd4j database: {}", e.getMessage());
+			if (!write(db, name, function, System.currentTimeMillis()/1000, value)) {
+				addPendingSample(name, function, value);
 			}
+		} finally {
+			releaseDB(name);
 		}
 	}
 
@@ -177,6 +193,139 @@ public class RRD4jService implements QueryablePersistenceService {
 	public void store(Item item) {
 		store(item, null);
 	}
+
+	/**
+	 * Writes a value to the database
+	 * 
+	 * @param name the name of the database
+	 * @param function the consolidation function of the database
+	 * @param time the time of the value in seconds
+	 * @param value the value to write
+	 * @return <code>false</code>, if the database already contains a value for the given time
+	 */
+	private boolean write(String name, ConsolFun function, long time, double value) {
+		RrdDb db = getDB(name, function);
+		if (db==null) {
+			return true;
+		}
+		try {
+			return write(db, name, function, time, value);
+		} finally {
+			releaseDB(name);
+		}
+	}
+
+	/**
+	 * Writes a value to a database which has been acquired by {@link #getDB(String, ConsolFun)}
+	 * 
+	 * @see #write(String, ConsolFun, long, double)
+	 */
+	private boolean write(RrdDb db, String name, ConsolFun function, long time, double value) {
+		try {
+			long lastUpdateTime = db.getLastUpdateTime();
+			if (time <= lastUpdateTime) {
+				return false;
+			}
+			if (function!=ConsolFun.AVERAGE && time - 1 > lastUpdateTime) {
+				// we store the last value again, so that the value change in the database is not interpolated, but
+				// happens right at this spot - this is not necessary if the value has not changed at all
+				double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
+				if (!Double.isNaN(lastValue) && lastValue!=value) {
+					Sample sample = db.createSample();
+					sample.setTime(time - 1);
+					sample.setValue(DATASOURCE_STATE, lastValue);
+					sample.update();
+					logger.debug("Stored '{}' with state '{}' in rrd4j database", name, lastValue);
+				}
+			}
+			Sample sample = db.createSample();
+			sample.setTime(time);
+			sample.setValue(DATASOURCE_STATE, value);
+			sample.update();
+			logger.debug("Stored '{}' with state '{}' in rrd4j database", name, value);
+		} catch (IllegalArgumentException e) {
+			if (e.getMessage()!=null && e.getMessage().contains("at least one second step is required")) {
+				return false;
+			}
+			logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+		} catch (Exception e) {
+			logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps a value in memory and schedules its write for the next second
+	 * 
+	 * @param name the name of the database
+	 * @param function the consolidation function of the database
+	 * @param value the value to write
+	 */
+	private void addPendingSample(final String name, ConsolFun function, double value) {
+		synchronized (pendingSamples) {
+			PendingSample pending = pendingSamples.get(name);
+			if (pending!=null) {
+				pending.value = value;
+				return;
+			}
+			pendingSamples.put(name, new PendingSample(name, function, value));
+		}
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					writePendingSample(name);
+				}
+			}, 1, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// this happens if the service is deactivated
+			logger.debug("Could not schedule write of '{}': {}", name, e.getMessage());
+		}
+	}
+
+	private void writePendingSample(String name) {
+		PendingSample pending;
+		synchronized (pendingSamples) {
+			pending = pendingSamples.get(name);
+		}
+		if (pending==null) {
+			return;
+		}
+		// the sample is taken and written under the lock of the database, so that a 
+		// concurrent store() cannot write a newer value in between
+		RrdDb db = getDB(name, pending.function);
+		if (db==null) {
+			synchronized (pendingSamples) {
+				pendingSamples.remove(name);
+			}
+			return;
+		}
+		try {
+			synchronized (pendingSamples) {
+				pending = pendingSamples.remove(name);
+			}
+			if (pending!=null && !write(db, name, pending.function, System.currentTimeMillis()/1000, pending.value)) {
+				addPendingSample(name, pending.function, pending.value);
+			}
+		} finally {
+			releaseDB(name);
+		}
+	}
+
+	/**
+	 * Returns a value which has not been written to the database yet
+	 * 
+	 * @param name the name of the database
+	 * @return the item with the pending value or <code>null</code>, if there is none
+	 */
+	private HistoricItem getPendingItem(String name) {
+		synchronized (pendingSamples) {
+			PendingSample pending = pendingSamples.get(name);
+			if (pending!=null) {
+				return new RRD4jItem(name, mapToState(pending.value, name), new Date());
+			}
+		}
+		return null;
+	}
 	
 	@Override
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
@@ -195,6 +344,10 @@ public class RRD4jService implements QueryablePersistenceService {
 					if(filter.getOrdering()==Ordering.DESCENDING && filter.getPageSize()==1 && filter.getPageNumber()==0) {
 						if(filter.getEndDate()==null) {
 							// we are asked only for the most recent value!
+							HistoricItem pendingItem = getPendingItem(itemName);
+							if(pendingItem!=null) {
+								return Collections.singletonList(pendingItem);
+							}
 							double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
 							if(!Double.isNaN(lastValue)) {
 								HistoricItem rrd4jItem = new RRD4jItem(itemName, mapToState(lastValue, itemName), new Date(db.getLastArchiveUpdateTime() * 1000));
@@ -228,33 +381,153 @@ public class RRD4jService implements QueryablePersistenceService {
 				return items;
 			} catch (IOException e) {
 				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
-			}	
+			} finally {
+				releaseDB(itemName);
+			}
 		}
 		return Collections.emptyList();
 	}
 
-	protected synchronized RrdDb getDB(String alias, ConsolFun function) {
-		RrdDb db = null;
-        File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
-    	try {
-            if (file.exists()) {
-            	// recreate the RrdDb instance from the file
-            	db = new RrdDb(file.getAbsolutePath());
-            } else {
-            	File folder = new File(DB_FOLDER);
-            	if(!folder.exists()) {
-            		folder.mkdir();
-            	}
-            	// create a new database file
-                db = new RrdDb(getRrdDef(function, file));
-            }
+	/**
+	 * Reads the last value of each existing database file directly instead of running fetch requests.
+	 * 
+	 * @{inheritDoc}
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> items = new HashMap<String, HistoricItem>();
+		for(String itemName : itemNames) {
+			HistoricItem pendingItem = getPendingItem(itemName);
+			if(pendingItem!=null) {
+				items.put(itemName, pendingItem);
+				continue;
+			}
+			// do not create database files for items that have never been persisted
+			if(!new File(DB_FOLDER + File.separator + itemName + ".rrd").exists()) {
+				continue;
+			}
+			RrdDb db = getDB(itemName, getConsolidationFunction(itemName));
+			if(db!=null) {
+				try {
+					double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
+					if(!Double.isNaN(lastValue)) {
+						items.put(itemName, new RRD4jItem(itemName, mapToState(lastValue, itemName), new Date(db.getLastArchiveUpdateTime() * 1000)));
+					}
+				} catch (IOException e) {
+					logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+				} finally {
+					releaseDB(itemName);
+				}
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Returns the database of the given name and locks it for the calling thread. 
+	 * The database must be released by {@link #releaseDB(String)} afterwards.
+	 * 
+	 * @param alias the name of the database
+	 * @param function the consolidation function to use, if the database does not exist yet
+	 * @return the database or <code>null</code>, if it could not be opened
+	 */
+	protected RrdDb getDB(final String alias, final ConsolFun function) {
+		final File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
+		try {
+			return databases.acquire(alias, new RRD4jDbCache.Opener() {
+				public RrdDb open() throws IOException {
+					if (file.exists()) {
+						// recreate the RrdDb instance from the file
+						return new RrdDb(file.getAbsolutePath(), backendFactory);
+					} else {
+						File folder = new File(DB_FOLDER);
+						if(!folder.exists()) {
+							folder.mkdir();
+						}
+						// create a new database file
+						return new RrdDb(getRrdDef(function, file), backendFactory);
+					}
+				}
+			});
 		} catch (IOException e) {
 			logger.error("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
 		} catch(RejectedExecutionException e) {
 			// this happens if the system is shut down
 			logger.debug("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
 		}
-		return db;
+		return null;
+	}
+
+	/**
+	 * Unlocks a database returned by {@link #getDB(String, ConsolFun)}
+	 * 
+	 * @param alias the name of the database
+	 */
+	protected void releaseDB(String alias) {
+		databases.release(alias);
+	}
+
+	/**
+	 * Returns the existing database of the given name and locks it for the calling thread.
+	 * In contrast to {@link #getDB(String, ConsolFun)}, no database file is created, so that
+	 * readers like the chart servlets can share the open handles of this service.
+	 * The database must be released by {@link #releaseExistingDB(String)} afterwards.
+	 * 
+	 * @param alias the name of the database
+	 * @return the database
+	 * @throws FileNotFoundException if there is no database of the given name
+	 * @throws IOException if the database could not be opened
+	 */
+	public static RrdDb acquireExistingDB(String alias) throws IOException {
+		final File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
+		if(!file.exists()) {
+			throw new FileNotFoundException("There is no rrd4j database file '" + file.getAbsolutePath() + "'");
+		}
+		return databases.acquire(alias, new RRD4jDbCache.Opener() {
+			public RrdDb open() throws IOException {
+				return new RrdDb(file.getAbsolutePath(), backendFactory);
+			}
+		});
+	}
+
+	/**
+	 * Unlocks a database returned by {@link #acquireExistingDB(String)}
+	 * 
+	 * @param alias the name of the database
+	 */
+	public static void releaseExistingDB(String alias) {
+		databases.release(alias);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		if (config != null) {
+			String backend = (String) config.get("backend");
+			if (StringUtils.isNotBlank(backend)) {
+				backend = backend.trim().toUpperCase();
+				if (!ArrayUtils.contains(FILE_BACKENDS, backend)) {
+					throw new ConfigurationException("rrd4j:backend", "Unknown backend '" + backend
+						+ "', valid values are " + StringUtils.join(FILE_BACKENDS, ", "));
+				}
+				RrdBackendFactory factory = RrdBackendFactory.getFactory(backend);
+				if (factory!=backendFactory) {
+					backendFactory = factory;
+					// open files are reopened with the new backend
+					databases.clear();
+				}
+			}
+
+			String maxOpenFiles = (String) config.get("maxopenfiles");
+			if (StringUtils.isNotBlank(maxOpenFiles)) {
+				try {
+					databases.setCapacity(Integer.parseInt(maxOpenFiles.trim()));
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("rrd4j:maxopenfiles", "The value '" + maxOpenFiles + "' is not a valid number");
+				}
+			}
+		}
 	}
 
 	private RrdDef getRrdDef(ConsolFun function, File file) {
@@ -323,5 +596,21 @@ public class RRD4jService implements QueryablePersistenceService {
 		// just return a DecimalType as a fallback
 		return new DecimalType(value);
 	}
+
+	/**
+	 * A value which waits to be written in the next second
+	 */
+	private static class PendingSample {
+
+		final String name;
+		final ConsolFun function;
+		double value;
+
+		PendingSample(String name, ConsolFun function, double value) {
+			this.name = name;
+			this.function = function;
+			this.value = value;
+		}
+	}
 	
 }
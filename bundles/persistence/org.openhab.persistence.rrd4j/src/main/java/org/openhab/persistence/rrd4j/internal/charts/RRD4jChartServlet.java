@@ -31,11 +31,15 @@ package org.openhab.persistence.rrd4j.internal.charts;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.image.BufferedImage;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -49,10 +53,15 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.library.items.NumberItem;
 import org.openhab.io.net.http.SecureHttpContext;
 import org.openhab.persistence.rrd4j.internal.RRD4jService;
+import org.openhab.persistence.rrd4j.internal.charts.RRD4jRenderCache.Rendering;
 import org.openhab.ui.items.ItemUIRegistry;
 import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.FetchRequest;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.data.Plottable;
 import org.rrd4j.graph.RrdGraph;
 import org.rrd4j.graph.RrdGraphDef;
 import org.slf4j.Logger;
@@ -68,6 +77,7 @@ import org.slf4j.LoggerFactory;
  * 	<li>items: A comma separated list of item names to display
  * 	<li>groups: A comma separated list of group names, whose members should be displayed 
  * </ul>
+ * Rendered charts are cached until the archives they are based on are updated the next time.
  *  
  * @author Kai Kreuzer
  * @since 1.0.0
@@ -109,6 +119,8 @@ public class RRD4jChartServlet implements Servlet {
 	protected HttpService httpService;
 	protected ItemUIRegistry itemUIRegistry;
 
+	protected RRD4jRenderCache renderCache = new RRD4jRenderCache();
+
 	public void setHttpService(HttpService httpService) {
 		this.httpService = httpService;
 	}
@@ -141,50 +153,114 @@ public class RRD4jChartServlet implements Servlet {
 
 	protected void deactivate() {
 		httpService.unregister(SERVLET_NAME);
+		renderCache.clear();
 	}
 
-	public void service(ServletRequest req, ServletResponse res)
+	public void service(final ServletRequest req, ServletResponse res)
 			throws ServletException, IOException {
+		String key = req.getParameter("items") + "|" + req.getParameter("groups") + "|" + req.getParameter("period") 
+				+ "|" + req.getParameter("w") + "|" + req.getParameter("h");
+		Rendering rendering = renderCache.get(key, new Callable<Rendering>() {
+			public Rendering call() throws Exception {
+				return renderChart(req);
+			}
+		});
+		res.setContentType(rendering.getContentType());
+		res.setContentLength(rendering.getContent().length);
+		res.getOutputStream().write(rendering.getContent());
+	}
+
+	/**
+	 * Renders the chart for the given request
+	 * 
+	 * @param req the HTTP request to read the parameters from
+	 * @return the chart as a PNG image
+	 */
+	protected Rendering renderChart(ServletRequest req) throws ServletException, IOException {
 		RrdGraphDef graphDef = new RrdGraphDef();
 
 		configureImageParameters(graphDef, req);
-		configureContents(graphDef, req);
+		List<FetchData> series = configureContents(graphDef, req);
 
-		try {
-			RrdGraph graph = new RrdGraph(graphDef);
-			BufferedImage bi = new BufferedImage(graph.getRrdGraphInfo().getWidth(), graph.getRrdGraphInfo().getHeight(), BufferedImage.TYPE_INT_RGB);
-			graph.render(bi.getGraphics());
-			res.setContentType("image/png");
-			javax.imageio.ImageIO.write(bi, "png", res.getOutputStream());
-		} catch(FileNotFoundException e) {
-			throw new ServletException("Could not read database files for all requested items.", e);
-		}
+		RrdGraph graph = new RrdGraph(graphDef);
+		BufferedImage bi = new BufferedImage(graph.getRrdGraphInfo().getWidth(), graph.getRrdGraphInfo().getHeight(), BufferedImage.TYPE_INT_RGB);
+		graph.render(bi.getGraphics());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		javax.imageio.ImageIO.write(bi, "png", out);
+		return new Rendering(out.toByteArray(), "image/png", getNextArchiveUpdate(series));
+	}
 
+	/**
+	 * Determines the time at which the archives, that the given series have been fetched from, 
+	 * are updated the next time.
+	 * 
+	 * @param series the fetched series
+	 * @return the time of the next archive update in milliseconds
+	 */
+	protected static long getNextArchiveUpdate(List<FetchData> series) {
+		long now = System.currentTimeMillis() / 1000;
+		long step = Long.MAX_VALUE;
+		for(FetchData data : series) {
+			step = Math.min(step, data.getStep());
+		}
+		if(step==Long.MAX_VALUE) {
+			// no archive has been read, so we check again in a minute
+			step = 60;
+		}
+		return (now / step + 1) * step * 1000;
 	}
 
 	/**
-	 * Sets the overall layout and rendering parameters for the chart
+	 * Fetches the consolidated values of an item. The database is accessed through the
+	 * handles which are kept open by the {@link RRD4jService}.
 	 * 
-	 * @param graphDef the graph definition to fill
-	 * @param req the HTTP request to read the parameters from
+	 * @param item the item
+	 * @param start the start of the time span in seconds
+	 * @param end the end of the time span in seconds
+	 * @param resolution the requested time between two values in seconds
+	 * @return the fetched values
+	 * @throws ServletException if the database of the item could not be read
 	 */
-	protected void configureImageParameters(RrdGraphDef graphDef, ServletRequest req) {
-		int width = 480;
+	protected static FetchData fetchData(Item item, long start, long end, long resolution) throws ServletException {
 		try {
-			width = Integer.parseInt(req.getParameter("w"));
-		} catch(Exception e) {}
-		int height = 240;
-		try {
-			height = Integer.parseInt(req.getParameter("h"));
-		} catch(Exception e) {}
+			RrdDb db = RRD4jService.acquireExistingDB(item.getName());
+			try {
+				FetchRequest request = db.createFetchRequest(RRD4jService.getConsolidationFunction(item), start, end, resolution);
+				return request.fetchData();
+			} finally {
+				RRD4jService.releaseExistingDB(item.getName());
+			}
+		} catch(IOException e) {
+			throw new ServletException("Could not read database file of item '" + item.getName() + "'.", e);
+		}
+	}
+
+	/**
+	 * Returns the time span requested by the <code>period</code> parameter
+	 * 
+	 * @param req the HTTP request to read the parameter from
+	 * @return the time span in seconds as a negative number, defaults to one day
+	 */
+	protected static long getPeriod(ServletRequest req) {
 		Long period = PERIODS.get(req.getParameter("period"));
 		if(period==null) {
 			// use a day as the default period
 			period = PERIODS.get("D");
 		}
+		return period;
+	}
+
+	/**
+	 * Sets the overall layout and rendering parameters for the chart
+	 * 
+	 * @param graphDef the graph definition to fill
+	 * @param req the HTTP request to read the parameters from
+	 */
+	protected void configureImageParameters(RrdGraphDef graphDef, ServletRequest req) {
+		long period = getPeriod(req);
 		
-		graphDef.setWidth(width);
-		graphDef.setHeight(height);
+		graphDef.setWidth(getIntParameter(req, "w", 480));
+		graphDef.setHeight(getIntParameter(req, "h", 240));
 		graphDef.setAntiAliasing(true);
 		graphDef.setImageFormat("PNG");
 		graphDef.setStartTime(period);
@@ -193,21 +269,64 @@ public class RRD4jChartServlet implements Servlet {
 		graphDef.setSmallFont(new Font("SansSerif", Font.PLAIN, 11));
 	}
 
+	/**
+	 * Returns the value of a numeric HTTP parameter
+	 * 
+	 * @param req the HTTP request to read the parameter from
+	 * @param name the name of the parameter
+	 * @param defaultValue the value to use, if the parameter is missing or not a number
+	 * @return the value of the parameter
+	 */
+	protected static int getIntParameter(ServletRequest req, String name, int defaultValue) {
+		String value = req.getParameter(name);
+		if(value!=null) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch(NumberFormatException e) {
+				logger.debug("Ignoring invalid value '{}' of parameter '{}'", value, name);
+			}
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Adds the content for the chart
 	 * 
 	 * @param graphDef the graph definition to fill
 	 * @param req the HTTP request to read the parameters from
+	 * @return the series that have been added to the chart
 	 */
-	protected void configureContents(RrdGraphDef graphDef, ServletRequest req) throws ServletException {
+	protected List<FetchData> configureContents(RrdGraphDef graphDef, ServletRequest req) throws ServletException {
+		List<Item> items = getItems(itemUIRegistry, req);
+		long period = -getPeriod(req);
+		long end = System.currentTimeMillis() / 1000;
+		long resolution = Math.max(1, period / Math.max(1, getIntParameter(req, "w", 480)));
+		List<FetchData> series = new ArrayList<FetchData>();
 		int counter = 0;
+		for(Item item : items) {
+			FetchData data = fetchData(item, end - period, end, resolution);
+			addLine(graphDef, item, data, counter++);
+			series.add(data);
+		}
+		return series;
+	}
+
+	/**
+	 * Collects the items requested by the <code>items</code> and <code>groups</code> parameters
+	 * 
+	 * @param itemUIRegistry the registry to look up the items
+	 * @param req the HTTP request to read the parameters from
+	 * @return the requested items
+	 * @throws ServletException if an item does not exist or no item is requested at all
+	 */
+	protected static List<Item> getItems(ItemUIRegistry itemUIRegistry, ServletRequest req) throws ServletException {
+		List<Item> items = new ArrayList<Item>();
 		String itemList = req.getParameter("items");
 		if(itemList!=null) {
 			String[] itemNames = itemList.split(",");
 			for(String itemName : itemNames) {
 				try {
-					Item item = itemUIRegistry.getItem(itemName);
-					addLine(graphDef, item, counter++);
+					items.add(itemUIRegistry.getItem(itemName));
 				} catch (ItemNotFoundException e) {
 					throw new ServletException("Item '" + itemName + "' does not exist!");
 				}
@@ -222,9 +341,7 @@ public class RRD4jChartServlet implements Servlet {
 					Item item = itemUIRegistry.getItem(groupName);
 					if(item instanceof GroupItem) {
 						GroupItem groupItem = (GroupItem) item;
-						for(Item member : groupItem.getMembers()) {
-							addLine(graphDef, member, counter++);
-						}
+						items.addAll(groupItem.getMembers());
 					} else {
 						throw new ServletException("Item '" + groupName + "' is no group item!");
 					}
@@ -234,9 +351,10 @@ public class RRD4jChartServlet implements Servlet {
 			}
 		}
 		
-		if(counter==0) {
+		if(items.isEmpty()) {
 			throw new ServletException("At least one item must be specified using either the 'items' or 'groups' parameter in the request!");
 		}
+		return items;
 	}
 
 	/**
@@ -245,9 +363,10 @@ public class RRD4jChartServlet implements Servlet {
 	 * 
 	 * @param graphDef the graph definition to fill
 	 * @param item the item to add a line for
+	 * @param data the values of the item
 	 * @param counter defines the number of the datasource and is used to determine the line color
 	 */
-	protected void addLine(RrdGraphDef graphDef, Item item, int counter) {
+	protected void addLine(RrdGraphDef graphDef, Item item, FetchData data, int counter) {
 		Color color = LINECOLORS[counter%LINECOLORS.length];
 		String label = itemUIRegistry.getLabel(item.getName());
 		if(label!=null && label.contains("[") && label.contains("]")) {
@@ -255,11 +374,11 @@ public class RRD4jChartServlet implements Servlet {
 		}
 		if(item instanceof NumberItem) {
 			// we only draw a line
-			graphDef.datasource(Integer.toString(counter), "./etc/rrd4j/" + item.getName() + ".rrd", "state", RRD4jService.getConsolidationFunction(item));
+			graphDef.datasource(Integer.toString(counter), new SeriesPlottable(data));
 			graphDef.line(Integer.toString(counter), color, label, 2);
 		} else {
 			// we draw a line and fill the area beneath it with a transparent color
-			graphDef.datasource(Integer.toString(counter), "./etc/rrd4j/" + item.getName() + ".rrd", "state", RRD4jService.getConsolidationFunction(item));
+			graphDef.datasource(Integer.toString(counter), new SeriesPlottable(data));
 			Color areaColor = AREACOLORS[counter%LINECOLORS.length];
 			
 			graphDef.area(Integer.toString(counter), areaColor);
@@ -267,6 +386,31 @@ public class RRD4jChartServlet implements Servlet {
 		}
 	}
 
+	/**
+	 * Provides the fetched values of an item to a graph. The value of a timestamp is the 
+	 * one of the step which contains it.
+	 */
+	protected static class SeriesPlottable extends Plottable {
+
+		private final long[] timestamps;
+		private final double[] values;
+
+		public SeriesPlottable(FetchData data) {
+			this.timestamps = data.getTimestamps();
+			this.values = data.getValues("state");
+		}
+
+		@Override
+		public double getValue(long timestamp) {
+			// each value is stored at the end of its step
+			int index = Arrays.binarySearch(timestamps, timestamp);
+			if(index < 0) {
+				index = -index - 1;
+			}
+			return index < values.length ? values[index] : Double.NaN;
+		}
+	}
+
 	/**
 	 * Creates a {@link SecureHttpContext} which handles the security for this
 	 * servlet
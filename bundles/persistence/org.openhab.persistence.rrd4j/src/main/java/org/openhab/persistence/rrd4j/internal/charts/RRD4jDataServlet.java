@@ -0,0 +1,230 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal.charts;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openhab.core.items.Item;
+import org.openhab.io.net.http.SecureHttpContext;
+import org.openhab.persistence.rrd4j.internal.charts.RRD4jRenderCache.Rendering;
+import org.openhab.ui.items.ItemUIRegistry;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+import org.rrd4j.core.FetchData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This servlet returns the consolidated time-series of a given set of items, so that 
+ * clients can draw the charts themselves. It accepts the following HTTP parameters:
+ * <ul>
+ * 	<li>period: the time span of the series. Value can be h,4h,8h,12h,D,3D,W,2W,M,2M,4M,Y</li>
+ * 	<li>points: the approximate number of values per series (optional, by default the
+ * 	    most detailed archive which covers the period is used)</li>
+ * 	<li>format: either json (default) or csv</li>
+ * 	<li>items: A comma separated list of item names
+ * 	<li>groups: A comma separated list of group names, whose members should be returned 
+ * </ul>
+ * The JSON response has the form <code>{"items":[{"name":"Temperature","step":60,"data":[[1380000000000,21.5],...]},...]}</code>,
+ * the CSV response contains a line <code>item,time,value</code> for each value. Times are 
+ * given in milliseconds, missing values are <code>null</code> respectively empty.
+ *  
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RRD4jDataServlet implements Servlet {
+	
+	private static final Logger logger = LoggerFactory.getLogger(RRD4jDataServlet.class);
+
+	/** the URI of this servlet */
+	public static final String SERVLET_NAME = "/rrddata";
+
+	protected HttpService httpService;
+	protected ItemUIRegistry itemUIRegistry;
+
+	protected RRD4jRenderCache renderCache = new RRD4jRenderCache();
+
+	public void setHttpService(HttpService httpService) {
+		this.httpService = httpService;
+	}
+
+	public void unsetHttpService(HttpService httpService) {
+		this.httpService = null;
+	}
+
+	public void setItemUIRegistry(ItemUIRegistry itemUIRegistry) {
+		this.itemUIRegistry = itemUIRegistry;
+	}
+
+	public void unsetItemUIRegistry(ItemUIRegistry itemUIRegistry) {
+		this.itemUIRegistry = null;
+	}
+
+	protected void activate() {
+		try {
+			logger.debug("Starting up rrd data servlet at " + SERVLET_NAME);
+
+			Hashtable<String, String> props = new Hashtable<String, String>();
+			httpService.registerServlet(SERVLET_NAME, this, props, createHttpContext());
+
+		} catch (NamespaceException e) {
+			logger.error("Error during servlet startup", e);
+		} catch (ServletException e) {
+			logger.error("Error during servlet startup", e);
+		}
+	}
+
+	protected void deactivate() {
+		httpService.unregister(SERVLET_NAME);
+		renderCache.clear();
+	}
+
+	public void service(final ServletRequest req, ServletResponse res)
+			throws ServletException, IOException {
+		String key = req.getParameter("items") + "|" + req.getParameter("groups") + "|" + req.getParameter("period") 
+				+ "|" + req.getParameter("points") + "|" + req.getParameter("format");
+		Rendering rendering = renderCache.get(key, new Callable<Rendering>() {
+			public Rendering call() throws Exception {
+				return renderData(req);
+			}
+		});
+		res.setContentType(rendering.getContentType());
+		res.setContentLength(rendering.getContent().length);
+		res.getOutputStream().write(rendering.getContent());
+	}
+
+	/**
+	 * Reads the series for the given request
+	 * 
+	 * @param req the HTTP request to read the parameters from
+	 * @return the series in the requested format
+	 */
+	protected Rendering renderData(ServletRequest req) throws ServletException, IOException {
+		List<Item> items = RRD4jChartServlet.getItems(itemUIRegistry, req);
+		boolean csv = "csv".equalsIgnoreCase(req.getParameter("format"));
+		long period = -RRD4jChartServlet.getPeriod(req);
+		long resolution = 1;
+		int points = RRD4jChartServlet.getIntParameter(req, "points", 0);
+		if(points > 0) {
+			resolution = Math.max(1, period / points);
+		}
+		long end = System.currentTimeMillis() / 1000;
+		long start = end - period;
+
+		StringBuilder sb = new StringBuilder(csv ? "item,time,value\n" : "{\"items\":[");
+		long step = Long.MAX_VALUE;
+		for(int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			FetchData data = RRD4jChartServlet.fetchData(item, start, end, resolution);
+			step = Math.min(step, data.getStep());
+
+			long[] timestamps = data.getTimestamps();
+			double[] values = data.getValues("state");
+			if(csv) {
+				for(int j = 0; j < timestamps.length; j++) {
+					sb.append(item.getName()).append(',').append(timestamps[j] * 1000).append(',');
+					if(!Double.isNaN(values[j])) {
+						sb.append(values[j]);
+					}
+					sb.append('\n');
+				}
+			} else {
+				if(i > 0) {
+					sb.append(',');
+				}
+				sb.append("{\"name\":\"").append(item.getName()).append("\",\"step\":").append(data.getStep()).append(",\"data\":[");
+				for(int j = 0; j < timestamps.length; j++) {
+					if(j > 0) {
+						sb.append(',');
+					}
+					sb.append('[').append(timestamps[j] * 1000).append(',');
+					sb.append(Double.isNaN(values[j]) || Double.isInfinite(values[j]) ? "null" : Double.toString(values[j]));
+					sb.append(']');
+				}
+				sb.append("]}");
+			}
+		}
+		if(!csv) {
+			sb.append("]}");
+		}
+
+		// the series change as soon as a new value is consolidated into the archives
+		long validUntil = (end / step + 1) * step * 1000;
+		return new Rendering(sb.toString().getBytes("UTF-8"), 
+			csv ? "text/csv;charset=UTF-8" : "application/json;charset=UTF-8", validUntil);
+	}
+
+	/**
+	 * Creates a {@link SecureHttpContext} which handles the security for this
+	 * servlet
+	 * 
+	 * @return a {@link SecureHttpContext}
+	 */
+	protected HttpContext createHttpContext() {
+		HttpContext defaultHttpContext = httpService.createDefaultHttpContext();
+		return new SecureHttpContext(defaultHttpContext, "openHAB.org");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void init(ServletConfig config) throws ServletException {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ServletConfig getServletConfig() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getServletInfo() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void destroy() {
+	}
+
+}
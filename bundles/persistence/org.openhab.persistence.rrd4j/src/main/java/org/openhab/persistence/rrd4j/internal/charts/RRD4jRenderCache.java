@@ -0,0 +1,183 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal.charts;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.servlet.ServletException;
+
+/**
+ * A cache for rendered charts and data series. Each rendering is valid until the
+ * time it defines itself, which usually is the next step of the archives it is
+ * based on. Concurrent requests for a rendering, which is not cached yet, wait 
+ * for a single rendering instead of rendering it themselves.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class RRD4jRenderCache {
+
+	/** the maximum number of cached renderings */
+	private static final int MAX_ENTRIES = 100;
+
+	private final ConcurrentMap<String, FutureTask<Rendering>> entries = new ConcurrentHashMap<String, FutureTask<Rendering>>();
+
+	/**
+	 * Returns the cached rendering for the given key or creates it with the renderer.
+	 * 
+	 * @param key the key, which must contain all parameters of the rendering
+	 * @param renderer creates the rendering, if there is no valid one in the cache
+	 * @return the rendering
+	 * @throws ServletException if the rendering failed
+	 * @throws IOException if the rendering failed
+	 */
+	public Rendering get(String key, Callable<Rendering> renderer) throws ServletException, IOException {
+		FutureTask<Rendering> task = entries.get(key);
+		while (task == null || isExpired(task)) {
+			FutureTask<Rendering> newTask = new FutureTask<Rendering>(renderer);
+			if (task == null) {
+				removeExpired();
+				if (entries.size() >= MAX_ENTRIES) {
+					// do not cache the rendering
+					newTask.run();
+					return getResult(newTask);
+				}
+				task = entries.putIfAbsent(key, newTask);
+			} else {
+				task = entries.replace(key, task, newTask) ? null : entries.get(key);
+			}
+			if (task == null) {
+				// we are responsible for the rendering
+				newTask.run();
+				task = newTask;
+				break;
+			}
+		}
+		try {
+			return getResult(task);
+		} catch (ServletException e) {
+			entries.remove(key, task);
+			throw e;
+		} catch (IOException e) {
+			entries.remove(key, task);
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes all renderings from the cache
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	private void removeExpired() {
+		for (Iterator<FutureTask<Rendering>> it = entries.values().iterator(); it.hasNext();) {
+			if (isExpired(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Checks if a rendering is outdated or has failed; renderings in progress are never expired
+	 */
+	private boolean isExpired(FutureTask<Rendering> task) {
+		if (!task.isDone()) {
+			return false;
+		}
+		try {
+			return task.get().getValidUntil() <= System.currentTimeMillis();
+		} catch (ExecutionException e) {
+			return true;
+		} catch (InterruptedException e) {
+			return true;
+		}
+	}
+
+	private Rendering getResult(FutureTask<Rendering> task) throws ServletException, IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServletException("Interrupted while waiting for rendering", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ServletException) {
+				throw (ServletException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new ServletException("Rendering failed", cause);
+			}
+		}
+	}
+
+	/**
+	 * A rendered chart or data series
+	 */
+	public static class Rendering {
+
+		private final byte[] content;
+		private final String contentType;
+		private final long validUntil;
+
+		/**
+		 * @param content the rendered content
+		 * @param contentType the mime type of the content
+		 * @param validUntil the time in milliseconds at which the content becomes outdated
+		 */
+		public Rendering(byte[] content, String contentType, long validUntil) {
+			this.content = content;
+			this.contentType = contentType;
+			this.validUntil = validUntil;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getValidUntil() {
+			return validUntil;
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.persistence.sql.internal.SqlConnectionPool.PooledConnection;
+
+
+/**
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class SqlConnectionPoolTest {
+
+	private TestDatabase database;
+
+	private SqlConnectionPool pool;
+
+	@Before
+	public void init() throws SQLException {
+		database = new TestDatabase();
+		pool = new SqlConnectionPool(TestDatabase.URL, TestDatabase.USER, TestDatabase.PASSWORD, 2);
+	}
+
+	@After
+	public void close() throws SQLException {
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void testReleasedConnectionIsReused() throws SQLException {
+		PooledConnection connection = pool.getConnection();
+		pool.release(connection);
+		assertSame(connection, pool.getConnection());
+		assertFalse(connection.getConnection().isClosed());
+	}
+
+	@Test
+	public void testExhaustedPoolWaitsForRelease() throws Exception {
+		PooledConnection first = pool.getConnection();
+		PooledConnection second = pool.getConnection();
+		assertNotSame(first, second);
+
+		BlockingQueue<Object> result = getConnectionInBackground();
+		// all connections are in use, so no further one is opened
+		assertEquals(null, result.poll(300, TimeUnit.MILLISECONDS));
+
+		pool.release(second);
+		assertSame(second, result.poll(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testInvalidatedConnectionIsReplaced() throws Exception {
+		PooledConnection first = pool.getConnection();
+		pool.getConnection();
+
+		BlockingQueue<Object> result = getConnectionInBackground();
+		pool.invalidate(first);
+		assertTrue(first.getConnection().isClosed());
+
+		Object replacement = result.poll(2, TimeUnit.SECONDS);
+		assertTrue(replacement instanceof PooledConnection);
+		assertNotSame(first, replacement);
+		assertFalse(((PooledConnection) replacement).getConnection().isClosed());
+	}
+
+	@Test
+	public void testCloseWakesWaitingThreads() throws Exception {
+		PooledConnection first = pool.getConnection();
+		pool.getConnection();
+
+		BlockingQueue<Object> result = getConnectionInBackground();
+		assertEquals(null, result.poll(300, TimeUnit.MILLISECONDS));
+		pool.close();
+		assertTrue(result.poll(2, TimeUnit.SECONDS) instanceof SQLException);
+
+		// connections which are given back after closing the pool are closed
+		pool.release(first);
+		assertTrue(first.getConnection().isClosed());
+	}
+
+	/* takes a connection in a new thread and puts it or the exception into the returned queue */
+	private BlockingQueue<Object> getConnectionInBackground() {
+		final BlockingQueue<Object> result = new ArrayBlockingQueue<Object>(1);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					result.add(pool.getConnection());
+				} catch (SQLException e) {
+					result.add(e);
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return result;
+	}
+
+}
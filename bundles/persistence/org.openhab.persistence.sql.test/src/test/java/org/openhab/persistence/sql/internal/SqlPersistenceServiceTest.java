@@ -0,0 +1,139 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregateFunction;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.HistoricItem;
+
+
+/**
+ * Runs the statements of the service against an embedded database. The service is
+ * connected to the database directly, as its table lookup on connecting is specific
+ * to MySQL.
+ * 
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class SqlPersistenceServiceTest {
+
+	private TestDatabase database;
+
+	private SqlConnectionPool pool;
+
+	private SqlPersistenceService service;
+
+	@Before
+	public void init() throws Exception {
+		database = new TestDatabase();
+		database.createItemTable("Item1", 10, 20, 30);
+		database.createItemTable("Item2", 5);
+		database.createItemTable("Item3");
+		pool = new SqlConnectionPool(TestDatabase.URL, TestDatabase.USER, TestDatabase.PASSWORD, 2);
+
+		service = new SqlPersistenceService();
+		service.activate();
+		setField("pool", pool);
+		setField("initialized", true);
+		@SuppressWarnings("unchecked")
+		Map<String, String> tables = (Map<String, String>) getField("sqlTables");
+		tables.put("A", "Item1");
+		tables.put("B", "Item2");
+		tables.put("C", "Item3");
+	}
+
+	@After
+	public void close() throws SQLException {
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void testQueryLatest() {
+		Map<String, HistoricItem> latest = service.queryLatest(Arrays.asList("A", "B", "C", "D"));
+		assertEquals(2, latest.size());
+		assertEquals(new DecimalType(2), latest.get("A").getState());
+		assertEquals(new Date(30), latest.get("A").getTimestamp());
+		assertEquals(new DecimalType(0), latest.get("B").getState());
+		assertEquals(new Date(5), latest.get("B").getTimestamp());
+		assertFalse(latest.containsKey("C"));
+	}
+
+	@Test
+	public void testAggregate() {
+		FilterCriteria filter = new FilterCriteria().setItemName("A").setBeginDate(new Date(0)).setEndDate(new Date(100));
+		assertEquals(new DecimalType(3), service.aggregate(filter, AggregateFunction.COUNT).getState());
+		assertEquals(new DecimalType(1), service.aggregate(filter, AggregateFunction.AVERAGE).getState());
+		assertEquals(new Date(10), service.aggregate(filter, AggregateFunction.MINIMUM).getTimestamp());
+		assertEquals(new Date(30), service.aggregate(filter, AggregateFunction.MAXIMUM).getTimestamp());
+	}
+
+	@Test
+	public void testAggregateWithoutEntries() {
+		FilterCriteria filter = new FilterCriteria().setItemName("C").setBeginDate(new Date(0)).setEndDate(new Date(100));
+		assertEquals(new DecimalType(0), service.aggregate(filter, AggregateFunction.COUNT).getState());
+		assertNull(service.aggregate(filter, AggregateFunction.AVERAGE));
+		assertNull(service.aggregate(filter, AggregateFunction.MINIMUM));
+	}
+
+	@Test
+	public void testAggregateFallsBackToQueryResult() throws Exception {
+		// item D has no table, so the aggregation is calculated from the (empty) query result
+		FilterCriteria filter = new FilterCriteria().setItemName("D").setBeginDate(new Date(0)).setEndDate(new Date(100));
+		assertEquals(new DecimalType(0), service.aggregate(filter, AggregateFunction.COUNT).getState());
+		assertNull(service.aggregate(filter, AggregateFunction.MAXIMUM));
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field field = SqlPersistenceService.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(service, value);
+	}
+
+	private Object getField(String name) throws Exception {
+		Field field = SqlPersistenceService.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(service);
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.persistence.sql.internal.SqlConnectionPool.PooledConnection;
+
+
+/**
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class SqlQueryResultTest {
+
+	/** the times of the rows, the value of a row is its index */
+	private static final long[] TIMES = new long[] { 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 };
+
+	private TestDatabase database;
+
+	private SqlConnectionPool pool;
+
+	@Before
+	public void init() throws SQLException {
+		database = new TestDatabase();
+		database.createItemTable("Item1", TIMES);
+		// a single connection, so that the tests notice if it is not given back
+		pool = new SqlConnectionPool(TestDatabase.URL, TestDatabase.USER, TestDatabase.PASSWORD, 1);
+	}
+
+	@After
+	public void close() throws SQLException {
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void testAscending() {
+		for (int fetchSize = 1; fetchSize <= TIMES.length + 1; fetchSize++) {
+			assertEquals("fetch size " + fetchSize, range(0, 10), 
+					query(true, 0, Integer.MAX_VALUE, fetchSize));
+		}
+	}
+
+	@Test
+	public void testDescending() {
+		List<Integer> expected = range(0, 10);
+		Collections.reverse(expected);
+		for (int fetchSize = 1; fetchSize <= TIMES.length + 1; fetchSize++) {
+			assertEquals("fetch size " + fetchSize, expected, query(false, 0, Integer.MAX_VALUE, fetchSize));
+		}
+	}
+
+	@Test
+	public void testTimeRangeIsExclusive() {
+		List<Integer> values = new ArrayList<Integer>();
+		for (HistoricItem item : new SqlQueryResult(pool, "Test", "Item1", 20, 60, true, 0, Integer.MAX_VALUE, 2)) {
+			values.add(((DecimalType) item.getState()).intValue());
+		}
+		assertEquals(range(2, 5), values);
+	}
+
+	@Test
+	public void testOffsetAndLimit() {
+		assertEquals(range(3, 8), query(true, 3, 5, 2));
+		assertEquals(range(2, 10), query(true, 2, Integer.MAX_VALUE, 3));
+		assertEquals(range(0, 0), query(true, 10, Integer.MAX_VALUE, 3));
+	}
+
+	@Test
+	public void testConnectionIsReleasedWhenExhausted() throws Exception {
+		query(true, 0, Integer.MAX_VALUE, 3);
+		assertConnectionAvailable();
+	}
+
+	@Test
+	public void testConnectionIsReleasedAfterLastRowOfLimit() throws Exception {
+		// e.g. historicState() only asks for a single row and does not look for a further one
+		Iterator<HistoricItem> iterator = new SqlQueryResult(pool, "Test", "Item1", 0, 1000, false, 0, 1, 100).iterator();
+		assertEquals(new DecimalType(9), iterator.next().getState());
+		assertConnectionAvailable();
+	}
+
+	@Test
+	public void testIteratorHoldsConnectionUntilClosed() throws Exception {
+		Iterator<HistoricItem> iterator = new SqlQueryResult(pool, "Test", "Item1", 0, 1000, true, 0, Integer.MAX_VALUE, 2).iterator();
+		assertEquals(new DecimalType(0), iterator.next().getState());
+		assertEquals(new DecimalType(1), iterator.next().getState());
+		BlockingQueue<Object> waiting = getConnectionInBackground();
+		assertNull(waiting.poll(300, TimeUnit.MILLISECONDS));
+
+		((Closeable) iterator).close();
+		assertFalse(iterator.hasNext());
+		assertTrue(waiting.poll(2, TimeUnit.SECONDS) instanceof PooledConnection);
+	}
+
+	@Test
+	public void testQueryIsExecutedOnDemand() throws Exception {
+		SqlQueryResult result = new SqlQueryResult(pool, "Test", "Item1", 0, 1000, true, 0, Integer.MAX_VALUE, 3);
+		result.iterator();
+		assertConnectionAvailable();
+	}
+
+	@Test
+	public void testMissingTable() throws Exception {
+		Iterator<HistoricItem> iterator = new SqlQueryResult(pool, "Test", "Item2", 0, 1000, true, 0, Integer.MAX_VALUE, 3).iterator();
+		assertFalse(iterator.hasNext());
+		assertConnectionAvailable();
+	}
+
+	private void assertConnectionAvailable() throws InterruptedException {
+		Object connection = getConnectionInBackground().poll(2, TimeUnit.SECONDS);
+		assertTrue(connection instanceof PooledConnection);
+		pool.release((PooledConnection) connection);
+	}
+
+	/* takes a connection in a new thread and puts it or the exception into the returned queue */
+	private BlockingQueue<Object> getConnectionInBackground() {
+		final BlockingQueue<Object> result = new ArrayBlockingQueue<Object>(1);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					result.add(pool.getConnection());
+				} catch (SQLException e) {
+					result.add(e);
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return result;
+	}
+
+	private List<Integer> query(boolean ascending, int offset, int limit, int fetchSize) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (HistoricItem item : new SqlQueryResult(pool, "Test", "Item1", 0, 1000, ascending, offset, limit, fetchSize)) {
+			values.add(((DecimalType) item.getState()).intValue());
+		}
+		return values;
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> values = new ArrayList<Integer>();
+		for (int i = from; i < to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+
+/**
+ * An embedded H2 database for the tests, which only exists in memory. Its
+ * tables are dropped when it is closed.
+ * 
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class TestDatabase {
+
+	public static final String URL = "jdbc:h2:mem:openhab;MODE=MySQL";
+
+	public static final String USER = "sa";
+
+	public static final String PASSWORD = "";
+
+	static {
+		org.h2.Driver.load();
+	}
+
+	private final Connection connection;
+
+	public TestDatabase() throws SQLException {
+		connection = DriverManager.getConnection(URL, USER, PASSWORD);
+	}
+
+	/**
+	 * Creates an item table like the SQL persistence service does.
+	 * 
+	 * @param table the name of the table
+	 * @param times the times of the rows; the value of a row is its index
+	 */
+	public void createItemTable(String table, long... times) throws SQLException {
+		execute("CREATE TABLE " + table + " (Time BIGINT, Value DOUBLE, PRIMARY KEY(Time));");
+		PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table + " (Time, Value) VALUES(?,?)");
+		try {
+			for (int i = 0; i < times.length; i++) {
+				statement.setLong(1, times[i]);
+				statement.setDouble(2, i);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	public void execute(String sql) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.executeUpdate(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Drops all tables, also if there still are open connections, and closes the database.
+	 */
+	public void close() throws SQLException {
+		try {
+			execute("DROP ALL OBJECTS");
+		} finally {
+			connection.close();
+		}
+	}
+
+}
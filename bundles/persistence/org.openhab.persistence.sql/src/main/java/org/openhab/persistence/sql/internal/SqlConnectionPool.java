@@ -0,0 +1,257 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple pool of JDBC connections. Each pooled connection caches the 
+ * {@link PreparedStatement}s which have been prepared on it, so that the 
+ * statements of frequently used item tables are only prepared once.
+ * <p>
+ * Connections which have caused an {@link SQLException} should be given back by
+ * {@link #invalidate(PooledConnection)}, so that they are closed and replaced
+ * by new ones.
+ * 
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class SqlConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(SqlConnectionPool.class);
+
+	/** the maximum number of prepared statements cached per connection */
+	private static final int STATEMENT_CACHE_SIZE = 500;
+
+	/** the time in milliseconds to wait for a free connection */
+	private static final long CONNECTION_TIMEOUT = 10000;
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int size;
+
+	/** the connections which are currently not in use */
+	private final LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+
+	/** the number of connections which have been opened and are not closed yet */
+	private int openConnections = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * @param url the database url
+	 * @param user the database user
+	 * @param password the database password
+	 * @param size the maximum number of open connections
+	 */
+	public SqlConnectionPool(String url, String user, String password, int size) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.size = size;
+	}
+
+	/**
+	 * Takes a connection from the pool. If all connections are in use and the
+	 * maximum number of connections has been reached, the caller waits until a
+	 * connection is given back.
+	 * 
+	 * @return a connection, which must be given back by {@link #release(PooledConnection)}
+	 * or {@link #invalidate(PooledConnection)}
+	 * @throws SQLException if no connection could be opened or none became free in time
+	 */
+	public PooledConnection getConnection() throws SQLException {
+		synchronized (idleConnections) {
+			long timeout = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+			while (!closed && idleConnections.isEmpty() && openConnections >= size) {
+				long wait = timeout - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new SQLException("No free database connection within " + CONNECTION_TIMEOUT + "ms");
+				}
+				try {
+					idleConnections.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for a database connection");
+				}
+			}
+			if (closed) {
+				throw new SQLException("The connection pool has been closed");
+			}
+			if (!idleConnections.isEmpty()) {
+				return idleConnections.removeFirst();
+			}
+			openConnections++;
+		}
+		try {
+			Connection connection = DriverManager.getConnection(url, user, password);
+			logger.debug("Opened connection to database {}", url);
+			return new PooledConnection(connection);
+		} catch (SQLException e) {
+			synchronized (idleConnections) {
+				openConnections--;
+				idleConnections.notify();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool, so that it can be used again.
+	 * 
+	 * @param connection the connection to give back
+	 */
+	public void release(PooledConnection connection) {
+		synchronized (idleConnections) {
+			if (!closed) {
+				idleConnections.addFirst(connection);
+				idleConnections.notify();
+				return;
+			}
+			openConnections--;
+		}
+		connection.close();
+	}
+
+	/**
+	 * Closes a connection which is not usable anymore and removes it from the pool.
+	 * 
+	 * @param connection the connection to close
+	 */
+	public void invalidate(PooledConnection connection) {
+		synchronized (idleConnections) {
+			openConnections--;
+			idleConnections.notify();
+		}
+		connection.close();
+	}
+
+	/**
+	 * Closes all idle connections. Connections which are in use are closed as soon 
+	 * as they are given back.
+	 */
+	public void close() {
+		List<PooledConnection> connections;
+		synchronized (idleConnections) {
+			closed = true;
+			connections = new ArrayList<PooledConnection>(idleConnections);
+			openConnections -= idleConnections.size();
+			idleConnections.clear();
+			idleConnections.notifyAll();
+		}
+		for (PooledConnection connection : connections) {
+			connection.close();
+		}
+		logger.debug("Closed connections to database {}", url);
+	}
+
+	/**
+	 * A connection of the pool together with its cached statements.
+	 */
+	public static class PooledConnection {
+
+		private final Connection connection;
+
+		private final Map<String, PreparedStatement> statements = 
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() > STATEMENT_CACHE_SIZE) {
+						closeStatement(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the JDBC connection
+		 */
+		public Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Returns the prepared statement for the given <code>sql</code>. The statement
+		 * is prepared on the first call and cached for later calls. Cached statements
+		 * must not be closed by the caller.
+		 * 
+		 * @param sql the SQL statement
+		 * @return the prepared statement
+		 * @throws SQLException if the statement could not be prepared
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		private void close() {
+			for (PreparedStatement statement : statements.values()) {
+				closeStatement(statement);
+			}
+			statements.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				logger.debug("Failed closing a database connection: {}", e.getMessage());
+			}
+		}
+
+		private static void closeStatement(PreparedStatement statement) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				logger.debug("Failed closing a prepared statement: {}", e.getMessage());
+			}
+		}
+	}
+
+}
@@ -28,28 +28,43 @@
  */
 package org.openhab.persistence.sql.internal;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregateFunction;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BatchQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricAggregator;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceRecord;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
-import org.openhab.core.types.State;
+import org.openhab.persistence.sql.internal.SqlConnectionPool.PooledConnection;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
@@ -57,33 +72,76 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This is the implementation of the SQL {@link PersistenceService}.
+ * <p>
+ * The service uses a pool of connections with cached prepared statements. Store 
+ * requests are buffered and written as JDBC batches, as soon as the buffer contains
+ * <code>batchSize</code> records or the oldest record is <code>batchAge</code> 
+ * milliseconds old. Query results are streamed in chunks of <code>fetchSize</code> rows.
  * 
  * @author Henrik Sjöstrand
  * @author Thomas.Eichstaedt-Engelen
  * @author Chris Jackson
  * @since 1.1.0
  */
-public class SqlPersistenceService implements QueryablePersistenceService, ManagedService {
+public class SqlPersistenceService implements AggregatingPersistenceService, BatchQueryablePersistenceService, 
+		BatchPersistenceService, ManagedService {
 
 	private static final Logger logger = LoggerFactory.getLogger(SqlPersistenceService.class);
 
+	/** the maximum number of item tables that are read by a single statement in queryLatest() */
+	private static final int LATEST_QUERY_TABLES = 100;
+
+	private static final int DEFAULT_POOL_SIZE = 4;
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final long DEFAULT_BATCH_AGE = 1000;
+	private static final int DEFAULT_FETCH_SIZE = 100;
+
 	private String driverClass;
 	private String url;
 	private String user;
 	private String password;
 
+	/** the maximum number of pooled connections */
+	private int poolSize = DEFAULT_POOL_SIZE;
+
+	/** the number of buffered records which causes the buffer to be written at once */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/** the time in milliseconds after which buffered records are written at the latest */
+	private long batchAge = DEFAULT_BATCH_AGE;
+
+	/** the number of rows which are read at once by queries */
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+
 	private boolean initialized = false;
 
-	private Connection connection = null;
+	private volatile SqlConnectionPool pool = null;
 
-	private Map<String, String> sqlTables = new HashMap<String, String>();
+	private Map<String, String> sqlTables = new ConcurrentHashMap<String, String>();
+
+	/** the store requests which have not been written yet */
+	private List<PersistenceRecord> pendingRecords = new ArrayList<PersistenceRecord>();
+
+	/** the scheduled write of the pending records, <code>null</code> if none is scheduled */
+	private ScheduledFuture<?> scheduledFlush = null;
+
+	private ScheduledExecutorService scheduler;
 	
 	
 	public void activate() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SQL Persistence Writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	public void deactivate() {
 		logger.debug("SQL persistence bundle stopping. Disconnecting from database.");
+		flush();
+		scheduler.shutdownNow();
 		disconnectFromDatabase();
 	}
 
@@ -94,130 +152,226 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		return "sql";
 	}
 
-	private String getTable(String itemName) {
-		Statement statement = null;
-		String sqlCmd = null;
-		int rowId = 0;
-
+	/**
+	 * Returns the table of an item and creates it, if it does not exist yet.
+	 * 
+	 * @param connection the connection to use for creating the table
+	 * @param itemName the name of the item
+	 * @return the table name or <code>null</code>, if the table could not be created
+	 */
+	private String getTable(PooledConnection connection, String itemName) {
 		String tableName = sqlTables.get(itemName);
 
 		// Table already exists - return the name
 		if (tableName != null)
 			return tableName;
 
-		// Create a new entry in the Items table. This is the translation of
-		// item name to table
-		try {
-			sqlCmd = new String("INSERT INTO Items (ItemName) VALUES ('" + itemName + "')");
-
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd, Statement.RETURN_GENERATED_KEYS);
-
-			ResultSet resultSet = statement.getGeneratedKeys();
-			if (resultSet != null && resultSet.next()) {
-				rowId = resultSet.getInt(1);
-			}
+		synchronized (sqlTables) {
+			// the table might have been created by another thread in the meantime
+			tableName = sqlTables.get(itemName);
+			if (tableName != null)
+				return tableName;
 
-			if (rowId == 0) {
-				throw new SQLException("Creating table for item '" + itemName + "' failed.");
-			}
+			int rowId = 0;
 
-			// Create the table name
-			tableName = new String("Item" + rowId);
-		} catch (SQLException e) {
-			logger.error("Could not create table for item '" + itemName + "': "	+ e.getMessage());
-		} finally {
-			if (statement != null) {
+			// Create a new entry in the Items table. This is the translation of
+			// item name to table
+			try {
+				PreparedStatement statement = connection.getConnection().prepareStatement(
+					"INSERT INTO Items (ItemName) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
 				try {
+					statement.setString(1, itemName);
+					statement.executeUpdate();
+
+					ResultSet resultSet = statement.getGeneratedKeys();
+					if (resultSet != null) {
+						try {
+							if (resultSet.next()) {
+								rowId = resultSet.getInt(1);
+							}
+						} finally {
+							resultSet.close();
+						}
+					}
+				} finally {
 					statement.close();
-				} catch (SQLException logOrIgnore) {
 				}
-			}
-		}
 
-		// An error occurred!
-		if (tableName == null)
-			return null;
+				if (rowId == 0) {
+					throw new SQLException("Creating table for item '" + itemName + "' failed.");
+				}
 
-		// We have a rowId, create the table for the data
-		sqlCmd = new String("CREATE TABLE " + tableName + " (Time BIGINT, Value DOUBLE, PRIMARY KEY(Time));");
-		try {
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd);
+				// Create the table name
+				tableName = "Item" + rowId;
+			} catch (SQLException e) {
+				logger.error("Could not create table for item '" + itemName + "': "	+ e.getMessage());
+				return null;
+			}
 
-			logger.debug("Table created for item '" + itemName + "' in SQL database.");
-			sqlTables.put(itemName, tableName);
-		} catch (Exception e) {
-			logger.error("Could not create table for item '" + itemName + "' with statement '" + sqlCmd + "': "
-					+ e.getMessage());
-		} finally {
-			if (statement != null) {
+			// We have a rowId, create the table for the data
+			String sqlCmd = "CREATE TABLE " + tableName + " (Time BIGINT, Value DOUBLE, PRIMARY KEY(Time));";
+			try {
+				Statement statement = connection.getConnection().createStatement();
 				try {
+					statement.executeUpdate(sqlCmd);
+				} finally {
 					statement.close();
-				} catch (Exception hidden) {
 				}
+
+				logger.debug("Table created for item '" + itemName + "' in SQL database.");
+				sqlTables.put(itemName, tableName);
+			} catch (SQLException e) {
+				logger.error("Could not create table for item '" + itemName + "' with statement '" + sqlCmd + "': "
+						+ e.getMessage());
+				return null;
 			}
-		}
 
-		return tableName;
+			return tableName;
+		}
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void store(Item item, String alias) {
-		final String name = alias == null ? item.getName() : alias;
+		store(Collections.singletonList(new PersistenceRecord(item, alias)));
+	}
 
-		if (initialized) {
-			if (!isConnected()) {
-				connectToDatabase();
-			}
+	/**
+	 * @{inheritDoc
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
 
-			if (isConnected()) {
-				String tableName = getTable(name);
-				if (tableName == null) {
-					logger.error("Unable to store item '{}'.", item.getName());
-					return;
-				}
+	/**
+	 * Buffers the records, which are written as soon as the buffer is full or 
+	 * the oldest record has reached the maximum age.
+	 * 
+	 * @{inheritDoc
+	 */
+	public void store(Collection<PersistenceRecord> records) {
+		if (!initialized) {
+			return;
+		}
+		boolean flushNow;
+		synchronized (this) {
+			pendingRecords.addAll(records);
+			flushNow = pendingRecords.size() >= batchSize || batchAge <= 0;
+			if (!flushNow && scheduledFlush == null) {
+				scheduledFlush = scheduler.schedule(new Runnable() {
+					public void run() {
+						flush();
+					}
+				}, batchAge, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (flushNow) {
+			flush();
+		}
+	}
 
-				String sqlCmd = null;
-				Statement statement = null;
-				try {
-					double itemValue;
+	/**
+	 * Writes all pending records to the database
+	 */
+	private void flush() {
+		List<PersistenceRecord> records;
+		synchronized (this) {
+			if (scheduledFlush != null) {
+				scheduledFlush.cancel(false);
+				scheduledFlush = null;
+			}
+			if (pendingRecords.isEmpty()) {
+				return;
+			}
+			records = pendingRecords;
+			pendingRecords = new ArrayList<PersistenceRecord>();
+		}
 
-					itemValue = Double.parseDouble(item.getState().toString());
-					// if(Double.isNaN(itemValue))
-					statement = connection.createStatement();
-					sqlCmd = new String("INSERT INTO " + tableName + " (TIME, VALUE) VALUES('"
-							+ System.currentTimeMillis() + "','" + itemValue + "');");
-					statement.executeUpdate(sqlCmd);
+		if (!isConnected()) {
+			connectToDatabase();
+		}
+		SqlConnectionPool pool = this.pool;
+		if (pool == null) {
+			logger.warn("No connection to database. Can not persist {} item states! Will retry connecting to database next time.",
+				records.size());
+			return;
+		}
 
-					logger.debug("Stored item '{}' as '{}'[{}] in SQL database at {}.", new Object[] { item.getName(),
-							item.getState().toString(), Double.toString(itemValue), (new java.util.Date()).toString() });
-					logger.debug("SQL: {}", sqlCmd);
-				} catch (Exception e) {
-					logger.error("Could not store item '{}' in database with statement '{}': {}",
-							new Object[] { item.getName(), sqlCmd, e.getMessage() });
-				} finally {
-					if (statement != null) {
-						try {
-							statement.close();
-						} catch (Exception hidden) {
-						}
-					}
-				}
-			} else {
-				logger.warn(
-					"No connection to database. Can not persist item '{}'! Will retry connecting to database next time.", item);
+		PooledConnection connection = null;
+		try {
+			connection = pool.getConnection();
+			write(connection, records);
+			pool.release(connection);
+		} catch (SQLException e) {
+			logger.error("Could not store {} item states in database: {}", records.size(), e.getMessage());
+			if (connection != null) {
+				pool.invalidate(connection);
 			}
 		}
 	}
 
 	/**
-	 * @{inheritDoc
+	 * Writes the records with one JDBC batch per item table in a single transaction
+	 * 
+	 * @param connection the connection to use
+	 * @param records the records to write
+	 * @throws SQLException if the records could not be written
 	 */
-	public void store(Item item) {
-		store(item, null);
+	private void write(PooledConnection connection, List<PersistenceRecord> records) throws SQLException {
+		// group the values by table; as the time is the primary key, only the last value per time is kept
+		Map<String, Map<Long, Double>> tables = new LinkedHashMap<String, Map<Long, Double>>();
+		for (PersistenceRecord record : records) {
+			double value;
+			try {
+				value = Double.parseDouble(record.getState().toString());
+			} catch (NumberFormatException e) {
+				logger.error("Could not store item '{}' in database: state '{}' is not a number", 
+					record.getItem().getName(), record.getState());
+				continue;
+			}
+			String tableName = getTable(connection, record.getName());
+			if (tableName == null) {
+				logger.error("Unable to store item '{}'.", record.getItem().getName());
+				continue;
+			}
+			Map<Long, Double> values = tables.get(tableName);
+			if (values == null) {
+				values = new LinkedHashMap<Long, Double>();
+				tables.put(tableName, values);
+			}
+			values.put(record.getTimestamp().getTime(), value);
+		}
+		if (tables.isEmpty()) {
+			return;
+		}
+
+		Connection jdbcConnection = connection.getConnection();
+		jdbcConnection.setAutoCommit(false);
+		try {
+			for (Map.Entry<String, Map<Long, Double>> table : tables.entrySet()) {
+				PreparedStatement statement = connection.prepareStatement(
+					"INSERT INTO " + table.getKey() + " (Time, Value) VALUES(?,?)");
+				for (Map.Entry<Long, Double> value : table.getValue().entrySet()) {
+					statement.setLong(1, value.getKey());
+					statement.setDouble(2, value.getValue());
+					statement.addBatch();
+				}
+				try {
+					statement.executeBatch();
+				} catch (BatchUpdateException e) {
+					// single rows may fail, e.g. if there already is a value for the time
+					logger.error("Could not store all values of table '{}' in database: {}", table.getKey(), e.getMessage());
+				}
+			}
+			jdbcConnection.commit();
+			logger.debug("Stored {} item states in SQL database.", records.size());
+		} catch (SQLException e) {
+			jdbcConnection.rollback();
+			throw e;
+		} finally {
+			jdbcConnection.setAutoCommit(true);
+		}
 	}
 
 	/**
@@ -226,43 +380,56 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	 * @return true if connection has been established, false otherwise
 	 */
 	private boolean isConnected() {
-		return connection != null;
+		return pool != null;
 	}
 
 	/**
 	 * Connects to the database
 	 */
-	private void connectToDatabase() {
+	private synchronized void connectToDatabase() {
+		if (isConnected()) {
+			return;
+		}
+		SqlConnectionPool newPool = null;
 		try {
 			logger.debug("Attempting to connect to database " + url);
 			Class.forName(driverClass).newInstance();
-			connection = DriverManager.getConnection(url, user, password);
+			newPool = new SqlConnectionPool(url, user, password, poolSize);
+			PooledConnection connection = newPool.getConnection();
 			logger.debug("Connected to database " + url);
 
-			Statement st = connection.createStatement();
-			int result = st.executeUpdate("SHOW TABLES LIKE 'Items'");
-			st.close();
-			if (result == 0) {
-				st = connection.createStatement();
-				st.executeUpdate(
-					"CREATE TABLE Items (ItemId INT NOT NULL AUTO_INCREMENT,ItemName VARCHAR(200) NOT NULL,PRIMARY KEY (ItemId));",
-					Statement.RETURN_GENERATED_KEYS);
-				st.close();
-			}
-
-			// Retrieve the table array
-			st = connection.createStatement();
+			try {
+				Statement st = connection.getConnection().createStatement();
+				try {
+					int result = st.executeUpdate("SHOW TABLES LIKE 'Items'");
+					if (result == 0) {
+						st.executeUpdate(
+							"CREATE TABLE Items (ItemId INT NOT NULL AUTO_INCREMENT,ItemName VARCHAR(200) NOT NULL,PRIMARY KEY (ItemId));",
+							Statement.RETURN_GENERATED_KEYS);
+					}
 
-			// Turn use of the cursor on.
-			st.setFetchSize(50);
-			ResultSet rs = st.executeQuery("SELECT ItemId, ItemName FROM Items");
-			while (rs.next()) {
-				sqlTables.put(rs.getString(2), "Item" + rs.getInt(1));
+					// Retrieve the table array
+					// Turn use of the cursor on.
+					st.setFetchSize(50);
+					ResultSet rs = st.executeQuery("SELECT ItemId, ItemName FROM Items");
+					try {
+						while (rs.next()) {
+							sqlTables.put(rs.getString(2), "Item" + rs.getInt(1));
+						}
+					} finally {
+						rs.close();
+					}
+				} finally {
+					st.close();
+				}
+			} finally {
+				newPool.release(connection);
 			}
-			
-			rs.close();
-			st.close();
+			pool = newPool;
 		} catch (Exception e) {
+			if (newPool != null) {
+				newPool.close();
+			}
 			logger.error("Failed connecting to the SQL database using: driverClass=" + driverClass + ", url=" + url
 					+ ", user=" + user + ", password=" + password, e);
 		}
@@ -271,15 +438,11 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	/**
 	 * Disconnects from the database
 	 */
-	private void disconnectFromDatabase() {
+	private synchronized void disconnectFromDatabase() {
 		if (isConnected()) {
-			try {
-				connection.close();
-				logger.debug("Disconnected from database " + url);
-				connection = null;
-			} catch (Exception e) {
-				logger.warn("Failed disconnecting from the SQL database", e);
-			}
+			pool.close();
+			logger.debug("Disconnected from database " + url);
+			pool = null;
 		}
 	}
 
@@ -329,6 +492,12 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 					"The SQL password is missing. Attempting to connect without password. To specify a password configure the sql:password parameter in openhab.cfg.");
 			}
 
+			poolSize = parseInt(config, "poolSize", DEFAULT_POOL_SIZE);
+			batchSize = parseInt(config, "batchSize", DEFAULT_BATCH_SIZE);
+			batchAge = parseInt(config, "batchAge", (int) DEFAULT_BATCH_AGE);
+			fetchSize = parseInt(config, "fetchSize", DEFAULT_FETCH_SIZE);
+
+			flush();
 			disconnectFromDatabase();
 			connectToDatabase();
 
@@ -337,54 +506,230 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		}
 	}
 
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("sql:" + key, "The value '" + value + "' is not a valid number");
+		}
+	}
+
+	/**
+	 * Streams the rows of the item table, see {@link SqlQueryResult}.
+	 * 
+	 * @{inheritDoc
+	 */
 	@Override
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
 		if (initialized) {
+			// pending records have to be written, so that they are contained in the result
+			flush();
 			if (!isConnected()) {
 				connectToDatabase();
 			}
 
-			if (isConnected()) {
+			SqlConnectionPool pool = this.pool;
+			if (pool != null) {
 				String itemName = filter.getItemName();
 
-				String table = getTable(itemName);
+				String table = sqlTables.get(itemName);
 				if (table == null) {
-					logger.error("Unable to find table for query '" + itemName + "'.");
+					logger.debug("There is no table for query '" + itemName + "'.");
 					return Collections.emptyList();
 				}
 
 				long start = filter.getBeginDate() == null ? 0L : filter.getBeginDate().getTime();
 				long end = filter.getEndDate() == null ? System.currentTimeMillis() : filter.getEndDate().getTime();
-				try {
-					// Retrieve the table array
-					Statement st = connection.createStatement();
+				boolean ascending = filter.getOrdering() == Ordering.ASCENDING;
+				int pageSize = filter.getPageSize();
+				int offset = (int) Math.min(Integer.MAX_VALUE, (long) filter.getPageNumber() * pageSize);
+				return new SqlQueryResult(pool, itemName, table, start, end, ascending, offset, pageSize, fetchSize);
+			}
+		}
+		return Collections.emptyList();
+	}
 
-					// Turn use of the cursor on.
-					st.setFetchSize(50);
-					String query = new String("SELECT Time, Value FROM " + table + " WHERE TIME>" + start
-							+ " AND TIME<" + end + " LIMIT " + filter.getPageSize());
-					logger.debug("SQL query: " + query);
-					ResultSet rs = st.executeQuery(query);
-
-					double value;
-					List<HistoricItem> items = new ArrayList<HistoricItem>();
-					while (rs.next()) {
-						value = rs.getDouble(2);
-						State v = new DecimalType(value);
-						SqlItem sqlItem = new SqlItem(itemName, v, new Date(rs.getLong(1)));
-						items.add(sqlItem);
+	/**
+	 * Reads the latest entries of up to {@link #LATEST_QUERY_TABLES} items with a single statement
+	 * by combining the queries for the single item tables with <code>UNION ALL</code>.
+	 * 
+	 * @{inheritDoc
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> items = new HashMap<String, HistoricItem>();
+		if (initialized) {
+			flush();
+			if (!isConnected()) {
+				connectToDatabase();
+			}
+
+			SqlConnectionPool pool = this.pool;
+			if (pool != null) {
+				// items without a table do not have any entries
+				List<String> names = new ArrayList<String>();
+				for (String itemName : itemNames) {
+					if (sqlTables.containsKey(itemName)) {
+						names.add(itemName);
 					}
+				}
 
-					rs.close();
-					st.close();
+				for (int offset = 0; offset < names.size(); offset += LATEST_QUERY_TABLES) {
+					List<String> chunk = names.subList(offset, Math.min(offset + LATEST_QUERY_TABLES, names.size()));
+					StringBuilder query = new StringBuilder();
+					for (int i = 0; i < chunk.size(); i++) {
+						if (i > 0) {
+							query.append(" UNION ALL ");
+						}
+						query.append("(SELECT ").append(i).append(", Time, Value FROM ").append(sqlTables.get(chunk.get(i)))
+							.append(" ORDER BY Time DESC LIMIT 1)");
+					}
+					PooledConnection connection = null;
+					try {
+						connection = pool.getConnection();
+						Statement st = connection.getConnection().createStatement();
+						try {
+							logger.debug("SQL query: " + query);
+							ResultSet rs = st.executeQuery(query.toString());
+							try {
+								while (rs.next()) {
+									String itemName = chunk.get(rs.getInt(1));
+									items.put(itemName, new SqlItem(itemName, new DecimalType(rs.getDouble(3)), new Date(rs.getLong(2))));
+								}
+							} finally {
+								rs.close();
+							}
+						} finally {
+							st.close();
+						}
+						pool.release(connection);
+					} catch (SQLException e) {
+						logger.error("Error running SQL querying : " + e.getMessage());
+						if (connection != null) {
+							pool.invalidate(connection);
+						}
+					}
+				}
+			}
+		}
+		return items;
+	}
 
-					return items;
+	/**
+	 * Calculates counts, minima, maxima and averages in the database. If the database
+	 * cannot be queried for the aggregation, it is calculated from the query result by
+	 * a {@link HistoricAggregator}.
+	 * 
+	 * @{inheritDoc
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, AggregateFunction function) {
+		String select;
+		switch (function) {
+			case COUNT:
+				select = "SELECT COUNT(Value) FROM ";
+				break;
+			case AVERAGE:
+				select = "SELECT AVG(Value) FROM ";
+				break;
+			case MINIMUM:
+			case MAXIMUM:
+				select = "SELECT Time, Value FROM ";
+				break;
+			default:
+				throw new UnsupportedOperationException("Aggregation " + function + " is not supported by SQL persistence");
+		}
+		
+		if (initialized) {
+			flush();
+			if (!isConnected()) {
+				connectToDatabase();
+			}
+
+			SqlConnectionPool pool = this.pool;
+			if (pool != null) {
+				String itemName = filter.getItemName();
+
+				String table = sqlTables.get(itemName);
+				if (table == null) {
+					logger.debug("There is no table for query '" + itemName + "'.");
+					return aggregateQueryResult(filter, function);
+				}
+
+				long start = filter.getBeginDate() == null ? 0L : filter.getBeginDate().getTime();
+				long end = filter.getEndDate() == null ? System.currentTimeMillis() : filter.getEndDate().getTime();
+				String query = select + table + " WHERE TIME>? AND TIME<?";
+				if (function == AggregateFunction.MINIMUM) {
+					query += " ORDER BY Value ASC, Time ASC LIMIT 1";
+				} else if (function == AggregateFunction.MAXIMUM) {
+					query += " ORDER BY Value DESC, Time ASC LIMIT 1";
+				}
+				PooledConnection connection = null;
+				try {
+					connection = pool.getConnection();
+					// the statement is not cached, as it would displace the statements of the store requests
+					PreparedStatement st = connection.getConnection().prepareStatement(query);
+					HistoricItem result = null;
+					try {
+						st.setLong(1, start);
+						st.setLong(2, end);
+						logger.debug("SQL query: " + query);
+						ResultSet rs = st.executeQuery();
+						try {
+							if (rs.next()) {
+								if (function == AggregateFunction.COUNT) {
+									result = new SqlItem(itemName, new DecimalType(rs.getLong(1)), new Date(end));
+								} else if (function == AggregateFunction.AVERAGE) {
+									double value = rs.getDouble(1);
+									if (!rs.wasNull()) {
+										result = new SqlItem(itemName, new DecimalType(value), new Date(end));
+									}
+								} else {
+									result = new SqlItem(itemName, new DecimalType(rs.getDouble(2)), new Date(rs.getLong(1)));
+								}
+							}
+						} finally {
+							rs.close();
+						}
+					} finally {
+						st.close();
+					}
+					pool.release(connection);
+
+					return result;
 				} catch (SQLException e) {
 					logger.error("Error running SQL querying : " + e.getMessage());
+					if (connection != null) {
+						pool.invalidate(connection);
+					}
 				}
 			}
 		}
-		return Collections.emptyList();
+		return aggregateQueryResult(filter, function);
+	}
+
+	/**
+	 * Calculates an aggregation from the query result, if it cannot be calculated by the database.
+	 * 
+	 * @param filter the filter that determines the entries to aggregate
+	 * @param function the aggregation to calculate
+	 * @return a historic item with the aggregated state or <code>null</code>, if there are no matching entries
+	 */
+	private HistoricItem aggregateQueryResult(FilterCriteria filter, AggregateFunction function) {
+		FilterCriteria streamFilter = new FilterCriteria()
+			.setItemName(filter.getItemName())
+			.setBeginDate(filter.getBeginDate())
+			.setEndDate(filter.getEndDate())
+			.setOrdering(Ordering.ASCENDING);
+		HistoricAggregator aggregator = 
+			new HistoricAggregator(filter.getItemName(), filter.getBeginDate(), filter.getEndDate(), null);
+		for (HistoricItem historicItem : query(streamFilter)) {
+			aggregator.add(historicItem);
+		}
+		return aggregator.getResult(function);
 	}
 	
 }
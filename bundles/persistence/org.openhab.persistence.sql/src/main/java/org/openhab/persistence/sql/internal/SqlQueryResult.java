@@ -0,0 +1,207 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.persistence.sql.internal.SqlConnectionPool.PooledConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The result of a query of an item table. The rows are not read into memory at 
+ * once, but streamed through a single cursor, from which the driver fetches 
+ * <code>fetchSize</code> rows at a time (the MySQL driver only does so if 
+ * <code>useCursorFetch=true</code> is set in the connection URL). 
+ * <p>
+ * The query is executed on the first call of {@link Iterator#hasNext()} and holds a
+ * connection of the pool until all rows have been read or the iterator is closed, so
+ * iterations which are stopped early should close their iterator, which is
+ * {@link Closeable}. Each call of {@link #iterator()} executes the query again.
+ * 
+ * @author Thomas.Eichstaedt-Engelen
+ * @since 1.4.0
+ */
+public class SqlQueryResult implements Iterable<HistoricItem> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SqlQueryResult.class);
+
+	private final SqlConnectionPool pool;
+	private final String itemName;
+	private final String query;
+	private final long start;
+	private final long end;
+	private final int offset;
+	private final int limit;
+	private final int fetchSize;
+
+	/**
+	 * @param pool the pool to take the connections from
+	 * @param itemName the name of the item
+	 * @param table the table of the item
+	 * @param start the rows must be newer than this time
+	 * @param end the rows must be older than this time
+	 * @param ascending whether the rows are ordered by ascending or descending time
+	 * @param offset the number of rows to skip
+	 * @param limit the maximum number of rows
+	 * @param fetchSize the number of rows to read at once
+	 */
+	public SqlQueryResult(SqlConnectionPool pool, String itemName, String table, long start, long end,
+			boolean ascending, int offset, int limit, int fetchSize) {
+		this.pool = pool;
+		this.itemName = itemName;
+		this.query = "SELECT Time, Value FROM " + table + " WHERE Time>? AND Time<? ORDER BY Time " 
+			+ (ascending ? "ASC" : "DESC") + " LIMIT ? OFFSET ?";
+		this.start = start;
+		this.end = end;
+		this.offset = offset;
+		this.limit = limit;
+		this.fetchSize = fetchSize;
+	}
+
+	public Iterator<HistoricItem> iterator() {
+		return new CursorIterator();
+	}
+
+	/**
+	 * Iterates over the rows of a single result set, which is closed together with its
+	 * statement and given back to the pool as soon as the last row has been read.
+	 */
+	private class CursorIterator implements Iterator<HistoricItem>, Closeable {
+
+		private PooledConnection connection = null;
+		private PreparedStatement statement = null;
+		private ResultSet resultSet = null;
+		
+		private HistoricItem next = null;
+		private int read = 0;
+		private boolean closed = false;
+
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (closed) {
+				return false;
+			}
+			if (read >= limit) {
+				close();
+				return false;
+			}
+			try {
+				if (resultSet == null) {
+					open();
+				}
+				if (resultSet.next()) {
+					next = new SqlItem(itemName, new DecimalType(resultSet.getDouble(2)), new Date(resultSet.getLong(1)));
+					read++;
+					if (read >= limit) {
+						// do not hold the connection until the caller asks for a further row
+						close();
+					}
+					return true;
+				}
+				close();
+			} catch (SQLException e) {
+				logger.error("Error running SQL querying : " + e.getMessage());
+				invalidate();
+			}
+			return false;
+		}
+
+		public HistoricItem next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			HistoricItem item = next;
+			next = null;
+			return item;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void open() throws SQLException {
+			connection = pool.getConnection();
+			statement = connection.getConnection().prepareStatement(query);
+			statement.setFetchSize(fetchSize);
+			statement.setLong(1, start);
+			statement.setLong(2, end);
+			statement.setInt(3, limit);
+			statement.setInt(4, offset);
+			resultSet = statement.executeQuery();
+		}
+
+		/**
+		 * Closes the result set and its statement and gives the connection back to the pool.
+		 * Rows which have not been read yet are discarded.
+		 */
+		public void close() {
+			if (closed) {
+				return;
+			}
+			try {
+				try {
+					if (resultSet != null) {
+						resultSet.close();
+					}
+				} finally {
+					if (statement != null) {
+						statement.close();
+					}
+				}
+			} catch (SQLException e) {
+				logger.error("Error closing SQL query : " + e.getMessage());
+				invalidate();
+				return;
+			}
+			closed = true;
+			if (connection != null) {
+				pool.release(connection);
+			}
+		}
+
+		private void invalidate() {
+			closed = true;
+			if (connection != null) {
+				pool.invalidate(connection);
+			}
+		}
+	}
+
+}
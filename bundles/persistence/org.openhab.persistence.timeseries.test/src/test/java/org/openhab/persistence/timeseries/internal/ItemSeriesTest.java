@@ -0,0 +1,245 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.persistence.FilterCriteria.Operator;
+import org.openhab.core.persistence.HistoricItem;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemSeriesTest {
+
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	private static final long START = 1380000000000L;
+
+	private File folder = new File("./target/timeseries/Temperature");
+
+	private ItemSeries series;
+
+	@Before
+	public void init() throws IOException {
+		folder.mkdirs();
+		FileUtils.cleanDirectory(folder);
+		series = new ItemSeries("Temperature", folder, 24 * HOUR);
+	}
+
+	@After
+	public void close() {
+		series.close();
+	}
+
+	@Test
+	public void testQueryRange() throws IOException {
+		// 3 days with a value per minute
+		for (int i = 0; i < 3 * 24 * 60; i++) {
+			series.append(START + i * 60000L, new DecimalType(i));
+		}
+		Assert.assertTrue(folder.listFiles().length >= 3);
+
+		List<HistoricItem> result = series.query(START + 1000 * 60000L, START + 1009 * 60000L, true, 0, Integer.MAX_VALUE, Operator.EQ, null);
+		Assert.assertEquals(10, result.size());
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(new DecimalType(1000 + i), result.get(i).getState());
+			Assert.assertEquals(START + (1000 + i) * 60000L, result.get(i).getTimestamp().getTime());
+		}
+
+		result = series.query(START + 1000 * 60000L + 1, START + 3000 * 60000L, false, 5, 3, Operator.EQ, null);
+		Assert.assertEquals(3, result.size());
+		Assert.assertEquals(new DecimalType(2995), result.get(0).getState());
+		Assert.assertEquals(new DecimalType(2993), result.get(2).getState());
+
+		result = series.query(Long.MIN_VALUE, Long.MAX_VALUE, false, 0, 1, Operator.EQ, null);
+		Assert.assertEquals(new DecimalType(3 * 24 * 60 - 1), result.get(0).getState());
+
+		result = series.query(Long.MIN_VALUE, START - 1, true, 0, Integer.MAX_VALUE, Operator.EQ, null);
+		Assert.assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void testStateTypes() throws IOException {
+		Assert.assertTrue(series.append(START, new DecimalType(21.5)));
+		Assert.assertTrue(series.append(START + 1000, new PercentType(50)));
+		Assert.assertTrue(series.append(START + 2000, OnOffType.ON));
+		Assert.assertTrue(series.append(START + 3000, OnOffType.OFF));
+		Assert.assertFalse(series.append(START + 4000, new StringType("test")));
+
+		List<HistoricItem> result = series.query(START, START + 4000, true, 0, Integer.MAX_VALUE, Operator.EQ, null);
+		Assert.assertEquals(4, result.size());
+		Assert.assertEquals(new DecimalType(21.5), result.get(0).getState());
+		Assert.assertEquals(new PercentType(50), result.get(1).getState());
+		Assert.assertTrue(result.get(1).getState() instanceof PercentType);
+		Assert.assertEquals("50", result.get(1).getState().toString());
+		Assert.assertEquals(OnOffType.ON, result.get(2).getState());
+		Assert.assertEquals(OnOffType.OFF, result.get(3).getState());
+	}
+
+	@Test
+	public void testFilter() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			series.append(START + i * 1000L, new DecimalType(i % 10));
+		}
+		Assert.assertEquals(10, series.query(START, START + HOUR, true, 0, Integer.MAX_VALUE, Operator.EQ, new DecimalType(3)).size());
+		Assert.assertEquals(20, series.query(START, START + HOUR, true, 0, Integer.MAX_VALUE, Operator.GTE, new DecimalType(8)).size());
+		Assert.assertEquals(0, series.query(START, START + HOUR, true, 0, Integer.MAX_VALUE, Operator.EQ, OnOffType.ON).size());
+		Assert.assertEquals(100, series.query(START, START + HOUR, true, 0, Integer.MAX_VALUE, Operator.NEQ, OnOffType.ON).size());
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		for (int i = 0; i < 1000; i++) {
+			series.append(START + i * 1000L, new DecimalType(i));
+		}
+		// timestamps must not go back in time
+		series.append(START, new DecimalType(1000));
+		series.close();
+
+		series = new ItemSeries("Temperature", folder, 24 * HOUR);
+		HistoricItem latest = series.getLatest();
+		Assert.assertEquals(new DecimalType(1000), latest.getState());
+		Assert.assertEquals(START + 999 * 1000L, latest.getTimestamp().getTime());
+		series.append(START + 1000 * 1000L, new DecimalType(1001));
+		Assert.assertEquals(1002, series.query(START, START + HOUR, true, 0, Integer.MAX_VALUE, Operator.EQ, null).size());
+	}
+
+	@Test
+	public void testRecoverUnsealedSegment() throws IOException {
+		for (int i = 0; i < 500; i++) {
+			series.append(START + i * 1000L, new DecimalType(i));
+		}
+		series.force();
+
+		// open the folder again without closing the series, as after a crash
+		ItemSeries recovered = new ItemSeries("Temperature", folder, 24 * HOUR);
+		List<HistoricItem> result = recovered.query(START, START + HOUR, false, 0, Integer.MAX_VALUE, Operator.EQ, null);
+		Assert.assertEquals(500, result.size());
+		Assert.assertEquals(new DecimalType(499), result.get(0).getState());
+		recovered.close();
+	}
+
+	@Test
+	public void testRecoverSegmentWithoutRecords() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			series.append(START + i * 1000L, new DecimalType(i));
+		}
+		series.append(START + 24 * HOUR, new DecimalType(10));
+		series.close();
+
+		// mark the last segment as unsealed and destroy its only record
+		File[] files = folder.listFiles();
+		Arrays.sort(files);
+		Assert.assertEquals(2, files.length);
+		RandomAccessFile raf = new RandomAccessFile(files[1], "rw");
+		try {
+			raf.seek(32);
+			raf.writeInt(0);
+			raf.seek(Segment.HEADER_SIZE);
+			for (int i = 0; i < 16; i++) {
+				raf.write(0xFF);
+			}
+		} finally {
+			raf.close();
+		}
+
+		series = new ItemSeries("Temperature", folder, 24 * HOUR);
+		Assert.assertFalse(files[1].exists());
+		HistoricItem latest = series.getLatest();
+		Assert.assertEquals(new DecimalType(9), latest.getState());
+		Assert.assertEquals(START + 9000L, latest.getTimestamp().getTime());
+	}
+
+	@Test
+	public void testInterruptedDownsampling() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			series.append(START + i * 1000L, new DecimalType(i));
+		}
+		series.append(START + 24 * HOUR, new DecimalType(10));
+		series.close();
+		File[] files = folder.listFiles();
+		Arrays.sort(files);
+		String baseName = files[0].getName().substring(0, files[0].getName().length() - 4);
+
+		// a copy next to its original is incomplete and has to be discarded
+		File copy = new File(folder, baseName + ".tmp");
+		FileUtils.copyFile(files[0], copy);
+		series = new ItemSeries("Temperature", folder, 24 * HOUR);
+		Assert.assertFalse(copy.exists());
+		Assert.assertEquals(11, series.query(Long.MIN_VALUE, Long.MAX_VALUE, true, 0, Integer.MAX_VALUE, Operator.EQ, null).size());
+		series.close();
+
+		// a copy whose original has already been deleted replaces it
+		Assert.assertTrue(files[0].renameTo(copy));
+		series = new ItemSeries("Temperature", folder, 24 * HOUR);
+		Assert.assertFalse(copy.exists());
+		Assert.assertTrue(files[0].exists());
+		Assert.assertEquals(11, series.query(Long.MIN_VALUE, Long.MAX_VALUE, true, 0, Integer.MAX_VALUE, Operator.EQ, null).size());
+	}
+
+	@Test
+	public void testCompact() throws IOException {
+		// 3 days with a value per minute
+		for (int i = 0; i < 3 * 24 * 60; i++) {
+			series.append(START + i * 60000L, new DecimalType(i % 2));
+		}
+		long now = START + 3 * 24 * HOUR;
+
+		// downsample everything older than a day to 10 minute averages
+		series.compact(now, 0, 24 * HOUR, 10 * 60000L);
+		List<HistoricItem> result = series.query(START, START + HOUR - 1, true, 0, Integer.MAX_VALUE, Operator.EQ, null);
+		Assert.assertEquals(6, result.size());
+		Assert.assertEquals(new DecimalType(0.5), result.get(0).getState());
+		Assert.assertEquals(60, series.query(now - HOUR, now, true, 0, Integer.MAX_VALUE, Operator.EQ, null).size());
+
+		// delete everything older than two days, which removes whole partitions only
+		series.compact(now, 2 * 24 * HOUR, 0, 0);
+		result = series.query(Long.MIN_VALUE, Long.MAX_VALUE, true, 0, 1, Operator.EQ, null);
+		long firstPartition = (START / (24 * HOUR) + 1) * 24 * HOUR;
+		Assert.assertEquals(firstPartition, result.get(0).getTimestamp().getTime());
+	}
+
+}
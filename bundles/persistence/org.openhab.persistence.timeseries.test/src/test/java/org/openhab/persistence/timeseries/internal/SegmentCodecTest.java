@@ -0,0 +1,103 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+/**
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class SegmentCodecTest {
+
+	@Test
+	public void testVarLong() {
+		long[] values = new long[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * SegmentCodec.MAX_VAR_LONG_SIZE);
+		for (long value : values) {
+			SegmentCodec.writeVarLong(buffer, value);
+		}
+		buffer.flip();
+		for (long value : values) {
+			Assert.assertEquals(value, SegmentCodec.readVarLong(buffer));
+		}
+		Assert.assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testVarLongSize() {
+		ByteBuffer buffer = ByteBuffer.allocate(SegmentCodec.MAX_VAR_LONG_SIZE);
+		SegmentCodec.writeVarLong(buffer, 127);
+		Assert.assertEquals(1, buffer.position());
+		buffer.clear();
+		SegmentCodec.writeVarLong(buffer, 60000);
+		Assert.assertEquals(3, buffer.position());
+		buffer.clear();
+		SegmentCodec.writeVarLong(buffer, -1);
+		Assert.assertEquals(SegmentCodec.MAX_VAR_LONG_SIZE, buffer.position());
+	}
+
+	@Test
+	public void testXor() {
+		double[] values = new double[] { 21.5, 21.5, 21.6, -3, 0, 1e100, Double.MIN_VALUE, 21.5 };
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * SegmentCodec.MAX_XOR_SIZE);
+		long previous = 0;
+		for (double value : values) {
+			long bits = Double.doubleToLongBits(value);
+			SegmentCodec.writeXor(buffer, bits ^ previous);
+			previous = bits;
+		}
+		buffer.flip();
+		previous = 0;
+		for (double value : values) {
+			previous ^= SegmentCodec.readXor(buffer);
+			Assert.assertEquals(value, Double.longBitsToDouble(previous));
+		}
+		Assert.assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testXorSize() {
+		ByteBuffer buffer = ByteBuffer.allocate(SegmentCodec.MAX_XOR_SIZE);
+		SegmentCodec.writeXor(buffer, 0);
+		Assert.assertEquals(1, buffer.position());
+		buffer.clear();
+		SegmentCodec.writeXor(buffer, Double.doubleToLongBits(21.0) ^ Double.doubleToLongBits(22.0));
+		Assert.assertEquals(2, buffer.position());
+		buffer.clear();
+		SegmentCodec.writeXor(buffer, 0x8000000000000001L);
+		Assert.assertEquals(SegmentCodec.MAX_XOR_SIZE, buffer.position());
+	}
+
+}
@@ -0,0 +1,237 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemRegistry;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.PersistenceRecord;
+import org.openhab.core.persistence.QueryablePersistenceService;
+
+
+/**
+ * Compares the ingest rate, query latency and disk usage of queryable persistence
+ * services. It is not run with the tests, as it takes a while and needs the other
+ * persistence bundles; start it with the bundles and their libraries on the classpath
+ * in an empty working directory, as the services create their databases in its
+ * "etc" folder:
+ * 
+ * <pre>
+ * java org.openhab.persistence.timeseries.internal.TimeSeriesBenchmark [items] [samples per item] [service classes]
+ * </pre>
+ * 
+ * Services implementing {@link BatchPersistenceService} receive samples 10 seconds
+ * apart, which end at the current time. All other services store the states of the
+ * items at the current time, so e.g. rrd4j only keeps one of them per second.
+ * Services which look up items get a registry holding the items of the benchmark.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TimeSeriesBenchmark {
+
+	private static final String[] DEFAULT_SERVICES = new String[] {
+		"org.openhab.persistence.timeseries.internal.TimeSeriesPersistenceService",
+		"org.openhab.persistence.db4o.internal.Db4oPersistenceService",
+		"org.openhab.persistence.rrd4j.internal.RRD4jService" };
+
+	private static final long INTERVAL = 10000L;
+	private static final long HOUR = 60L * 60L * 1000L;
+	private static final int BATCH_SIZE = 10000;
+	private static final int WARMUP = 5;
+	private static final int RUNS = 50;
+
+	public static void main(String[] args) throws Exception {
+		int items = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int samples = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		List<String> services = args.length > 2 ? 
+				Arrays.asList(args).subList(2, args.length) : Arrays.asList(DEFAULT_SERVICES);
+
+		System.out.println(items + " items with " + samples + " samples each");
+		for (String className : services) {
+			QueryablePersistenceService service;
+			try {
+				service = (QueryablePersistenceService) Class.forName(className).newInstance();
+			} catch (ClassNotFoundException e) {
+				System.out.println(className + " is not on the classpath");
+				continue;
+			}
+			run(service, items, samples);
+		}
+		System.exit(0);
+	}
+
+	private static void run(QueryablePersistenceService service, int items, int samples) throws Exception {
+		// the distribution ships a database folder per service, which some services expect
+		new File("etc", service.getName()).mkdirs();
+		long sizeBefore = size(new File("etc"));
+		NumberItem[] numberItems = new NumberItem[items];
+		for (int i = 0; i < items; i++) {
+			numberItems[i] = new NumberItem("Bench" + i);
+		}
+		try {
+			service.getClass().getMethod("setItemRegistry", ItemRegistry.class).invoke(service, createItemRegistry(numberItems));
+		} catch (NoSuchMethodException e) {
+			// the service does not look up items
+		}
+		invoke(service, "activate");
+
+		long now = System.currentTimeMillis();
+		long start = System.nanoTime();
+		if (service instanceof BatchPersistenceService) {
+			List<PersistenceRecord> records = new ArrayList<PersistenceRecord>(BATCH_SIZE);
+			for (int s = 0; s < samples; s++) {
+				Date timestamp = new Date(now - (samples - s) * INTERVAL);
+				for (NumberItem item : numberItems) {
+					records.add(new PersistenceRecord(item, null, new DecimalType(20 + (s % 100) / 10.0), timestamp));
+					if (records.size() == BATCH_SIZE) {
+						((BatchPersistenceService) service).store(records);
+						records.clear();
+					}
+				}
+			}
+			((BatchPersistenceService) service).store(records);
+		} else {
+			for (int s = 0; s < samples; s++) {
+				for (NumberItem item : numberItems) {
+					item.setState(new DecimalType(20 + (s % 100) / 10.0));
+					service.store(item);
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%-10s ingest: %,.0f samples/s%s", service.getName(), 
+				items * samples / seconds, service instanceof BatchPersistenceService ? "" : " (not in batches)"));
+
+		// the state of an item a day ago, as used by historicState()
+		FilterCriteria historicState = new FilterCriteria().setItemName("Bench0")
+			.setEndDate(new Date(now - 24 * HOUR)).setOrdering(Ordering.DESCENDING).setPageSize(1);
+		measure(service, "historicState", historicState);
+
+		// the states of an item during one hour two days ago
+		FilterCriteria hour = new FilterCriteria().setItemName("Bench0").setOrdering(Ordering.ASCENDING)
+			.setBeginDate(new Date(now - 49 * HOUR)).setEndDate(new Date(now - 48 * HOUR));
+		measure(service, "one hour", hour);
+
+		// the states of an item during the last day, as used by charts
+		FilterCriteria day = new FilterCriteria().setItemName("Bench0").setOrdering(Ordering.ASCENDING)
+			.setBeginDate(new Date(now - 24 * HOUR)).setEndDate(new Date(now));
+		measure(service, "one day", day);
+
+		// the states of an item during the last hour, which also holds the samples of
+		// services which cannot store samples in the past
+		FilterCriteria lastHour = new FilterCriteria().setItemName("Bench0").setOrdering(Ordering.ASCENDING)
+			.setBeginDate(new Date(now - HOUR)).setEndDate(new Date(now));
+		measure(service, "last hour", lastHour);
+
+		invoke(service, "deactivate");
+		System.out.println(String.format("%-10s disk usage: %,d KB", service.getName(), (size(new File("etc")) - sizeBefore) / 1024));
+	}
+
+	private static void measure(QueryablePersistenceService service, String name, FilterCriteria filter) {
+		long[] durations = new long[RUNS];
+		int results = 0;
+		for (int run = -WARMUP; run < RUNS; run++) {
+			long start = System.nanoTime();
+			results = 0;
+			for (Iterator<?> it = service.query(filter).iterator(); it.hasNext(); it.next()) {
+				results++;
+			}
+			if (run >= 0) {
+				durations[run] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(durations);
+		System.out.println(String.format("%-10s %-14s median %,10.3f ms (%d results)", 
+				service.getName(), name, durations[RUNS / 2] / 1e6, results));
+	}
+
+	private static void invoke(Object service, String methodName) throws Exception {
+		try {
+			Method method = service.getClass().getMethod(methodName);
+			method.invoke(service);
+		} catch (NoSuchMethodException e) {
+			// the service does not need to be activated
+		}
+	}
+
+	private static ItemRegistry createItemRegistry(Item[] items) {
+		final Map<String, Item> itemMap = new HashMap<String, Item>();
+		for (Item item : items) {
+			itemMap.put(item.getName(), item);
+		}
+		return (ItemRegistry) Proxy.newProxyInstance(ItemRegistry.class.getClassLoader(), 
+				new Class<?>[] { ItemRegistry.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getItem") || method.getName().equals("getItemByPattern")) {
+					Item item = itemMap.get(args[0]);
+					if (item == null) {
+						throw new ItemNotFoundException((String) args[0]);
+					}
+					return item;
+				} else if (method.getName().equals("getItems")) {
+					return itemMap.values();
+				}
+				return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+			}
+		});
+	}
+
+	private static long size(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				size += size(child);
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,566 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openhab.core.persistence.FilterCriteria.Operator;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The history of a single item, stored as a sequence of {@link Segment}s in a folder 
+ * of its own. Segments are ordered by time and do not overlap, so that range queries 
+ * find their first segment by binary search and then only read the blocks which
+ * fall into the requested range.
+ * 
+ * <p>Only the most recent segment is appended to. A new segment is started whenever 
+ * a new partition of time begins, the type of the state changes or the current segment
+ * is full.</p>
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class ItemSeries {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemSeries.class);
+
+	private static final String SEGMENT_EXTENSION = ".seg";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private final String name;
+	private final File folder;
+	private long partition;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private Segment active;
+	private long sequence;
+
+	private long latestTimestamp = Long.MIN_VALUE;
+	private State latestState;
+
+	/**
+	 * Opens the history of an item, creating its folder if needed
+	 * 
+	 * @param name the name of the item
+	 * @param folder the folder holding the segments of the item
+	 * @param partition the time span covered by a segment in milliseconds
+	 * @throws IOException if the folder cannot be created
+	 */
+	public ItemSeries(String name, File folder, long partition) throws IOException {
+		this.name = name;
+		this.folder = folder;
+		this.partition = partition;
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("cannot create folder '" + folder + "'");
+		}
+		open();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setPartition(long partition) {
+		this.partition = partition;
+	}
+
+	/**
+	 * Appends a state. Timestamps before the latest stored timestamp are moved to 
+	 * the latest timestamp, as segments are append-only.
+	 * 
+	 * @param timestamp the timestamp of the state
+	 * @param state the state
+	 * @return <code>false</code>, if the type of the state is not supported
+	 * @throws IOException if the state cannot be written
+	 */
+	public boolean append(long timestamp, State state) throws IOException {
+		byte kind = StateCodec.getKind(state);
+		if (kind == StateCodec.KIND_UNSUPPORTED) {
+			return false;
+		}
+		long value = StateCodec.encode(state);
+		String stateClass = state.getClass().getName();
+		lock.writeLock().lock();
+		try {
+			if (timestamp < latestTimestamp) {
+				timestamp = latestTimestamp;
+			}
+			if (active == null || active.getKind() != kind || !active.getStateClass().equals(stateClass)
+					|| timestamp / partition != active.getFirstTimestamp() / partition
+					|| !active.append(timestamp, value)) {
+				startSegment(kind, stateClass, timestamp);
+				active.append(timestamp, value);
+			}
+			latestTimestamp = timestamp;
+			latestState = state;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the latest stored state or <code>null</code>, if there is none
+	 */
+	public HistoricItem getLatest() {
+		lock.readLock().lock();
+		try {
+			return latestState == null ? null : new TimeSeriesItem(name, latestState, new Date(latestTimestamp));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Queries the stored states within a time range
+	 * 
+	 * @param begin the first timestamp to include
+	 * @param end the last timestamp to include
+	 * @param ascending <code>true</code> to return the oldest states first
+	 * @param skip the number of matching states to skip
+	 * @param limit the maximum number of states to return
+	 * @param operator the operator to compare the states with, if a state is given
+	 * @param state the state to compare with or <code>null</code> to return all states
+	 * @return the matching states
+	 * @throws IOException if a segment cannot be read
+	 */
+	public List<HistoricItem> query(long begin, long end, boolean ascending, int skip, int limit,
+			Operator operator, State state) throws IOException {
+		List<HistoricItem> result = new ArrayList<HistoricItem>();
+		if (begin > end || limit <= 0) {
+			return result;
+		}
+		Filter filter = state == null ? null : new Filter(operator, state);
+		long[] timestamps = new long[Segment.BLOCK_SIZE];
+		long[] values = new long[Segment.BLOCK_SIZE];
+		lock.readLock().lock();
+		try {
+			if (ascending) {
+				for (int s = findFirstSegment(begin); s < segments.size(); s++) {
+					Segment segment = segments.get(s);
+					if (segment.getFirstTimestamp() > end) {
+						break;
+					}
+					boolean compare = filter != null && filter.isComparable(segment);
+					if (filter != null && !compare && filter.operator != Operator.NEQ) {
+						continue;
+					}
+					Segment.Reader reader = segment.openReader();
+					try {
+						for (int b = segment.findFirstBlock(begin); b < segment.getBlockCount()
+								&& segment.getBlockTimestamp(b) <= end; b++) {
+							int records = reader.readBlock(b, timestamps, values);
+							for (int i = 0; i < records; i++) {
+								if (timestamps[i] < begin) {
+									continue;
+								}
+								if (timestamps[i] > end) {
+									break;
+								}
+								if (!compare || filter.matches(values[i])) {
+									if (skip > 0) {
+										skip--;
+									} else if (add(result, segment, timestamps[i], values[i]) >= limit) {
+										return result;
+									}
+								}
+							}
+						}
+					} finally {
+						reader.close();
+					}
+				}
+			} else {
+				for (int s = findLastSegment(end); s >= 0; s--) {
+					Segment segment = segments.get(s);
+					if (segment.getLastTimestamp() < begin) {
+						break;
+					}
+					boolean compare = filter != null && filter.isComparable(segment);
+					if (filter != null && !compare && filter.operator != Operator.NEQ) {
+						continue;
+					}
+					Segment.Reader reader = segment.openReader();
+					try {
+						for (int b = segment.findLastBlock(end); b >= 0; b--) {
+							int records = reader.readBlock(b, timestamps, values);
+							for (int i = records - 1; i >= 0; i--) {
+								if (timestamps[i] > end) {
+									continue;
+								}
+								if (timestamps[i] < begin) {
+									break;
+								}
+								if (!compare || filter.matches(values[i])) {
+									if (skip > 0) {
+										skip--;
+									} else if (add(result, segment, timestamps[i], values[i]) >= limit) {
+										return result;
+									}
+								}
+							}
+							if (segment.getBlockTimestamp(b) < begin) {
+								break;
+							}
+						}
+					} finally {
+						reader.close();
+					}
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes pending changes of the active segment to disk
+	 */
+	public void force() {
+		lock.readLock().lock();
+		try {
+			if (active != null) {
+				active.force();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Compacts the history: segments older than the retention time are deleted, 
+	 * segments older than the downsampling age are replaced by a downsampled copy.
+	 * Decimal values are averaged per interval, of enum values only the changes are
+	 * kept. The lock is only held for one segment at a time, so that writers are
+	 * not blocked for long.
+	 * 
+	 * @param now the current time
+	 * @param retention the time to keep states for in milliseconds or 0 to keep them forever
+	 * @param downsampleAfter the age after which states are downsampled in milliseconds
+	 * or 0 to never downsample them
+	 * @param interval the interval to average decimal values over in milliseconds
+	 */
+	public void compact(long now, long retention, long downsampleAfter, long interval) {
+		List<Segment> candidates;
+		lock.writeLock().lock();
+		try {
+			// seal the active segment as soon as its partition is over, so that it does
+			// not keep its mapping while the item is not updated
+			if (active != null && now / partition != active.getFirstTimestamp() / partition) {
+				sealActive();
+			}
+			candidates = new ArrayList<Segment>(segments);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (Segment segment : candidates) {
+			if (!segment.isSealed()) {
+				continue;
+			}
+			lock.writeLock().lock();
+			try {
+				if (!segments.contains(segment)) {
+					continue;
+				}
+				if (retention > 0 && segment.getLastTimestamp() < now - retention) {
+					logger.debug("Deleting segment '{}' which is older than the retention time.", segment.getFile());
+					if (segment.getFile().delete()) {
+						segments.remove(segment);
+					}
+				} else if (downsampleAfter > 0 && interval > 0 && !segment.isDownsampled() 
+						&& segment.getLastTimestamp() < now - downsampleAfter) {
+					Segment downsampled = downsample(segment, interval);
+					if (downsampled != null) {
+						segments.set(segments.indexOf(segment), downsampled);
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Could not compact segment '{}': {}", segment.getFile(), e.getMessage());
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Seals the active segment
+	 */
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			sealActive();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void open() throws IOException {
+		File[] temporary = folder.listFiles(new ExtensionFilter(TEMP_EXTENSION));
+		for (File file : temporary) {
+			String baseName = file.getName().substring(0, file.getName().length() - TEMP_EXTENSION.length());
+			File original = new File(folder, baseName + SEGMENT_EXTENSION);
+			if (original.exists()) {
+				// left behind by an interrupted compaction, the original is still in place
+				file.delete();
+			} else if (!file.renameTo(original)) {
+				// the original has already been deleted, so the copy is complete
+				logger.warn("Could not restore segment '{}' from its downsampled copy.", original);
+			}
+		}
+		File[] files = folder.listFiles(new ExtensionFilter(SEGMENT_EXTENSION));
+		Arrays.sort(files);
+		for (File file : files) {
+			String sequenceName = file.getName().substring(0, file.getName().length() - SEGMENT_EXTENSION.length());
+			try {
+				sequence = Math.max(sequence, Long.parseLong(sequenceName));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			try {
+				Segment segment = Segment.open(file);
+				if (segment != null) {
+					segments.add(segment);
+				}
+			} catch (IOException e) {
+				logger.warn("Skipping segment '{}': {}", file, e.getMessage());
+			}
+		}
+		// the latest state is taken from the last segment which contains any records
+		for (int s = segments.size() - 1; s >= 0 && latestTimestamp == Long.MIN_VALUE; s--) {
+			Segment last = segments.get(s);
+			if (last.getBlockCount() == 0) {
+				continue;
+			}
+			Segment.Reader reader = last.openReader();
+			try {
+				long[] timestamps = new long[Segment.BLOCK_SIZE];
+				long[] values = new long[Segment.BLOCK_SIZE];
+				int records = reader.readBlock(last.getBlockCount() - 1, timestamps, values);
+				if (records > 0) {
+					latestTimestamp = timestamps[records - 1];
+					latestState = StateCodec.decode(last.getKind(), last.getStateClass(), values[records - 1]);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private void startSegment(byte kind, String stateClass, long timestamp) throws IOException {
+		sealActive();
+		File file = new File(folder, String.format("%010d", ++sequence) + SEGMENT_EXTENSION);
+		active = Segment.create(file, kind, stateClass, timestamp);
+		segments.add(active);
+	}
+
+	private void sealActive() {
+		if (active != null) {
+			try {
+				active.seal();
+			} catch (IOException e) {
+				logger.warn("Could not seal segment '{}': {}", active.getFile(), e.getMessage());
+			}
+			active = null;
+		}
+	}
+
+	private Segment downsample(Segment segment, long interval) throws IOException {
+		File original = segment.getFile();
+		String baseName = original.getName().substring(0, original.getName().length() - SEGMENT_EXTENSION.length());
+		File temporary = new File(folder, baseName + TEMP_EXTENSION);
+		Segment target = Segment.create(temporary, segment.getKind(), segment.getStateClass(), segment.getFirstTimestamp());
+		boolean complete = true;
+		Segment.Reader reader = segment.openReader();
+		try {
+			long[] timestamps = new long[Segment.BLOCK_SIZE];
+			long[] values = new long[Segment.BLOCK_SIZE];
+			long bucket = Long.MIN_VALUE;
+			double sum = 0;
+			int samples = 0;
+			long previous = 0;
+			for (int b = 0; b < segment.getBlockCount() && complete; b++) {
+				int records = reader.readBlock(b, timestamps, values);
+				for (int i = 0; i < records && complete; i++) {
+					if (segment.getKind() == Segment.KIND_DECIMAL) {
+						long current = timestamps[i] / interval;
+						if (current != bucket && samples > 0) {
+							complete = appendAverage(target, segment, bucket * interval, sum, samples);
+							sum = 0;
+							samples = 0;
+						}
+						bucket = current;
+						sum += StateCodec.toDouble(values[i]);
+						samples++;
+					} else if (target.getCount() == 0 || values[i] != previous) {
+						complete = target.append(timestamps[i], values[i]);
+						previous = values[i];
+					}
+				}
+			}
+			if (complete && samples > 0) {
+				complete = appendAverage(target, segment, bucket * interval, sum, samples);
+			}
+			target.setDownsampled();
+			target.seal();
+		} finally {
+			reader.close();
+			if (!target.isSealed()) {
+				target.seal();
+			}
+		}
+		if (!complete) {
+			logger.debug("Downsampled segment '{}' does not fit into a segment, keeping the original.", original);
+			temporary.delete();
+			return null;
+		}
+		logger.debug("Downsampled segment '{}' from {} to {} records.", 
+				new Object[] { original, segment.getCount(), target.getCount() });
+		// renaming over the original is atomic on POSIX systems; where the original has to
+		// be deleted first, an interrupted replacement is completed by open()
+		if (!temporary.renameTo(original) && !(original.delete() && temporary.renameTo(original))) {
+			throw new IOException("cannot replace '" + original + "' by its downsampled copy");
+		}
+		return Segment.open(original);
+	}
+
+	private static boolean appendAverage(Segment target, Segment source, long timestamp, double sum, int samples) throws IOException {
+		return target.append(Math.max(timestamp, source.getFirstTimestamp()), Double.doubleToLongBits(sum / samples));
+	}
+
+	private int add(List<HistoricItem> result, Segment segment, long timestamp, long value) {
+		State state = StateCodec.decode(segment.getKind(), segment.getStateClass(), value);
+		if (state != null) {
+			result.add(new TimeSeriesItem(name, state, new Date(timestamp)));
+		}
+		return result.size();
+	}
+
+	/* returns the first segment which ends at or after the timestamp */
+	private int findFirstSegment(long timestamp) {
+		int low = 0;
+		int high = segments.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (segments.get(middle).getLastTimestamp() < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/* returns the last segment which starts at or before the timestamp or -1 */
+	private int findLastSegment(long timestamp) {
+		int low = 0;
+		int high = segments.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (segments.get(middle).getFirstTimestamp() <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Compares stored values with the state of a {@link org.openhab.core.persistence.FilterCriteria}.
+	 * Decimal values are compared numerically, enum values by their ordinal; values of
+	 * a different kind or enum type are only matched by {@link Operator#NEQ}.
+	 */
+	private static class Filter {
+
+		private final Operator operator;
+		private final byte kind;
+		private final String stateClass;
+		private final long value;
+
+		Filter(Operator operator, State state) {
+			this.operator = operator;
+			this.kind = StateCodec.getKind(state);
+			this.stateClass = state.getClass().getName();
+			this.value = kind == StateCodec.KIND_UNSUPPORTED ? 0 : StateCodec.encode(state);
+		}
+
+		boolean isComparable(Segment segment) {
+			return segment.getKind() == kind 
+					&& (kind == Segment.KIND_DECIMAL || segment.getStateClass().equals(stateClass));
+		}
+
+		boolean matches(long stored) {
+			int comparison;
+			if (kind == Segment.KIND_DECIMAL) {
+				comparison = Double.compare(StateCodec.toDouble(stored), StateCodec.toDouble(value));
+			} else {
+				comparison = stored < value ? -1 : (stored == value ? 0 : 1);
+			}
+			switch (operator) {
+				case EQ : return comparison == 0;
+				case NEQ : return comparison != 0;
+				case GT : return comparison > 0;
+				case LT : return comparison < 0;
+				case GTE : return comparison >= 0;
+				case LTE : return comparison <= 0;
+				default : return false;
+			}
+		}
+
+	}
+
+	private static class ExtensionFilter implements FilenameFilter {
+
+		private final String extension;
+
+		ExtensionFilter(String extension) {
+			this.extension = extension;
+		}
+
+		public boolean accept(File dir, String name) {
+			return name.endsWith(extension);
+		}
+
+	}
+
+}
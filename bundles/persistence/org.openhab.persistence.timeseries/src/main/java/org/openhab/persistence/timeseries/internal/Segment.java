@@ -0,0 +1,561 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A segment holds the values of a single item for a single partition of time in a
+ * file of its own. Records are only ever appended; each consists of the timestamp
+ * as delta to the previous timestamp and either the XOR compressed bits of a decimal 
+ * value or the ordinal of an enum value (see {@link SegmentCodec}).
+ * 
+ * <p>Records are grouped in blocks of {@link #BLOCK_SIZE} records. Every block starts
+ * from the base timestamp and a zero value, so that each block can be decoded on its
+ * own. The first timestamp and the file offset of every block are kept in memory and,
+ * once the segment is sealed, written behind the data, so that range queries only
+ * decode the blocks they need.
+ * 
+ * <p>The active segment is memory mapped and grows by doubling its mapping up to
+ * {@link #MAX_SIZE}. Sealed segments are immutable and read with positional reads,
+ * so that a long history does not hold any mappings or file handles.
+ * 
+ * <p>Segments are not thread-safe; access is guarded by {@link ItemSeries}.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class Segment {
+
+	private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+
+	/** segments holding decimal values */
+	public static final byte KIND_DECIMAL = 0;
+
+	/** segments holding enum ordinals */
+	public static final byte KIND_ENUM = 1;
+
+	/** the number of records per block */
+	public static final int BLOCK_SIZE = 128;
+
+	/** the maximum size of a segment file */
+	public static final int MAX_SIZE = 16 * 1024 * 1024;
+
+	static final int INITIAL_SIZE = 64 * 1024;
+
+	static final int HEADER_SIZE = 128;
+
+	private static final int MAGIC = 0x4F485453;
+	private static final byte VERSION = 1;
+	private static final int MAX_RECORD_SIZE = SegmentCodec.MAX_VAR_LONG_SIZE + SegmentCodec.MAX_XOR_SIZE;
+	private static final int MAX_NAME_SIZE = HEADER_SIZE - 38;
+
+	private static final int POS_KIND = 5;
+	private static final int POS_FLAGS = 6;
+	private static final int POS_BASE = 8;
+	private static final int POS_LAST = 16;
+	private static final int POS_END = 24;
+	private static final int POS_COUNT = 28;
+	private static final int POS_INDEX = 32;
+	private static final int POS_NAME = 36;
+
+	private static final short FLAG_DOWNSAMPLED = 1;
+
+	private final File file;
+	private final byte kind;
+	private final String stateClass;
+	private final long base;
+	private boolean downsampled;
+
+	private long lastTimestamp;
+	private int count;
+	private int end;
+
+	private long[] blockTimestamps = new long[16];
+	private int[] blockOffsets = new int[16];
+	private int blocks;
+
+	/* the state of the active segment */
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private long previousTimestamp;
+	private long previousValue;
+	private boolean dirty;
+
+	private Segment(File file, byte kind, String stateClass, long base) {
+		this.file = file;
+		this.kind = kind;
+		this.stateClass = stateClass;
+		this.base = base;
+	}
+
+	/**
+	 * Creates a new, active segment
+	 * 
+	 * @param file the file of the segment, which must not exist yet
+	 * @param kind either {@link #KIND_DECIMAL} or {@link #KIND_ENUM}
+	 * @param stateClass the name of the class of the states stored in the segment
+	 * @param base the timestamp of the first record
+	 * @return the segment
+	 * @throws IOException if the file cannot be created
+	 */
+	public static Segment create(File file, byte kind, String stateClass, long base) throws IOException {
+		byte[] name = stateClass.getBytes("UTF-8");
+		if (name.length > MAX_NAME_SIZE) {
+			throw new IllegalArgumentException("state class name '" + stateClass + "' is too long");
+		}
+		Segment segment = new Segment(file, kind, stateClass, base);
+		segment.raf = new RandomAccessFile(file, "rw");
+		try {
+			segment.buffer = segment.raf.getChannel().map(MapMode.READ_WRITE, 0, INITIAL_SIZE);
+		} catch (IOException e) {
+			segment.raf.close();
+			file.delete();
+			throw e;
+		}
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.put(4, VERSION);
+		segment.buffer.put(POS_KIND, kind);
+		segment.buffer.putShort(POS_FLAGS, (short) 0);
+		segment.buffer.putLong(POS_BASE, base);
+		segment.buffer.putShort(POS_NAME, (short) name.length);
+		for (int i = 0; i < name.length; i++) {
+			segment.buffer.put(POS_NAME + 2 + i, name[i]);
+		}
+		segment.lastTimestamp = base;
+		segment.end = HEADER_SIZE;
+		segment.writeCounters();
+		return segment;
+	}
+
+	/**
+	 * Opens an existing segment. A segment which has not been sealed, e.g. because the
+	 * process has been killed, is sealed now, so that all opened segments are immutable.
+	 * 
+	 * @param file the file of the segment
+	 * @return the segment or <code>null</code>, if it does not contain any records
+	 * @throws IOException if the file cannot be read or is not a segment file
+	 */
+	public static Segment open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		Segment segment;
+		int indexOffset;
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+				throw new IOException("'" + file + "' is not a valid segment file");
+			}
+			byte[] name = new byte[header.getShort(POS_NAME)];
+			for (int i = 0; i < name.length; i++) {
+				name[i] = header.get(POS_NAME + 2 + i);
+			}
+			segment = new Segment(file, header.get(POS_KIND), new String(name, "UTF-8"), header.getLong(POS_BASE));
+			segment.downsampled = (header.getShort(POS_FLAGS) & FLAG_DOWNSAMPLED) != 0;
+			segment.lastTimestamp = header.getLong(POS_LAST);
+			segment.end = header.getInt(POS_END);
+			segment.count = header.getInt(POS_COUNT);
+			indexOffset = header.getInt(POS_INDEX);
+			if (segment.count == 0) {
+				raf.close();
+				file.delete();
+				return null;
+			}
+			if (indexOffset > 0) {
+				ByteBuffer index = ByteBuffer.allocate(4);
+				readFully(channel, index, indexOffset);
+				int blocks = index.getInt(0);
+				index = ByteBuffer.allocate(blocks * 12);
+				readFully(channel, index, indexOffset + 4);
+				segment.ensureBlockCapacity(blocks);
+				for (int i = 0; i < blocks; i++) {
+					segment.blockTimestamps[i] = index.getLong();
+					segment.blockOffsets[i] = index.getInt();
+				}
+				segment.blocks = blocks;
+			} else {
+				logger.debug("Recovering segment '{}' which has not been sealed.", file);
+				segment.raf = raf;
+				segment.buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+				segment.rebuildIndex();
+				segment.seal();
+				if (segment.count == 0) {
+					logger.debug("Deleting segment '{}' which does not contain any records.", file);
+					file.delete();
+					return null;
+				}
+			}
+		} finally {
+			if (raf.getChannel().isOpen()) {
+				raf.close();
+			}
+		}
+		return segment;
+	}
+
+	/**
+	 * Appends a record to this segment
+	 * 
+	 * @param timestamp the timestamp of the record, which must not be before the
+	 * timestamp of the last record
+	 * @param value the bits of a decimal value or the ordinal of an enum value
+	 * @return <code>false</code> if the segment is full
+	 * @throws IOException if the segment cannot be grown
+	 */
+	public boolean append(long timestamp, long value) throws IOException {
+		if (buffer == null) {
+			throw new IllegalStateException("segment '" + file + "' has been sealed");
+		}
+		if (timestamp < lastTimestamp) {
+			throw new IllegalArgumentException("timestamp " + timestamp + " is before " + lastTimestamp);
+		}
+		if (end + MAX_RECORD_SIZE > buffer.capacity()) {
+			if (buffer.capacity() >= MAX_SIZE) {
+				return false;
+			}
+			int position = buffer.position();
+			buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, Math.min(MAX_SIZE, buffer.capacity() * 2));
+			buffer.position(position);
+		}
+		if (count % BLOCK_SIZE == 0) {
+			ensureBlockCapacity(blocks + 1);
+			blockTimestamps[blocks] = timestamp;
+			blockOffsets[blocks] = end;
+			blocks++;
+			previousTimestamp = base;
+			previousValue = 0;
+		}
+		buffer.position(end);
+		SegmentCodec.writeVarLong(buffer, timestamp - previousTimestamp);
+		if (kind == KIND_DECIMAL) {
+			SegmentCodec.writeXor(buffer, value ^ previousValue);
+		} else {
+			SegmentCodec.writeVarLong(buffer, value);
+		}
+		end = buffer.position();
+		count++;
+		lastTimestamp = previousTimestamp = timestamp;
+		previousValue = value;
+		writeCounters();
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * Writes pending changes of the active segment to disk
+	 */
+	public void force() {
+		if (buffer != null && dirty) {
+			dirty = false;
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Seals this segment: the block index is written behind the data, the file is
+	 * truncated and its mapping is released. The segment cannot be appended to afterwards.
+	 * 
+	 * @throws IOException if the index cannot be written
+	 */
+	public void seal() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			ByteBuffer index = ByteBuffer.allocate(4 + blocks * 12);
+			index.putInt(blocks);
+			for (int i = 0; i < blocks; i++) {
+				index.putLong(blockTimestamps[i]);
+				index.putInt(blockOffsets[i]);
+			}
+			index.flip();
+			FileChannel channel = raf.getChannel();
+			while (index.hasRemaining()) {
+				channel.write(index, end + index.position());
+			}
+			channel.force(false);
+			buffer.putInt(POS_INDEX, end);
+			buffer.force();
+			try {
+				channel.truncate(end + index.limit());
+			} catch (IOException e) {
+				// some platforms do not allow to truncate mapped files; the unused 
+				// space behind the index does not do any harm, though
+				logger.debug("Could not truncate segment '{}': {}", file, e.getMessage());
+			}
+		} finally {
+			buffer = null;
+			raf.close();
+			raf = null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code>, if this segment cannot be appended to anymore
+	 */
+	public boolean isSealed() {
+		return buffer == null;
+	}
+
+	/**
+	 * Marks this segment as the result of downsampling. This must be called before
+	 * the segment is sealed.
+	 */
+	public void setDownsampled() {
+		downsampled = true;
+		buffer.putShort(POS_FLAGS, FLAG_DOWNSAMPLED);
+	}
+
+	public boolean isDownsampled() {
+		return downsampled;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public byte getKind() {
+		return kind;
+	}
+
+	public String getStateClass() {
+		return stateClass;
+	}
+
+	public long getFirstTimestamp() {
+		return base;
+	}
+
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getBlockCount() {
+		return blocks;
+	}
+
+	public long getBlockTimestamp(int block) {
+		return blockTimestamps[block];
+	}
+
+	/**
+	 * Finds the first block which may contain records at or after a timestamp by 
+	 * binary search over the block index
+	 * 
+	 * @param timestamp the timestamp to look for
+	 * @return the index of the last block starting before the timestamp or 0
+	 */
+	public int findFirstBlock(long timestamp) {
+		return Math.max(0, search(timestamp) - 1);
+	}
+
+	/**
+	 * Finds the last block which may contain records at or before a timestamp by 
+	 * binary search over the block index
+	 * 
+	 * @param timestamp the timestamp to look for
+	 * @return the index of the last block starting at or before the timestamp or -1
+	 */
+	public int findLastBlock(long timestamp) {
+		return timestamp == Long.MAX_VALUE ? blocks - 1 : search(timestamp + 1) - 1;
+	}
+
+	/* returns the index of the first block starting at or after the timestamp */
+	private int search(long timestamp) {
+		int low = 0;
+		int high = blocks;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (blockTimestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Opens a reader on this segment, which must be closed after use
+	 * 
+	 * @return the reader
+	 * @throws IOException if the file cannot be opened
+	 */
+	public Reader openReader() throws IOException {
+		return new Reader();
+	}
+
+	private void writeCounters() {
+		buffer.putLong(POS_LAST, lastTimestamp);
+		buffer.putInt(POS_END, end);
+		buffer.putInt(POS_COUNT, count);
+	}
+
+	private void ensureBlockCapacity(int capacity) {
+		if (capacity > blockTimestamps.length) {
+			int length = Math.max(capacity, blockTimestamps.length * 2);
+			blockTimestamps = Arrays.copyOf(blockTimestamps, length);
+			blockOffsets = Arrays.copyOf(blockOffsets, length);
+		}
+	}
+
+	private void rebuildIndex() {
+		ByteBuffer data = buffer.duplicate();
+		data.position(HEADER_SIZE);
+		data.limit(Math.min(end, data.capacity()));
+		int records = 0;
+		long timestamp = base;
+		try {
+			while (records < count && data.hasRemaining()) {
+				int offset = data.position();
+				if (records % BLOCK_SIZE == 0) {
+					timestamp = base;
+				}
+				timestamp += SegmentCodec.readVarLong(data);
+				if (kind == KIND_DECIMAL) {
+					SegmentCodec.readXor(data);
+				} else {
+					SegmentCodec.readVarLong(data);
+				}
+				if (records % BLOCK_SIZE == 0) {
+					ensureBlockCapacity(blocks + 1);
+					blockTimestamps[blocks] = timestamp;
+					blockOffsets[blocks] = offset;
+					blocks++;
+				}
+				lastTimestamp = timestamp;
+				end = data.position();
+				records++;
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Segment '{}' is corrupt, keeping the first {} records.", file, records);
+		}
+		count = records;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("unexpected end of file");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Decodes the blocks of a segment. The active segment is read from its mapping,
+	 * sealed segments through a file channel which is opened for the lifetime of
+	 * the reader.
+	 */
+	public class Reader {
+
+		private final ByteBuffer mapped;
+		private RandomAccessFile file;
+		private ByteBuffer blockBuffer;
+
+		private Reader() throws IOException {
+			if (buffer != null) {
+				mapped = buffer.duplicate();
+			} else {
+				mapped = null;
+				file = new RandomAccessFile(Segment.this.file, "r");
+			}
+		}
+
+		/**
+		 * Decodes a block of records
+		 * 
+		 * @param block the index of the block
+		 * @param timestamps the array to receive the timestamps of the records
+		 * @param values the array to receive the values of the records
+		 * @return the number of records in the block
+		 * @throws IOException if the block cannot be read
+		 */
+		public int readBlock(int block, long[] timestamps, long[] values) throws IOException {
+			int from = blockOffsets[block];
+			int to = block + 1 < blocks ? blockOffsets[block + 1] : end;
+			int records = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+			ByteBuffer data;
+			if (mapped != null) {
+				mapped.limit(to).position(from);
+				data = mapped;
+			} else {
+				if (blockBuffer == null || blockBuffer.capacity() < to - from) {
+					blockBuffer = ByteBuffer.allocate(Math.max(to - from, BLOCK_SIZE * MAX_RECORD_SIZE));
+				}
+				blockBuffer.clear();
+				blockBuffer.limit(to - from);
+				readFully(file.getChannel(), blockBuffer, from);
+				data = blockBuffer;
+			}
+			long timestamp = base;
+			long value = 0;
+			for (int i = 0; i < records; i++) {
+				timestamp += SegmentCodec.readVarLong(data);
+				if (kind == KIND_DECIMAL) {
+					value ^= SegmentCodec.readXor(data);
+				} else {
+					value = SegmentCodec.readVarLong(data);
+				}
+				timestamps[i] = timestamp;
+				values[i] = value;
+			}
+			return records;
+		}
+
+		public void close() {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					logger.debug("Could not close segment '{}': {}", Segment.this.file, e.getMessage());
+				}
+				file = null;
+			}
+		}
+
+	}
+
+}
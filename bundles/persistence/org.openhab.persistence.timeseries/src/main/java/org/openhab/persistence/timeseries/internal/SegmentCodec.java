@@ -0,0 +1,125 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Encodes the values of a {@link Segment}. Numbers are written as variable length
+ * integers, which take one byte per seven bits. Decimal values are written as the
+ * XOR of their bits with the bits of the previous value, of which only the bytes
+ * between the leading and trailing zero bytes are stored. Repeated values therefore
+ * take a single byte, slowly changing values usually three to five bytes.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public final class SegmentCodec {
+
+	/** the maximum number of bytes of a variable length integer */
+	public static final int MAX_VAR_LONG_SIZE = 10;
+
+	/** the maximum number of bytes of an encoded XOR value */
+	public static final int MAX_XOR_SIZE = 9;
+
+	private SegmentCodec() {
+	}
+
+	/**
+	 * Writes a non-negative number as a variable length integer
+	 * 
+	 * @param buffer the buffer to write to
+	 * @param value the number to write
+	 */
+	public static void writeVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads a variable length integer
+	 * 
+	 * @param buffer the buffer to read from
+	 * @return the number
+	 */
+	public static long readVarLong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Writes the XOR of two values. The first byte holds the number of leading zero bytes
+	 * in its upper and the number of trailing zero bytes in its lower four bits, the 
+	 * remaining bytes follow.
+	 * 
+	 * @param buffer the buffer to write to
+	 * @param xor the XOR of the bits of the value and the bits of the previous value
+	 */
+	public static void writeXor(ByteBuffer buffer, long xor) {
+		if (xor == 0) {
+			buffer.put((byte) 0x80);
+			return;
+		}
+		int leading = Long.numberOfLeadingZeros(xor) / 8;
+		int trailing = Long.numberOfTrailingZeros(xor) / 8;
+		buffer.put((byte) (leading << 4 | trailing));
+		for (int i = leading; i < 8 - trailing; i++) {
+			buffer.put((byte) (xor >>> (56 - 8 * i)));
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #writeXor(ByteBuffer, long)}
+	 * 
+	 * @param buffer the buffer to read from
+	 * @return the XOR of the bits of the value and the bits of the previous value
+	 */
+	public static long readXor(ByteBuffer buffer) {
+		int control = buffer.get() & 0xFF;
+		int leading = control >>> 4;
+		int trailing = control & 0x0F;
+		long xor = 0;
+		for (int i = leading; i < 8 - trailing; i++) {
+			xor |= (long) (buffer.get() & 0xFF) << (56 - 8 * i);
+		}
+		return xor;
+	}
+
+}
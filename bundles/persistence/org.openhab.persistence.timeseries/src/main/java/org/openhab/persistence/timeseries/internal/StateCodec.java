@@ -0,0 +1,154 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.types.ComplexType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Maps states to the values stored in {@link Segment}s and back. Decimal states
+ * are stored as the bits of their double value, enum states (like ON/OFF) as their
+ * ordinal. The class of the state is stored once per segment, so that e.g. a
+ * {@link org.openhab.core.library.types.PercentType} is restored as such.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public final class StateCodec {
+
+	private static final Logger logger = LoggerFactory.getLogger(StateCodec.class);
+
+	/** the kind of states which cannot be stored */
+	public static final byte KIND_UNSUPPORTED = -1;
+
+	private static final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+	private StateCodec() {
+	}
+
+	/**
+	 * Determines how a state is stored
+	 * 
+	 * @param state the state
+	 * @return {@link Segment#KIND_DECIMAL}, {@link Segment#KIND_ENUM} or 
+	 * {@link #KIND_UNSUPPORTED}
+	 */
+	public static byte getKind(State state) {
+		if (state instanceof DecimalType && !(state instanceof ComplexType)) {
+			return Segment.KIND_DECIMAL;
+		}
+		if (state instanceof Enum && !(state instanceof UnDefType)) {
+			return Segment.KIND_ENUM;
+		}
+		return KIND_UNSUPPORTED;
+	}
+
+	/**
+	 * Encodes a state, which must be of a supported kind
+	 * 
+	 * @param state the state
+	 * @return the bits of the double value of a decimal state or the ordinal of an enum state
+	 */
+	public static long encode(State state) {
+		if (state instanceof DecimalType) {
+			return Double.doubleToLongBits(((DecimalType) state).toBigDecimal().doubleValue());
+		}
+		return ((Enum<?>) state).ordinal();
+	}
+
+	/**
+	 * Decodes a value of a segment
+	 * 
+	 * @param kind the kind of the segment
+	 * @param stateClass the class name of the states of the segment
+	 * @param value the encoded value
+	 * @return the state or <code>null</code>, if it cannot be restored
+	 */
+	public static State decode(byte kind, String stateClass, long value) {
+		Class<?> clazz = loadClass(stateClass);
+		if (kind == Segment.KIND_DECIMAL) {
+			double number = Double.longBitsToDouble(value);
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				return null;
+			}
+			// trailing zeros are stripped, so that integral values are restored without a fraction
+			BigDecimal decimal = BigDecimal.valueOf(number).stripTrailingZeros();
+			if (clazz != null && clazz != DecimalType.class) {
+				try {
+					Constructor<?> constructor = clazz.getConstructor(BigDecimal.class);
+					return (State) constructor.newInstance(decimal);
+				} catch (Exception e) {
+					logger.debug("Cannot create state of type '{}': {}", stateClass, e.getMessage());
+				}
+			}
+			return new DecimalType(decimal);
+		}
+		if (clazz != null && clazz.isEnum()) {
+			Object[] constants = clazz.getEnumConstants();
+			if (value >= 0 && value < constants.length) {
+				return (State) constants[(int) value];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a decoded decimal value to a double
+	 * 
+	 * @param value the bits of the double value
+	 * @return the double value
+	 */
+	public static double toDouble(long value) {
+		return Double.longBitsToDouble(value);
+	}
+
+	private static Class<?> loadClass(String name) {
+		Class<?> clazz = classes.get(name);
+		if (clazz == null) {
+			try {
+				clazz = Class.forName(name);
+				classes.put(name, clazz);
+			} catch (ClassNotFoundException e) {
+				logger.debug("Cannot load state type '{}'", name);
+			}
+		}
+		return clazz;
+	}
+
+}
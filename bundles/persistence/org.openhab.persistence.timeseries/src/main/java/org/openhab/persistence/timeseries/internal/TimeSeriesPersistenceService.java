@@ -0,0 +1,347 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.timeseries.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openhab.core.items.Item;
+import org.openhab.core.persistence.BatchPersistenceService;
+import org.openhab.core.persistence.BatchQueryablePersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceRecord;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This is the implementation of the time-series {@link PersistenceService}. It keeps
+ * the full resolution history of numeric and enum states (like ON/OFF or OPEN/CLOSED)
+ * in compact, append-only segment files per item, which are partitioned by time
+ * (see {@link ItemSeries} and {@link Segment}). Other states are not persisted.
+ * <p>
+ * A background job writes the active segments to disk every few seconds and hourly 
+ * deletes the segments older than the retention time and downsamples old segments.
+ * 
+ * @author Kai Kreuzer
+ * @since 1.4.0
+ */
+public class TimeSeriesPersistenceService implements BatchQueryablePersistenceService, BatchPersistenceService, ManagedService {
+
+	private static final Logger logger = LoggerFactory.getLogger(TimeSeriesPersistenceService.class);
+
+	protected final static String DB_FOLDER = "etc/timeseries";
+
+	private static final long HOUR = 60L * 60L * 1000L;
+	private static final long DAY = 24L * HOUR;
+
+	/** the interval in seconds in which the active segments are written to disk */
+	private static final int FORCE_INTERVAL = 10;
+
+	/** the interval in minutes in which old segments are compacted */
+	private static final int COMPACTION_INTERVAL = 60;
+
+	private final ConcurrentMap<String, ItemSeries> series = new ConcurrentHashMap<String, ItemSeries>();
+
+	private File folder = new File(DB_FOLDER);
+
+	private long partition = 24 * HOUR;
+	private long retention = 0;
+	private long downsampleAfter = 0;
+	private long downsampleInterval = 5L * 60L * 1000L;
+
+	private ScheduledExecutorService scheduler;
+
+	public void activate() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TimeSeries Maintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				for (ItemSeries itemSeries : series.values()) {
+					itemSeries.force();
+				}
+			}
+		}, FORCE_INTERVAL, FORCE_INTERVAL, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				compact();
+			}
+		}, 1, COMPACTION_INTERVAL, TimeUnit.MINUTES);
+	}
+
+	public void deactivate() {
+		scheduler.shutdownNow();
+		for (ItemSeries itemSeries : series.values()) {
+			itemSeries.close();
+		}
+		series.clear();
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getName() {
+		return "timeseries";
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item, String alias) {
+		String name = alias==null ? item.getName() : alias;
+		store(name, System.currentTimeMillis(), item.getState());
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Collection<PersistenceRecord> records) {
+		for (PersistenceRecord record : records) {
+			store(record.getName(), record.getTimestamp().getTime(), record.getState());
+		}
+	}
+
+	private void store(String name, long timestamp, State state) {
+		if (state == null) {
+			return;
+		}
+		try {
+			ItemSeries itemSeries = getSeries(name, true);
+			if (!itemSeries.append(timestamp, state)) {
+				logger.debug("State '{}' of item '{}' cannot be stored in a time series.", state, name);
+			}
+		} catch (IOException e) {
+			logger.error("Could not store state of item '{}': {}", name, e.getMessage());
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		long begin = filter.getBeginDate() == null ? Long.MIN_VALUE : filter.getBeginDate().getTime();
+		long end = filter.getEndDate() == null ? Long.MAX_VALUE : filter.getEndDate().getTime();
+		boolean ascending = filter.getOrdering() == Ordering.ASCENDING;
+		int skip = (int) Math.min(Integer.MAX_VALUE, (long) filter.getPageNumber() * filter.getPageSize());
+		int limit = filter.getPageSize();
+
+		try {
+			if (filter.getItemName() != null) {
+				ItemSeries itemSeries = getSeries(filter.getItemName(), false);
+				if (itemSeries == null) {
+					return Collections.emptyList();
+				}
+				return itemSeries.query(begin, end, ascending, skip, limit, filter.getOperator(), filter.getState());
+			}
+
+			// without an item name, the first matching states of every item are merged
+			int total = (int) Math.min(Integer.MAX_VALUE, (long) skip + limit);
+			List<HistoricItem> results = new ArrayList<HistoricItem>();
+			for (String name : getItemNames()) {
+				ItemSeries itemSeries = getSeries(name, false);
+				if (itemSeries != null) {
+					results.addAll(itemSeries.query(begin, end, ascending, 0, total, filter.getOperator(), filter.getState()));
+				}
+			}
+			Collections.sort(results, new TimestampComparator(ascending));
+			if (skip >= results.size()) {
+				return Collections.emptyList();
+			}
+			return results.subList(skip, Math.min(results.size(), total));
+		} catch (IOException e) {
+			logger.error("Could not query time series: {}", e.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> results = new HashMap<String, HistoricItem>();
+		for (String name : itemNames) {
+			try {
+				ItemSeries itemSeries = getSeries(name, false);
+				HistoricItem latest = itemSeries == null ? null : itemSeries.getLatest();
+				if (latest != null) {
+					results.put(name, latest);
+				}
+			} catch (IOException e) {
+				logger.error("Could not query latest state of item '{}': {}", name, e.getMessage());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the series of an item, which is opened on first access
+	 * 
+	 * @param name the name of the item
+	 * @param create <code>true</code> to create the series if it does not exist yet
+	 * @return the series or <code>null</code>, if it does not exist and should not be created
+	 * @throws IOException if the series cannot be opened
+	 */
+	private ItemSeries getSeries(String name, boolean create) throws IOException {
+		ItemSeries itemSeries = series.get(name);
+		if (itemSeries == null) {
+			File itemFolder = new File(folder, name);
+			if (!create && !itemFolder.isDirectory()) {
+				return null;
+			}
+			synchronized (series) {
+				itemSeries = series.get(name);
+				if (itemSeries == null) {
+					itemSeries = new ItemSeries(name, itemFolder, partition);
+					series.put(name, itemSeries);
+				}
+			}
+		}
+		return itemSeries;
+	}
+
+	private List<String> getItemNames() {
+		List<String> names = new ArrayList<String>();
+		File[] folders = folder.listFiles();
+		if (folders != null) {
+			for (File itemFolder : folders) {
+				if (itemFolder.isDirectory()) {
+					names.add(itemFolder.getName());
+				}
+			}
+		}
+		return names;
+	}
+
+	private void compact() {
+		long now = System.currentTimeMillis();
+		for (String name : getItemNames()) {
+			try {
+				ItemSeries itemSeries = getSeries(name, false);
+				if (itemSeries != null) {
+					itemSeries.compact(now, retention, downsampleAfter, downsampleInterval);
+				}
+			} catch (IOException e) {
+				logger.warn("Could not compact time series of item '{}': {}", name, e.getMessage());
+			} catch (RuntimeException e) {
+				logger.warn("Could not compact time series of item '" + name + "'", e);
+			}
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		if (config != null) {
+			long partitionHours = parseNumber(config, "partition", 24);
+			if (partitionHours <= 0) {
+				throw new ConfigurationException("timeseries:partition", "The partition must span at least one hour");
+			}
+			partition = partitionHours * HOUR;
+			for (ItemSeries itemSeries : series.values()) {
+				itemSeries.setPartition(partition);
+			}
+			retention = parseNumber(config, "retention", 0) * DAY;
+			downsampleAfter = parseNumber(config, "downsampleafter", 0) * DAY;
+			downsampleInterval = parseNumber(config, "downsampleinterval", 300) * 1000L;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static long parseNumber(Dictionary config, String key, long defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			long number = Long.parseLong(value.trim());
+			if (number < 0) {
+				throw new ConfigurationException("timeseries:" + key, "The value '" + value + "' must not be negative");
+			}
+			return number;
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("timeseries:" + key, "The value '" + value + "' is not a valid number");
+		}
+	}
+
+	/**
+	 * Orders historic items by their timestamp
+	 */
+	private static class TimestampComparator implements Comparator<HistoricItem> {
+
+		private final boolean ascending;
+
+		TimestampComparator(boolean ascending) {
+			this.ascending = ascending;
+		}
+
+		public int compare(HistoricItem first, HistoricItem second) {
+			Date firstTimestamp = first.getTimestamp();
+			int comparison = firstTimestamp.compareTo(second.getTimestamp());
+			return ascending ? comparison : -comparison;
+		}
+
+	}
+
+}
@@ -29,16 +29,23 @@
 package org.openhab.ui.webapp.internal.servlet;
 
 import java.io.IOException;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import org.eclipse.emf.common.util.EList;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
@@ -59,6 +66,10 @@ import org.slf4j.LoggerFactory;
  * This is the main servlet for the WebApp UI. 
  * It serves the Html code based on the sitemap model.
  * 
+ * Polling requests are suspended as Jetty continuations until a state on the page
+ * changes, so that they do not occupy a thread while waiting. All clients which are
+ * polling the same page share a single subscription to the items of this page.
+ * 
  * @author Kai Kreuzer
  *
  */
@@ -77,6 +88,9 @@ public class WebAppServlet extends BaseServlet {
 	private PageRenderer renderer;
 	protected SitemapProvider sitemapProvider;
 	
+	// the subscriptions to state changes of all pages which have been polled so far, keyed by sitemap and widget id
+	private final ConcurrentMap<String, PageSubscription> subscriptions = new ConcurrentHashMap<String, PageSubscription>();
+	
 	
 	public void setSitemapProvider(SitemapProvider sitemapProvider) {
 		this.sitemapProvider = sitemapProvider;
@@ -138,9 +152,8 @@ public class WebAppServlet extends BaseServlet {
 				// we are at the homepage, so we render the children of the sitemap root node
 				String label = sitemap.getLabel()!=null ? sitemap.getLabel() : sitemapName;
 				EList<Widget> children = sitemap.getChildren();
-				if(poll && waitForChanges(children)==false) {
-					// we have reached the timeout, so we do not return any content as nothing has changed
-					res.getWriter().append(getTimeoutResponse()).close();
+				if(poll && waitForChanges(req, res, sitemapName + "/Home", children)==false) {
+					// the request is either suspended or has timed out, so we do not return any content
 					return;
 				}
 				result.append(renderer.processPage("Home", sitemapName, label, sitemap.getChildren(), async));
@@ -154,9 +167,8 @@ public class WebAppServlet extends BaseServlet {
 						throw new RenderException("Widget '" + w + "' can not have any content");
 					}
 					EList<Widget> children = renderer.getItemUIRegistry().getChildren((LinkableWidget) w);
-					if(poll && waitForChanges(children)==false) {
-						// we have reached the timeout, so we do not return any content as nothing has changed
-						res.getWriter().append(getTimeoutResponse()).close();
+					if(poll && waitForChanges(req, res, sitemapName + "/" + widgetId, children)==false) {
+						// the request is either suspended or has timed out, so we do not return any content
 						return;
 					}
 					result.append(renderer.processPage(renderer.getItemUIRegistry().getWidgetId(w), sitemapName, label, children, async));
@@ -184,32 +196,40 @@ public class WebAppServlet extends BaseServlet {
 	}
 
 	/**
-	 * This method only returns when a change has occurred to any item on the page to display
+	 * Suspends a polling request until a change has occurred to any item on the page to display.
+	 * When the request is dispatched again after a change, this method returns true so that the
+	 * page is rendered. If the request has timed out, the timeout response is written.
 	 * 
+	 * @param req the polling request
+	 * @param res the response to the polling request
+	 * @param pageKey the key which identifies the page
 	 * @param widgets the widgets of the page to observe
+	 * @return true, if a change has occurred, false if the request has been suspended or has timed out
+	 * @throws IOException if the timeout response cannot be written
 	 */
-	private boolean waitForChanges(EList<Widget> widgets) {
-		long startTime = (new Date()).getTime();
-		boolean timeout = false;
-		BlockingStateChangeListener listener = new BlockingStateChangeListener();
-		// let's get all items for these widgets
-		Set<GenericItem> items = getAllItems(widgets);
-		for(GenericItem item : items) {			
-			item.addStateChangeListener(listener);
+	private boolean waitForChanges(ServletRequest req, ServletResponse res, String pageKey, EList<Widget> widgets) throws IOException {
+		Continuation continuation = ContinuationSupport.getContinuation(req);
+		if(continuation.isExpired()) {
+			// we have reached the timeout, so we do not return any content as nothing has changed
+			res.getWriter().append(getTimeoutResponse()).close();
+			return false;
 		}
-		while(!listener.hasChangeOccurred() && !timeout) {
-			timeout = (new Date()).getTime() - startTime > TIMEOUT_IN_MS;
-			try {
-				Thread.sleep(300);
-			} catch (InterruptedException e) {
-				timeout = true;
-				break;
-			}
+		if(continuation.isResumed()) {
+			return true;
 		}
-		for(GenericItem item : items) {
-			item.removeStateChangeListener(listener);
+		
+		PageSubscription subscription = subscriptions.get(pageKey);
+		if(subscription==null) {
+			subscription = new PageSubscription();
+			PageSubscription existing = subscriptions.putIfAbsent(pageKey, subscription);
+			if(existing!=null) {
+				subscription = existing;
+			}
 		}
-		return !timeout;
+		continuation.setTimeout(TIMEOUT_IN_MS);
+		continuation.suspend();
+		subscription.addWaiter(continuation, getAllItems(widgets));
+		return false;
 	}
 
 	/**
@@ -244,30 +264,76 @@ public class WebAppServlet extends BaseServlet {
 	}
 
 	/**
-	 * This is a state change listener, which is merely used to determine, if a state
-	 * change has occurred on one of a list of items.
+	 * This is a subscription to the state changes of the items of a page. It holds the
+	 * suspended polling requests of all clients which display this page and resumes them
+	 * all when a state changes. It is only registered at the items while requests are waiting.
 	 * 
 	 * @author Kai Kreuzer
+	 * @since 1.4.0
 	 *
 	 */
-	private static class BlockingStateChangeListener implements StateChangeListener {
+	private static class PageSubscription implements StateChangeListener {
 		
-		private boolean changed = false;
+		private final Set<Continuation> waiters = new HashSet<Continuation>();
+		private Set<GenericItem> items = Collections.emptySet();
+		
+		private final ContinuationListener continuationListener = new ContinuationListener() {
+			public void onComplete(Continuation continuation) {
+				removeWaiter(continuation);
+			}
+			public void onTimeout(Continuation continuation) {
+				removeWaiter(continuation);
+			}
+		};
 		
 		/**
-		 * {@inheritDoc}
+		 * Adds a suspended request, which is resumed on the next state change.
+		 * 
+		 * @param continuation the continuation of the suspended request
+		 * @param pageItems the items which are currently shown on the page
 		 */
-		public void stateChanged(Item item, State oldState, State newState) {
-			changed = true;
+		public synchronized void addWaiter(Continuation continuation, Set<GenericItem> pageItems) {
+			if(waiters.isEmpty()) {
+				// we are not registered yet, so we take the current items of the page
+				items = pageItems;
+				for(GenericItem item : items) {
+					item.addStateChangeListener(this, true);
+				}
+			}
+			waiters.add(continuation);
+			continuation.addContinuationListener(continuationListener);
 		}
 
+		private synchronized void removeWaiter(Continuation continuation) {
+			if(waiters.remove(continuation) && waiters.isEmpty()) {
+				unregister();
+			}
+		}
+		
+		private void unregister() {
+			for(GenericItem item : items) {
+				item.removeStateChangeListener(this);
+			}
+			items = Collections.emptySet();
+		}
+		
 		/**
-		 * determines, whether a state change has occurred since its creation
-		 * 
-		 * @return true, if a state has changed
+		 * {@inheritDoc}
 		 */
-		public boolean hasChangeOccurred() {
-			return changed;
+		public void stateChanged(Item item, State oldState, State newState) {
+			List<Continuation> continuations;
+			synchronized(this) {
+				continuations = new ArrayList<Continuation>(waiters);
+				waiters.clear();
+				unregister();
+			}
+			for(Continuation continuation : continuations) {
+				try {
+					continuation.resume();
+				} catch(IllegalStateException e) {
+					// the request has already timed out or completed
+				}
+			}
 		}
 
 		/**
@@ -1,6 +1,7 @@
 package org.openhab.ui.internal.proxy;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Hashtable;
 
@@ -16,6 +17,7 @@ import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.io.IOUtils;
+import org.openhab.io.net.http.HttpUtil;
 import org.openhab.io.net.http.SecureHttpContext;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.sitemap.Image;
@@ -151,7 +153,8 @@ public class ProxyServlet extends HttpServlet {
 			throw new ServletException("Sitemap '" + sitemapName + "' could not be found!");
 		}
 
-		HttpClient httpClient = new HttpClient();
+		// the client uses the shared connection pool, so that connections to the same host are reused
+		HttpClient httpClient = HttpUtil.createHttpClient();
 
 		try {
 			// check if the uri uses credentials and configure the http client accordingly
@@ -169,15 +172,30 @@ public class ProxyServlet extends HttpServlet {
 		
 		// do the client request
 		GetMethod method = new GetMethod(uriString);
-		httpClient.executeMethod(method);
-		
-		// copy all headers
-		for(Header header : method.getResponseHeaders()) {
-			response.setHeader(header.getName(), header.getValue());
+		boolean complete = false;
+		try {
+			HttpUtil.executeMethod(httpClient, method);
+			
+			// copy all headers
+			for(Header header : method.getResponseHeaders()) {
+				response.setHeader(header.getName(), header.getValue());
+			}
+			
+			// now copy/stream the body content
+			InputStream body = method.getResponseBodyAsStream();
+			if(body!=null) {
+				IOUtils.copy(body, response.getOutputStream());
+			}
+			complete = true;
+		} finally {
+			if(!complete) {
+				// the client has gone away or the request failed; releasing the connection would
+				// read the rest of the response, which never ends for video streams, so the 
+				// connection is closed first
+				method.abort();
+			}
+			// return the connection to the pool
+			method.releaseConnection();
 		}
-		
-		// now copy/stream the body content
-		IOUtils.copy(method.getResponseBodyAsStream(), response.getOutputStream());
-		method.releaseConnection();
 	}
 }